@@ -0,0 +1,319 @@
+package com.group16.app;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Leases the jobs of a {@link BuildScheduler} to {@link BuildAgent}s, which
+ * build them on other hosts. The coordinator keeps everything that belongs to
+ * the server: the queue, the log that {@link LogHandler} serves, the commit
+ * statuses on GitHub and the {@link BuildHistory}. Agents stream the log of a
+ * job back with their heartbeats, and end the lease with the record of the
+ * job.
+ *
+ * A lease expires when its agent sends no heartbeat for CI_AGENT_LEASE_MS.
+ * The job is then queued again, at the head of the queue of its repository,
+ * unless it was superseded in the meantime or it already lost
+ * CI_AGENT_MAX_ATTEMPTS agents, in which case it ends with an ERROR status.
+ *
+ * The coordinator is also the {@link AgentLink} of agents in the same process.
+ *
+ * Settings (in .env or the environment):
+ * CI_AGENT_LEASE_MS: how long a lease lasts without a heartbeat (default 30000)
+ * CI_AGENT_MAX_ATTEMPTS: how many agents may lose a job (default 3)
+ */
+public class AgentCoordinator implements AgentLink, AutoCloseable {
+    // The longest a lease request waits for a job, below the idle timeout of
+    // the HTTP connections
+    static final long MAX_WAIT_MILLIS = 20_000;
+
+    private static final Metrics.Counter LEASES = Metrics.getDefault().counter(
+            "ci_agent_leases_total", "The jobs leased to build agents");
+    private static final Metrics.Counter EXPIRED = Metrics.getDefault().counter(
+            "ci_agent_leases_expired_total", "The leases of build agents that stopped responding");
+
+    private final BuildScheduler scheduler;
+    private final Path logRoot;
+    private final long maxLogBytes;
+    private final long leaseMillis;
+    private final int maxAttempts;
+    private final ScheduledExecutorService reaper;
+
+    // The held leases by ID, and the jobs on agents or queued again by job
+    // ID, guarded by this
+    private final Map<String, Lease> leases = new HashMap<>();
+    private final Map<String, RemoteJob> jobs = new HashMap<>();
+
+    // A job that was leased at least once. Its log stays open until the job
+    // ends, whichever agent builds it.
+    private static final class RemoteJob {
+        final BuildJob job;
+        final BuildLog log;
+        int attempts;
+
+        RemoteJob(BuildJob job, BuildLog log) {
+            this.job = job;
+            this.log = log;
+        }
+    }
+
+    private static final class Lease {
+        final String id = UUID.randomUUID().toString();
+        final RemoteJob remote;
+        final String agent;
+        long expiresAt;
+
+        Lease(RemoteJob remote, String agent) {
+            this.remote = remote;
+            this.agent = agent;
+        }
+    }
+
+    /**
+     * Creates a coordinator with the settings from the environment, which
+     * writes the logs of the jobs in {@link BuildLog#root()}.
+     *
+     * @param scheduler The scheduler whose jobs are leased
+     */
+    public AgentCoordinator(BuildScheduler scheduler) {
+        this(scheduler, BuildLog.root(), Config.getLong("CI_LOG_MAX_MB", 50) * 1024 * 1024,
+                Config.getLong("CI_AGENT_LEASE_MS", 30_000), Config.getInt("CI_AGENT_MAX_ATTEMPTS", 3));
+    }
+
+    /**
+     * @param scheduler   The scheduler whose jobs are leased
+     * @param logRoot     The directory of the logs of the jobs
+     * @param maxLogBytes The maximum size of the log of a job
+     * @param leaseMillis How long a lease lasts without a heartbeat
+     * @param maxAttempts How many agents may lose a job before it ends
+     */
+    AgentCoordinator(BuildScheduler scheduler, Path logRoot, long maxLogBytes, long leaseMillis,
+            int maxAttempts) {
+        if (leaseMillis < 1 || maxAttempts < 1) {
+            throw new IllegalArgumentException("The lease and attempts of agents must be positive");
+        }
+        this.scheduler = scheduler;
+        this.logRoot = logRoot;
+        this.maxLogBytes = maxLogBytes;
+        this.leaseMillis = leaseMillis;
+        this.maxAttempts = maxAttempts;
+        reaper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ci-agent-reaper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(1, Math.min(1000, leaseMillis / 4));
+        reaper.scheduleWithFixedDelay(this::expire, period, period, TimeUnit.MILLISECONDS);
+        Metrics.getDefault().gauge("ci_agent_leases", "The jobs currently leased to build agents",
+                () -> leases());
+    }
+
+    @Override
+    public Assignment lease(String agent, long waitMillis) throws IOException {
+        BuildJob job;
+        try {
+            job = scheduler.lease(Math.min(waitMillis, MAX_WAIT_MILLIS));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        if (job == null) {
+            return null;
+        }
+
+        RemoteJob remote;
+        synchronized (this) {
+            remote = jobs.get(job.getId());
+        }
+        if (remote == null) {
+            try {
+                remote = new RemoteJob(job, BuildLog.create(logRoot, job.getId(), maxLogBytes));
+            } catch (IOException e) {
+                System.err.println("Error creating the log of job " + job.getId() + ": " + e.getMessage());
+                job.abort("The build log could not be created");
+                scheduler.complete(job);
+                return null;
+            }
+        }
+        Lease lease = new Lease(remote, agent);
+        synchronized (this) {
+            remote.attempts++;
+            lease.expiresAt = System.currentTimeMillis() + leaseMillis;
+            leases.put(lease.id, lease);
+            jobs.put(job.getId(), remote);
+        }
+        LEASES.increment();
+        remote.log.println("Leased to build agent " + agent
+                + (remote.attempts > 1 ? " (attempt " + remote.attempts + ")" : ""));
+        System.out.println("Job " + job.getId() + " leased to build agent " + agent);
+        return new Assignment(lease.id, leaseMillis, job.getId(), job.getOwner(), job.getRepo(), job.getBranch(),
+                job.getCommitSha(), job.getRepoURL(), job.getServerURL(), job.isForceRebuild(), job.enqueuedAt,
+                job.startedAt);
+    }
+
+    @Override
+    public Heartbeat heartbeat(String leaseId, String log) {
+        Lease lease = extend(leaseId);
+        if (lease == null) {
+            return new Heartbeat(false, null);
+        }
+        append(lease.remote.log, log);
+        return new Heartbeat(true, lease.remote.job.getSupersededBy());
+    }
+
+    @Override
+    public boolean status(String leaseId, Status status, String description, String context) {
+        Lease lease = extend(leaseId);
+        if (lease == null) {
+            return false;
+        }
+        lease.remote.job.sendStatus(status, description, context);
+        return true;
+    }
+
+    @Override
+    public boolean finish(String leaseId, BuildRecord record) {
+        Lease lease;
+        synchronized (this) {
+            lease = leases.remove(leaseId);
+            if (lease == null) {
+                return false;
+            }
+            jobs.remove(lease.remote.job.getId());
+        }
+        BuildJob job = lease.remote.job;
+        System.out.println("Job " + job.getId() + " finished on build agent " + lease.agent + ": "
+                + record.status());
+        Metrics.getDefault().counter("ci_jobs_total", "The finished CI jobs", "status",
+                record.status().toString().toLowerCase()).increment();
+        // Completed before the record is saved, so that whoever sees the
+        // record also sees the job gone from the scheduler
+        lease.remote.log.close();
+        scheduler.complete(job);
+        job.save(record);
+        return true;
+    }
+
+    // Extends a held lease, or returns null if it is not held
+    private synchronized Lease extend(String leaseId) {
+        Lease lease = leases.get(leaseId);
+        if (lease != null) {
+            lease.expiresAt = System.currentTimeMillis() + leaseMillis;
+        }
+        return lease;
+    }
+
+    // Appends complete lines sent by an agent to the log of a job
+    private static void append(BuildLog log, String lines) {
+        int start = 0;
+        for (int end = lines.indexOf('\n'); end >= 0; end = lines.indexOf('\n', start)) {
+            log.println(lines.substring(start, end));
+            start = end + 1;
+        }
+    }
+
+    /**
+     * Ends the leases whose agents stopped sending heartbeats, and queues
+     * their jobs again. Closes the logs of jobs that were queued again and
+     * then dropped from the queue for a newer commit, since the scheduler
+     * never gives them back. Runs periodically on the reaper thread.
+     */
+    void expire() {
+        List<Lease> expired = new ArrayList<>();
+        List<RemoteJob> dropped = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            for (Iterator<Lease> it = leases.values().iterator(); it.hasNext();) {
+                Lease lease = it.next();
+                if (lease.expiresAt < now) {
+                    it.remove();
+                    expired.add(lease);
+                }
+            }
+            // A job queued again is not started until it is leased again,
+            // and a superseded one never will be
+            for (Iterator<RemoteJob> it = jobs.values().iterator(); it.hasNext();) {
+                RemoteJob remote = it.next();
+                if (remote.job.startedAt == 0 && remote.job.isSuperseded()) {
+                    it.remove();
+                    dropped.add(remote);
+                }
+            }
+        }
+        for (RemoteJob remote : dropped) {
+            remote.log.println("Build skipped, superseded by " + remote.job.getSupersededBy());
+            remote.log.close();
+        }
+        for (Lease lease : expired) {
+            EXPIRED.increment();
+            RemoteJob remote = lease.remote;
+            BuildJob job = remote.job;
+            System.err.println("Build agent " + lease.agent + " stopped responding while building job "
+                    + job.getId());
+            remote.log.println("Build agent " + lease.agent + " stopped responding");
+            if (remote.attempts >= maxAttempts && !job.isSuperseded()) {
+                end(remote, "Build agents stopped responding " + remote.attempts + " times");
+                continue;
+            }
+            // Logged first, since another agent may lease the job right away
+            if (!job.isSuperseded()) {
+                remote.log.println("Queued again");
+            }
+            if (!scheduler.requeue(job)) {
+                end(remote, job.isSuperseded() ? "Build skipped, superseded by " + job.getSupersededBy()
+                        : "Build skipped, the server is shutting down");
+            }
+        }
+    }
+
+    // Ends a job that no agent finished
+    private void end(RemoteJob remote, String description) {
+        synchronized (this) {
+            jobs.remove(remote.job.getId());
+        }
+        remote.log.println(description);
+        remote.log.close();
+        scheduler.complete(remote.job);
+        remote.job.abort(description);
+    }
+
+    /**
+     * @return The number of held leases
+     */
+    public synchronized int leases() {
+        return leases.size();
+    }
+
+    /**
+     * @return The held leases, one per line, as the lease ID, the job ID, the
+     *         agent and the milliseconds until the lease expires
+     */
+    public String stats() {
+        StringBuilder stats = new StringBuilder();
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            for (Lease lease : leases.values()) {
+                stats.append(lease.id).append(' ').append(lease.remote.job.getId()).append(' ')
+                        .append(lease.agent).append(' ').append(lease.expiresAt - now).append('\n');
+            }
+        }
+        return stats.toString();
+    }
+
+    /**
+     * Stops expiring leases.
+     */
+    @Override
+    public void close() {
+        reaper.shutdownNow();
+    }
+}
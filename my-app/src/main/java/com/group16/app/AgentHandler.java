@@ -0,0 +1,146 @@
+package com.group16.app;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Handler for the API that {@link BuildAgent}s use through an
+ * {@link HttpAgentLink}, in front of an {@link AgentCoordinator}. Every
+ * request carries the shared secret CI_AGENT_TOKEN as a bearer token, since
+ * agents set commit statuses on GitHub through the coordinator.
+ * POST /agents/lease {agent, wait_ms}: the next job, or 204 after waiting
+ * POST /agents/heartbeat {lease, log}: {superseded_by}
+ * POST /agents/status {lease, status, description, context}
+ * POST /agents/finish {lease, record}
+ * GET /agents: the held leases
+ * The calls on a lease that is no longer held are answered with 410.
+ * Other requests are left to the next handler.
+ */
+public class AgentHandler extends AbstractHandler {
+    // A heartbeat carries at most this much of a log, see HttpAgentLink
+    static final int MAX_BODY_BYTES = 4 * 1024 * 1024;
+
+    private final AgentCoordinator coordinator;
+    private final byte[] token;
+
+    /**
+     * @param coordinator The coordinator to serve
+     * @param token       The secret that agents must send
+     */
+    public AgentHandler(AgentCoordinator coordinator, String token) {
+        if (token == null || token.isEmpty()) {
+            throw new IllegalArgumentException("Build agents need a token");
+        }
+        this.coordinator = coordinator;
+        this.token = ("Bearer " + token).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void handle(String target,
+                       Request baseRequest,
+                       HttpServletRequest request,
+                       HttpServletResponse response)
+        throws IOException, ServletException {
+        if (!(target.equals("/agents") || target.startsWith("/agents/"))) {
+            return;
+        }
+        baseRequest.setHandled(true);
+        String authorization = request.getHeader("Authorization");
+        if (authorization == null
+                || !MessageDigest.isEqual(token, authorization.getBytes(StandardCharsets.UTF_8))) {
+            response.sendError(HttpServletResponse.SC_UNAUTHORIZED);
+            return;
+        }
+        if (target.equals("/agents")) {
+            if (!request.getMethod().equals("GET")) {
+                response.sendError(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
+                return;
+            }
+            response.setContentType("text/plain;charset=utf-8");
+            response.getWriter().print(coordinator.stats());
+            return;
+        }
+        if (!request.getMethod().equals("POST")) {
+            response.sendError(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
+            return;
+        }
+
+        byte[] body = request.getInputStream().readNBytes(MAX_BODY_BYTES + 1);
+        if (body.length > MAX_BODY_BYTES) {
+            response.sendError(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
+            return;
+        }
+        JSONObject answer;
+        boolean held;
+        try {
+            JSONObject call = new JSONObject(new String(body, StandardCharsets.UTF_8));
+            switch (target) {
+                case "/agents/lease" -> {
+                    AgentLink.Assignment assignment = coordinator.lease(call.getString("agent"),
+                            call.optLong("wait_ms", AgentCoordinator.MAX_WAIT_MILLIS));
+                    held = true;
+                    answer = assignment == null ? null : toJson(assignment);
+                }
+                case "/agents/heartbeat" -> {
+                    AgentLink.Heartbeat heartbeat = coordinator.heartbeat(call.getString("lease"),
+                            call.optString("log"));
+                    held = heartbeat.held();
+                    answer = new JSONObject().put("superseded_by", heartbeat.supersededBy());
+                }
+                case "/agents/status" -> {
+                    held = coordinator.status(call.getString("lease"), Status.valueOf(call.getString("status")),
+                            call.optString("description", null), call.getString("context"));
+                    answer = null;
+                }
+                case "/agents/finish" -> {
+                    held = coordinator.finish(call.getString("lease"), BuildRecord.parse(call.getString("record")));
+                    answer = null;
+                }
+                default -> {
+                    response.sendError(HttpServletResponse.SC_NOT_FOUND);
+                    return;
+                }
+            }
+        } catch (JSONException | IllegalArgumentException e) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+            return;
+        }
+
+        if (!held) {
+            response.setStatus(HttpServletResponse.SC_GONE);
+        } else if (answer == null) {
+            response.setStatus(HttpServletResponse.SC_NO_CONTENT);
+        } else {
+            response.setStatus(HttpServletResponse.SC_OK);
+            response.setContentType("application/json;charset=utf-8");
+            response.getWriter().print(answer);
+        }
+    }
+
+    // The JSON of an assignment, read by HttpAgentLink
+    static JSONObject toJson(AgentLink.Assignment assignment) {
+        return new JSONObject()
+                .put("lease", assignment.lease())
+                .put("lease_ms", assignment.leaseMillis())
+                .put("job", assignment.jobId())
+                .put("owner", assignment.owner())
+                .put("repo", assignment.repo())
+                .put("branch", assignment.branch())
+                .put("sha", assignment.commitSha())
+                .put("repo_url", assignment.repoURL())
+                .put("server_url", assignment.serverURL())
+                .put("force_rebuild", assignment.forceRebuild())
+                .put("enqueued_at", assignment.enqueuedAt())
+                .put("started_at", assignment.startedAt());
+    }
+}
@@ -0,0 +1,92 @@
+package com.group16.app;
+
+import java.io.IOException;
+
+/**
+ * What a {@link BuildAgent} needs from the coordinator that owns the build
+ * queue. The {@link AgentCoordinator} implements it in the same process, as a
+ * local stand-in for the network, and {@link HttpAgentLink} implements it
+ * over HTTP against the {@link AgentHandler} of a remote coordinator.
+ *
+ * Every call after {@link #lease} names the lease of the job. A lease that
+ * expired, because its agent stopped sending heartbeats, is no longer held:
+ * its job was given to another agent, and the calls of the old agent are
+ * ignored.
+ */
+public interface AgentLink {
+
+    /**
+     * A job leased to an agent, with what the agent needs to build it.
+     *
+     * @param lease        The ID of the lease
+     * @param leaseMillis  How long the lease lasts without a heartbeat
+     * @param jobId        The ID of the job on the coordinator
+     * @param owner        The owner of the GitHub repository
+     * @param repo         The name of the GitHub repository
+     * @param branch       The pushed ref
+     * @param commitSha    The SHA of the pushed commit
+     * @param repoURL      The clone URL of the repository
+     * @param serverURL    The public URL of the coordinator
+     * @param forceRebuild Whether to skip the result cache
+     * @param enqueuedAt   When the job was queued on the coordinator
+     * @param startedAt    When the job was leased
+     */
+    record Assignment(String lease, long leaseMillis, String jobId, String owner, String repo, String branch,
+            String commitSha, String repoURL, String serverURL, boolean forceRebuild, long enqueuedAt,
+            long startedAt) {
+    }
+
+    /**
+     * The answer to a heartbeat.
+     *
+     * @param held         Whether the agent still holds the lease
+     * @param supersededBy The commit that replaced the job, or {@code null}
+     */
+    record Heartbeat(boolean held, String supersededBy) {
+    }
+
+    /**
+     * Waits for the next job in the queue of the coordinator.
+     *
+     * @param agent      The name of the agent, for the logs
+     * @param waitMillis The maximum time to wait
+     * @return The job, or {@code null} if there was none in time
+     * @throws IOException If the coordinator cannot be reached
+     */
+    Assignment lease(String agent, long waitMillis) throws IOException;
+
+    /**
+     * Extends a lease, and appends the new lines of the log of the job to the
+     * log on the coordinator.
+     *
+     * @param lease The ID of the lease
+     * @param log   Complete lines of the log, each ending with a newline, or
+     *              an empty string
+     * @return Whether the lease is still held, and whether the job was
+     *         superseded
+     * @throws IOException If the coordinator cannot be reached
+     */
+    Heartbeat heartbeat(String lease, String log) throws IOException;
+
+    /**
+     * Sets a status of the commit of a leased job on GitHub.
+     *
+     * @param lease       The ID of the lease
+     * @param status      The status
+     * @param description The description, or {@code null}
+     * @param context     The context of the status
+     * @return Whether the lease is still held
+     * @throws IOException If the coordinator cannot be reached
+     */
+    boolean status(String lease, Status status, String description, String context) throws IOException;
+
+    /**
+     * Ends a lease with the record of the finished job.
+     *
+     * @param lease  The ID of the lease
+     * @param record The record of the job
+     * @return Whether the lease was still held; if not, the record is dropped
+     * @throws IOException If the coordinator cannot be reached
+     */
+    boolean finish(String lease, BuildRecord record) throws IOException;
+}
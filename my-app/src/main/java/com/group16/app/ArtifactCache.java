@@ -0,0 +1,254 @@
+package com.group16.app;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+
+import org.apache.maven.shared.invoker.InvocationRequest;
+import org.eclipse.jgit.util.FileUtils;
+
+/**
+ * The local Maven repository shared by all builds.
+ *
+ * Builds that run in parallel write to the repository at the same time. Maven
+ * already downloads to a temporary file and moves it in place, and we make it
+ * lock artifacts with file locks so two builds never download the same
+ * artifact at once. Checksums are verified strictly, so a corrupt download
+ * fails instead of being cached. Maven only takes the locks from version 3.9,
+ * so the server warns when it starts with an older one.
+ *
+ * When the repository grows beyond its size limit, the least recently used
+ * artifact versions are deleted. Eviction only runs while no build uses the
+ * repository.
+ *
+ * Settings (in .env or the environment):
+ * CI_MAVEN_REPO: the local repository (default CI_DATA_DIR/repository)
+ * CI_MAVEN_REPO_MAX_MB: maximum size of the repository (default 8192)
+ * CI_MAVEN_OFFLINE: build offline, using only cached artifacts (default false)
+ */
+public class ArtifactCache {
+    private static final long EVICTION_INTERVAL_MILLIS = 10 * 60 * 1000;
+
+    private static ArtifactCache defaultCache;
+
+    private final Path repository;
+    private final long maxBytes;
+    private final boolean offline;
+
+    // Builds hold the read lock, eviction holds the write lock
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final AtomicLong lastEviction = new AtomicLong(System.currentTimeMillis());
+
+    private final LongAdder builds = new LongAdder();
+    private final LongAdder hitBuilds = new LongAdder();
+    private final LongAdder downloads = new LongAdder();
+    private final LongAdder evicted = new LongAdder();
+
+    /**
+     * @param repository The local repository
+     * @param maxBytes   The maximum size of the repository
+     * @param offline    Whether builds must not download artifacts
+     */
+    public ArtifactCache(Path repository, long maxBytes, boolean offline) {
+        this.repository = repository;
+        this.maxBytes = maxBytes;
+        this.offline = offline;
+    }
+
+    /**
+     * @return The cache configured from .env or the environment
+     */
+    public static synchronized ArtifactCache getDefault() {
+        if (defaultCache == null) {
+            defaultCache = new ArtifactCache(
+                    Path.of(Config.get("CI_MAVEN_REPO", Config.dataDir().resolve("repository").toString())),
+                    Config.getLong("CI_MAVEN_REPO_MAX_MB", 8192) * 1024 * 1024,
+                    Config.getBoolean("CI_MAVEN_OFFLINE", false));
+        }
+        return defaultCache;
+    }
+
+    /**
+     * Warns if the Maven of the builds is older than 3.9, which ignores the
+     * properties that make it lock the artifacts of the shared repository, so
+     * that concurrent builds can corrupt it. Called when the server or a build
+     * agent starts.
+     */
+    public static void checkMavenVersion() {
+        String version = ForkedBuildBackend.mavenVersion(ForkedBuildBackend.findMavenHome());
+        if (version == null) {
+            System.err.println("Could not find the version of Maven, concurrent builds need Maven 3.9 or newer"
+                    + " to lock the artifacts of the shared repository");
+        } else if (!locksArtifacts(version)) {
+            System.err.println("Maven " + version + " does not lock the artifacts of the shared repository,"
+                    + " concurrent builds may corrupt it. Use Maven 3.9 or newer.");
+        }
+    }
+
+    /**
+     * @param version A Maven version, e.g. 3.9.6
+     * @return Whether that Maven locks the artifacts of the repository
+     */
+    static boolean locksArtifacts(String version) {
+        String[] parts = version.split("[.-]");
+        try {
+            int major = Integer.parseInt(parts[0]);
+            int minor = parts.length > 1 ? Integer.parseInt(parts[1]) : 0;
+            return major > 3 || major == 3 && minor >= 9;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Makes a Maven invocation use this repository. The returned usage must
+     * be closed when the build is done.
+     *
+     * @param request The request of the build
+     * @return The usage of the repository by the build
+     */
+    public Usage use(InvocationRequest request) {
+        try {
+            Files.createDirectories(repository);
+        } catch (IOException e) {
+            throw new RuntimeException("Could not create the local repository " + repository, e);
+        }
+        request.setLocalRepositoryDirectory(repository.toFile());
+        request.setOffline(offline);
+        request.setGlobalChecksumPolicy(InvocationRequest.CheckSumPolicy.Fail);
+
+        // A copy, the properties of the request may belong to the caller
+        Properties properties = new Properties();
+        if (request.getProperties() != null) {
+            properties.putAll(request.getProperties());
+        }
+        properties.setProperty("aether.syncContext.named.factory", "file-lock");
+        properties.setProperty("aether.syncContext.named.nameMapper", "file-gav");
+        request.setProperties(properties);
+
+        lock.readLock().lock();
+        return new Usage();
+    }
+
+    /**
+     * The use of the repository by one build. It counts the artifacts that the
+     * build downloads, which are the cache misses.
+     */
+    public class Usage implements AutoCloseable {
+        private int buildDownloads;
+        private boolean closed;
+
+        /**
+         * @param line A line of Maven output
+         */
+        public void accept(String line) {
+            if (line.startsWith("Downloaded from ") || line.contains("] Downloaded from ")) {
+                buildDownloads++;
+            }
+        }
+
+        /**
+         * Records the downloads of the build and evicts artifacts if needed.
+         */
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            lock.readLock().unlock();
+            builds.increment();
+            downloads.add(buildDownloads);
+            if (buildDownloads == 0) {
+                hitBuilds.increment();
+            }
+            long last = lastEviction.get();
+            long now = System.currentTimeMillis();
+            if (now - last > EVICTION_INTERVAL_MILLIS && lastEviction.compareAndSet(last, now)) {
+                evict();
+            }
+        }
+    }
+
+    /**
+     * Deletes the least recently used artifact versions until the repository
+     * fits in its size limit. Does nothing if a build is using the repository.
+     */
+    public void evict() {
+        if (!Files.isDirectory(repository) || !lock.writeLock().tryLock()) {
+            return;
+        }
+        try {
+            List<ArtifactVersion> versions = new ArrayList<>();
+            long total = 0;
+            try (Stream<Path> files = Files.walk(repository)) {
+                List<Path> dirs = files.filter(f -> f.toString().endsWith(".pom"))
+                        .map(Path::getParent).distinct().toList();
+                for (Path dir : dirs) {
+                    ArtifactVersion version = ArtifactVersion.of(dir);
+                    versions.add(version);
+                    total += version.bytes;
+                }
+            }
+            if (total <= maxBytes) {
+                return;
+            }
+            versions.sort(Comparator.comparingLong(v -> v.lastUsed));
+            for (ArtifactVersion version : versions) {
+                if (total <= maxBytes) {
+                    break;
+                }
+                FileUtils.delete(version.dir.toFile(), FileUtils.RECURSIVE | FileUtils.SKIP_MISSING);
+                total -= version.bytes;
+                evicted.increment();
+            }
+        } catch (IOException e) {
+            System.err.println("Error evicting artifacts: " + e.getMessage());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // The directory of one version of an artifact, e.g. org/json/json/20240205
+    private record ArtifactVersion(Path dir, long bytes, long lastUsed) {
+        static ArtifactVersion of(Path dir) throws IOException {
+            long bytes = 0;
+            long lastUsed = 0;
+            try (Stream<Path> files = Files.list(dir)) {
+                for (Path file : files.toList()) {
+                    BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+                    if (attributes.isRegularFile()) {
+                        bytes += attributes.size();
+                        lastUsed = Math.max(lastUsed, Math.max(attributes.lastAccessTime().toMillis(),
+                                attributes.lastModifiedTime().toMillis()));
+                    }
+                }
+            }
+            return new ArtifactVersion(dir, bytes, lastUsed);
+        }
+    }
+
+    /**
+     * @return A plain text summary of the use of the repository
+     */
+    public String stats() {
+        return String.format("""
+                builds %d
+                builds_without_downloads %d
+                downloads %d
+                evicted_versions %d
+                offline %b
+                """,
+                builds.sum(), hitBuilds.sum(), downloads.sum(), evicted.sum(), offline);
+    }
+}
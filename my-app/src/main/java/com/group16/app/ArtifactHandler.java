@@ -0,0 +1,125 @@
+package com.group16.app;
+
+import java.io.IOException;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.server.HttpOutput;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Handler that serves the artifacts of the CI jobs from the
+ * {@link ArtifactStore}:
+ * GET /artifacts/&lt;job id&gt;: the artifacts of a job, as JSON
+ * GET /artifacts/&lt;job id&gt;/&lt;path&gt;: one artifact, whole or in part
+ * with a Range header, with its SHA-256 as ETag
+ * Other requests are left to the next handler.
+ *
+ * Jetty 9 cannot send a file with sendfile, so the chunks of an artifact are
+ * memory-mapped and the mapped buffers are written to the connection as they
+ * are, without copying the content to the heap.
+ */
+public class ArtifactHandler extends AbstractHandler {
+    private static final Pattern ARTIFACT_PATH = Pattern.compile("/artifacts/([0-9a-f-]{36})(?:/(.+))?");
+
+    private final ArtifactStore store;
+
+    /**
+     * @param store The store to serve
+     */
+    public ArtifactHandler(ArtifactStore store) {
+        this.store = store;
+    }
+
+    @Override
+    public void handle(String target,
+                       Request baseRequest,
+                       HttpServletRequest request,
+                       HttpServletResponse response)
+        throws IOException, ServletException {
+        Matcher path = ARTIFACT_PATH.matcher(target);
+        if (!path.matches() || !request.getMethod().equals("GET")) {
+            return;
+        }
+        baseRequest.setHandled(true);
+        String jobId = path.group(1);
+
+        if (path.group(2) == null) {
+            JSONArray artifacts = new JSONArray();
+            for (ArtifactStore.Artifact artifact : store.list(jobId)) {
+                artifacts.put(new JSONObject()
+                        .put("path", artifact.path())
+                        .put("size", artifact.size())
+                        .put("sha256", artifact.sha256())
+                        .put("url", "/artifacts/" + jobId + "/" + artifact.path()));
+            }
+            response.setStatus(HttpServletResponse.SC_OK);
+            response.setContentType("application/json;charset=utf-8");
+            response.getWriter().print(new JSONObject().put("job", jobId).put("artifacts", artifacts));
+            return;
+        }
+
+        ArtifactStore.Artifact artifact = store.find(jobId, path.group(2));
+        if (artifact == null) {
+            response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+            response.setContentType("text/plain;charset=utf-8");
+            response.getWriter().println("No artifact " + path.group(2) + " for job " + jobId);
+            return;
+        }
+        String contentType = URLConnection.guessContentTypeFromName(artifact.path());
+        response.setContentType(contentType != null ? contentType : "application/octet-stream");
+        response.setHeader("Accept-Ranges", "bytes");
+        String etag = "\"" + artifact.sha256() + "\"";
+        response.setHeader("ETag", etag);
+        if (etag.equals(request.getHeader("If-None-Match"))) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+
+        long length = artifact.size();
+        long from = 0;
+        long to = length;
+        String range = request.getHeader("Range");
+        if (range != null) {
+            long[] parsed = LogHandler.parseRange(range, length);
+            if (parsed == null) {
+                response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                response.setHeader("Content-Range", "bytes */" + length);
+                return;
+            }
+            from = parsed[0];
+            to = parsed[1];
+            response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+            response.setHeader("Content-Range", "bytes " + from + "-" + (to - 1) + "/" + length);
+        } else {
+            response.setStatus(HttpServletResponse.SC_OK);
+        }
+        response.setContentLengthLong(to - from);
+        send(store.map(artifact), from, to, baseRequest.getResponse().getHttpOutput());
+    }
+
+    // Writes the bytes from one offset to another of the mapped chunks
+    private static void send(List<ByteBuffer> chunks, long from, long to, HttpOutput out) throws IOException {
+        long offset = 0;
+        for (ByteBuffer chunk : chunks) {
+            long end = offset + chunk.remaining();
+            if (end > from && offset < to) {
+                ByteBuffer part = chunk.duplicate();
+                part.position((int) (Math.max(from, offset) - offset));
+                part.limit((int) (Math.min(to, end) - offset));
+                out.write(part);
+            }
+            offset = end;
+        }
+    }
+}
@@ -0,0 +1,434 @@
+package com.group16.app;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+
+import org.eclipse.jgit.util.FileUtils;
+
+/**
+ * Keeps the build outputs of the jobs, such as jars and test reports, after
+ * their workspaces are given back.
+ *
+ * The files of a project that match CI_ARTIFACTS are split in chunks of 1 MB
+ * that are stored by their SHA-256, so a chunk that is in several artifacts,
+ * like every chunk of a jar that did not change since the last build, is only
+ * stored once. A manifest per job lists its artifacts and their chunks. The
+ * chunks are served by the {@link ArtifactHandler} as memory-mapped buffers.
+ *
+ * The manifests of jobs older than CI_ARTIFACT_DAYS are deleted, and then the
+ * oldest ones until the chunks fit in CI_ARTIFACT_MAX_MB; chunks that no
+ * manifest lists any more are deleted with them. Storing holds a read lock
+ * and eviction the write lock, so a chunk is never deleted between being
+ * found in the store and being listed in a manifest.
+ *
+ * Configured with:
+ * CI_ARTIFACTS: comma separated globs of the files to keep, relative to the
+ * project (default target/*.jar,target/*.war,target/surefire-reports/*.xml)
+ * CI_ARTIFACT_DAYS: how long to keep the artifacts of a job (default 30)
+ * CI_ARTIFACT_MAX_MB: the maximum size of the chunks (default 10240)
+ */
+public class ArtifactStore {
+    static final int CHUNK_SIZE = 1024 * 1024;
+    private static final long EVICTION_INTERVAL_MILLIS = 10 * 60 * 1000;
+
+    private static ArtifactStore defaultStore;
+
+    private final Path chunksDir;
+    private final Path manifestsDir;
+    private final List<PathMatcher> patterns;
+    private final long maxBytes;
+    private final long maxAgeMillis;
+
+    // Storing holds the read lock, eviction holds the write lock
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final AtomicLong lastEviction = new AtomicLong(System.currentTimeMillis());
+
+    private final LongAdder files = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder newBytes = new LongAdder();
+    private final LongAdder downloads = new LongAdder();
+    private final LongAdder evictedJobs = new LongAdder();
+    private final LongAdder evictedChunks = new LongAdder();
+
+    /**
+     * A stored file of a job.
+     *
+     * @param path   The path of the file, relative to the project, and
+     *               prefixed with the cell in a build matrix
+     * @param size   The size of the file
+     * @param sha256 The SHA-256 of the file
+     * @param chunks The SHA-256 of each chunk of the file
+     */
+    public record Artifact(String path, long size, String sha256, List<String> chunks) {
+    }
+
+    /**
+     * What a job stored.
+     *
+     * @param files    The number of artifacts
+     * @param bytes    The size of the artifacts
+     * @param newBytes The size of the chunks that were not stored before
+     */
+    public record Stored(int files, long bytes, long newBytes) {
+    }
+
+    /**
+     * @param dir          The directory of the store
+     * @param globs        The globs of the files to keep, relative to the
+     *                     project
+     * @param maxBytes     The maximum size of the chunks
+     * @param maxAgeMillis How long to keep the artifacts of a job
+     */
+    public ArtifactStore(Path dir, List<String> globs, long maxBytes, long maxAgeMillis) {
+        this.chunksDir = dir.resolve("chunks");
+        this.manifestsDir = dir.resolve("manifests");
+        this.patterns = globs.stream().map(glob -> FileSystems.getDefault().getPathMatcher("glob:" + glob)).toList();
+        this.maxBytes = maxBytes;
+        this.maxAgeMillis = maxAgeMillis;
+    }
+
+    /**
+     * @return The store configured from .env or the environment
+     */
+    public static synchronized ArtifactStore getDefault() {
+        if (defaultStore == null) {
+            defaultStore = new ArtifactStore(Config.dataDir().resolve("artifacts"),
+                    Arrays.stream(Config.get("CI_ARTIFACTS",
+                            "target/*.jar,target/*.war,target/surefire-reports/*.xml").split(","))
+                            .map(String::trim).filter(glob -> !glob.isEmpty()).toList(),
+                    Config.getLong("CI_ARTIFACT_MAX_MB", 10240) * 1024 * 1024,
+                    TimeUnit.DAYS.toMillis(Config.getInt("CI_ARTIFACT_DAYS", 30)));
+        }
+        return defaultStore;
+    }
+
+    /**
+     * Stores the files of a project that match the configured globs as
+     * artifacts of a job. The cells of a build matrix store their files with
+     * the name of the cell as prefix.
+     *
+     * @param jobId      The ID of the job
+     * @param projectDir The directory of the project
+     * @param prefix     The prefix of the paths, e.g. "jdk21/", or ""
+     * @return What was stored
+     * @throws IOException If a file cannot be read or the store written
+     */
+    public Stored collect(String jobId, Path projectDir, String prefix) throws IOException {
+        List<Path> matches = new ArrayList<>();
+        if (!patterns.isEmpty() && Files.isDirectory(projectDir)) {
+            Files.walkFileTree(projectDir, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attributes) {
+                    return dir.getFileName().toString().equals(".git") ? FileVisitResult.SKIP_SUBTREE
+                            : FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                    Path relative = projectDir.relativize(file);
+                    if (attributes.isRegularFile() && patterns.stream().anyMatch(p -> p.matches(relative))) {
+                        matches.add(file);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+        if (matches.isEmpty()) {
+            return new Stored(0, 0, 0);
+        }
+        matches.sort(null);
+
+        long storedBytes = 0;
+        long storedNewBytes = 0;
+        StringBuilder manifest = new StringBuilder();
+        lock.readLock().lock();
+        try {
+            Files.createDirectories(manifestsDir);
+            byte[] buffer = new byte[CHUNK_SIZE];
+            for (Path file : matches) {
+                MessageDigest whole = sha256();
+                List<String> chunks = new ArrayList<>();
+                long size = 0;
+                try (InputStream in = Files.newInputStream(file)) {
+                    int length;
+                    while ((length = in.readNBytes(buffer, 0, CHUNK_SIZE)) > 0) {
+                        size += length;
+                        whole.update(buffer, 0, length);
+                        MessageDigest digest = sha256();
+                        digest.update(buffer, 0, length);
+                        String chunk = HexFormat.of().formatHex(digest.digest());
+                        if (storeChunk(chunk, buffer, length)) {
+                            storedNewBytes += length;
+                        }
+                        chunks.add(chunk);
+                    }
+                }
+                storedBytes += size;
+                String path = prefix + projectDir.relativize(file).toString().replace('\\', '/');
+                manifest.append(size).append(' ').append(HexFormat.of().formatHex(whole.digest())).append(' ')
+                        .append(chunks.isEmpty() ? "-" : String.join(",", chunks)).append(' ').append(path)
+                        .append('\n');
+            }
+            // The cells of a job append to the same manifest
+            synchronized (this) {
+                Files.writeString(manifestsDir.resolve(jobId), manifest, StandardCharsets.UTF_8,
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        files.add(matches.size());
+        bytes.add(storedBytes);
+        newBytes.add(storedNewBytes);
+
+        long last = lastEviction.get();
+        long now = System.currentTimeMillis();
+        if (now - last > EVICTION_INTERVAL_MILLIS && lastEviction.compareAndSet(last, now)) {
+            evict();
+        }
+        return new Stored(matches.size(), storedBytes, storedNewBytes);
+    }
+
+    // Stores a chunk unless it is stored already, and returns whether it
+    // was new
+    private boolean storeChunk(String hash, byte[] content, int length) throws IOException {
+        Path file = chunkFile(hash);
+        if (Files.exists(file)) {
+            return false;
+        }
+        Files.createDirectories(file.getParent());
+        Path temp = Files.createTempFile(file.getParent(), hash, ".tmp");
+        try {
+            try (OutputStream out = Files.newOutputStream(temp)) {
+                out.write(content, 0, length);
+            }
+            Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE);
+            return true;
+        } catch (FileAlreadyExistsException e) {
+            // Stored by another job at the same time
+            return false;
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * @param jobId The ID of a job
+     * @return The artifacts of the job, in the order they were stored, or an
+     *         empty list if it has none
+     * @throws IOException If the manifest of the job cannot be read
+     */
+    public List<Artifact> list(String jobId) throws IOException {
+        List<String> lines;
+        try {
+            lines = Files.readAllLines(manifestsDir.resolve(jobId), StandardCharsets.UTF_8);
+        } catch (NoSuchFileException e) {
+            return List.of();
+        }
+        List<Artifact> artifacts = new ArrayList<>();
+        for (String line : lines) {
+            String[] fields = line.split(" ", 4);
+            if (fields.length == 4 && fields[0].matches("\\d+")) {
+                artifacts.add(new Artifact(fields[3], Long.parseLong(fields[0]), fields[1],
+                        fields[2].equals("-") ? List.of() : List.of(fields[2].split(","))));
+            }
+        }
+        return artifacts;
+    }
+
+    /**
+     * @param jobId The ID of a job
+     * @param path  The path of an artifact of the job
+     * @return The artifact, or {@code null} if the job has no such artifact
+     * @throws IOException If the manifest of the job cannot be read
+     */
+    public Artifact find(String jobId, String path) throws IOException {
+        // A path stored twice by a job is served as stored last
+        Artifact found = null;
+        for (Artifact artifact : list(jobId)) {
+            if (artifact.path().equals(path)) {
+                found = artifact;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Maps the chunks of an artifact into memory, so that they can be written
+     * to a socket without being copied to the heap.
+     *
+     * @param artifact The artifact
+     * @return The chunks, in order
+     * @throws IOException If a chunk is missing or cannot be mapped
+     */
+    public List<ByteBuffer> map(Artifact artifact) throws IOException {
+        List<ByteBuffer> buffers = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            for (String chunk : artifact.chunks()) {
+                try (FileChannel channel = FileChannel.open(chunkFile(chunk), StandardOpenOption.READ)) {
+                    MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                    buffers.add(buffer);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        downloads.increment();
+        return buffers;
+    }
+
+    /**
+     * Deletes the manifests of jobs that are too old, then the oldest ones
+     * until the chunks fit in the size limit, and then the chunks that no
+     * manifest lists. Does nothing if a job is storing artifacts.
+     */
+    public void evict() {
+        if (!Files.isDirectory(manifestsDir) || !lock.writeLock().tryLock()) {
+            return;
+        }
+        try {
+            record Manifest(Path file, long modified, List<Artifact> artifacts) {
+            }
+            List<Manifest> manifests = new ArrayList<>();
+            try (Stream<Path> list = Files.list(manifestsDir)) {
+                for (Path file : list.toList()) {
+                    manifests.add(new Manifest(file, Files.getLastModifiedTime(file).toMillis(),
+                            list(file.getFileName().toString())));
+                }
+            }
+            manifests.sort(Comparator.comparingLong(Manifest::modified));
+
+            // How many manifests list each chunk
+            Map<String, Integer> references = new HashMap<>();
+            for (Manifest manifest : manifests) {
+                manifest.artifacts().forEach(artifact -> artifact.chunks()
+                        .forEach(chunk -> references.merge(chunk, 1, Integer::sum)));
+            }
+            long total = 0;
+            for (String chunk : references.keySet()) {
+                total += chunkSize(chunk);
+            }
+            long oldest = System.currentTimeMillis() - maxAgeMillis;
+            for (Manifest manifest : manifests) {
+                if (manifest.modified() >= oldest && total <= maxBytes) {
+                    break;
+                }
+                Files.deleteIfExists(manifest.file());
+                evictedJobs.increment();
+                for (Artifact artifact : manifest.artifacts()) {
+                    for (String chunk : artifact.chunks()) {
+                        if (references.merge(chunk, -1, Integer::sum) == 0) {
+                            references.remove(chunk);
+                            total -= chunkSize(chunk);
+                        }
+                    }
+                }
+            }
+
+            if (Files.isDirectory(chunksDir)) {
+                try (Stream<Path> chunks = Files.walk(chunksDir, 2)) {
+                    for (Path file : chunks.filter(Files::isRegularFile).toList()) {
+                        if (!references.containsKey(file.getFileName().toString())) {
+                            FileUtils.delete(file.toFile(), FileUtils.SKIP_MISSING);
+                            evictedChunks.increment();
+                        }
+                    }
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Error evicting artifacts: " + e.getMessage());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // The size of a stored chunk, or 0 if it is missing
+    private long chunkSize(String hash) {
+        try {
+            return Files.size(chunkFile(hash));
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * @return The size of the stored chunks
+     * @throws IOException If the chunks cannot be listed
+     */
+    long chunkBytes() throws IOException {
+        if (!Files.isDirectory(chunksDir)) {
+            return 0;
+        }
+        try (Stream<Path> chunks = Files.walk(chunksDir, 2)) {
+            return chunks.filter(Files::isRegularFile).mapToLong(file -> file.toFile().length()).sum();
+        }
+    }
+
+    // The file of a chunk, in a directory named after the first two digits
+    private Path chunkFile(String hash) {
+        if (!hash.matches("[0-9a-f]{64}")) {
+            throw new IllegalArgumentException("Invalid chunk hash: " + hash);
+        }
+        return chunksDir.resolve(hash.substring(0, 2)).resolve(hash);
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return A plain text summary of the artifacts stored since the server
+     *         started
+     */
+    public String stats() {
+        long stored = bytes.sum();
+        return String.format(Locale.ROOT, """
+                artifacts %d
+                artifact_bytes %d
+                new_chunk_bytes %d
+                dedup_ratio %.3f
+                downloads %d
+                evicted_jobs %d
+                evicted_chunks %d
+                """,
+                files.sum(), stored, newBytes.sum(), stored == 0 ? 0.0 : 1 - (double) newBytes.sum() / stored,
+                downloads.sum(), evictedJobs.sum(), evictedChunks.sum());
+    }
+}
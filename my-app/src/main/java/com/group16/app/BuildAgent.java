@@ -0,0 +1,336 @@
+package com.group16.app;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A build agent, which leases jobs from the {@link AgentCoordinator} of a CI
+ * server and runs them on this host, CI_AGENT_SLOTS at a time. The jobs run
+ * the same pipeline as on the server, with the caches of this host, but their
+ * log, statuses and record go to the coordinator through an
+ * {@link AgentLink}: the log with the heartbeats that keep the lease, every
+ * CI_AGENT_LEASE_MS / 3 of the coordinator, and the record when the lease
+ * ends. If the coordinator says that the job was superseded, or that the
+ * lease was lost, the Maven run of the job is killed.
+ *
+ * The agent keeps a copy of the logs of its jobs in CI_DATA_DIR/agent-logs.
+ * Agents on the same host as the server or each other need their own
+ * CI_DATA_DIR.
+ *
+ * Settings (in .env or the environment):
+ * CI_COORDINATOR_URL: the URL of the CI server, e.g. http://ci:8080 (required)
+ * CI_AGENT_TOKEN: the secret shared with the CI server (required)
+ * CI_AGENT_NAME: the name of the agent in the logs (default host and process)
+ * CI_AGENT_SLOTS: number of concurrent jobs (default based on cores and memory)
+ */
+public class BuildAgent {
+    // The most of a log sent with one heartbeat, below the limit of AgentHandler
+    static final int MAX_LOG_CHUNK = 1024 * 1024;
+
+    private final AgentLink coordinator;
+    private final String name;
+    private final int slots;
+    private final Path logRoot;
+    private final long maxLogBytes;
+    private final BuildHistory history;
+    private final ScheduledExecutorService heartbeats;
+    private final LongAdder built = new LongAdder();
+
+    // The slots, and the slots waiting for a lease, guarded by this
+    private final List<Thread> threads = new ArrayList<>();
+    private final Set<Thread> leasing = new HashSet<>();
+    private boolean stopped;
+
+    /**
+     * @param coordinator The link to the coordinator
+     * @param name        The name of the agent
+     * @param slots       The number of jobs that may run at the same time
+     * @param logRoot     The directory of the copies of the logs
+     * @param maxLogBytes The maximum size of the log of a job
+     * @param history     The local history of the jobs, which the
+     *                    {@link TestImpact} analysis of this host reads, or
+     *                    {@code null} to only record them on the coordinator
+     */
+    public BuildAgent(AgentLink coordinator, String name, int slots, Path logRoot, long maxLogBytes,
+            BuildHistory history) {
+        if (slots < 1) {
+            throw new IllegalArgumentException("A build agent needs at least one slot");
+        }
+        this.coordinator = coordinator;
+        this.name = name;
+        this.slots = slots;
+        this.logRoot = logRoot;
+        this.maxLogBytes = maxLogBytes;
+        this.history = history;
+        // A thread per slot, so that a slow heartbeat does not hold back the
+        // heartbeats of the other jobs until their leases expire
+        heartbeats = Executors.newScheduledThreadPool(slots, runnable -> {
+            Thread thread = new Thread(runnable, "ci-agent-heartbeat");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Starts leasing jobs.
+     */
+    public synchronized void start() {
+        for (int i = 0; i < slots; i++) {
+            Thread thread = new Thread(this::work, "ci-agent-" + i);
+            threads.add(thread);
+            thread.start();
+        }
+    }
+
+    /**
+     * Stops leasing jobs, and waits for the running jobs to finish.
+     *
+     * @throws InterruptedException If the thread is interrupted while waiting
+     */
+    public void stop() throws InterruptedException {
+        List<Thread> running;
+        synchronized (this) {
+            stopped = true;
+            leasing.forEach(Thread::interrupt);
+            running = new ArrayList<>(threads);
+        }
+        for (Thread thread : running) {
+            thread.join();
+        }
+        heartbeats.shutdownNow();
+    }
+
+    /**
+     * @return The number of jobs this agent built
+     */
+    public long built() {
+        return built.sum();
+    }
+
+    // Main loop of a slot
+    private void work() {
+        long backoffMillis = 0;
+        while (true) {
+            synchronized (this) {
+                if (stopped) {
+                    return;
+                }
+                leasing.add(Thread.currentThread());
+            }
+            AgentLink.Assignment assignment = null;
+            try {
+                assignment = coordinator.lease(name, AgentCoordinator.MAX_WAIT_MILLIS);
+                backoffMillis = 0;
+            } catch (IOException e) {
+                // Wait for the coordinator to come back, unless stopped
+                backoffMillis = Math.min(30_000, Math.max(1000, backoffMillis * 2));
+                System.err.println("Build agent " + name + " could not lease a job: " + e.getMessage());
+                try {
+                    Thread.sleep(backoffMillis);
+                } catch (InterruptedException interrupted) {
+                    // Stopped
+                }
+            }
+            // Only a slot waiting for a lease is interrupted by stop()
+            synchronized (this) {
+                leasing.remove(Thread.currentThread());
+                Thread.interrupted();
+            }
+            if (assignment != null) {
+                build(newJob(assignment));
+            }
+        }
+    }
+
+    /**
+     * Creates the job for an assignment.
+     *
+     * @param assignment The assignment
+     * @return The job
+     */
+    RemoteJob newJob(AgentLink.Assignment assignment) {
+        return new RemoteJob(assignment);
+    }
+
+    // Runs a leased job on the thread of a slot, with heartbeats in the
+    // background
+    private void build(RemoteJob job) {
+        System.out.println("Build agent " + name + " building job " + job.getId());
+        long period = Math.max(1, job.assignment.leaseMillis() / 3);
+        ScheduledFuture<?> heartbeat = heartbeats.scheduleWithFixedDelay(job::heartbeat, period, period,
+                TimeUnit.MILLISECONDS);
+        job.begin(Thread.currentThread());
+        try {
+            job.run();
+        } catch (RuntimeException e) {
+            System.err.println("Job " + job.getId() + " failed: " + e.getMessage());
+        } finally {
+            job.end();
+            heartbeat.cancel(false);
+            Thread.interrupted(); // Clear an interrupt from a late cancellation
+            built.increment();
+        }
+    }
+
+    /**
+     * A job that runs on this agent for the coordinator. Its log is written
+     * here and streamed to the coordinator, and its statuses and record are
+     * sent to the coordinator.
+     */
+    class RemoteJob extends BuildJob {
+        private final AgentLink.Assignment assignment;
+        // The bytes of the log that the coordinator has, guarded by streaming
+        private final Object streaming = new Object();
+        private long sent;
+        private volatile boolean lost;
+
+        RemoteJob(AgentLink.Assignment assignment) {
+            super(assignment.jobId(), assignment.owner(), assignment.repo(), assignment.branch(),
+                    assignment.commitSha(), assignment.repoURL(), assignment.serverURL());
+            this.assignment = assignment;
+            setForceRebuild(assignment.forceRebuild());
+            enqueuedAt = assignment.enqueuedAt();
+            startedAt = assignment.startedAt();
+        }
+
+        @Override
+        BuildLog createLog() throws IOException {
+            return BuildLog.create(logRoot, getId(), maxLogBytes);
+        }
+
+        @Override
+        void sendStatus(Status status, String description, String context) {
+            if (lost) {
+                return;
+            }
+            try {
+                if (!coordinator.status(assignment.lease(), status, description, context)) {
+                    lose();
+                }
+            } catch (IOException e) {
+                System.err.println("Error sending a status of job " + getId() + ": " + e.getMessage());
+            }
+        }
+
+        // Sends the rest of the log and ends the lease, trying again until
+        // the lease would have expired
+        @Override
+        void save(BuildRecord record) {
+            if (history != null) {
+                super.save(record);
+            }
+            long deadline = System.currentTimeMillis() + assignment.leaseMillis();
+            while (!lost) {
+                try {
+                    while (stream()) {
+                        // Until the coordinator has the whole log
+                    }
+                    if (!lost && !coordinator.finish(assignment.lease(), record)) {
+                        lose();
+                    }
+                    return;
+                } catch (IOException e) {
+                    System.err.println("Error finishing job " + getId() + ": " + e.getMessage());
+                    if (System.currentTimeMillis() > deadline) {
+                        return;
+                    }
+                }
+                try {
+                    Thread.sleep(1000);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+
+        // Keeps the lease with the new lines of the log
+        void heartbeat() {
+            try {
+                stream();
+            } catch (IOException e) {
+                // The lease expires if this goes on
+                System.err.println("Error sending a heartbeat for job " + getId() + ": " + e.getMessage());
+            }
+        }
+
+        // Sends a heartbeat with the next complete lines of the log, and
+        // returns whether more of the log is left to send
+        private boolean stream() throws IOException {
+            synchronized (streaming) {
+                if (lost) {
+                    return false;
+                }
+                BuildLog jobLog = log;
+                long to = jobLog == null ? sent : Math.min(jobLog.length(), sent + MAX_LOG_CHUNK);
+                ByteArrayOutputStream lines = new ByteArrayOutputStream();
+                if (to > sent) {
+                    jobLog.copyTo(sent, to, lines);
+                }
+                byte[] bytes = lines.toByteArray();
+                int length = bytes.length;
+                // Only whole lines, unless a line does not fit in a chunk
+                while (length > 0 && bytes[length - 1] != '\n') {
+                    length--;
+                }
+                String text = new String(bytes, 0, length == 0 ? bytes.length : length, StandardCharsets.UTF_8);
+                if (length == 0 && bytes.length > 0) {
+                    length = bytes.length;
+                    text += "\n";
+                }
+
+                AgentLink.Heartbeat heartbeat = coordinator.heartbeat(assignment.lease(), text);
+                if (!heartbeat.held()) {
+                    lose();
+                    return false;
+                }
+                sent += length;
+                if (heartbeat.supersededBy() != null && !isSuperseded()) {
+                    supersede(heartbeat.supersededBy());
+                }
+                return jobLog != null && sent < jobLog.length();
+            }
+        }
+
+        // Stops a job whose lease expired, since another agent builds it now
+        private void lose() {
+            if (!lost) {
+                lost = true;
+                System.err.println("Build agent " + name + " lost the lease of job " + getId());
+                supersede("the lease of another build agent");
+            }
+        }
+    }
+
+    /**
+     * Main method to start a build agent.
+     * @param args Command line arguments
+     * @throws Exception If the agent fails to start
+     */
+    public static void main(String[] args) throws Exception {
+        String coordinatorURL = Config.get("CI_COORDINATOR_URL", null);
+        String token = Config.get("CI_AGENT_TOKEN", null);
+        if (coordinatorURL == null || token == null) {
+            throw new IllegalStateException("CI_COORDINATOR_URL and CI_AGENT_TOKEN must be set");
+        }
+        ArtifactCache.checkMavenVersion();
+        BuildAgent agent = new BuildAgent(new HttpAgentLink(coordinatorURL, token),
+                Config.get("CI_AGENT_NAME", ManagementFactory.getRuntimeMXBean().getName()),
+                Config.getInt("CI_AGENT_SLOTS", BuildScheduler.defaultWorkers()),
+                Config.dataDir().resolve("agent-logs"), Config.getLong("CI_LOG_MAX_MB", 50) * 1024 * 1024,
+                BuildHistory.getDefault());
+        agent.start();
+        System.out.println("Build agent leasing jobs from " + coordinatorURL);
+    }
+}
@@ -0,0 +1,84 @@
+package com.group16.app;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.apache.maven.shared.invoker.InvocationRequest;
+import org.apache.maven.shared.invoker.InvocationResult;
+import org.apache.maven.shared.invoker.MavenInvocationException;
+
+/**
+ * Runs Maven for the {@link BuildExecutor}, and through it for
+ * {@link Compiler} and {@link RunTests}.
+ *
+ * The backend is chosen with CI_BUILD_BACKEND:
+ * forked: a new Maven JVM per build, see {@link ForkedBuildBackend}
+ * daemon: warm Maven daemons that are reused between builds, see
+ * {@link DaemonBuildBackend}
+ * auto (default): daemon if mvnd is installed, otherwise forked
+ */
+public interface BuildBackend {
+
+    /**
+     * Runs Maven.
+     *
+     * @param request The goals, project and output handler of the build
+     * @return The result of the build
+     * @throws MavenInvocationException If Maven could not be started
+     */
+    InvocationResult execute(InvocationRequest request) throws MavenInvocationException;
+
+    /**
+     * @return The name of the backend, for logging
+     */
+    String getName();
+
+    /**
+     * @return The backend configured with CI_BUILD_BACKEND
+     */
+    static BuildBackend configured() {
+        String name = Config.get("CI_BUILD_BACKEND", "auto");
+        ForkedBuildBackend forked = new ForkedBuildBackend();
+        if (name.equals("forked")) {
+            return forked;
+        }
+        if (!name.equals("daemon") && !name.equals("auto")) {
+            System.err.println("Unknown CI_BUILD_BACKEND " + name + ", using forked Maven builds");
+            return forked;
+        }
+        Path mvnd = DaemonBuildBackend.findMvnd();
+        if (mvnd == null) {
+            if (name.equals("daemon")) {
+                System.err.println("mvnd not found, falling back to forked Maven builds");
+            }
+            return forked;
+        }
+        return new DaemonBuildBackend(mvnd, forked);
+    }
+
+    /**
+     * Looks for an executable on the PATH.
+     *
+     * @param name The name of the executable
+     * @return The real path of the executable, or {@code null} if it was not found
+     */
+    static Path findOnPath(String name) {
+        String path = System.getenv("PATH");
+        if (path == null) {
+            return null;
+        }
+        for (String dir : path.split(File.pathSeparator)) {
+            Path executable = Path.of(dir, name);
+            if (Files.isExecutable(executable)) {
+                try {
+                    return executable.toRealPath();
+                } catch (IOException e) {
+                    return null;
+                }
+            }
+        }
+        return null;
+    }
+}
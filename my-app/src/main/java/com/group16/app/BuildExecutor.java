@@ -0,0 +1,302 @@
+package com.group16.app;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.maven.shared.invoker.DefaultInvocationRequest;
+import org.apache.maven.shared.invoker.InvocationRequest;
+import org.apache.maven.shared.invoker.InvocationResult;
+import org.apache.maven.shared.invoker.MavenInvocationException;
+
+/**
+ * Runs Maven on a checked out project.
+ *
+ * A CI job runs a single Maven invocation that both compiles and tests the
+ * project (CI_BUILD_GOALS, default "clean test"), instead of one Maven run to
+ * compile and another one to test. The output is parsed while it is printed,
+ * to tell a compilation failure from a test failure.
+ *
+ * Maven itself is run by the configured {@link BuildBackend}, either a forked
+ * Maven JVM or a warm Maven daemon, with the local repository of the
+ * {@link ArtifactCache}.
+ *
+ * If the job that runs the build is superseded, its worker thread is
+ * interrupted, and the Invoker then destroys the Maven process.
+ */
+public class BuildExecutor {
+    private static final Metrics.Histogram COMPILE = Metrics.stage("compile");
+    private static final Metrics.Histogram TEST = Metrics.stage("test");
+    private static final Metrics.Histogram RESOLVE = Metrics.stage("resolve");
+    private static final List<String> RESOLVE_GOALS =
+            Arrays.asList(Config.get("CI_RESOLVE_GOALS", "dependency:go-offline").split("\\s+"));
+    private static final List<String> BUILD_GOALS =
+            Arrays.asList(Config.get("CI_BUILD_GOALS", "clean test").split("\\s+"));
+    private static volatile BuildBackend backend = BuildBackend.configured();
+
+    /**
+     * Compiles and tests a project with a single Maven invocation.
+     *
+     * @param projectDir The directory of the project, where pom.xml is located
+     * @return The result of the build
+     */
+    public static BuildResult build(Path projectDir) {
+        return execute(projectDir, BUILD_GOALS, new Properties(), System.out::println);
+    }
+
+    /**
+     * Compiles and tests a project with a single Maven invocation, sending the
+     * output of Maven to the log of the job instead of standard output.
+     *
+     * @param projectDir The directory of the project, where pom.xml is located
+     * @param output     Receives the output of Maven line by line
+     * @return The result of the build
+     */
+    public static BuildResult build(Path projectDir, Consumer<String> output) {
+        return execute(projectDir, BUILD_GOALS, new Properties(), output);
+    }
+
+    /**
+     * Compiles and tests a project with a single Maven invocation, with extra
+     * properties such as a selection of tests.
+     *
+     * @param projectDir The directory of the project, where pom.xml is located
+     * @param properties The properties to pass to Maven
+     * @param output     Receives the output of Maven line by line
+     * @return The result of the build
+     */
+    public static BuildResult build(Path projectDir, Properties properties, Consumer<String> output) {
+        return execute(projectDir, BUILD_GOALS, properties, output);
+    }
+
+    /**
+     * Compiles and tests one cell of a {@link BuildMatrix}, with the JDK,
+     * profiles and properties of its matrix entry.
+     *
+     * @param cell       The cell to build
+     * @param properties More properties to pass to Maven, such as a selection
+     *                   of tests
+     * @param output     Receives the output of Maven line by line
+     * @return The result of the build
+     */
+    public static BuildResult build(BuildMatrix.Cell cell, Properties properties, Consumer<String> output) {
+        return build(cell, BUILD_GOALS, properties, output);
+    }
+
+    /**
+     * Runs other goals on one cell of a {@link BuildMatrix}, such as the
+     * {@link #incrementalGoals()} of a cell whose outputs were restored.
+     *
+     * @param cell       The cell to build
+     * @param goals      The goals or phases to run
+     * @param properties More properties to pass to Maven
+     * @param output     Receives the output of Maven line by line
+     * @return The result of the build
+     */
+    public static BuildResult build(BuildMatrix.Cell cell, List<String> goals, Properties properties,
+            Consumer<String> output) {
+        Properties merged = new Properties();
+        merged.putAll(cell.entry().properties());
+        merged.putAll(properties);
+        return execute(cell.projectDir(), goals, merged, cell.entry().javaHome(), cell.entry().profiles(),
+                output, null);
+    }
+
+    /**
+     * Downloads the dependencies and plugins of a project into the
+     * {@link ArtifactCache} without building it (CI_RESOLVE_GOALS, default
+     * dependency:go-offline). The time is recorded as the resolve stage.
+     *
+     * @param projectDir The directory of the project, where pom.xml is located
+     * @param output     Receives the output of Maven line by line
+     * @return The result of the Maven run
+     */
+    public static BuildResult resolve(Path projectDir, Consumer<String> output) {
+        return execute(projectDir, RESOLVE_GOALS, new Properties(), null, List.of(), output, RESOLVE);
+    }
+
+    /**
+     * @return The goals of {@link #build(Path)}, from CI_BUILD_GOALS
+     */
+    public static List<String> buildGoals() {
+        return BUILD_GOALS;
+    }
+
+    /**
+     * @return The goals of {@link #build(Path)} without clean, so that the
+     *         restored outputs of an earlier build are kept
+     */
+    public static List<String> incrementalGoals() {
+        return BUILD_GOALS.stream().filter(goal -> !goal.equals("clean")).toList();
+    }
+
+    /**
+     * Replaces the backend that runs Maven.
+     *
+     * @param newBackend The backend to use for the next builds
+     */
+    public static void setBackend(BuildBackend newBackend) {
+        backend = newBackend;
+    }
+
+    /**
+     * Runs Maven with the given goals.
+     *
+     * @param projectDir The directory of the project, where pom.xml is located
+     * @param goals      The goals or phases to run
+     * @return The result of the build, with exit code -1 if Maven could not be run
+     */
+    public static BuildResult execute(Path projectDir, List<String> goals) {
+        return execute(projectDir, goals, new Properties(), System.out::println);
+    }
+
+    /**
+     * Runs Maven with the given goals.
+     *
+     * @param projectDir The directory of the project, where pom.xml is located
+     * @param goals      The goals or phases to run
+     * @param properties The properties to pass to Maven
+     * @param output     Receives the output of Maven line by line
+     * @return The result of the build, with exit code -1 if Maven could not be run
+     */
+    public static BuildResult execute(Path projectDir, List<String> goals, Properties properties,
+            Consumer<String> output) {
+        return execute(projectDir, goals, properties, null, List.of(), output, null);
+    }
+
+    // Runs Maven with the given goals, JDK and profiles, and records its time
+    // as the given stage, or as the compile and test stages if null
+    private static BuildResult execute(Path projectDir, List<String> goals, Properties properties, File javaHome,
+            List<String> profiles, Consumer<String> output, Metrics.Histogram stage) {
+        File pomFile = new File(projectDir.toFile(), "pom.xml");
+
+        // Check if the pom.xml file exists before proceeding
+        if (!pomFile.exists()) {
+            System.err.println("Error: pom.xml not found in " + projectDir.toAbsolutePath());
+            return BuildResult.error();
+        }
+
+        InvocationRequest request = new DefaultInvocationRequest();
+        request.setPomFile(pomFile);
+        request.setGoals(goals);
+        request.setBatchMode(true);
+        request.setProperties(properties);
+        request.setProfiles(profiles);
+        if (javaHome != null) {
+            request.setJavaHome(javaHome);
+        }
+
+        // Forward and parse Maven output
+        OutputParser parser = new OutputParser();
+        ArtifactCache.Usage artifacts = ArtifactCache.getDefault().use(request);
+        request.setOutputHandler(line -> {
+            output.accept(line);
+            parser.accept(line);
+            artifacts.accept(line);
+        });
+
+        long start = System.nanoTime();
+        try (artifacts) {
+            InvocationResult result = backend.execute(request);
+            if (stage == null) {
+                parser.recordStages(start, System.nanoTime());
+            } else {
+                stage.record(System.nanoTime() - start);
+            }
+            if (result.getExecutionException() != null) {
+                System.err.println("Error running Maven: " + result.getExecutionException().getMessage());
+                return BuildResult.error();
+            }
+            output.accept("Maven process exited with code: " + result.getExitCode());
+            return parser.result(result.getExitCode());
+        } catch (MavenInvocationException e) {
+            e.printStackTrace();
+            return BuildResult.error();
+        }
+    }
+
+    /**
+     * Reads Maven output line by line and keeps only what is needed to build
+     * the {@link BuildResult}, so memory does not grow with the output.
+     */
+    static class OutputParser {
+        // The summary of a test run, with the flaky tests if surefire reran
+        // failing ones; the lines for single test classes end with the
+        // elapsed time instead
+        private static final Pattern TEST_SUMMARY = Pattern.compile(
+                "Tests run: (\\d+), Failures: (\\d+), Errors: (\\d+), Skipped: (\\d+)(, Flakes: \\d+)?$");
+
+        private long testsStartNanos;
+        private boolean testsRan;
+        private boolean testGoalFailed;
+        private boolean otherGoalFailed;
+        private boolean compilerFailed;
+        private int testsRun;
+        private int testsFailed;
+        private int testsSkipped;
+
+        /**
+         * @param line A line of Maven output
+         */
+        void accept(String line) {
+            if (testsStartNanos == 0 && line.startsWith("[INFO] --- ") && (line.contains("surefire")
+                    || line.contains("failsafe"))) {
+                testsStartNanos = System.nanoTime();
+            }
+            if (line.contains("Failed to execute goal")) {
+                if (line.contains("maven-surefire-plugin") || line.contains("maven-failsafe-plugin")) {
+                    testGoalFailed = true;
+                } else {
+                    otherGoalFailed = true;
+                    compilerFailed |= line.contains("maven-compiler-plugin");
+                }
+                return;
+            }
+            Matcher matcher = TEST_SUMMARY.matcher(line);
+            if (matcher.find()) {
+                testsRan = true;
+                testsRun += Integer.parseInt(matcher.group(1));
+                testsFailed += Integer.parseInt(matcher.group(2)) + Integer.parseInt(matcher.group(3));
+                testsSkipped += Integer.parseInt(matcher.group(4));
+            }
+        }
+
+        /**
+         * Records the time until the tests started as the compile stage, and
+         * the rest as the test stage.
+         *
+         * @param startNanos The time Maven started
+         * @param endNanos   The time Maven ended
+         */
+        void recordStages(long startNanos, long endNanos) {
+            if (testsStartNanos == 0) {
+                COMPILE.record(endNanos - startNanos);
+            } else {
+                COMPILE.record(testsStartNanos - startNanos);
+                TEST.record(endNanos - testsStartNanos);
+            }
+        }
+
+        /**
+         * @param exitCode The exit code of Maven
+         * @return The result of the build
+         */
+        BuildResult result(int exitCode) {
+            if (exitCode == 0) {
+                return new BuildResult(0, true, true, testsRun, testsFailed, testsSkipped, false);
+            }
+            // The tests run after compilation, so a failing test goal means the
+            // sources compiled. Otherwise the build failed, and the tests only
+            // passed if they ran before the failing goal.
+            boolean compileOK = testGoalFailed && !otherGoalFailed;
+            boolean testsOK = !testGoalFailed && testsRan && testsFailed == 0;
+            return new BuildResult(exitCode, compileOK, testsOK, testsRun, testsFailed, testsSkipped,
+                    compilerFailed);
+        }
+    }
+}
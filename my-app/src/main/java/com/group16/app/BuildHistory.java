@@ -0,0 +1,349 @@
+package com.group16.app;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+
+/**
+ * The history of the finished CI jobs, kept in an append-only file so that it
+ * survives restarts without an external database.
+ *
+ * Every job is one line in CI_DATA_DIR/history/builds.tsv. Only the position
+ * of each line is kept in memory, in hash indexes by job ID, commit SHA,
+ * repository and branch, and the records are read from the file when they are
+ * queried. The indexes are rebuilt from the file when the server starts. If
+ * the server stopped in the middle of a write, the incomplete line is cut off.
+ */
+public class BuildHistory implements Closeable {
+    private static BuildHistory defaultHistory;
+
+    private final FileChannel channel;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // Guarded by lock. Record i is lengths[i] bytes at offsets[i], and newer
+    // records have higher numbers.
+    private long[] offsets = new long[1024];
+    private int[] lengths = new int[1024];
+    private int count;
+    private long end;
+    private final Index byId = new Index();
+    private final Index bySha = new Index();
+    private final Index byRepo = new Index();
+    private final Index byBranch = new Index();
+
+    /**
+     * Opens a history file, creating it if needed, and indexes its records.
+     *
+     * @param file The history file
+     * @throws IOException If the file cannot be read
+     */
+    public BuildHistory(Path file) throws IOException {
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        load();
+    }
+
+    /**
+     * @return The history in CI_DATA_DIR/history
+     * @throws IOException If the history cannot be read
+     */
+    public static synchronized BuildHistory getDefault() throws IOException {
+        if (defaultHistory == null) {
+            defaultHistory = new BuildHistory(Config.dataDir().resolve("history").resolve("builds.tsv"));
+        }
+        return defaultHistory;
+    }
+
+    // Reads the file line by line and indexes the records
+    private void load() throws IOException {
+        channel.position(0);
+        InputStream in = Channels.newInputStream(channel);
+        byte[] buffer = new byte[64 * 1024];
+        byte[] line = new byte[1024];
+        int lineLength = 0;
+        long position = 0;
+        long lineStart = 0;
+        int read;
+        while ((read = in.read(buffer)) > 0) {
+            for (int i = 0; i < read; i++, position++) {
+                if (buffer[i] != '\n') {
+                    if (lineLength == line.length) {
+                        line = Arrays.copyOf(line, line.length * 2);
+                    }
+                    line[lineLength++] = buffer[i];
+                    continue;
+                }
+                try {
+                    index(BuildRecord.parse(new String(line, 0, lineLength, StandardCharsets.UTF_8)),
+                            lineStart, lineLength);
+                } catch (IllegalArgumentException e) {
+                    System.err.println("Skipping invalid build record at " + lineStart + ": " + e.getMessage());
+                }
+                lineLength = 0;
+                lineStart = position + 1;
+            }
+        }
+        // Cut off a line that was not completely written
+        if (lineStart < position) {
+            System.err.println("Truncating incomplete build record at " + lineStart);
+            channel.truncate(lineStart);
+        }
+        end = lineStart;
+    }
+
+    private void index(BuildRecord record, long offset, int length) {
+        if (count == offsets.length) {
+            offsets = Arrays.copyOf(offsets, count * 2);
+            lengths = Arrays.copyOf(lengths, count * 2);
+        }
+        offsets[count] = offset;
+        lengths[count] = length;
+        byId.add(hash(record.id()), count);
+        bySha.add(hash(record.sha()), count);
+        byRepo.add(hash(record.repo()), count);
+        byBranch.add(hash(record.branchKey()), count);
+        count++;
+    }
+
+    /**
+     * Appends the record of a finished job.
+     *
+     * @param record The record
+     * @throws IOException If the record cannot be written
+     */
+    public void append(BuildRecord record) throws IOException {
+        String line = record.toLine();
+        ByteBuffer bytes = ByteBuffer.wrap((line + "\n").getBytes(StandardCharsets.UTF_8));
+        int length = bytes.remaining() - 1;
+        lock.writeLock().lock();
+        long offset = end;
+        try {
+            while (bytes.hasRemaining()) {
+                end += channel.write(bytes, end);
+            }
+            index(record, offset, length);
+        } catch (IOException e) {
+            // Leave no partial line behind
+            end = offset;
+            channel.truncate(offset);
+            throw e;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @param id The ID of a job
+     * @return The record of the job, or {@code null} if it is not in the history
+     * @throws IOException If the history cannot be read
+     */
+    public BuildRecord get(String id) throws IOException {
+        List<BuildRecord> records = find(byId, id, BuildRecord::id, 0, 1);
+        return records.isEmpty() ? null : records.get(0);
+    }
+
+    /**
+     * @param repo The repository, as owner/name
+     * @param ref  The branch, e.g. refs/heads/main
+     * @return The newest record of the branch, or {@code null} if there is none
+     * @throws IOException If the history cannot be read
+     */
+    public BuildRecord latest(String repo, String ref) throws IOException {
+        List<BuildRecord> records = forBranch(repo, ref, 0, 1);
+        return records.isEmpty() ? null : records.get(0);
+    }
+
+    /**
+     * @param sha The SHA of a commit
+     * @return The records of all jobs of the commit, newest first
+     * @throws IOException If the history cannot be read
+     */
+    public List<BuildRecord> forSha(String sha) throws IOException {
+        return find(bySha, sha, BuildRecord::sha, 0, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param repo The repository, as owner/name
+     * @param page The page, starting at 0
+     * @param size The number of records per page
+     * @return A page of the records of the repository, newest first
+     * @throws IOException If the history cannot be read
+     */
+    public List<BuildRecord> forRepo(String repo, int page, int size) throws IOException {
+        return find(byRepo, repo, BuildRecord::repo, page, size);
+    }
+
+    /**
+     * @param repo The repository, as owner/name
+     * @param ref  The branch, e.g. refs/heads/main
+     * @param page The page, starting at 0
+     * @param size The number of records per page
+     * @return A page of the records of the branch, newest first
+     * @throws IOException If the history cannot be read
+     */
+    public List<BuildRecord> forBranch(String repo, String ref, int page, int size) throws IOException {
+        String key = repo + ":" + ref;
+        return find(byBranch, key, BuildRecord::branchKey, page, size);
+    }
+
+    /**
+     * @param page The page, starting at 0
+     * @param size The number of records per page
+     * @return A page of all records, newest first
+     * @throws IOException If the history cannot be read
+     */
+    public List<BuildRecord> list(int page, int size) throws IOException {
+        lock.readLock().lock();
+        try {
+            List<BuildRecord> records = new ArrayList<>();
+            long first = count - 1 - (long) page * size;
+            for (long i = first; i >= 0 && i > first - size; i--) {
+                records.add(read((int) i));
+            }
+            return records;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return The number of records
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return count;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Walks the records with the hash of the key. The records of earlier
+    // pages are skipped without reading them, so a page could be off if two
+    // keys had the same 64-bit hash; the returned records are checked.
+    private List<BuildRecord> find(Index index, String key, Function<BuildRecord, String> keyOf, int page,
+            int size) throws IOException {
+        lock.readLock().lock();
+        try {
+            List<BuildRecord> records = new ArrayList<>();
+            int i = index.first(hash(key));
+            for (long skip = (long) page * size; skip > 0 && i >= 0; skip--) {
+                i = index.next(i);
+            }
+            for (; i >= 0 && records.size() < size; i = index.next(i)) {
+                BuildRecord record = read(i);
+                if (key.equals(keyOf.apply(record))) {
+                    records.add(record);
+                }
+            }
+            return records;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private BuildRecord read(int record) throws IOException {
+        ByteBuffer bytes = ByteBuffer.allocate(lengths[record]);
+        long position = offsets[record];
+        while (bytes.hasRemaining()) {
+            int read = channel.read(bytes, position + bytes.position());
+            if (read < 0) {
+                throw new IOException("Build history ends in the middle of a record");
+            }
+        }
+        return BuildRecord.parse(new String(bytes.array(), StandardCharsets.UTF_8));
+    }
+
+    // 64-bit FNV-1a, so that different keys practically never share a hash
+    private static long hash(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            hash ^= key.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Maps the hash of a key to the records with that key, newest first. The
+     * hashes are kept in an open addressing table and the records of one hash
+     * are chained, so the index is a few arrays of primitives however many
+     * records there are.
+     */
+    private static final class Index {
+        private long[] hashes = new long[16];
+        // The newest record with the hash, plus one; 0 is an empty slot
+        private int[] heads = new int[16];
+        private int keys;
+        // For each record, the next older record with the same hash, plus one
+        private int[] next = new int[1024];
+
+        void add(long hash, int record) {
+            if ((keys + 1) * 4L > hashes.length * 3L) {
+                grow();
+            }
+            int slot = slot(hash);
+            if (heads[slot] == 0) {
+                hashes[slot] = hash;
+                keys++;
+            }
+            if (record >= next.length) {
+                next = Arrays.copyOf(next, Math.max(next.length * 2, record + 1));
+            }
+            next[record] = heads[slot];
+            heads[slot] = record + 1;
+        }
+
+        // The newest record with the hash, or -1
+        int first(long hash) {
+            return heads[slot(hash)] - 1;
+        }
+
+        // The next older record with the same hash, or -1
+        int next(int record) {
+            return next[record] - 1;
+        }
+
+        private int slot(long hash) {
+            int mask = hashes.length - 1;
+            int slot = (int) (hash ^ (hash >>> 32)) & mask;
+            while (heads[slot] != 0 && hashes[slot] != hash) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        private void grow() {
+            long[] oldHashes = hashes;
+            int[] oldHeads = heads;
+            hashes = new long[oldHashes.length * 2];
+            heads = new int[oldHeads.length * 2];
+            for (int i = 0; i < oldHashes.length; i++) {
+                if (oldHeads[i] != 0) {
+                    int slot = slot(oldHashes[i]);
+                    hashes[slot] = oldHashes[i];
+                    heads[slot] = oldHeads[i];
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,749 @@
+package com.group16.app;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+import org.eclipse.jgit.lib.ObjectId;
+
+/**
+ * A single CI job for one pushed commit. The job sets the commit status to
+ * PENDING, checks out the commit, compiles the project and runs the tests in
+ * one Maven run, and finally reports SUCCESS, FAILURE or ERROR to GitHub.
+ *
+ * The stages that do not depend on each other overlap: the PENDING status is
+ * delivered in the background, and the dependencies of the commit are
+ * resolved by the {@link DependencyResolver} as soon as the commit is fetched,
+ * while its worktree is checked out. The log says how much of the critical
+ * path this saved.
+ *
+ * If the {@link BuildMatrix} has several cells for the checkout, such as
+ * several projects or JDKs, the cells are built in parallel, on the worker of
+ * the job and on a pool of CI_CELL_WORKERS threads. Every cell reports its
+ * own status in a sub-context, and the status of the job sums them up.
+ *
+ * Jobs are created by {@link ContinuousIntegrationServer} and executed by a
+ * worker of the {@link BuildScheduler}. A job can be superseded by a newer push
+ * to the same branch, in which case its Maven run is killed and the commit gets
+ * a final status saying which commit replaced it.
+ *
+ * The output of the job is written to its {@link BuildLog}, and the commit
+ * statuses link to the page of {@link LogHandler} that shows it. The build
+ * outputs are kept in the {@link ArtifactStore}. When the job ends, it is
+ * recorded in the {@link BuildHistory}.
+ *
+ * A job can also run on a {@link BuildAgent}, which overrides where the log,
+ * the statuses and the record of the job go.
+ */
+public class BuildJob implements Runnable {
+    // Runs the cells of build matrices, except those of the first project of
+    // each job, which run on the worker of the job
+    private static final ExecutorService CELL_POOL = Executors.newFixedThreadPool(
+            Config.getInt("CI_CELL_WORKERS", BuildScheduler.defaultWorkers()), runnable -> {
+                Thread thread = new Thread(runnable, "ci-cell");
+                thread.setDaemon(true);
+                return thread;
+            });
+    private static final Metrics.Histogram CHECKOUT = Metrics.stage("checkout");
+    private static final Metrics.Counter OVERLAP_MILLIS = Metrics.getDefault().counter(
+            "ci_overlapped_milliseconds_total", "The time of job stages that ran in parallel with the checkout");
+    private static final Metrics.Counter BUILD_CPU_MILLIS = Metrics.getDefault().counter(
+            "ci_build_cpu_milliseconds_total", "The CPU time used by Maven builds and their tests");
+
+    private final String id;
+    private final String owner;
+    private final String repo;
+    private final String branch;
+    private final String commitSha;
+    private final String repoURL;
+    private final String serverURL;
+    private final String logURL;
+
+    // Timestamps in milliseconds, set by the scheduler
+    volatile long enqueuedAt;
+    volatile long startedAt;
+    volatile long finishedAt;
+    // Runs if the intake thread of the scheduler rejects the job, set by the
+    // scheduler
+    volatile Runnable onRejected;
+
+    // Cancellation state, guarded by this
+    private Thread worker;
+    private List<Future<List<CellResult>>> cellRuns = List.of();
+    private Future<DependencyResolver.Resolution> resolution;
+    private boolean resolutionAwaited;
+    private volatile String supersededBy;
+
+    // The checkout of the commit, given back to the pool when the job ends
+    private volatile MirrorCache.Workspace workspace;
+
+    // The log of the job while it runs
+    volatile BuildLog log;
+
+    // What is recorded in the build history when the job ends
+    private volatile Status finalStatus = Status.ERROR;
+    private volatile String finalDescription;
+    private long checkoutMillis;
+    private volatile long fetchMillis = -1;
+    private long buildMillis;
+    private int testsRun = -1;
+    private boolean allTests = true;
+    private int testsSkipped;
+    private long savedMillis;
+    private int cores;
+    private long cpuMillis = -1;
+
+    // Whether to build even if the result cache has a result for the tree
+    private volatile boolean forceRebuild;
+
+    /**
+     * Creates a new job.
+     *
+     * @param owner      The owner (user or organization) of the GitHub repository
+     * @param repo       The name of the GitHub repository
+     * @param branch     The pushed ref, e.g. refs/heads/main
+     * @param commitSha  The SHA of the pushed commit
+     * @param repoURL    The clone URL of the repository
+     * @param serverURL  The public URL of the CI server, used to link to the
+     *                   log of the job
+     */
+    public BuildJob(String owner, String repo, String branch, String commitSha, String repoURL,
+            String serverURL) {
+        this(UUID.randomUUID().toString(), owner, repo, branch, commitSha, repoURL, serverURL);
+    }
+
+    /**
+     * Creates a job with a given ID, for the copy of a job that a
+     * {@link BuildAgent} runs for the coordinator.
+     *
+     * @param id         The ID of the job on the coordinator
+     * @param owner      The owner (user or organization) of the GitHub repository
+     * @param repo       The name of the GitHub repository
+     * @param branch     The pushed ref, e.g. refs/heads/main
+     * @param commitSha  The SHA of the pushed commit
+     * @param repoURL    The clone URL of the repository
+     * @param serverURL  The public URL of the coordinator
+     */
+    BuildJob(String id, String owner, String repo, String branch, String commitSha, String repoURL,
+            String serverURL) {
+        this.id = id;
+        this.owner = owner;
+        this.repo = repo;
+        this.branch = branch;
+        this.commitSha = commitSha;
+        this.repoURL = repoURL;
+        this.serverURL = serverURL.replaceAll("/+$", "");
+        this.logURL = this.serverURL + "/logs/" + id;
+    }
+
+    /**
+     * Runs the compile/test pipeline and reports the result to GitHub. The
+     * checkout is given back afterwards, whatever the outcome, and the job is
+     * recorded in the build history.
+     */
+    @Override
+    public void run() {
+        try (BuildLog jobLog = createLog()) {
+            log = jobLog;
+            runPipeline();
+        } catch (IOException e) {
+            System.err.println("Error creating the log of job " + id + ": " + e.getMessage());
+            report(Status.ERROR, "The build log could not be created");
+        } finally {
+            synchronized (this) {
+                if (resolution != null) {
+                    resolution.cancel(true);
+                }
+            }
+            if (workspace != null) {
+                workspace.close();
+            }
+            record();
+        }
+    }
+
+    // The stages of the job
+    void runPipeline() {
+        // Status PENDING while we are building and testing. It is delivered in
+        // the background, and replaced by the final status if that comes first.
+        sendStatus(Status.PENDING, null, Notification.CONTEXT);
+
+        // Check out the pushed commit, then compile and run tests of every
+        // cell with a single Maven invocation each
+        List<BuildMatrix.Cell> cells;
+        try {
+            CheckoutStrategy strategy = CheckoutStrategy.forRepo(repoURL);
+            log.println("Checking out " + commitSha + " of " + repoURL + " (" + branch + ")"
+                    + (strategy.equals(CheckoutStrategy.FULL) ? "" : ", " + strategy));
+            Metrics.Timer checkout = CHECKOUT.time();
+            long checkoutStart = System.currentTimeMillis();
+            // Resolve the dependencies while the worktree is checked out
+            workspace = Compiler.checkout(repoURL, branch, commitSha, (mirror, commit) -> {
+                fetchMillis = System.currentTimeMillis() - checkoutStart;
+                startResolution(mirror, commit);
+            });
+            checkoutMillis = checkout.stop();
+            if (workspace == null) {
+                if (isSuperseded()) {
+                    reportSuperseded();
+                } else {
+                    log.println("The commit could not be checked out");
+                    report(Status.FAILURE, "The commit could not be checked out");
+                }
+                return;
+            }
+            log.println("Checked out in " + checkoutMillis + " ms"
+                    + (fetchMillis < 0 ? "" : " (fetch " + fetchMillis + " ms, worktree "
+                            + (checkoutMillis - fetchMillis) + " ms)")
+                    + (workspace.reused() ? ", reusing the worktree of an earlier build" : ""));
+            cells = BuildMatrix.getDefault().cells(workspace.dir());
+        } catch (RuntimeException e) {
+            System.err.println("Error checking out " + commitSha + ": " + e.getMessage());
+            log.println("Error checking out: " + e);
+            report(Status.ERROR, null);
+            return;
+        }
+
+        boolean matrix = cells.size() > 1;
+        if (matrix) {
+            log.println("Building " + cells.size() + " cells in parallel: "
+                    + String.join(", ", cells.stream().map(BuildMatrix.Cell::name).toList()));
+            for (BuildMatrix.Cell cell : cells) {
+                sendStatus(Status.PENDING, null, cell.context());
+            }
+        }
+        long buildStart = System.currentTimeMillis();
+        List<CellResult> results = runCells(cells);
+        if (results.stream().anyMatch(result -> result.selection() != null)) {
+            buildMillis = System.currentTimeMillis() - buildStart;
+        }
+
+        // A killed Maven run looks like a failed one, so check first
+        if (isSuperseded()) {
+            reportSuperseded();
+            return;
+        }
+
+        // Update the status of the commit according to results
+        testsRun = 0;
+        TestImpact.Selection partial = null;
+        for (CellResult result : results) {
+            testsRun += result.result().testsRun();
+            if (result.selection() != null && !result.selection().all()) {
+                partial = result.selection();
+            }
+            if (matrix) {
+                log.println("[" + result.cell().name() + "] " + result.description());
+                sendStatus(result.status(), result.description(), result.cell().context());
+            }
+        }
+        String description = matrix ? summary(results) : results.get(0).description();
+        allTests = partial == null;
+        if (!allTests) {
+            BuildRecord lastFull = partial.lastFull();
+            testsSkipped = lastFull.testsRun() < 0 ? 0 : Math.max(0, lastFull.testsRun() - testsRun);
+            savedMillis = Math.max(0, lastFull.buildMillis() - buildMillis);
+            log.println("Impact analysis skipped about " + testsSkipped + " tests and saved about "
+                    + savedMillis / 1000 + " s compared to the full run of job " + lastFull.id());
+            description += ", " + testsSkipped + " skipped by impact analysis";
+        }
+        if (description != null) {
+            log.println(description);
+        }
+        report(worst(results), description);
+        System.out.println("CI job done");
+    }
+
+    // The outcome of one cell. The selection is null if the cell did not run
+    // Maven, because of an error or a cached result.
+    private record CellResult(BuildMatrix.Cell cell, Status status, String description, BuildResult result,
+            TestImpact.Selection selection) {
+    }
+
+    // Runs the cells of the first project on the worker thread of the job,
+    // and those of the other projects in parallel on the cell pool. The cells
+    // of one project run one after the other, in its one target directory.
+    private List<CellResult> runCells(List<BuildMatrix.Cell> cells) {
+        boolean matrix = cells.size() > 1;
+        List<List<BuildMatrix.Cell>> projects = BuildMatrix.byProject(cells);
+        List<Future<List<CellResult>>> futures = new ArrayList<>();
+        synchronized (this) {
+            for (List<BuildMatrix.Cell> project : projects.subList(1, projects.size())) {
+                futures.add(CELL_POOL.submit(() -> runCells(project, matrix)));
+            }
+            cellRuns = futures;
+            if (isSuperseded()) {
+                futures.forEach(future -> future.cancel(true));
+            }
+        }
+        List<CellResult> results = new ArrayList<>(runCells(projects.get(0), matrix));
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                results.addAll(futures.get(i).get());
+            } catch (InterruptedException | ExecutionException | CancellationException e) {
+                // Interrupted or cancelled when the job is superseded
+                futures.forEach(future -> future.cancel(true));
+                for (BuildMatrix.Cell cell : projects.get(i + 1)) {
+                    results.add(new CellResult(cell, Status.ERROR, null, BuildResult.error(), null));
+                }
+            }
+        }
+        return results;
+    }
+
+    // Runs the cells of one project one after the other
+    private List<CellResult> runCells(List<BuildMatrix.Cell> cells, boolean matrix) {
+        List<CellResult> results = new ArrayList<>();
+        for (BuildMatrix.Cell cell : cells) {
+            results.add(runCell(cell, matrix));
+        }
+        return results;
+    }
+
+    // Builds one cell, or reuses the result of an earlier build of the same tree
+    private CellResult runCell(BuildMatrix.Cell cell, boolean matrix) {
+        String prefix = matrix ? "[" + cell.name() + "] " : "";
+        try {
+            ResultCache results = ResultCache.getDefault();
+            String cacheKey = results.key(workspace.dir(), cell.projectDir(),
+                    cell.cacheGoals(BuildExecutor.buildGoals()));
+            ResultCache.Hit hit = results.get(cacheKey, forceRebuild);
+            if (hit != null) {
+                log.println(prefix + "Reusing the result of job " + hit.jobId() + ", which built the same tree");
+                log.println(prefix + hit.result().description());
+                return new CellResult(cell, hit.result().status(), hit.result().description() + " (cached)",
+                        hit.result(), null);
+            }
+
+            // Only run the tests affected by the changes, if enabled
+            TestImpact.Selection selection = selectTests(cell.projectDir());
+            if (selection.all()) {
+                log.println(prefix + "Running all tests: " + selection.reason());
+            } else {
+                log.println(prefix + "Running the " + selection.tests().size()
+                        + " test classes affected by the changes (" + selection.reason() + "): "
+                        + String.join(", ", selection.tests()));
+            }
+
+            awaitResolution();
+            RunTests.prepareProject(cell.projectDir());
+
+            // Start from the outputs of the last build of the branch, if they fit
+            BuildOutputCache outputs = BuildOutputCache.getDefault();
+            String fingerprint = outputs.fingerprint(workspace.dir(), cell);
+            BuildOutputCache.Restored restored = forceRebuild ? null
+                    : outputs.restore(getRepoKey(), branch, cell, workspace.dir(), fingerprint);
+            if (restored != null) {
+                log.println(prefix + "Restored the outputs of " + restored.sha()
+                        + (restored.ref().equals(branch) ? "" : " on " + restored.ref()) + ", "
+                        + restored.changedSources() + " sources changed, recompiling "
+                        + restored.staleClasses() + " classes");
+            }
+            // The settings of the matrix entry and the test selection win
+            CoreBudget.Grant grant = CoreBudget.getDefault().acquire(cell.projectDir());
+            Properties properties = grant.properties();
+            properties.putAll(cell.entry().properties());
+            properties.putAll(selection.properties());
+            if (restored != null) {
+                // Only the stale sources, the default recompiles everything
+                // when any source changed
+                properties.setProperty("maven.compiler.useIncrementalCompilation", "false");
+            }
+            log.println(prefix + "Granted " + grant.cores() + " cores, running Maven with " + properties);
+            BuildResult result;
+            // The cores are given back, and the CPU time measured, when Maven ends
+            try (grant) {
+                result = BuildExecutor.build(cell,
+                        restored == null ? BuildExecutor.buildGoals() : BuildExecutor.incrementalGoals(),
+                        properties, line -> log.println(prefix + line));
+                if (restored != null && !result.compileOK() && !isSuperseded()) {
+                    // Never fail a build because of what was restored
+                    log.println(prefix + "Compilation failed with the restored outputs, building from clean");
+                    properties.remove("maven.compiler.useIncrementalCompilation");
+                    result = BuildExecutor.build(cell, properties, line -> log.println(prefix + line));
+                }
+            }
+            recordUsage(grant);
+            log.println(prefix + String.format(Locale.ROOT, "Used %.1f s of CPU in %.1f s (%s of %d cores)",
+                    grant.cpuMillis() / 1000.0, grant.wallMillis() / 1000.0, grant.utilization() < 0 ? "unknown"
+                            : String.format(Locale.ROOT, "%.0f%%", grant.utilization() * 100), grant.cores()));
+            // Only full runs say something about the whole tree
+            if (selection.all() && !isSuperseded()) {
+                results.put(cacheKey, result, id);
+            }
+            System.out.println("Job " + id + " " + prefix + "compile result: " + result.compileOK()
+                    + ", test result: " + result.testsOK());
+            if (!isSuperseded()) {
+                storeArtifacts(cell, matrix ? cell.name() + "/" : "", prefix);
+                if (result.compileOK()) {
+                    outputs.save(getRepoKey(), branch, cell, workspace.dir(), fingerprint);
+                }
+            }
+            String failures = result.compileOK() ? recordTests(cell, cacheKey, prefix) : null;
+            return new CellResult(cell, result.status(),
+                    failures == null ? result.description() : result.description() + ": " + failures, result,
+                    selection);
+        } catch (RuntimeException e) {
+            if (!isSuperseded()) {
+                // Something went wrong with the compilation or test running
+                System.err.println("Error compiling or running tests: " + e.getMessage());
+                log.println(prefix + "Error compiling or running tests: " + e);
+            }
+            return new CellResult(cell, Status.ERROR, null, BuildResult.error(), null);
+        }
+    }
+
+    // Starts to resolve the dependencies of the fetched commit
+    private void startResolution(Path mirror, ObjectId commit) {
+        Future<DependencyResolver.Resolution> started = DependencyResolver.getDefault().start(mirror, commit,
+                line -> log.println("[resolve] " + line));
+        synchronized (this) {
+            resolution = started;
+            if (started != null && isSuperseded()) {
+                started.cancel(true);
+            }
+        }
+    }
+
+    // Waits until the dependencies are resolved, so that Maven does not
+    // download them again. The first cell to wait logs how much of the
+    // critical path the resolution saved by running in parallel with the
+    // checkout.
+    private void awaitResolution() {
+        Future<DependencyResolver.Resolution> pending;
+        boolean first;
+        synchronized (this) {
+            pending = resolution;
+            first = !resolutionAwaited;
+            resolutionAwaited = true;
+        }
+        if (pending == null) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        try {
+            DependencyResolver.Resolution resolved = pending.get();
+            if (!first) {
+                return;
+            }
+            long waitedMillis = System.currentTimeMillis() - start;
+            // Run one after the other, the resolution would have started
+            // after the worktree checkout
+            long overlappedMillis = Math.max(0, Math.min(resolved.millis(), checkoutMillis - fetchMillis));
+            OVERLAP_MILLIS.add(overlappedMillis);
+            if (resolved.projects() == 0) {
+                log.println("The dependencies of the poms were resolved by an earlier build");
+            } else {
+                log.println("Resolved the dependencies of " + resolved.projects() + " projects in "
+                        + resolved.millis() + " ms" + (resolved.ok() ? "" : ", with errors") + ", waited "
+                        + waitedMillis + " ms after the checkout: " + overlappedMillis
+                        + " ms less on the critical path");
+            }
+        } catch (ExecutionException e) {
+            if (first) {
+                log.println("Error resolving the dependencies: " + e.getCause());
+            }
+        } catch (InterruptedException | CancellationException e) {
+            // Superseded, the build is stopped next
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Keeps the build outputs of a cell in the ArtifactStore
+    private void storeArtifacts(BuildMatrix.Cell cell, String pathPrefix, String prefix) {
+        try {
+            ArtifactStore.Stored stored = ArtifactStore.getDefault().collect(id, cell.projectDir(), pathPrefix);
+            if (stored.files() > 0) {
+                log.println(prefix + "Stored " + stored.files() + " artifacts of " + stored.bytes() / 1024
+                        + " KB, of which " + stored.newBytes() / 1024 + " KB were not stored before");
+            }
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Error storing the artifacts of job " + id + ": " + e.getMessage());
+            log.println(prefix + "Error storing the artifacts: " + e);
+        }
+    }
+
+    // Adds the cores and CPU time of a cell to the job
+    private synchronized void recordUsage(CoreBudget.Grant grant) {
+        cores += grant.cores();
+        if (grant.cpuMillis() >= 0) {
+            cpuMillis = Math.max(0, cpuMillis) + grant.cpuMillis();
+            BUILD_CPU_MILLIS.add(grant.cpuMillis());
+        }
+    }
+
+    // The status of the commit: FAILURE if a cell failed, otherwise ERROR if
+    // a cell could not be built, otherwise SUCCESS
+    private static Status worst(List<CellResult> results) {
+        Status status = Status.SUCCESS;
+        for (CellResult result : results) {
+            if (result.status() == Status.FAILURE) {
+                return Status.FAILURE;
+            } else if (result.status() == Status.ERROR) {
+                status = Status.ERROR;
+            }
+        }
+        return status;
+    }
+
+    // Records the tests of a cell in the TestStore, and returns the failed
+    // tests, or null if none failed
+    private String recordTests(BuildMatrix.Cell cell, String tree, String prefix) {
+        try (TestStore.Recorder recorder = TestStore.getDefault().record(getRepoKey(),
+                tree != null ? tree : commitSha + "/" + cell.name())) {
+            if (SurefireReports.parse(cell.projectDir(), recorder) > 0) {
+                log.println(prefix + "Slowest tests: " + recorder.slowest().stream()
+                        .map(test -> String.format(Locale.ROOT, "%s (%.2f s)", test.shortName(),
+                                test.millis() / 1000.0))
+                        .collect(Collectors.joining(", ")));
+            }
+            return recorder.failureSummary();
+        } catch (IOException e) {
+            System.err.println("Error recording the tests of job " + id + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    // The description of the status of a build matrix
+    private static String summary(List<CellResult> results) {
+        List<String> failed = results.stream()
+                .filter(result -> result.status() != Status.SUCCESS)
+                .map(result -> result.cell().name())
+                .toList();
+        int tests = results.stream().mapToInt(result -> result.result().testsRun()).sum();
+        if (failed.isEmpty()) {
+            return String.format("All %d cells were successful (%d tests)", results.size(), tests);
+        }
+        return String.format("%d of %d cells failed: %s", failed.size(), results.size(), String.join(", ", failed));
+    }
+
+    // Selects the tests to run with the build history
+    private TestImpact.Selection selectTests(Path projectDir) {
+        try {
+            return TestImpact.getDefault().select(BuildHistory.getDefault(), workspace.dir(), projectDir,
+                    getRepoKey(), branch, forceRebuild);
+        } catch (IOException e) {
+            return TestImpact.Selection.all("the build history could not be read");
+        }
+    }
+
+    // Sends the final status of the commit
+    void report(Status status, String description) {
+        finalStatus = status;
+        finalDescription = description;
+        Metrics.getDefault().counter("ci_jobs_total", "The finished CI jobs", "status",
+                status.toString().toLowerCase()).increment();
+        sendStatus(status, description, Notification.CONTEXT);
+    }
+
+    /**
+     * Creates the log of the job when it starts to run.
+     *
+     * @return The new log
+     * @throws IOException If the log cannot be created
+     */
+    BuildLog createLog() throws IOException {
+        return BuildLog.create(id);
+    }
+
+    /**
+     * Sets a status of the commit on GitHub, in the background. Delivery
+     * errors are logged by the delivery queue.
+     *
+     * @param status      The status
+     * @param description The description of the status, or {@code null}
+     * @param context     The context of the status, {@link Notification#CONTEXT}
+     *                    or the context of a cell of the build matrix
+     */
+    void sendStatus(Status status, String description, String context) {
+        Notification.sendNotificationAsync(status, logURL, owner, repo, commitSha, description, context);
+    }
+
+    /**
+     * Appends the record of the finished job to the build history.
+     *
+     * @param record The record
+     */
+    void save(BuildRecord record) {
+        try {
+            BuildHistory.getDefault().append(record);
+        } catch (IOException e) {
+            System.err.println("Error recording job " + id + " in the build history: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Marks this job as superseded by a newer commit on the same branch. If the
+     * job is running, its worker thread is interrupted, which makes the Maven
+     * Invoker kill the Maven process.
+     *
+     * @param newerSha The SHA of the commit that replaces this one
+     */
+    public synchronized void supersede(String newerSha) {
+        supersededBy = newerSha;
+        if (worker != null) {
+            worker.interrupt();
+        }
+        cellRuns.forEach(future -> future.cancel(true));
+        if (resolution != null) {
+            resolution.cancel(true);
+        }
+    }
+
+    /**
+     * @return {@code true} if a newer commit on the same branch replaced this job
+     */
+    public boolean isSuperseded() {
+        return supersededBy != null;
+    }
+
+    /**
+     * @return The SHA of the commit that replaced this job, or {@code null}
+     */
+    String getSupersededBy() {
+        return supersededBy;
+    }
+
+    // Appends the job to the build history
+    private void record() {
+        save(new BuildRecord(id, getRepoKey(), branch, commitSha, finalStatus, finalDescription,
+                enqueuedAt, startedAt, System.currentTimeMillis(), checkoutMillis, buildMillis, logURL,
+                testsRun, allTests, testsSkipped, savedMillis, cores, cpuMillis));
+    }
+
+    /**
+     * Ends a job that did not run to its end, such as a job whose build agent
+     * stopped responding, with an ERROR status, and records it in the build
+     * history.
+     *
+     * @param description The reason
+     */
+    void abort(String description) {
+        System.out.println("Job " + id + " for " + commitSha + " aborted: " + description);
+        report(Status.ERROR, description);
+        record();
+    }
+
+    /**
+     * Reports that the scheduler rejected this job after it was offered, so
+     * that the commit does not stay pending on GitHub. The job is recorded in
+     * the build history here, since it never runs.
+     *
+     * @param admission The reason why the job was rejected
+     */
+    void reportRejected(BuildScheduler.Admission admission) {
+        String description = admission == BuildScheduler.Admission.REPO_QUEUE_FULL
+                ? "Build skipped, too many queued builds of " + getRepoKey()
+                : "Build skipped, the build queue is full";
+        System.out.println("Job " + id + " for " + commitSha + " rejected: " + description);
+        report(Status.ERROR, description);
+        record();
+    }
+
+    /**
+     * Sets the final status of a superseded commit, so that it does not stay
+     * pending on GitHub. A job that was dropped from the queue is recorded in
+     * the build history here, since it never runs.
+     */
+    void reportSuperseded() {
+        System.out.println("Job " + id + " for " + commitSha + " superseded by " + supersededBy);
+        if (log != null) {
+            log.println("Superseded by " + supersededBy);
+        }
+        report(Status.ERROR, "Build skipped, superseded by " + supersededBy);
+        if (startedAt == 0) {
+            record();
+        }
+    }
+
+    /**
+     * Makes the job build the commit even if a build of the same tree is in
+     * the {@link ResultCache}.
+     *
+     * @param forceRebuild {@code true} to skip the result cache
+     */
+    public void setForceRebuild(boolean forceRebuild) {
+        this.forceRebuild = forceRebuild;
+    }
+
+    // Called by the scheduler around run()
+    synchronized void begin(Thread thread) {
+        worker = thread;
+    }
+
+    synchronized void end() {
+        worker = null;
+    }
+
+    /**
+     * @return The unique ID of this job
+     */
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * @return The public URL of the server that owns this job
+     */
+    public String getServerURL() {
+        return serverURL;
+    }
+
+    /**
+     * @return The URL of the log of this job
+     */
+    public String getLogURL() {
+        return logURL;
+    }
+
+    /**
+     * @return The key used to share the workers fairly between repositories
+     */
+    public String getRepoKey() {
+        return owner + "/" + repo;
+    }
+
+    /**
+     * @return The key used to coalesce pushes to the same branch
+     */
+    public String getBranchKey() {
+        return owner + "/" + repo + ":" + branch;
+    }
+
+    public String getOwner() {
+        return owner;
+    }
+
+    public String getRepo() {
+        return repo;
+    }
+
+    public String getBranch() {
+        return branch;
+    }
+
+    public String getCommitSha() {
+        return commitSha;
+    }
+
+    public String getRepoURL() {
+        return repoURL;
+    }
+
+    /**
+     * @return {@code true} if the job skips the result cache
+     */
+    public boolean isForceRebuild() {
+        return forceRebuild;
+    }
+}
@@ -0,0 +1,273 @@
+package com.group16.app;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The log of one CI job, stored on disk so that the output of concurrent jobs
+ * is kept apart and memory does not grow with the size of the log.
+ *
+ * The log is split in chunks of {@link #CHUNK_BYTES} bytes. The chunk that is
+ * being written is a plain file, so that it can be read while the job runs;
+ * full chunks are compressed with gzip. Because every chunk but the last has
+ * the same size, any byte range of the log can be read without decompressing
+ * the chunks before it. A log stops growing at CI_LOG_MAX_MB (default 50).
+ *
+ * The logs are stored in CI_DATA_DIR/logs/&lt;job id&gt;.
+ */
+public class BuildLog implements AutoCloseable {
+    static final int CHUNK_BYTES = 1024 * 1024;
+
+    // The logs of the running jobs by their directory, which readers can
+    // wait on. A build agent may keep a copy of a log under another root.
+    private static final Map<Path, BuildLog> running = new ConcurrentHashMap<>();
+
+    private final Path dir;
+    private final long maxBytes;
+
+    // Guarded by this
+    private OutputStream chunk;
+    private long length;
+    private boolean truncated;
+    private boolean closed;
+
+    private BuildLog(Path dir, long maxBytes, long length, boolean closed) {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+        this.length = length;
+        this.closed = closed;
+    }
+
+    /**
+     * @return The directory of the logs of all jobs
+     */
+    public static Path root() {
+        return Config.dataDir().resolve("logs");
+    }
+
+    /**
+     * Creates the log of a job that is starting.
+     *
+     * @param jobId The ID of the job
+     * @return The new, empty log
+     * @throws IOException If the log directory cannot be created
+     */
+    public static BuildLog create(String jobId) throws IOException {
+        return create(root(), jobId, Config.getLong("CI_LOG_MAX_MB", 50) * 1024 * 1024);
+    }
+
+    static BuildLog create(Path root, String jobId, long maxBytes) throws IOException {
+        BuildLog log = new BuildLog(Files.createDirectories(root.resolve(jobId)), maxBytes, 0, false);
+        running.put(log.dir, log);
+        return log;
+    }
+
+    /**
+     * Opens the log of a job for reading. The log of a running job keeps
+     * growing; see {@link #awaitMore(long, long)}.
+     *
+     * @param jobId The ID of the job
+     * @return The log, or {@code null} if the job has no log
+     * @throws IOException If the log cannot be read
+     */
+    public static BuildLog open(String jobId) throws IOException {
+        return open(root(), jobId);
+    }
+
+    static BuildLog open(Path root, String jobId) throws IOException {
+        Path dir = root.resolve(jobId);
+        BuildLog log = running.get(dir);
+        if (log != null) {
+            return log;
+        }
+        if (!Files.isDirectory(dir)) {
+            return null;
+        }
+        return new BuildLog(dir, 0, storedLength(dir), true);
+    }
+
+    // The length of a finished log. If the server stopped while the job was
+    // running there is no length file, but all compressed chunks are full.
+    private static long storedLength(Path dir) throws IOException {
+        Path lengthFile = dir.resolve("length");
+        if (Files.exists(lengthFile)) {
+            return Long.parseLong(Files.readString(lengthFile).trim());
+        }
+        long length = 0;
+        for (int i = 0; ; i++) {
+            if (Files.exists(compressedChunk(dir, i))) {
+                length += CHUNK_BYTES;
+            } else {
+                Path plain = plainChunk(dir, i);
+                return Files.exists(plain) ? length + Files.size(plain) : length;
+            }
+        }
+    }
+
+    private static Path plainChunk(Path dir, long index) {
+        return dir.resolve(String.format("chunk-%05d.log", index));
+    }
+
+    private static Path compressedChunk(Path dir, long index) {
+        return dir.resolve(String.format("chunk-%05d.log.gz", index));
+    }
+
+    /**
+     * Appends a line to the log and wakes up the readers that wait for it.
+     * Lines beyond the size limit are dropped.
+     *
+     * @param line A line of output, without line terminator
+     */
+    public synchronized void println(String line) {
+        if (closed || truncated) {
+            return;
+        }
+        byte[] bytes = (line + "\n").getBytes(StandardCharsets.UTF_8);
+        if (length + bytes.length > maxBytes) {
+            truncated = true;
+            bytes = ("[log truncated at " + maxBytes / (1024 * 1024) + " MB]\n").getBytes(StandardCharsets.UTF_8);
+        }
+        try {
+            write(bytes);
+        } catch (IOException e) {
+            System.err.println("Error writing build log " + dir + ": " + e.getMessage());
+            truncated = true;
+        }
+        notifyAll();
+    }
+
+    // Writes to the current chunk, moving to the next one when it is full
+    private void write(byte[] bytes) throws IOException {
+        int offset = 0;
+        while (offset < bytes.length) {
+            if (chunk == null) {
+                chunk = Files.newOutputStream(plainChunk(dir, length / CHUNK_BYTES));
+            }
+            int count = (int) Math.min(bytes.length - offset, CHUNK_BYTES - length % CHUNK_BYTES);
+            chunk.write(bytes, offset, count);
+            offset += count;
+            length += count;
+            if (length % CHUNK_BYTES == 0) {
+                compress((length - 1) / CHUNK_BYTES);
+            }
+        }
+    }
+
+    // Compresses a written chunk. Readers either see the whole compressed
+    // chunk or the plain one, which they can still read once it is deleted.
+    private void compress(long index) throws IOException {
+        chunk.close();
+        chunk = null;
+        Path plain = plainChunk(dir, index);
+        Path temp = dir.resolve("chunk.tmp");
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(temp))) {
+            Files.copy(plain, out);
+        }
+        Files.move(temp, compressedChunk(dir, index), StandardCopyOption.ATOMIC_MOVE);
+        Files.delete(plain);
+    }
+
+    /**
+     * Finishes the log: the last chunk is compressed and readers waiting for
+     * more output are woken up.
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        try {
+            if (chunk != null) {
+                compress(length / CHUNK_BYTES);
+            }
+            Files.writeString(dir.resolve("length"), Long.toString(length));
+        } catch (IOException e) {
+            System.err.println("Error closing build log " + dir + ": " + e.getMessage());
+        }
+        closed = true;
+        running.remove(dir, this);
+        notifyAll();
+    }
+
+    /**
+     * @return The number of bytes in the log so far
+     */
+    public synchronized long length() {
+        return length;
+    }
+
+    /**
+     * @return {@code true} if the job has finished writing the log
+     */
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Waits until the log is longer than {@code offset} or closed.
+     *
+     * @param offset        The number of bytes the reader has seen
+     * @param timeoutMillis The maximum time to wait
+     * @return {@code true} if there is more to read
+     * @throws InterruptedException If the thread is interrupted
+     */
+    public synchronized boolean awaitMore(long offset, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        long remaining = timeoutMillis;
+        while (length <= offset && !closed && remaining > 0) {
+            wait(remaining);
+            remaining = deadline - System.currentTimeMillis();
+        }
+        return length > offset;
+    }
+
+    /**
+     * Copies a range of the log, decompressing only the chunks it covers.
+     *
+     * @param from The first byte to copy
+     * @param to   The byte after the last one to copy, at most {@link #length()}
+     * @param out  The stream to copy to
+     * @throws IOException If the log cannot be read or the stream written
+     */
+    public void copyTo(long from, long to, OutputStream out) throws IOException {
+        byte[] buffer = new byte[8192];
+        long position = from;
+        while (position < to) {
+            long index = position / CHUNK_BYTES;
+            try (InputStream in = openChunk(index)) {
+                in.skipNBytes(position - index * CHUNK_BYTES);
+                long end = Math.min(to, (index + 1) * CHUNK_BYTES);
+                while (position < end) {
+                    int read = in.read(buffer, 0, (int) Math.min(buffer.length, end - position));
+                    if (read < 0) {
+                        throw new IOException("Build log " + dir + " is shorter than expected");
+                    }
+                    out.write(buffer, 0, read);
+                    position += read;
+                }
+            }
+        }
+    }
+
+    private InputStream openChunk(long index) throws IOException {
+        Path compressed = compressedChunk(dir, index);
+        if (!Files.exists(compressed)) {
+            try {
+                return Files.newInputStream(plainChunk(dir, index));
+            } catch (NoSuchFileException e) {
+                // Compressed since we looked
+            }
+        }
+        return new GZIPInputStream(Files.newInputStream(compressed));
+    }
+}
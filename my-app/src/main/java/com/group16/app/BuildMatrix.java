@@ -0,0 +1,219 @@
+package com.group16.app;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.stream.Stream;
+
+/**
+ * The cells that a push is built in: every Maven project of the checkout,
+ * times every entry of the configured build matrix. The cells of different
+ * projects are built in parallel by the {@link BuildJob}, and the cells of one
+ * project one after the other, since they share its target directory. Each
+ * cell gets its own commit status context.
+ *
+ * The projects are the directories with a pom.xml, up to
+ * CI_MODULE_DEPTH (default 2) levels below the root of the checkout, that are
+ * not inside another project. A project with modules is built as one cell,
+ * since its modules depend on each other.
+ *
+ * The matrix is configured with CI_MATRIX, a list of entries separated by
+ * semicolons, each a name and options separated by commas:
+ * {@code jdk17:jdk=/usr/lib/jvm/java-17;jdk21:jdk=/usr/lib/jvm/java-21,profiles=java21+fast}
+ * The option jdk is the JAVA_HOME of the build, profiles are the Maven
+ * profiles to activate, and any other option is passed as a Maven property.
+ * Without CI_MATRIX, every project is built once with the JDK of the server.
+ */
+public class BuildMatrix {
+    private static BuildMatrix defaultMatrix;
+
+    private final List<Entry> entries;
+    private final int moduleDepth;
+
+    /**
+     * One entry of the matrix.
+     *
+     * @param name       The name of the entry, e.g. jdk21
+     * @param javaHome   The JDK to build with, or {@code null} for the one of
+     *                   the server
+     * @param profiles   The Maven profiles to activate
+     * @param properties The Maven properties to set
+     */
+    public record Entry(String name, File javaHome, List<String> profiles, Properties properties) {
+    }
+
+    /**
+     * One build of a push: a project built with the options of a matrix entry.
+     *
+     * @param name       The name of the cell, used in its status context and
+     *                   in the log
+     * @param projectDir The directory of the Maven project
+     * @param entry      The matrix entry
+     */
+    public record Cell(String name, Path projectDir, Entry entry) {
+        /**
+         * @return The context of the commit status of this cell
+         */
+        public String context() {
+            return Notification.CONTEXT + "/" + name;
+        }
+
+        /**
+         * @param goals The Maven goals of the build
+         * @return The goals, plus the options of the matrix entry, to key the
+         *         {@link ResultCache} with
+         */
+        public List<String> cacheGoals(List<String> goals) {
+            if (entry.javaHome() == null && entry.profiles().isEmpty() && entry.properties().isEmpty()) {
+                return goals;
+            }
+            List<String> key = new ArrayList<>(goals);
+            key.add("jdk=" + entry.javaHome());
+            key.add("profiles=" + String.join("+", entry.profiles()));
+            entry.properties().stringPropertyNames().stream().sorted()
+                    .forEach(name -> key.add("-D" + name + "=" + entry.properties().getProperty(name)));
+            return key;
+        }
+    }
+
+    /**
+     * @param entries     The entries of the matrix, at least one
+     * @param moduleDepth How deep below the root of a checkout to look for
+     *                    Maven projects
+     */
+    public BuildMatrix(List<Entry> entries, int moduleDepth) {
+        if (entries.isEmpty()) {
+            throw new IllegalArgumentException("A build matrix needs at least one entry");
+        }
+        this.entries = List.copyOf(entries);
+        this.moduleDepth = moduleDepth;
+    }
+
+    /**
+     * @return The matrix configured from .env or the environment
+     */
+    public static synchronized BuildMatrix getDefault() {
+        if (defaultMatrix == null) {
+            defaultMatrix = new BuildMatrix(parse(Config.get("CI_MATRIX", "")), Config.getInt("CI_MODULE_DEPTH", 2));
+        }
+        return defaultMatrix;
+    }
+
+    /**
+     * Parses the entries of a matrix, see the class documentation.
+     *
+     * @param spec The matrix, or an empty string for a single default entry
+     * @return The entries
+     * @throws IllegalArgumentException If the matrix is malformed
+     */
+    static List<Entry> parse(String spec) {
+        List<Entry> entries = new ArrayList<>();
+        for (String cell : spec.split(";")) {
+            if (cell.isBlank()) {
+                continue;
+            }
+            String[] parts = cell.trim().split(":", 2);
+            String name = parts[0].trim();
+            if (!name.matches("[A-Za-z0-9._-]+")) {
+                throw new IllegalArgumentException("Invalid matrix entry name: " + name);
+            }
+            File javaHome = null;
+            List<String> profiles = List.of();
+            Properties properties = new Properties();
+            if (parts.length > 1 && !parts[1].isBlank()) {
+                for (String option : parts[1].split(",")) {
+                    String[] keyValue = option.split("=", 2);
+                    if (keyValue.length != 2) {
+                        throw new IllegalArgumentException("Invalid option " + option + " in matrix entry " + name);
+                    }
+                    String key = keyValue[0].trim();
+                    String value = keyValue[1].trim();
+                    switch (key) {
+                        case "jdk" -> javaHome = new File(value);
+                        case "profiles" -> profiles = Arrays.asList(value.split("\\+"));
+                        default -> properties.setProperty(key, value);
+                    }
+                }
+            }
+            entries.add(new Entry(name, javaHome, profiles, properties));
+        }
+        if (entries.isEmpty()) {
+            entries.add(new Entry("default", null, List.of(), new Properties()));
+        }
+        return entries;
+    }
+
+    /**
+     * Lists the cells to build for a checkout. If there is one project and one
+     * matrix entry, there is a single cell.
+     *
+     * @param checkoutDir The checkout
+     * @return The cells, at least one
+     */
+    public List<Cell> cells(Path checkoutDir) {
+        List<Path> projects = projects(checkoutDir, moduleDepth);
+        if (projects.isEmpty()) {
+            // Let the build report the missing pom.xml
+            projects = List.of(checkoutDir);
+        }
+        List<Cell> cells = new ArrayList<>();
+        for (Path project : projects) {
+            String module = checkoutDir.relativize(project).toString().replace('\\', '/');
+            module = module.isEmpty() ? "root" : module;
+            for (Entry entry : entries) {
+                String name = entries.size() == 1 ? module
+                        : projects.size() == 1 ? entry.name() : module + "/" + entry.name();
+                cells.add(new Cell(name, project, entry));
+            }
+        }
+        return cells;
+    }
+
+    /**
+     * Groups cells by their project, in order. The cells of a group build in
+     * the same directory, so they must not run at the same time.
+     *
+     * @param cells The cells, as listed by {@link #cells(Path)}
+     * @return The cells of each project
+     */
+    public static List<List<Cell>> byProject(List<Cell> cells) {
+        Map<Path, List<Cell>> groups = new LinkedHashMap<>();
+        for (Cell cell : cells) {
+            groups.computeIfAbsent(cell.projectDir(), dir -> new ArrayList<>()).add(cell);
+        }
+        return new ArrayList<>(groups.values());
+    }
+
+    /**
+     * Finds the Maven projects of a checkout that are not inside another one.
+     *
+     * @param checkoutDir The checkout
+     * @param depth       How deep below the root to look
+     * @return The directories of the projects, in order
+     */
+    static List<Path> projects(Path checkoutDir, int depth) {
+        List<Path> projects = new ArrayList<>();
+        try (Stream<Path> files = Files.walk(checkoutDir, depth + 1)) {
+            files.filter(file -> file.getFileName().toString().equals("pom.xml"))
+                    .map(Path::getParent)
+                    .filter(dir -> checkoutDir.relativize(dir).toString().isEmpty()
+                            || !checkoutDir.relativize(dir).toString().matches("(.*/)?(\\..*|target)(/.*)?"))
+                    .sorted()
+                    .forEach(dir -> {
+                        if (projects.stream().noneMatch(dir::startsWith)) {
+                            projects.add(dir);
+                        }
+                    });
+        } catch (IOException e) {
+            System.err.println("Error looking for Maven projects in " + checkoutDir + ": " + e.getMessage());
+        }
+        return projects;
+    }
+}
@@ -0,0 +1,512 @@
+package com.group16.app;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.PathSuffixFilter;
+import org.eclipse.jgit.util.FileUtils;
+
+/**
+ * Keeps the compiled outputs of the last build of each branch, so that the
+ * next push to the branch compiles only what changed instead of building
+ * from clean.
+ *
+ * After a build that compiled, the class files, generated sources and
+ * compiler state under target/ are copied to an entry of the branch and
+ * matrix cell. Before the next build, the entry of the branch, or else the
+ * newest entry of another branch whose commit is an ancestor of the pushed
+ * one (such as main for a new feature branch), is copied into the fresh
+ * worktree and Maven runs without clean. The class files of the sources that
+ * changed since the commit of the entry, and of the classes that depend on
+ * them (see {@link TestImpact#affectedClasses}), are deleted, so the compiler
+ * builds them again and leaves the rest. An entry is only used if its
+ * fingerprint, a hash of every pom.xml of the commit, the JDK and the options
+ * of the cell, matches: a change to the build starts from clean.
+ *
+ * Entries are directories in CI_DATA_DIR/outputs, and the least recently used
+ * ones are evicted when there are more than CI_OUTPUT_CACHE_ENTRIES (default
+ * 200) or they are older than CI_OUTPUT_CACHE_DAYS (default 7).
+ * CI_INCREMENTAL=false turns the reuse off, and a commit message with
+ * [ci rebuild] skips it for one push.
+ */
+public class BuildOutputCache {
+    /** The directories under target/ that are kept, not test reports or packages */
+    static final List<String> OUTPUTS = List.of("classes", "test-classes", "generated-sources",
+            "generated-test-sources", "maven-status");
+
+    private static final String METADATA = "entry.properties";
+
+    private static BuildOutputCache defaultCache;
+
+    private final Path dir;
+    private final boolean enabled;
+    private final int maxEntries;
+    private final long maxAgeMillis;
+
+    private final Map<String, Object> locks = new ConcurrentHashMap<>();
+
+    private final LongAdder restored = new LongAdder();
+    private final LongAdder fromAncestor = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder unusable = new LongAdder();
+    private final LongAdder saved = new LongAdder();
+    private final LongAdder evicted = new LongAdder();
+
+    /**
+     * The outputs restored into a worktree.
+     *
+     * @param sha             The commit the outputs were compiled from
+     * @param ref             The branch that built them
+     * @param changedSources  The Java sources that changed since then
+     * @param staleClasses    The changed and deleted classes and the classes
+     *                        that depend on them, whose class files were
+     *                        deleted
+     */
+    public record Restored(String sha, String ref, int changedSources, int staleClasses) {
+    }
+
+    /**
+     * @param dir          The directory of the entries
+     * @param enabled      Whether outputs are restored and saved at all
+     * @param maxEntries   The maximum number of entries
+     * @param maxAgeMillis The maximum age of an entry
+     */
+    public BuildOutputCache(Path dir, boolean enabled, int maxEntries, long maxAgeMillis) {
+        this.dir = dir;
+        this.enabled = enabled;
+        this.maxEntries = maxEntries;
+        this.maxAgeMillis = maxAgeMillis;
+    }
+
+    /**
+     * @return The cache configured from .env or the environment
+     */
+    public static synchronized BuildOutputCache getDefault() {
+        if (defaultCache == null) {
+            defaultCache = new BuildOutputCache(Config.dataDir().resolve("outputs"),
+                    Config.getBoolean("CI_INCREMENTAL", true),
+                    Config.getInt("CI_OUTPUT_CACHE_ENTRIES", 200),
+                    TimeUnit.DAYS.toMillis(Config.getInt("CI_OUTPUT_CACHE_DAYS", 7)));
+        }
+        return defaultCache;
+    }
+
+    /**
+     * Computes the fingerprint of the build of a cell: its outputs can only
+     * be reused by a build with the same fingerprint.
+     *
+     * @param checkoutDir The checkout, a Git worktree
+     * @param cell        The cell to build
+     * @return The fingerprint, or {@code null} if the commit cannot be read
+     */
+    public String fingerprint(Path checkoutDir, BuildMatrix.Cell cell) {
+        try (Repository repository = open(checkoutDir)) {
+            ObjectId tree = repository.resolve("HEAD^{tree}");
+            if (tree == null) {
+                return null;
+            }
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            // Only the ids of the poms, so that a sparse worktree works too
+            try (TreeWalk walk = new TreeWalk(repository)) {
+                walk.addTree(tree);
+                walk.setRecursive(true);
+                walk.setFilter(PathSuffixFilter.create("pom.xml"));
+                while (walk.next()) {
+                    if (walk.getNameString().equals("pom.xml")) {
+                        digest.update((walk.getPathString() + " " + walk.getObjectId(0).name() + "\n")
+                                .getBytes(StandardCharsets.UTF_8));
+                    }
+                }
+            }
+            String config = String.join("\n", "java " + javaVersion(cell.entry().javaHome()),
+                    "goals " + String.join(" ", cell.cacheGoals(BuildExecutor.incrementalGoals())));
+            digest.update(config.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (IOException | NoSuchAlgorithmException e) {
+            System.err.println("Error computing the build output fingerprint: " + e.getMessage());
+            return null;
+        }
+    }
+
+    // The version and home of the JDK of a cell, the one of the server by default
+    private static String javaVersion(File javaHome) throws IOException {
+        if (javaHome == null) {
+            return System.getProperty("java.version") + " " + System.getProperty("java.home");
+        }
+        Path release = javaHome.toPath().resolve("release");
+        String version = "unknown";
+        if (Files.isRegularFile(release)) {
+            for (String line : Files.readAllLines(release)) {
+                if (line.startsWith("JAVA_VERSION=")) {
+                    version = line.substring("JAVA_VERSION=".length()).replace("\"", "");
+                }
+            }
+        }
+        return version + " " + javaHome;
+    }
+
+    /**
+     * Copies the outputs of an earlier build into the target directory of a
+     * cell and deletes the class files that are stale for the checked out
+     * commit. Nothing is restored if no entry fits, or if the changes since
+     * its commit cannot be found.
+     *
+     * @param repo        The repository, as owner/name
+     * @param ref         The pushed ref
+     * @param cell        The cell to build
+     * @param checkoutDir The checkout of the commit, a Git worktree
+     * @param fingerprint The fingerprint from {@link #fingerprint}
+     * @return What was restored, or {@code null} if the cell builds from clean
+     */
+    public Restored restore(String repo, String ref, BuildMatrix.Cell cell, Path checkoutDir,
+            String fingerprint) {
+        if (!enabled || fingerprint == null) {
+            return null;
+        }
+        String project = project(checkoutDir, cell.projectDir());
+        Path target = cell.projectDir().resolve("target");
+        try {
+            Candidate candidate = find(repo, ref, cell.name(), project, checkoutDir, fingerprint);
+            if (candidate == null) {
+                misses.increment();
+                return null;
+            }
+            // Find the changes first, the commit may be missing from a shallow mirror
+            Set<String> changed = new HashSet<>(
+                    TestImpact.changedFiles(checkoutDir, candidate.metadata().getProperty("sha")));
+
+            FileUtils.delete(target.toFile(), FileUtils.RECURSIVE | FileUtils.SKIP_MISSING | FileUtils.RETRY);
+            synchronized (lock(candidate.key())) {
+                Path entry = dir.resolve(candidate.key());
+                if (!Files.isDirectory(entry.resolve("target"))) {
+                    misses.increment();
+                    return null;
+                }
+                // Copied without their times, so the outputs are newer than the sources
+                copy(entry.resolve("target"), target);
+                Files.setLastModifiedTime(entry.resolve(METADATA), FileTime.fromMillis(System.currentTimeMillis()));
+            }
+
+            String prefix = project.isEmpty() ? "" : project + "/";
+            Set<String> changedClasses = new HashSet<>();
+            int changedSources = 0;
+            for (String path : changed) {
+                if (!path.startsWith(prefix)) {
+                    continue;
+                }
+                String file = path.substring(prefix.length());
+                Path output = outputDir(target, file);
+                if (output == null) {
+                    continue;
+                }
+                if (file.endsWith(".java") && (file.startsWith("src/main/java/") || file.startsWith("src/test/java/"))) {
+                    changedSources++;
+                    String name = Path.of(file).getFileName().toString();
+                    changedClasses.add(name.substring(0, name.length() - ".java".length()));
+                    deleteClasses(output);
+                } else {
+                    // A deleted resource would otherwise stay on the class path
+                    Files.deleteIfExists(output);
+                }
+            }
+
+            Map<String, Path> affected = TestImpact.affectedClasses(cell.projectDir(), changedClasses, null);
+            for (Path source : affected.values()) {
+                if (source != null) {
+                    deleteClasses(outputDir(target,
+                            cell.projectDir().relativize(source).toString().replace('\\', '/')));
+                }
+            }
+            restored.increment();
+            if (!candidate.metadata().getProperty("ref").equals(ref)) {
+                fromAncestor.increment();
+            }
+            return new Restored(candidate.metadata().getProperty("sha"), candidate.metadata().getProperty("ref"),
+                    changedSources, affected.size());
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Error restoring the build outputs of " + repo + " " + ref + ": " + e.getMessage());
+            unusable.increment();
+            try {
+                FileUtils.delete(target.toFile(), FileUtils.RECURSIVE | FileUtils.SKIP_MISSING | FileUtils.RETRY);
+            } catch (IOException deleteError) {
+                System.err.println("Error deleting the restored outputs: " + deleteError.getMessage());
+            }
+            return null;
+        }
+    }
+
+    private record Candidate(String key, Properties metadata, boolean sameRef, int commitTime) {
+    }
+
+    // The entry of the branch, or the newest entry of an ancestor on another branch
+    private Candidate find(String repo, String ref, String cell, String project, Path checkoutDir,
+            String fingerprint) throws IOException {
+        List<Candidate> candidates = new ArrayList<>();
+        try (Repository repository = open(checkoutDir); RevWalk walk = new RevWalk(repository)) {
+            RevCommit head = walk.parseCommit(repository.resolve("HEAD"));
+            for (Path entry : entries()) {
+                Properties metadata = readMetadata(entry);
+                if (metadata == null || !repo.equals(metadata.getProperty("repo"))
+                        || !cell.equals(metadata.getProperty("cell"))
+                        || !project.equals(metadata.getProperty("project"))) {
+                    continue;
+                }
+                boolean sameRef = ref.equals(metadata.getProperty("ref"));
+                if (!fingerprint.equals(metadata.getProperty("fingerprint"))) {
+                    if (sameRef) {
+                        unusable.increment();
+                    }
+                    continue;
+                }
+                try {
+                    ObjectId sha = ObjectId.fromString(metadata.getProperty("sha"));
+                    if (!repository.getObjectDatabase().has(sha)) {
+                        continue;
+                    }
+                    RevCommit base = walk.parseCommit(sha);
+                    if (sameRef || walk.isMergedInto(base, head)) {
+                        candidates.add(new Candidate(entry.getFileName().toString(), metadata, sameRef,
+                                base.getCommitTime()));
+                    }
+                } catch (IOException | IllegalArgumentException e) {
+                    // Not in the mirror, or a shallow history that ends before it
+                }
+            }
+        }
+        return candidates.stream()
+                .max(Comparator.comparing(Candidate::sameRef).thenComparingInt(Candidate::commitTime))
+                .orElse(null);
+    }
+
+    /**
+     * Saves the outputs of a cell that compiled, replacing the entry of its
+     * branch.
+     *
+     * @param repo        The repository, as owner/name
+     * @param ref         The pushed ref
+     * @param cell        The cell that was built
+     * @param checkoutDir The checkout of the commit, a Git worktree
+     * @param fingerprint The fingerprint from {@link #fingerprint}
+     */
+    public void save(String repo, String ref, BuildMatrix.Cell cell, Path checkoutDir, String fingerprint) {
+        if (!enabled || fingerprint == null) {
+            return;
+        }
+        String project = project(checkoutDir, cell.projectDir());
+        String key = key(repo, ref, cell.name(), project);
+        Path temp = null;
+        try (Repository repository = open(checkoutDir)) {
+            ObjectId head = repository.resolve("HEAD");
+            if (head == null) {
+                return;
+            }
+            Files.createDirectories(dir);
+            temp = Files.createTempDirectory(dir, key + ".tmp");
+            for (String output : OUTPUTS) {
+                Path source = cell.projectDir().resolve("target").resolve(output);
+                if (Files.isDirectory(source)) {
+                    copy(source, temp.resolve("target").resolve(output));
+                }
+            }
+            Properties metadata = new Properties();
+            metadata.setProperty("repo", repo);
+            metadata.setProperty("ref", ref);
+            metadata.setProperty("cell", cell.name());
+            metadata.setProperty("project", project);
+            metadata.setProperty("sha", head.name());
+            metadata.setProperty("fingerprint", fingerprint);
+            try (Writer writer = Files.newBufferedWriter(temp.resolve(METADATA))) {
+                metadata.store(writer, null);
+            }
+            synchronized (lock(key)) {
+                Path entry = dir.resolve(key);
+                FileUtils.delete(entry.toFile(), FileUtils.RECURSIVE | FileUtils.SKIP_MISSING | FileUtils.RETRY);
+                Files.move(temp, entry, StandardCopyOption.ATOMIC_MOVE);
+                temp = null;
+            }
+            saved.increment();
+        } catch (IOException e) {
+            System.err.println("Error saving the build outputs of " + repo + " " + ref + ": " + e.getMessage());
+        } finally {
+            if (temp != null) {
+                try {
+                    FileUtils.delete(temp.toFile(), FileUtils.RECURSIVE | FileUtils.SKIP_MISSING | FileUtils.RETRY);
+                } catch (IOException e) {
+                    System.err.println("Error deleting " + temp + ": " + e.getMessage());
+                }
+            }
+        }
+        evict();
+    }
+
+    /**
+     * Deletes the entries that are too old, then the least recently used ones
+     * until there are at most the maximum number of entries.
+     */
+    public void evict() {
+        List<Entry> entries = new ArrayList<>();
+        try {
+            for (Path entry : entries()) {
+                entries.add(new Entry(entry, Files.getLastModifiedTime(entry.resolve(METADATA)).toMillis()));
+            }
+        } catch (IOException e) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        entries.sort(Comparator.comparingLong(Entry::lastUsed));
+        for (int i = 0; i < entries.size(); i++) {
+            if (entries.size() - i > maxEntries || now - entries.get(i).lastUsed() > maxAgeMillis) {
+                Path entry = entries.get(i).dir();
+                synchronized (lock(entry.getFileName().toString())) {
+                    try {
+                        FileUtils.delete(entry.toFile(),
+                                FileUtils.RECURSIVE | FileUtils.SKIP_MISSING | FileUtils.RETRY);
+                        evicted.increment();
+                    } catch (IOException e) {
+                        System.err.println("Error evicting build outputs: " + e.getMessage());
+                    }
+                }
+            }
+        }
+    }
+
+    private record Entry(Path dir, long lastUsed) {
+    }
+
+    // The saved entries, without the ones being written
+    private List<Path> entries() throws IOException {
+        if (!Files.isDirectory(dir)) {
+            return List.of();
+        }
+        try (Stream<Path> list = Files.list(dir)) {
+            return list.filter(entry -> Files.isRegularFile(entry.resolve(METADATA))
+                    && !entry.getFileName().toString().contains(".tmp")).toList();
+        }
+    }
+
+    private static Properties readMetadata(Path entry) {
+        Properties metadata = new Properties();
+        try (Reader reader = Files.newBufferedReader(entry.resolve(METADATA))) {
+            metadata.load(reader);
+            return metadata;
+        } catch (IOException e) {
+            // Evicted in the meantime
+            return null;
+        }
+    }
+
+    /**
+     * @return A plain text summary of the use of the cache
+     */
+    public String stats() {
+        long lookups = restored.sum() + misses.sum();
+        return String.format(Locale.ROOT, """
+                enabled %b
+                restored %d
+                restored_from_ancestor %d
+                misses %d
+                unusable %d
+                hit_rate %.3f
+                saved %d
+                evicted %d
+                """,
+                enabled, restored.sum(), fromAncestor.sum(), misses.sum(), unusable.sum(),
+                lookups == 0 ? 0.0 : (double) restored.sum() / lookups, saved.sum(), evicted.sum());
+    }
+
+    private Object lock(String key) {
+        return locks.computeIfAbsent(key, k -> new Object());
+    }
+
+    private static String key(String repo, String ref, String cell, String project) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            String name = String.join("\n", repo, ref, cell, project);
+            return HexFormat.of().formatHex(digest.digest(name.getBytes(StandardCharsets.UTF_8))).substring(0, 32);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String project(Path checkoutDir, Path projectDir) {
+        return checkoutDir.relativize(projectDir).toString().replace('\\', '/');
+    }
+
+    private static Repository open(Path checkoutDir) throws IOException {
+        return new FileRepositoryBuilder().setGitDir(checkoutDir.resolve(".git").toFile()).build();
+    }
+
+    // Where a source or resource of the project ends up under target/, or
+    // null if it is not compiled or copied
+    private static Path outputDir(Path target, String file) {
+        for (String[] root : new String[][] { { "src/main/java/", "classes" }, { "src/main/resources/", "classes" },
+                { "src/test/java/", "test-classes" }, { "src/test/resources/", "test-classes" } }) {
+            if (file.startsWith(root[0])) {
+                return target.resolve(root[1]).resolve(file.substring(root[0].length()));
+            }
+        }
+        return null;
+    }
+
+    // Deletes the class files of a source: Name.class and its nested Name$*.class
+    private static void deleteClasses(Path source) throws IOException {
+        if (source == null || !Files.isDirectory(source.getParent())) {
+            return;
+        }
+        String name = source.getFileName().toString().replaceFirst("\\.java$", "");
+        try (DirectoryStream<Path> classes = Files.newDirectoryStream(source.getParent(),
+                name + ".class")) {
+            for (Path file : classes) {
+                Files.deleteIfExists(file);
+            }
+        }
+        try (DirectoryStream<Path> classes = Files.newDirectoryStream(source.getParent(),
+                name + "$*.class")) {
+            for (Path file : classes) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    private static void copy(Path from, Path to) throws IOException {
+        try (Stream<Path> files = Files.walk(from)) {
+            for (Path file : files.toList()) {
+                Path copy = to.resolve(from.relativize(file).toString());
+                if (Files.isDirectory(file)) {
+                    Files.createDirectories(copy);
+                } else {
+                    Files.copy(file, copy, StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package com.group16.app;
+
+import org.json.JSONObject;
+
+/**
+ * The record of one finished CI job in the {@link BuildHistory}.
+ *
+ * @param id             The ID of the job
+ * @param repo           The repository, as owner/name
+ * @param ref            The pushed ref, e.g. refs/heads/main
+ * @param sha            The SHA of the pushed commit
+ * @param status         The final status of the commit
+ * @param description    The description of the final status
+ * @param enqueuedAt     When the job was queued, in milliseconds since the epoch
+ * @param startedAt      When a worker started the job, or 0 if it never ran
+ * @param finishedAt     When the job finished
+ * @param checkoutMillis The time spent checking out the commit
+ * @param buildMillis    The time spent in Maven
+ * @param log            The URL of the log of the job
+ * @param testsRun       The number of tests that ran, or -1 if unknown
+ * @param allTests       Whether all tests ran, rather than the ones selected
+ *                       by {@link TestImpact}
+ * @param testsSkipped   The estimated number of tests that impact analysis
+ *                       skipped
+ * @param savedMillis    The estimated build time that impact analysis saved
+ * @param cores          The cores granted to the builds of the job by the
+ *                       {@link CoreBudget}
+ * @param cpuMillis      The CPU time used by the builds, or -1 if unknown
+ */
+public record BuildRecord(String id, String repo, String ref, String sha, Status status, String description,
+        long enqueuedAt, long startedAt, long finishedAt, long checkoutMillis, long buildMillis, String log,
+        int testsRun, boolean allTests, int testsSkipped, long savedMillis, int cores, long cpuMillis) {
+
+    /**
+     * @return The time the job waited in the queue
+     */
+    public long waitMillis() {
+        return startedAt == 0 ? finishedAt - enqueuedAt : startedAt - enqueuedAt;
+    }
+
+    /**
+     * @return The time the job ran on a worker
+     */
+    public long runMillis() {
+        return startedAt == 0 ? 0 : finishedAt - startedAt;
+    }
+
+    /**
+     * @return The share of the granted cores that the builds used, or -1 if
+     *         it is unknown
+     */
+    public double utilization() {
+        return cpuMillis < 0 || cores == 0 || buildMillis <= 0 ? -1 : (double) cpuMillis / (buildMillis * cores);
+    }
+
+    /**
+     * @return The key of the branch, as in {@link BuildJob#getBranchKey()}
+     */
+    public String branchKey() {
+        return repo + ":" + ref;
+    }
+
+    /**
+     * @return The record as one line of tab separated fields, without line
+     *         terminator
+     */
+    String toLine() {
+        return String.join("\t", escape(id), escape(repo), escape(ref), escape(sha), status.name(),
+                escape(description), Long.toString(enqueuedAt), Long.toString(startedAt),
+                Long.toString(finishedAt), Long.toString(checkoutMillis), Long.toString(buildMillis), escape(log),
+                Integer.toString(testsRun), Boolean.toString(allTests), Integer.toString(testsSkipped),
+                Long.toString(savedMillis), Integer.toString(cores), Long.toString(cpuMillis));
+    }
+
+    /**
+     * @param line A line written by {@link #toLine()}
+     * @return The record
+     * @throws IllegalArgumentException If the line is not a record
+     */
+    static BuildRecord parse(String line) {
+        String[] fields = line.split("\t", -1);
+        // Records written before impact analysis have 12 fields, and before
+        // core budgets 16
+        if (fields.length != 12 && fields.length != 16 && fields.length != 18) {
+            throw new IllegalArgumentException("Not a build record: " + line);
+        }
+        boolean legacy = fields.length == 12;
+        boolean budgeted = fields.length == 18;
+        return new BuildRecord(unescape(fields[0]), unescape(fields[1]), unescape(fields[2]),
+                unescape(fields[3]), Status.valueOf(fields[4]), unescape(fields[5]), Long.parseLong(fields[6]),
+                Long.parseLong(fields[7]), Long.parseLong(fields[8]), Long.parseLong(fields[9]),
+                Long.parseLong(fields[10]), unescape(fields[11]),
+                legacy ? -1 : Integer.parseInt(fields[12]), legacy || Boolean.parseBoolean(fields[13]),
+                legacy ? 0 : Integer.parseInt(fields[14]), legacy ? 0 : Long.parseLong(fields[15]),
+                budgeted ? Integer.parseInt(fields[16]) : 0, budgeted ? Long.parseLong(fields[17]) : -1);
+    }
+
+    private static String escape(String value) {
+        if (value == null) {
+            return "\\0";
+        }
+        return value.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n").replace("\r", "\\r");
+    }
+
+    private static String unescape(String value) {
+        if (value.equals("\\0")) {
+            return null;
+        }
+        if (value.indexOf('\\') < 0) {
+            return value;
+        }
+        StringBuilder result = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' && i + 1 < value.length()) {
+                c = switch (value.charAt(++i)) {
+                    case 't' -> '\t';
+                    case 'n' -> '\n';
+                    case 'r' -> '\r';
+                    default -> value.charAt(i);
+                };
+            }
+            result.append(c);
+        }
+        return result.toString();
+    }
+
+    /**
+     * @return The record as JSON, for the HTTP API
+     */
+    public JSONObject toJson() {
+        return new JSONObject()
+                .put("id", id)
+                .put("repo", repo)
+                .put("ref", ref)
+                .put("sha", sha)
+                .put("status", status.toString().toLowerCase())
+                .put("description", description == null ? JSONObject.NULL : description)
+                .put("enqueued_at", enqueuedAt)
+                .put("started_at", startedAt)
+                .put("finished_at", finishedAt)
+                .put("wait_ms", waitMillis())
+                .put("checkout_ms", checkoutMillis)
+                .put("build_ms", buildMillis)
+                .put("run_ms", runMillis())
+                .put("log", log)
+                .put("tests_run", testsRun)
+                .put("all_tests", allTests)
+                .put("tests_skipped_by_impact", testsSkipped)
+                .put("saved_ms", savedMillis)
+                .put("cores", cores)
+                .put("cpu_ms", cpuMillis)
+                .put("cpu_utilization", utilization());
+    }
+}
@@ -0,0 +1,60 @@
+package com.group16.app;
+
+/**
+ * The outcome of a Maven run, see {@link BuildExecutor}.
+ *
+ * @param exitCode     The exit code of Maven, or -1 if Maven could not be run
+ * @param compileOK    Whether the sources compiled
+ * @param testsOK      Whether the tests ran and passed
+ * @param testsRun     The number of tests that ran
+ * @param testsFailed  The number of tests that failed or had an error
+ * @param testsSkipped The number of skipped tests
+ * @param compileFailed Whether the compiler rejected the sources, rather than
+ *                     the build failing before or around the compilation
+ */
+public record BuildResult(int exitCode, boolean compileOK, boolean testsOK,
+        int testsRun, int testsFailed, int testsSkipped, boolean compileFailed) {
+
+    /**
+     * @return The result of a build that could not be run at all
+     */
+    public static BuildResult error() {
+        return new BuildResult(-1, false, false, 0, 0, 0, false);
+    }
+
+    /**
+     * @return Whether this result is a verdict on the sources: a success,
+     *         failed tests or compilation errors, and not a build that
+     *         stopped for another reason, such as a dependency that could not
+     *         be downloaded
+     */
+    public boolean conclusive() {
+        return exitCode == 0 || compileOK && testsFailed > 0 || compileFailed;
+    }
+
+    /**
+     * @return The commit status for this result
+     */
+    public Status status() {
+        if (exitCode < 0) {
+            return Status.ERROR;
+        }
+        return compileOK && testsOK ? Status.SUCCESS : Status.FAILURE;
+    }
+
+    /**
+     * @return A short description of this result for the commit status
+     */
+    public String description() {
+        if (exitCode < 0) {
+            return "An error occurred during the build/test";
+        } else if (!compileOK) {
+            return "The build failed";
+        } else if (!testsOK) {
+            return testsFailed > 0
+                    ? String.format("The tests failed (%d of %d)", testsFailed, testsRun)
+                    : "The tests failed";
+        }
+        return String.format("The build/test was successful (%d tests)", testsRun);
+    }
+}
@@ -0,0 +1,520 @@
+package com.group16.app;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs {@link BuildJob}s on a fixed number of worker threads.
+ *
+ * Jobs wait in one queue per repository and the workers take jobs from the
+ * repositories in round-robin order, so a repository that receives many pushes
+ * cannot starve the others. The total number of queued jobs and the number of
+ * queued jobs per repository are bounded; when a bound is reached the job is
+ * rejected and the caller is expected to answer with 503 or 429.
+ *
+ * The webhook handler hands jobs over with {@link #offer(BuildJob)} instead,
+ * which only adds the job to a lock-free inbox, so that the webhook can be
+ * answered at once even while the workers hold the lock. An intake thread
+ * admits the jobs from the inbox, and a job that is rejected then reports
+ * an error status on its commit. Only a full inbox is answered with 503.
+ *
+ * Pushes to the same branch are coalesced: a new job drops the queued jobs of
+ * its branch and cancels the running one, since only the newest commit of a
+ * branch needs a build. The dropped commits get a final status on GitHub.
+ *
+ * Besides the local workers, an {@link AgentCoordinator} can {@link #lease}
+ * jobs to remote build agents, from the same queue and in the same order.
+ * With CI_WORKERS=0 all jobs are built by agents.
+ *
+ * Settings (in .env or the environment):
+ * CI_WORKERS: number of concurrent local jobs (default based on cores and memory)
+ * CI_QUEUE_DEPTH: maximum number of queued jobs (default 64)
+ * CI_QUEUE_DEPTH_PER_REPO: maximum number of queued jobs per repository (default 16)
+ * CI_INTAKE_DEPTH: maximum number of jobs in the inbox (default 1024)
+ * CI_JOB_MEMORY_MB: memory reserved for one job when sizing the pool (default 1024)
+ */
+public class BuildScheduler {
+    /**
+     * The outcome of {@link BuildScheduler#submit(BuildJob)}.
+     */
+    public enum Admission {
+        ACCEPTED, QUEUE_FULL, REPO_QUEUE_FULL
+    }
+
+    private static final Metrics.Histogram QUEUE = Metrics.stage("queue");
+
+    private final int workers;
+    private final int maxQueued;
+    private final int maxQueuedPerRepo;
+    private final int maxInbox;
+
+    // Jobs offered by the webhook handler that the intake thread has not
+    // admitted yet
+    private final ConcurrentLinkedQueue<BuildJob> inbox = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger inboxSize = new AtomicInteger();
+    private volatile Thread intake;
+    private volatile boolean stopping;
+
+    // Guarded by this
+    private final Map<String, ArrayDeque<BuildJob>> queues = new HashMap<>();
+    private final ArrayDeque<String> readyRepos = new ArrayDeque<>();
+    private final Map<String, BuildJob> runningByBranch = new HashMap<>();
+    private int queued;
+    private boolean shutdown;
+
+    private final List<Thread> threads = new ArrayList<>();
+
+    private final AtomicInteger running = new AtomicInteger();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder superseded = new LongAdder();
+    private final LongAdder totalWaitMillis = new LongAdder();
+    private final LongAdder totalRunMillis = new LongAdder();
+    private final AtomicLong maxWaitMillis = new AtomicLong();
+    private final AtomicLong maxRunMillis = new AtomicLong();
+
+    /**
+     * Creates a scheduler configured from .env or the environment.
+     */
+    public BuildScheduler() {
+        this(Config.getInt("CI_WORKERS", defaultWorkers()),
+                Config.getInt("CI_QUEUE_DEPTH", 64),
+                Config.getInt("CI_QUEUE_DEPTH_PER_REPO", 16),
+                Config.getInt("CI_INTAKE_DEPTH", 1024));
+    }
+
+    /**
+     * Creates a scheduler with an inbox of 1024 jobs.
+     *
+     * @param workers          The number of jobs that may run at the same time
+     * @param maxQueued        The maximum number of jobs waiting to run
+     * @param maxQueuedPerRepo The maximum number of jobs waiting to run for a
+     *                         single repository
+     */
+    public BuildScheduler(int workers, int maxQueued, int maxQueuedPerRepo) {
+        this(workers, maxQueued, maxQueuedPerRepo, 1024);
+    }
+
+    /**
+     * Creates a scheduler.
+     *
+     * @param workers          The number of jobs that may run at the same time
+     *                         on this server, 0 if only agents build
+     * @param maxQueued        The maximum number of jobs waiting to run
+     * @param maxQueuedPerRepo The maximum number of jobs waiting to run for a
+     *                         single repository
+     * @param maxInbox         The maximum number of offered jobs waiting to be
+     *                         admitted
+     */
+    public BuildScheduler(int workers, int maxQueued, int maxQueuedPerRepo, int maxInbox) {
+        if (workers < 0 || maxQueued < 1 || maxQueuedPerRepo < 1 || maxInbox < 1) {
+            throw new IllegalArgumentException("Scheduler limits must be positive");
+        }
+        this.workers = workers;
+        this.maxQueued = maxQueued;
+        this.maxQueuedPerRepo = maxQueuedPerRepo;
+        this.maxInbox = maxInbox;
+    }
+
+    /**
+     * Computes the default number of workers. Every job forks a Maven JVM that
+     * uses several cores, so we run one job per two cores, and never more jobs
+     * than fit in physical memory.
+     *
+     * @return The default number of workers
+     */
+    static int defaultWorkers() {
+        int byCores = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        long jobMemory = Config.getInt("CI_JOB_MEMORY_MB", 1024) * 1024L * 1024L;
+        long totalMemory = Runtime.getRuntime().maxMemory();
+        if (ManagementFactory.getOperatingSystemMXBean() instanceof com.sun.management.OperatingSystemMXBean os) {
+            totalMemory = os.getTotalMemorySize();
+        }
+        int byMemory = (int) Math.max(1, totalMemory / Math.max(1, jobMemory));
+        return Math.min(byCores, byMemory);
+    }
+
+    /**
+     * Starts the worker threads.
+     */
+    public synchronized void start() {
+        if (!threads.isEmpty()) {
+            return;
+        }
+        for (int i = 0; i < workers; i++) {
+            Thread thread = new Thread(this::work, "ci-worker-" + i);
+            thread.setDaemon(true);
+            threads.add(thread);
+            thread.start();
+        }
+        intake = new Thread(this::admit, "ci-intake");
+        intake.setDaemon(true);
+        intake.start();
+        Metrics metrics = Metrics.getDefault();
+        metrics.gauge("ci_workers", "The worker threads that run CI jobs", () -> workers);
+        metrics.gauge("ci_jobs_running", "The CI jobs that are running", this::getRunning);
+        metrics.gauge("ci_jobs_queued", "The CI jobs that wait for a worker", this::getQueueDepth);
+        metrics.gauge("ci_jobs_inbox", "The offered CI jobs that wait to be admitted", inboxSize::get);
+        System.out.println("Build scheduler started with " + workers + " workers, queue depth " + maxQueued);
+    }
+
+    /**
+     * Stops accepting jobs and waits until the workers have finished the jobs
+     * that are already queued.
+     */
+    public void shutdown() {
+        // Admit the offered jobs first
+        stopping = true;
+        Thread intakeThread = intake;
+        if (intakeThread != null) {
+            LockSupport.unpark(intakeThread);
+            try {
+                intakeThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        for (BuildJob job = inbox.poll(); job != null; job = inbox.poll()) {
+            reject(job, submit(job));
+        }
+        synchronized (this) {
+            shutdown = true;
+            notifyAll();
+        }
+        for (Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Queues a job.
+     *
+     * @param job The job to run
+     * @return {@link Admission#ACCEPTED} if the job was queued, otherwise the
+     *         reason why it was rejected
+     */
+    public Admission submit(BuildJob job) {
+        List<BuildJob> dropped = new ArrayList<>();
+        synchronized (this) {
+            if (shutdown) {
+                rejected.increment();
+                return Admission.QUEUE_FULL;
+            }
+            ArrayDeque<BuildJob> queue = queues.get(job.getRepoKey());
+
+            // The queued jobs of the same branch make room for the new one,
+            // but are only dropped once it is sure to be queued
+            if (queue != null) {
+                for (BuildJob queuedJob : queue) {
+                    if (queuedJob.getBranchKey().equals(job.getBranchKey())) {
+                        dropped.add(queuedJob);
+                    }
+                }
+            }
+            if (queued - dropped.size() >= maxQueued) {
+                rejected.increment();
+                return Admission.QUEUE_FULL;
+            }
+            if (queue != null && queue.size() - dropped.size() >= maxQueuedPerRepo) {
+                rejected.increment();
+                return Admission.REPO_QUEUE_FULL;
+            }
+
+            // Drop the queued jobs of the same branch and cancel the running one
+            if (queue != null) {
+                queue.removeAll(dropped);
+                queued -= dropped.size();
+            }
+            BuildJob runningJob = runningByBranch.get(job.getBranchKey());
+            if (runningJob != null && !runningJob.getCommitSha().equals(job.getCommitSha())) {
+                runningJob.supersede(job.getCommitSha());
+                superseded.increment();
+            }
+
+            if (queue == null) {
+                queue = new ArrayDeque<>();
+                queues.put(job.getRepoKey(), queue);
+                readyRepos.add(job.getRepoKey());
+            }
+            job.enqueuedAt = System.currentTimeMillis();
+            queue.add(job);
+            queued++;
+            notify();
+        }
+
+        // Report the dropped commits outside the lock, the GitHub call is slow
+        for (BuildJob droppedJob : dropped) {
+            droppedJob.supersede(job.getCommitSha());
+            superseded.increment();
+            CompletableFuture.runAsync(droppedJob::reportSuperseded);
+        }
+        return Admission.ACCEPTED;
+    }
+
+    /**
+     * Hands a job over to the scheduler without waiting for its lock. The job
+     * is admitted by the intake thread soon after, and reports an error status
+     * itself if it is rejected then. Before the scheduler is started, the job
+     * is submitted directly.
+     *
+     * @param job The job to run
+     * @return {@link Admission#ACCEPTED} if the job was added to the inbox or
+     *         queued, otherwise the reason why it was rejected
+     */
+    public Admission offer(BuildJob job) {
+        return offer(job, null);
+    }
+
+    /**
+     * Hands a job over to the scheduler without waiting for its lock, like
+     * {@link #offer(BuildJob)}.
+     *
+     * @param job        The job to run
+     * @param onRejected Runs if the intake thread rejects the job after this
+     *                   method accepted it, or {@code null}
+     * @return {@link Admission#ACCEPTED} if the job was added to the inbox or
+     *         queued, otherwise the reason why it was rejected
+     */
+    public Admission offer(BuildJob job, Runnable onRejected) {
+        Thread intakeThread = intake;
+        if (intakeThread == null || stopping) {
+            return submit(job);
+        }
+        if (inboxSize.incrementAndGet() > maxInbox) {
+            inboxSize.decrementAndGet();
+            rejected.increment();
+            return Admission.QUEUE_FULL;
+        }
+        job.onRejected = onRejected;
+        inbox.add(job);
+        LockSupport.unpark(intakeThread);
+        return Admission.ACCEPTED;
+    }
+
+    // Main loop of the intake thread: admits the offered jobs in order
+    private void admit() {
+        while (true) {
+            BuildJob job = inbox.poll();
+            if (job == null) {
+                if (stopping) {
+                    return;
+                }
+                LockSupport.park(this);
+                continue;
+            }
+            inboxSize.decrementAndGet();
+            reject(job, submit(job));
+        }
+    }
+
+    // Lets a job that was offered but not admitted report it
+    private static void reject(BuildJob job, Admission admission) {
+        if (admission != Admission.ACCEPTED) {
+            CompletableFuture.runAsync(() -> {
+                if (job.onRejected != null) {
+                    job.onRejected.run();
+                }
+                job.reportRejected(admission);
+            });
+        }
+    }
+
+    // Takes the next job in round-robin order over the repositories, or
+    // returns null when the scheduler is shut down and the queue is empty, or
+    // after waiting for the given time if it is not 0
+    private synchronized BuildJob take(long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (readyRepos.isEmpty() && !shutdown) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (timeoutMillis > 0 && remaining <= 0) {
+                return null;
+            }
+            wait(timeoutMillis > 0 ? remaining : 0);
+        }
+        if (readyRepos.isEmpty()) {
+            return null;
+        }
+        String repoKey = readyRepos.poll();
+        ArrayDeque<BuildJob> queue = queues.get(repoKey);
+        BuildJob job = queue.poll();
+        if (queue.isEmpty()) {
+            queues.remove(repoKey);
+        } else {
+            readyRepos.add(repoKey);
+        }
+        queued--;
+        runningByBranch.put(job.getBranchKey(), job);
+        return job;
+    }
+
+    // Removes a finished job from the running jobs of its branch
+    private synchronized void finish(BuildJob job) {
+        runningByBranch.remove(job.getBranchKey(), job);
+    }
+
+    // Main loop of a worker thread
+    private void work() {
+        while (true) {
+            BuildJob job;
+            try {
+                job = take(0);
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (job == null) {
+                return;
+            }
+
+            started(job);
+            job.begin(Thread.currentThread());
+            try {
+                job.run();
+            } catch (RuntimeException e) {
+                System.err.println("Job " + job.getId() + " failed: " + e.getMessage());
+            } finally {
+                job.end();
+                Thread.interrupted(); // Clear an interrupt from a late cancellation
+                complete(job);
+            }
+        }
+    }
+
+    // Counts a job that a worker or an agent starts
+    private void started(BuildJob job) {
+        job.startedAt = System.currentTimeMillis();
+        long waitMillis = job.startedAt - job.enqueuedAt;
+        totalWaitMillis.add(waitMillis);
+        QUEUE.recordMillis(waitMillis);
+        maxWaitMillis.accumulateAndGet(waitMillis, Math::max);
+        running.incrementAndGet();
+    }
+
+    /**
+     * Takes the next job for a remote agent, as a worker would. The job
+     * counts as running until it is given to {@link #complete(BuildJob)} or
+     * {@link #requeue(BuildJob)}.
+     *
+     * @param waitMillis The maximum time to wait for a job
+     * @return The job, or {@code null} if there was none in time or the
+     *         scheduler is shut down
+     * @throws InterruptedException If the thread is interrupted while waiting
+     */
+    public BuildJob lease(long waitMillis) throws InterruptedException {
+        BuildJob job = take(Math.max(1, waitMillis));
+        if (job != null) {
+            started(job);
+        }
+        return job;
+    }
+
+    /**
+     * Ends a job that was taken by a worker or leased to an agent.
+     *
+     * @param job The job
+     */
+    public void complete(BuildJob job) {
+        finish(job);
+        job.finishedAt = System.currentTimeMillis();
+        long runMillis = job.finishedAt - job.startedAt;
+        totalRunMillis.add(runMillis);
+        maxRunMillis.accumulateAndGet(runMillis, Math::max);
+        running.decrementAndGet();
+        completed.increment();
+    }
+
+    /**
+     * Puts a leased job back at the head of the queue of its repository, when
+     * the agent that had it stopped responding. The job keeps its place ahead
+     * of the limits of the queue, since it was admitted before. A superseded
+     * job is not queued again. The job counts as not started until it is
+     * taken again, so that a newer commit that drops it from the queue
+     * records it as it would any queued job.
+     *
+     * @param job The job
+     * @return {@code true} if the job was queued, {@code false} if it was
+     *         superseded or the scheduler is shut down, in which case it
+     *         still has to be completed
+     */
+    public boolean requeue(BuildJob job) {
+        synchronized (this) {
+            if (shutdown || job.isSuperseded()) {
+                return false;
+            }
+            running.decrementAndGet();
+            runningByBranch.remove(job.getBranchKey(), job);
+            job.startedAt = 0;
+            ArrayDeque<BuildJob> queue = queues.get(job.getRepoKey());
+            if (queue == null) {
+                queue = new ArrayDeque<>();
+                queues.put(job.getRepoKey(), queue);
+                readyRepos.addFirst(job.getRepoKey());
+            }
+            queue.addFirst(job);
+            queued++;
+            notify();
+            return true;
+        }
+    }
+
+    /**
+     * @return The number of worker threads
+     */
+    public int getWorkers() {
+        return workers;
+    }
+
+    /**
+     * @return The number of jobs waiting for a worker
+     */
+    public synchronized int getQueueDepth() {
+        return queued;
+    }
+
+    /**
+     * @return The number of jobs currently running
+     */
+    public int getRunning() {
+        return running.get();
+    }
+
+    /**
+     * @return A plain text summary of the queue, wait time and run time
+     */
+    public String stats() {
+        long done = completed.sum();
+        long started = done + running.get();
+        return String.format("""
+                workers %d
+                running %d
+                inbox %d
+                queued %d
+                queue_capacity %d
+                completed %d
+                rejected %d
+                superseded %d
+                wait_ms_avg %d
+                wait_ms_max %d
+                run_ms_avg %d
+                run_ms_max %d
+                """,
+                workers, running.get(), inboxSize.get(), getQueueDepth(), maxQueued, done, rejected.sum(),
+                superseded.sum(),
+                started == 0 ? 0 : totalWaitMillis.sum() / started, maxWaitMillis.get(),
+                done == 0 ? 0 : totalRunMillis.sum() / done, maxRunMillis.get());
+    }
+}
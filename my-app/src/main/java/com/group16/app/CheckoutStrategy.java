@@ -0,0 +1,151 @@
+package com.group16.app;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.eclipse.jgit.transport.FilterSpec;
+
+/**
+ * How the {@link MirrorCache} fetches and checks out the commits of a
+ * repository. A build of a large repository can leave out what it does not
+ * need:
+ * shallow: fetch only the pushed commit, without its history
+ * sparse: only check out the files at the root and the Maven projects of the
+ * commit, found as the {@link BuildMatrix} finds them, or the given directories
+ * filter: fetch with a Git object filter such as blob:none, and then fetch only
+ * the blobs that the checkout needs
+ *
+ * Configured with CI_CHECKOUT, a list of entries separated by semicolons, each
+ * a repository (owner/name, or * for any other) and options separated by
+ * commas:
+ * {@code group16/monorepo:shallow,sparse=my-app+lib,filter=blob:none;*:shallow}
+ * Without an entry, the whole history is fetched and the whole tree checked
+ * out. A build only needs the files of its commit, but {@link TestImpact}
+ * compares them with an earlier commit, which a shallow mirror only has if it
+ * fetched that commit for a build too; otherwise every test runs.
+ *
+ * @param shallow Whether to fetch the commit without its history
+ * @param sparse  The directories to check out besides the files at the root,
+ *                empty for the Maven projects of the commit, or {@code null}
+ *                for the whole tree
+ * @param filter  The object filter of fetches, or {@code null}
+ */
+public record CheckoutStrategy(boolean shallow, List<String> sparse, String filter) {
+    /**
+     * The whole history and the whole tree.
+     */
+    public static final CheckoutStrategy FULL = new CheckoutStrategy(false, null, null);
+
+    private static Map<String, CheckoutStrategy> configured;
+
+    /**
+     * @param repoUrl The clone URL of a repository
+     * @return The strategy configured for the repository
+     */
+    public static CheckoutStrategy forRepo(String repoUrl) {
+        synchronized (CheckoutStrategy.class) {
+            if (configured == null) {
+                configured = parse(Config.get("CI_CHECKOUT", ""));
+            }
+        }
+        return lookup(configured, repoUrl);
+    }
+
+    /**
+     * @param strategies The strategies by repository, see {@link #parse}
+     * @param repoUrl    The clone URL of a repository
+     * @return The strategy of the repository, else the one of *, else
+     *         {@link #FULL}
+     */
+    static CheckoutStrategy lookup(Map<String, CheckoutStrategy> strategies, String repoUrl) {
+        String[] parts = repoUrl.replaceAll("(\\.git)?/*$", "").split("[/:]");
+        String repo = parts.length < 2 ? repoUrl
+                : (parts[parts.length - 2] + "/" + parts[parts.length - 1]).toLowerCase(Locale.ROOT);
+        return strategies.getOrDefault(repo, strategies.getOrDefault("*", FULL));
+    }
+
+    /**
+     * Parses the strategies of repositories, see the class documentation.
+     *
+     * @param spec The strategies, or an empty string for none
+     * @return The strategies by lower case owner/name, or *
+     * @throws IllegalArgumentException If the strategies are malformed
+     */
+    static Map<String, CheckoutStrategy> parse(String spec) {
+        Map<String, CheckoutStrategy> strategies = new HashMap<>();
+        for (String entry : spec.split(";")) {
+            if (entry.isBlank()) {
+                continue;
+            }
+            String[] parts = entry.trim().split(":", 2);
+            String repo = parts[0].trim().toLowerCase(Locale.ROOT);
+            if (!repo.equals("*") && !repo.matches("[a-z0-9._-]+/[a-z0-9._-]+")) {
+                throw new IllegalArgumentException("Invalid checkout entry repository: " + repo);
+            }
+            boolean shallow = false;
+            List<String> sparse = null;
+            String filter = null;
+            if (parts.length > 1 && !parts[1].isBlank()) {
+                for (String option : parts[1].split(",")) {
+                    String[] keyValue = option.split("=", 2);
+                    String key = keyValue[0].trim();
+                    String value = keyValue.length > 1 ? keyValue[1].trim() : null;
+                    switch (key) {
+                        case "shallow" -> shallow = true;
+                        case "sparse" -> sparse = value == null || value.isEmpty() ? List.of()
+                                : Arrays.stream(value.split("\\+")).map(CheckoutStrategy::directory).toList();
+                        case "filter" -> filter = filter(value);
+                        default -> throw new IllegalArgumentException("Invalid option " + option
+                                + " in checkout entry " + repo);
+                    }
+                }
+            }
+            strategies.put(repo, new CheckoutStrategy(shallow, sparse, filter));
+        }
+        return strategies;
+    }
+
+    // A directory of a sparse checkout, relative to the root
+    private static String directory(String value) {
+        String dir = value.replaceAll("^/+|/+$", "");
+        if (dir.isEmpty() || Arrays.stream(dir.split("/")).anyMatch(name -> name.matches("\\.*"))) {
+            throw new IllegalArgumentException("Invalid sparse checkout directory: " + value);
+        }
+        return dir;
+    }
+
+    // An object filter that JGit can send
+    private static String filter(String value) {
+        try {
+            if (value == null || FilterSpec.fromFilterLine(value).isNoOp()) {
+                throw new IOException("No filter");
+            }
+            return value;
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Invalid checkout filter: " + value);
+        }
+    }
+
+    /**
+     * @return The options of the strategy for the build log, e.g.
+     *         "shallow, sparse (my-app), blob:none", or "full"
+     */
+    @Override
+    public String toString() {
+        StringBuilder options = new StringBuilder();
+        if (shallow) {
+            options.append(", shallow");
+        }
+        if (sparse != null) {
+            options.append(sparse.isEmpty() ? ", sparse" : ", sparse (" + String.join(", ", sparse) + ")");
+        }
+        if (filter != null) {
+            options.append(", ").append(filter);
+        }
+        return options.isEmpty() ? "full" : options.substring(2);
+    }
+}
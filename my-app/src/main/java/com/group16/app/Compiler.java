@@ -1,20 +1,17 @@
 package com.group16.app;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.List;
 
 import javax.servlet.http.HttpServletResponse;
 
-import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.api.errors.GitAPIException;
 /**
- * This class is responsible for cloning a Git repository and compiling the code with Maven.
+ * This class is responsible for checking out a Git repository and compiling the code with Maven.
+ * The repository is checked out from a local mirror, see {@link MirrorCache}.
  */
 public class Compiler{
-    static Path tempDir;
 
     /**
      * compileProj clones a Git repository from a specified branch and repo URL.
@@ -30,61 +27,65 @@ public class Compiler{
 
         // Clones the to a temporary directory.
         System.out.println("Cloning repository: " + repoUrl);
-        boolean cloneSuccess = cloneRepo(repoUrl, branchName, "cloned-repo");
+        MirrorCache.Workspace workspace = checkout(repoUrl, branchName, null);
+        boolean cloneSuccess = workspace != null;
         System.out.println("Cloned repo: " + repoUrl + ", Branch: " + branchName + ", Successful: " + cloneSuccess);
         // If cloning is successful use maven to compile the project
         if(cloneSuccess){
-            ProcessBuilder processBuilder = new ProcessBuilder();
-            processBuilder.command("mvn", "clean", "compile");
-            Path projectDir = tempDir.resolve("my-app"); // Goes into the maven project
-            
-            processBuilder.directory(projectDir.toFile());
-            processBuilder.redirectErrorStream(true);
-            try {
-                // Start the Maven process
-                Process process = processBuilder.start();
-                
-                // Read and output Maven process logs
-                try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
-                    String line;
-                    while ((line = reader.readLine()) != null) {
-                        System.out.println(line);
-                    }
-                }
-                
-                // Wait for the process to complete and get the exit code
-                int exitCode = process.waitFor();
-                System.out.println("Maven process exited with code: " + exitCode);
-                return true;
-                
-            } catch (IOException | InterruptedException e) {
-                e.printStackTrace();
+            try (workspace) {
+                BuildResult result = BuildExecutor.execute(projectDir(workspace.dir()), List.of("clean", "compile"));
+                return result.compileOK();
             }
-        } else {
-            System.out.println("Cloned repo: " + repoUrl + ", Branch: " + branchName + ", Successful: " + cloneSuccess);
-            return false;
         }
         return false;
     }
 
-    // Clones repository from a url
-    private static boolean cloneRepo(String repoUrl, String branchName, String cloneDir) throws IOException {
-        try {
-            tempDir = Files.createTempDirectory("tempRepo");
+    /**
+     * Fetches the branch into the local mirror of the repository and checks out
+     * a commit into a workspace of the caller, with the checkout strategy of
+     * the repository. The workspace must be closed when the caller is done
+     * with it.
+     * @param repoUrl a String containing the URL of the repository to clone
+     * @param branchName a String containing the name of the branch to fetch
+     * @param commitSha the commit to check out, or null for the tip of the branch
+     * @return the workspace of the checkout, or null if the checkout failed
+     */
+    public static MirrorCache.Workspace checkout(String repoUrl, String branchName, String commitSha) {
+        return checkout(repoUrl, branchName, commitSha, null);
+    }
 
-            System.out.println("Temporary directory created at: " + tempDir.toAbsolutePath());
-            
-            Git.cloneRepository()
-                .setURI(repoUrl)
-                .setDirectory(tempDir.toFile())
-                .setBranch(branchName)
-                .call();
+    /**
+     * Checks out a commit like {@link #checkout(String, String, String)}, and
+     * tells a listener when the commit is fetched, before the worktree is
+     * checked out.
+     * @param repoUrl a String containing the URL of the repository to clone
+     * @param branchName a String containing the name of the branch to fetch
+     * @param commitSha the commit to check out, or null for the tip of the branch
+     * @param listener called between the fetch and the checkout, or null
+     * @return the workspace of the checkout, or null if the checkout failed
+     */
+    public static MirrorCache.Workspace checkout(String repoUrl, String branchName, String commitSha,
+            MirrorCache.FetchListener listener) {
+        try {
+            MirrorCache.Workspace workspace = MirrorCache.getDefault().checkout(repoUrl, branchName, commitSha,
+                    CheckoutStrategy.forRepo(repoUrl), listener);
 
-            System.out.println("Repository cloned successfully into " + cloneDir);
-            return true;
-        } catch (GitAPIException e) {
+            System.out.println("Repository checked out successfully into " + workspace.dir().toAbsolutePath()
+                    + (workspace.reused() ? " (reused)" : ""));
+            return workspace;
+        } catch (GitAPIException | IOException | RuntimeException e) {
             System.err.println("Error cloning repository: " + e.getMessage());
-            return false;
+            return null;
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * @param checkoutDir the directory of a checkout
+     * @return the directory of the first Maven project in the checkout, see
+     *         {@link BuildMatrix}, or my-app if there is none
+     */
+    public static Path projectDir(Path checkoutDir) {
+        List<Path> projects = BuildMatrix.projects(checkoutDir, 2);
+        return projects.isEmpty() ? checkoutDir.resolve("my-app") : projects.get(0);
+    }
+}
@@ -0,0 +1,90 @@
+package com.group16.app;
+
+import java.nio.file.Path;
+
+import io.github.cdimascio.dotenv.Dotenv;
+
+/**
+ * Reads the tunable settings of the CI server.
+ *
+ * Values are looked up in the .env file first and then in the environment
+ * variables of the process, so a missing .env file is not an error. The
+ * GITHUB_PAT is read here too, and is the only setting without a default.
+ */
+public class Config {
+    private static final Dotenv dotenv = Dotenv.configure().ignoreIfMissing().load();
+
+    /**
+     * Gets a setting as a String.
+     *
+     * @param key          The name of the setting
+     * @param defaultValue The value to use if the setting is not present
+     * @return The configured value, or {@code defaultValue} if it is missing
+     */
+    public static String get(String key, String defaultValue) {
+        String value = dotenv.get(key);
+        return value == null || value.isBlank() ? defaultValue : value.trim();
+    }
+
+    /**
+     * Gets a setting as an int.
+     *
+     * @param key          The name of the setting
+     * @param defaultValue The value to use if the setting is missing or invalid
+     * @return The configured value, or {@code defaultValue}
+     */
+    public static int getInt(String key, int defaultValue) {
+        String value = get(key, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            System.err.println("Invalid value for " + key + ": " + value + ", using " + defaultValue);
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Gets a setting as a long.
+     *
+     * @param key          The name of the setting
+     * @param defaultValue The value to use if the setting is missing or invalid
+     * @return The configured value, or {@code defaultValue}
+     */
+    public static long getLong(String key, long defaultValue) {
+        String value = get(key, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            System.err.println("Invalid value for " + key + ": " + value + ", using " + defaultValue);
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Gets a setting as a boolean, which is true if the value is "true".
+     *
+     * @param key          The name of the setting
+     * @param defaultValue The value to use if the setting is missing
+     * @return The configured value, or {@code defaultValue}
+     */
+    public static boolean getBoolean(String key, boolean defaultValue) {
+        String value = get(key, null);
+        return value == null ? defaultValue : Boolean.parseBoolean(value);
+    }
+
+    /**
+     * Gets the directory where the server keeps its caches and state between
+     * restarts, set with CI_DATA_DIR (default ~/.ci-server).
+     *
+     * @return The data directory
+     */
+    public static Path dataDir() {
+        return Path.of(get("CI_DATA_DIR", Path.of(System.getProperty("user.home"), ".ci-server").toString()));
+    }
+}
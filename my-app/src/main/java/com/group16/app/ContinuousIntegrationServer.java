@@ -1,40 +1,111 @@
 package com.group16.app;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
 
+import javax.servlet.AsyncContext;
+import javax.servlet.ReadListener;
 import javax.servlet.ServletException;
+import javax.servlet.ServletInputStream;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import org.eclipse.jetty.server.Request;
 import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
 import org.eclipse.jetty.server.handler.AbstractHandler;
-import org.json.JSONObject;
+import org.eclipse.jetty.server.handler.HandlerList;
+import org.eclipse.jetty.util.BlockingArrayQueue;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
 
 /**
  * This class is the main class of the CI server. It listens for POST requests
  * from the GitHub webhook and processes them. It extracts the necessary
- * information from the payload, compiles the project, runs the tests and sends
- * a notification to the notification API.
+ * information from the payload and queues a {@link BuildJob} that compiles the
+ * project, runs the tests and sends a notification to the notification API.
+ *
+ * The body of a webhook is read with asynchronous servlet I/O, so a Jetty
+ * thread is only busy while there is data to read, and a slow client or a wave
+ * of webhooks does not hold the threads of the server. The Gson reader pulls
+ * its input, so the body is collected in memory before it is parsed; the
+ * bodies being collected share a budget of CI_WEBHOOK_BUFFER_MB (default 64)
+ * of heap, and a webhook that would exceed it is answered with 503 and
+ * Retry-After, so that a burst of large pushes cannot exhaust the heap. The
+ * job is offered to the {@link BuildScheduler} without waiting for its lock,
+ * and the webhook is answered right after; a job the scheduler rejects after
+ * that reports an error status on its commit instead of a 503 or 429. A
+ * delivery that GitHub sends again, with the same {@code X-GitHub-Delivery}
+ * header, is answered with the job it already started, see
+ * {@link DeliveryIndex}.
+ *
+ * With CI_AGENT_TOKEN set, the server also leases jobs to {@link BuildAgent}s
+ * on other hosts, see {@link AgentCoordinator}.
+ *
+ * The HTTP server is configured with CI_PORT (default 8080), CI_HTTP_THREADS
+ * (default 200), CI_HTTP_QUEUE (requests waiting for a thread, default 1024),
+ * CI_HTTP_ACCEPT_QUEUE (connections waiting to be accepted, default 1024) and
+ * CI_WEBHOOK_MAX_KB (default 25600, the largest payload GitHub sends).
  */
 public class ContinuousIntegrationServer extends AbstractHandler {
+    private static final Metrics.Histogram WEBHOOK = Metrics.stage("webhook");
+    private static final long READ_TIMEOUT_MILLIS = 30_000;
+
+    private final BuildScheduler scheduler;
+    private final DeliveryIndex deliveries;
+    private final int maxBodyBytes;
+    private final long maxBufferedBytes;
+    // The bytes held by the bodies being read
+    private final AtomicLong buffered = new AtomicLong();
+
+    /**
+     * Creates the webhook handler.
+     *
+     * @param scheduler The scheduler that runs the CI jobs
+     * @throws IOException If the deliveries cannot be read
+     */
+    public ContinuousIntegrationServer(BuildScheduler scheduler) throws IOException {
+        this(scheduler, DeliveryIndex.getDefault(), Config.getInt("CI_WEBHOOK_MAX_KB", 25 * 1024) * 1024,
+                Config.getInt("CI_WEBHOOK_BUFFER_MB", 64) * 1024L * 1024L);
+    }
+
+    /**
+     * @param scheduler        The scheduler that runs the CI jobs
+     * @param deliveries       The deliveries already received
+     * @param maxBodyBytes     The largest body of a webhook
+     * @param maxBufferedBytes The most bytes of all bodies being read at once
+     */
+    ContinuousIntegrationServer(BuildScheduler scheduler, DeliveryIndex deliveries, int maxBodyBytes,
+            long maxBufferedBytes) {
+        this.scheduler = scheduler;
+        this.deliveries = deliveries;
+        this.maxBodyBytes = maxBodyBytes;
+        this.maxBufferedBytes = maxBufferedBytes;
+    }
+
     /**
      * Method to handle POST requests to the CI server. It extracts the necessary
-     * information from the payload, compiles the project, runs the tests and sends
-     * a notification to the notification API.
-     * 
+     * information from the payload and queues a job that compiles the project,
+     * runs the tests and sends a notification to the notification API. The
+     * request is answered with 202 when the job was handed to the scheduler,
+     * with 503 if the inbox of the scheduler is full or too many bodies are
+     * being read, and with 200 and the job it started if the delivery was
+     * already received. A job that the scheduler rejects after the answer
+     * reports an error status on its commit instead.
+     *
      * @param target      The target of the request
      * @param baseRequest The original unwrapped request object
      * @param request     The HttpServletRequest object
      * @param response    The response as a HttpServletResponse object
-     * 
+     *
      * @throws IOException      If an input or output exception occurs
      * @throws ServletException If a servlet exception occurs
      */
     public void handle(String target,
                        Request baseRequest,
                        HttpServletRequest request,
-                       HttpServletResponse response) 
+                       HttpServletResponse response)
         throws IOException, ServletException {
         response.setContentType("text/html;charset=utf-8");
         baseRequest.setHandled(true);
@@ -48,85 +119,234 @@ public class ContinuousIntegrationServer extends AbstractHandler {
         }
 
         // If ping request, return 200 OK
-        if (request.getHeader("X-GitHub-Event").equals("ping")) {
+        if ("ping".equals(request.getHeader("X-GitHub-Event"))) {
             response.setStatus(HttpServletResponse.SC_OK);
             return;
         }
 
-        // Extracting what is neccesary from the payload.
-        JSONObject json;
-        String payload, requestURL, owner, repo, commitSha, repoURL, branch;        
-        try {
-            payload = request.getParameter("payload");
-            requestURL = request.getRequestURL().toString();
-            json = new JSONObject(payload);
-            owner = json.getJSONObject("repository").getJSONObject("owner").getString("login");
-            repo = json.getJSONObject("repository").getString("name");
-            commitSha = json.getString("after");
-            repoURL = json.getJSONObject("repository").getString("clone_url");
-            branch = json.getString("ref");
-        } catch (Exception e) {
-            response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
-            response.getWriter().println("Bad request, missing one or more required parameters in payload");
+        if (request.getContentLengthLong() > maxBodyBytes) {
+            response.setStatus(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
+            response.getWriter().println("Payload too large");
+            webhook("too_large").increment();
             return;
         }
 
-        // Respond to the webhook to prevent timeout
-        response.setStatus(HttpServletResponse.SC_OK);
-        response.getWriter().println("CI job started");
+        // A redelivery is answered without reading it
+        String delivery = request.getHeader("X-GitHub-Delivery");
+        String existing = findDelivery(delivery);
+        if (existing != null) {
+            response.getWriter().println(duplicate(request, existing));
+            webhook("duplicate").increment();
+            return;
+        }
+
+        // Read the body without blocking, and handle the webhook when it is
+        // complete
+        AsyncContext async = request.startAsync();
+        async.setTimeout(READ_TIMEOUT_MILLIS);
+        request.getInputStream().setReadListener(new WebhookReader(async, request, response, delivery));
+    }
+
+    /**
+     * Collects the body of a webhook as it arrives, and queues the job when
+     * the body is complete.
+     */
+    private final class WebhookReader implements ReadListener {
+        private final Metrics.Timer timer = WEBHOOK.time();
+        private final AsyncContext async;
+        private final ServletInputStream input;
+        private final HttpServletRequest request;
+        private final HttpServletResponse response;
+        private final String delivery;
+        private final byte[] chunk = new byte[8192];
+        private byte[] body = new byte[0];
+        private int size;
+        private boolean answered;
 
-        // Status PENDING while we are building and testing
-        new Thread(() -> {
+        WebhookReader(AsyncContext async, HttpServletRequest request, HttpServletResponse response,
+                String delivery) throws IOException {
+            this.async = async;
+            this.input = request.getInputStream();
+            this.request = request;
+            this.response = response;
+            this.delivery = delivery;
+        }
+
+        @Override
+        public void onDataAvailable() throws IOException {
+            while (!answered && input.isReady()) {
+                int read = input.read(chunk);
+                if (read < 0) {
+                    return;
+                }
+                if (size + read > maxBodyBytes) {
+                    answer(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE, "Payload too large", "too_large");
+                    return;
+                }
+                if (size + read > body.length) {
+                    int length = Math.min(maxBodyBytes, Math.max(8192, Math.max(body.length * 2, size + read)));
+                    if (buffered.addAndGet(length - body.length) > maxBufferedBytes) {
+                        buffered.addAndGet(body.length - length);
+                        response.setHeader("Retry-After", "10");
+                        answer(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Too many webhooks are being read",
+                                "busy");
+                        return;
+                    }
+                    body = Arrays.copyOf(body, length);
+                }
+                System.arraycopy(chunk, 0, body, size, read);
+                size += read;
+            }
+        }
+
+        @Override
+        public void onAllDataRead() throws IOException {
+            if (answered) {
+                return;
+            }
+            // Extracting what is neccesary from the payload
+            WebhookPayload.Push push;
             try {
-                Notification.sendNotification(Status.PENDING, requestURL, owner, repo, commitSha);
-            } catch (Exception e) {
-                // Something went wrong with the notification API call
-                response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
-                System.err.println("Error accessing the notification API");
+                push = WebhookPayload.read(new ByteArrayInputStream(body, 0, size), request.getContentType());
+                release();
+            } catch (IOException | IllegalArgumentException e) {
+                answer(HttpServletResponse.SC_BAD_REQUEST,
+                        "Bad request, missing one or more required parameters in payload", "bad_request");
                 return;
             }
 
-            // Compile and run tests
-            boolean compileResultOK, testResultOK;
-            try {
-                compileResultOK = Compiler.compileProj(response, repoURL, branch);
-                System.out.println("Compile result: " + compileResultOK);
-                testResultOK = RunTests.runTests(response);
-                System.out.println("Test result: " + testResultOK);
-            } catch (Exception e) {
-                // Something went wrong with the compilation or test running
-                response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
-                System.err.println("Error compiling or running tests: " + e.getMessage());
-
-                try {
-                    Notification.sendNotification(Status.ERROR, requestURL, owner, repo, commitSha);
-                } catch (Exception notificationError) {
-                    // If notification fails, log it but keep the original error response
-                    System.err.println(
-                            "Additionally, failed to send error notification: " + notificationError.getMessage());
-                }
+            // Hand the job to the scheduler, or tell GitHub to back off if we
+            // are overloaded. The delivery is claimed first, so that a copy
+            // that arrives at the same time does not start a second job.
+            BuildJob job = new BuildJob(push.owner(), push.repo(), push.ref(), push.after(), push.cloneUrl(),
+                    serverURL(request));
+            job.setForceRebuild(push.headCommitMessage() != null
+                    && push.headCommitMessage().contains(ResultCache.REBUILD_MARKER));
+            String existing = claimDelivery(delivery, job.getId());
+            if (existing != null) {
+                answer(HttpServletResponse.SC_OK, duplicate(request, existing), "duplicate");
                 return;
             }
-            
-            // Both compile and test methods ran without exceptions, so we can
-            // update the status of the commit according to results
-            try {
-                if (compileResultOK && testResultOK) {
-                    Notification.sendNotification(Status.SUCCESS, requestURL, owner, repo, commitSha);
-                } else {
-                    Notification.sendNotification(Status.FAILURE, requestURL, owner, repo, commitSha);
+            // A job rejected by the intake thread later gives its delivery back too
+            BuildScheduler.Admission admission = scheduler.offer(job, () -> releaseDelivery(delivery));
+            if (admission != BuildScheduler.Admission.ACCEPTED) {
+                releaseDelivery(delivery);
+            }
+            switch (admission) {
+                case ACCEPTED -> answer(HttpServletResponse.SC_ACCEPTED,
+                        "CI job queued: " + job.getId() + ", log: " + job.getLogURL(), "accepted");
+                case REPO_QUEUE_FULL -> {
+                    response.setHeader("Retry-After", "60");
+                    answer(429, "Too many queued jobs for " + job.getRepoKey(), "repo_queue_full");
+                }
+                case QUEUE_FULL -> {
+                    response.setHeader("Retry-After", "60");
+                    answer(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Build queue is full", "queue_full");
                 }
-            } catch (Exception e) {
-                // Something went wrong with the notification API call
-                response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
-                System.err.println("Error accessing the notification API: " + e.getMessage());
-                return;
             }
+        }
 
-            System.out.println("CI job done");
-        }).start();
+        @Override
+        public void onError(Throwable error) {
+            // The client went away or the read timed out
+            if (!answered) {
+                answered = true;
+                release();
+                timer.stop();
+                webhook("read_error").increment();
+                async.complete();
+            }
+        }
+
+        // Gives the memory of the body back to the budget
+        private void release() {
+            buffered.addAndGet(-body.length);
+            body = new byte[0];
+        }
+
+        // Sends the response and ends the request
+        private void answer(int status, String message, String result) throws IOException {
+            answered = true;
+            release();
+            try {
+                response.setStatus(status);
+                response.getWriter().println(message);
+            } finally {
+                timer.stop();
+                webhook(result).increment();
+                async.complete();
+            }
+        }
+    }
+
+    // The job a delivery started, or null. The deliveries only save work, so
+    // the webhook is handled as new if they cannot be read or written.
+    private String findDelivery(String delivery) {
+        try {
+            return delivery == null ? null : deliveries.find(delivery);
+        } catch (IOException e) {
+            System.err.println("Could not look up delivery " + delivery + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    private String claimDelivery(String delivery, String jobId) {
+        try {
+            return delivery == null ? null : deliveries.claim(delivery, jobId);
+        } catch (IOException e) {
+            System.err.println("Could not record delivery " + delivery + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    private void releaseDelivery(String delivery) {
+        try {
+            if (delivery != null) {
+                deliveries.release(delivery);
+            }
+        } catch (IOException e) {
+            System.err.println("Could not release delivery " + delivery + ": " + e.getMessage());
+        }
+    }
+
+    // The address of the server in the links to the logs
+    private static String serverURL(HttpServletRequest request) {
+        return Config.get("CI_PUBLIC_URL",
+                request.getScheme() + "://" + request.getServerName() + ":" + request.getServerPort())
+                .replaceAll("/+$", "");
+    }
+
+    // The answer to a delivery that was already received
+    private static String duplicate(HttpServletRequest request, String jobId) {
+        return "CI job already queued: " + jobId + ", log: " + serverURL(request) + "/logs/" + jobId;
+    }
+
+    // The counter of webhooks with a result
+    private static Metrics.Counter webhook(String result) {
+        return Metrics.getDefault().counter("ci_webhooks_total", "The push webhooks received", "result", result);
+    }
+
+    /**
+     * Creates the HTTP server, with a bounded thread pool and request queue so
+     * that a wave of requests is queued or refused instead of exhausting the
+     * server.
+     *
+     * @param port The port to listen on, or 0 for any free port
+     * @return The server, not started yet
+     */
+    static Server createServer(int port) {
+        QueuedThreadPool threads = new QueuedThreadPool(Config.getInt("CI_HTTP_THREADS", 200), 8, 60_000,
+                new BlockingArrayQueue<>(Config.getInt("CI_HTTP_QUEUE", 1024)));
+        threads.setName("http");
+        Server server = new Server(threads);
+        ServerConnector connector = new ServerConnector(server);
+        connector.setPort(port);
+        connector.setAcceptQueueSize(Config.getInt("CI_HTTP_ACCEPT_QUEUE", 1024));
+        connector.setIdleTimeout(READ_TIMEOUT_MILLIS);
+        server.addConnector(connector);
+        return server;
     }
- 
+
     /**
      * Main method to start the server.
      * @param args Command line arguments
@@ -134,8 +354,31 @@ public class ContinuousIntegrationServer extends AbstractHandler {
      */
     public static void main(String[] args) throws Exception
     {
-        Server server = new Server(8080);
-        server.setHandler(new ContinuousIntegrationServer()); 
+        if (Config.get("GITHUB_PAT", null) == null) {
+            System.err.println("GITHUB_PAT is not set in .env or the environment, GitHub will refuse the statuses");
+        }
+        ArtifactCache.checkMavenVersion();
+        // Deliver the statuses that were left when the server stopped
+        Notification.outbox();
+
+        BuildScheduler scheduler = new BuildScheduler();
+        scheduler.start();
+
+        // Lease jobs to build agents if they have a secret to call with
+        HandlerList handlers = new HandlerList();
+        String agentToken = Config.get("CI_AGENT_TOKEN", null);
+        if (agentToken != null) {
+            handlers.addHandler(new AgentHandler(new AgentCoordinator(scheduler), agentToken));
+        }
+
+        Server server = createServer(Config.getInt("CI_PORT", 8080));
+        handlers.addHandler(new StatsHandler(scheduler));
+        handlers.addHandler(new LogHandler());
+        handlers.addHandler(new ArtifactHandler(ArtifactStore.getDefault()));
+        handlers.addHandler(new HistoryHandler(BuildHistory.getDefault()));
+        handlers.addHandler(new TestsHandler(TestStore.getDefault()));
+        handlers.addHandler(new ContinuousIntegrationServer(scheduler));
+        server.setHandler(handlers);
         server.start();
         server.join();
     }
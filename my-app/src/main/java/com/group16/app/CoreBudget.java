@@ -0,0 +1,276 @@
+package com.group16.app;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shares the cores of the machine between the Maven builds that run at the
+ * same time, so that the tests of a build run in parallel without the builds
+ * oversubscribing the machine together.
+ *
+ * Every build gets a grant of cores when it starts: the cores divided by the
+ * number of builds that the {@link BuildScheduler} runs at the same time, so
+ * that the machine is saturated but not oversubscribed when all workers are
+ * busy. A build never gets more than the cores that the other builds left
+ * free, and at least one. The grant is passed to surefire as forkCount, so the
+ * test classes run in that many forked JVMs, and with CI_TEST_PARALLEL (e.g.
+ * classes or methods) also as the surefire parallel setting with a thread
+ * count of the grant. A project that sets these in its pom keeps its own
+ * settings.
+ *
+ * While a build runs, the CPU time of its Maven process and the forks of
+ * Maven is sampled every CI_CPU_SAMPLE_MS (default 500) milliseconds, so
+ * that the utilization of the grant can be recorded. Builds run by the Maven
+ * daemon are not child processes of the server, so their CPU time is unknown.
+ *
+ * Settings: CI_CORES (default: the available processors), CI_WORKERS (see
+ * {@link BuildScheduler}), CI_FORK_TESTS (default true) and CI_TEST_PARALLEL
+ * (default none).
+ */
+public class CoreBudget {
+    private static CoreBudget defaultBudget;
+
+    private final int totalCores;
+    private final int concurrency;
+    private final boolean forkTests;
+    private final String parallel;
+    private final long sampleMillis;
+
+    private final ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "cpu-sampler");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Guarded by this
+    private final List<Grant> active = new ArrayList<>();
+    private ScheduledFuture<?> sampling;
+    private int reserved;
+    private long grants;
+    private long grantedCores;
+    private long measuredGrants;
+    private double totalUtilization;
+
+    /**
+     * @param totalCores   The number of cores to share
+     * @param concurrency  The number of builds that run at the same time
+     * @param forkTests    Whether to pass the grant to surefire
+     * @param parallel     The surefire parallel setting, or {@code null} to
+     *                     not run tests in parallel threads
+     * @param sampleMillis The interval between CPU time samples
+     */
+    public CoreBudget(int totalCores, int concurrency, boolean forkTests, String parallel, long sampleMillis) {
+        this.totalCores = Math.max(1, totalCores);
+        this.concurrency = Math.max(1, concurrency);
+        this.forkTests = forkTests;
+        this.parallel = parallel == null || parallel.isBlank() || parallel.equals("none") ? null : parallel;
+        this.sampleMillis = sampleMillis;
+    }
+
+    /**
+     * @return The budget configured from .env or the environment
+     */
+    public static synchronized CoreBudget getDefault() {
+        if (defaultBudget == null) {
+            defaultBudget = new CoreBudget(Config.getInt("CI_CORES", Runtime.getRuntime().availableProcessors()),
+                    Config.getInt("CI_WORKERS", BuildScheduler.defaultWorkers()),
+                    Config.getBoolean("CI_FORK_TESTS", true), Config.get("CI_TEST_PARALLEL", "none"),
+                    Config.getLong("CI_CPU_SAMPLE_MS", 500));
+        }
+        return defaultBudget;
+    }
+
+    /**
+     * The cores granted to one build, and the CPU time it used. Closing the
+     * grant gives the cores back.
+     */
+    public final class Grant implements AutoCloseable {
+        private final Path projectDir;
+        private final int cores;
+        private final long start = System.nanoTime();
+        // The highest CPU time seen per process of the build, in nanoseconds
+        private final Map<Long, Long> cpuNanos = new HashMap<>();
+        private long wallMillis = -1;
+        private boolean measured;
+
+        private Grant(Path projectDir, int cores) {
+            this.projectDir = projectDir.toAbsolutePath();
+            this.cores = cores;
+        }
+
+        /**
+         * @return The number of cores granted
+         */
+        public int cores() {
+            return cores;
+        }
+
+        /**
+         * @return The surefire properties for the grant
+         */
+        public Properties properties() {
+            Properties properties = new Properties();
+            if (forkTests) {
+                properties.setProperty("forkCount", Integer.toString(cores));
+                properties.setProperty("reuseForks", "true");
+            }
+            if (parallel != null) {
+                properties.setProperty("parallel", parallel);
+                properties.setProperty("threadCount", Integer.toString(cores));
+                properties.setProperty("perCoreThreadCount", "false");
+            }
+            return properties;
+        }
+
+        /**
+         * @return The CPU time used by the build, or -1 if it is unknown
+         */
+        public synchronized long cpuMillis() {
+            if (!measured) {
+                return -1;
+            }
+            return cpuNanos.values().stream().mapToLong(Long::longValue).sum() / 1_000_000;
+        }
+
+        /**
+         * @return The time the build ran, until the grant was closed
+         */
+        public synchronized long wallMillis() {
+            return wallMillis >= 0 ? wallMillis : (System.nanoTime() - start) / 1_000_000;
+        }
+
+        /**
+         * @return The share of the granted cores that the build used, or -1 if
+         *         it is unknown
+         */
+        public double utilization() {
+            long cpu = cpuMillis();
+            long wall = wallMillis();
+            return cpu < 0 || wall <= 0 ? -1 : (double) cpu / (wall * cores);
+        }
+
+        // Records the CPU time of the processes of the build
+        private void sample() {
+            Set<ProcessHandle> processes = new HashSet<>();
+            ProcessHandle.current().descendants().filter(this::runsBuild).forEach(root -> {
+                processes.add(root);
+                root.descendants().forEach(processes::add);
+            });
+            synchronized (this) {
+                for (ProcessHandle process : processes) {
+                    process.info().totalCpuDuration().map(Duration::toNanos).ifPresent(nanos -> {
+                        cpuNanos.merge(process.pid(), nanos, Math::max);
+                        measured = true;
+                    });
+                }
+            }
+        }
+
+        // The Invoker runs Maven in a shell that changes to the project
+        // directory, and Maven gets the directory as a system property
+        private boolean runsBuild(ProcessHandle process) {
+            String dir = projectDir.toString();
+            return process.info().arguments().map(arguments -> {
+                for (String argument : arguments) {
+                    if (argument.equals(dir) || argument.equals("-Dmaven.multiModuleProjectDirectory=" + dir)
+                            || argument.contains("'" + dir + "'")) {
+                        return true;
+                    }
+                }
+                return false;
+            }).orElse(false);
+        }
+
+        /**
+         * Gives the cores back, and records the utilization of the grant.
+         */
+        @Override
+        public void close() {
+            synchronized (this) {
+                if (wallMillis >= 0) {
+                    return;
+                }
+            }
+            sample();
+            synchronized (this) {
+                wallMillis = (System.nanoTime() - start) / 1_000_000;
+            }
+            release(this);
+        }
+    }
+
+    /**
+     * Grants cores to a build that is about to start.
+     *
+     * @param projectDir The directory of the project that is built, to find
+     *                   its processes
+     * @return The grant, to be closed when the build ends
+     */
+    public synchronized Grant acquire(Path projectDir) {
+        int cores = Math.max(1, Math.min(totalCores / concurrency, totalCores - reserved));
+        Grant grant = new Grant(projectDir, cores);
+        active.add(grant);
+        reserved += cores;
+        grants++;
+        grantedCores += cores;
+        if (sampling == null) {
+            sampling = sampler.scheduleWithFixedDelay(this::sampleAll, sampleMillis, sampleMillis,
+                    TimeUnit.MILLISECONDS);
+        }
+        return grant;
+    }
+
+    private synchronized void release(Grant grant) {
+        if (!active.remove(grant)) {
+            return;
+        }
+        reserved -= grant.cores();
+        double utilization = grant.utilization();
+        if (utilization >= 0) {
+            measuredGrants++;
+            totalUtilization += utilization;
+        }
+        if (active.isEmpty() && sampling != null) {
+            sampling.cancel(false);
+            sampling = null;
+        }
+    }
+
+    private void sampleAll() {
+        List<Grant> grants;
+        synchronized (this) {
+            grants = new ArrayList<>(active);
+        }
+        grants.forEach(Grant::sample);
+    }
+
+    /**
+     * @return A plain text summary of the budget
+     */
+    public synchronized String stats() {
+        return String.format(Locale.ROOT, """
+                cores %d
+                cores_per_build %d
+                reserved %d
+                running %d
+                grants %d
+                cores_avg %.2f
+                utilization_avg %.3f
+                """,
+                totalCores, Math.max(1, totalCores / concurrency), reserved, active.size(), grants,
+                grants == 0 ? 0.0 : (double) grantedCores / grants,
+                measuredGrants == 0 ? 0.0 : totalUtilization / measuredGrants);
+    }
+}
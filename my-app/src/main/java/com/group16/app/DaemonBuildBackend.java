@@ -0,0 +1,88 @@
+package com.group16.app;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.apache.maven.shared.invoker.DefaultInvoker;
+import org.apache.maven.shared.invoker.InvocationRequest;
+import org.apache.maven.shared.invoker.InvocationResult;
+import org.apache.maven.shared.invoker.Invoker;
+import org.apache.maven.shared.invoker.MavenInvocationException;
+
+/**
+ * Runs builds on warm, long-lived Maven daemons with the Maven Daemon (mvnd).
+ *
+ * The mvnd client is a small native program that hands the build to an idle
+ * daemon JVM, starting a new daemon only when all of them are busy. The pool
+ * therefore grows to the number of concurrent jobs of the
+ * {@link BuildScheduler}, and the daemons keep their JIT-compiled code and
+ * plugin class loaders between builds. Daemons that stay idle for
+ * CI_MVND_IDLE_TIMEOUT (default 3h) exit.
+ *
+ * If mvnd cannot be started, the build falls back to the forked backend.
+ */
+public class DaemonBuildBackend implements BuildBackend {
+    private final Path mvnd;
+    private final BuildBackend fallback;
+    private final String idleTimeout = Config.get("CI_MVND_IDLE_TIMEOUT", "3h");
+
+    /**
+     * @param mvnd     The mvnd executable
+     * @param fallback The backend to use if mvnd cannot be started
+     */
+    public DaemonBuildBackend(Path mvnd, BuildBackend fallback) {
+        this.mvnd = mvnd;
+        this.fallback = fallback;
+    }
+
+    @Override
+    public InvocationResult execute(InvocationRequest request) throws MavenInvocationException {
+        Invoker invoker = new DefaultInvoker();
+        invoker.setMavenExecutable(mvnd.toFile());
+        invoker.setWorkingDirectory(request.getPomFile().getParentFile());
+        request.addArg("-Dmvnd.idleTimeout=" + idleTimeout);
+        // The mvnd property is a harmless user property for plain Maven, so
+        // the request can be handed to the fallback as it is
+        if (!Files.isExecutable(mvnd)) {
+            return fallBack(request, mvnd + " is not executable");
+        }
+        try {
+            InvocationResult result = invoker.execute(request);
+            if (result.getExecutionException() != null
+                    && result.getExecutionException().getCause() instanceof IOException) {
+                return fallBack(request, result.getExecutionException().getMessage());
+            }
+            return result;
+        } catch (MavenInvocationException e) {
+            return fallBack(request, e.getMessage());
+        }
+    }
+
+    private InvocationResult fallBack(InvocationRequest request, String reason) throws MavenInvocationException {
+        System.err.println("Could not run mvnd (" + reason + "), falling back to " + fallback.getName());
+        return fallback.execute(request);
+    }
+
+    @Override
+    public String getName() {
+        return "daemon";
+    }
+
+    /**
+     * Finds mvnd, from CI_MVND, MVND_HOME or the PATH.
+     *
+     * @return The mvnd executable, or {@code null} if it was not found
+     */
+    static Path findMvnd() {
+        String configured = Config.get("CI_MVND", null);
+        if (configured != null) {
+            return Files.isExecutable(Path.of(configured)) ? Path.of(configured) : null;
+        }
+        String home = System.getenv("MVND_HOME");
+        if (home != null && Files.isExecutable(Path.of(home, "bin", "mvnd"))) {
+            return Path.of(home, "bin", "mvnd");
+        }
+        return BuildBackend.findOnPath("mvnd");
+    }
+}
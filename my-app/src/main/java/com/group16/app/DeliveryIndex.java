@@ -0,0 +1,401 @@
+package com.group16.app;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.LongSupplier;
+import java.util.stream.Stream;
+
+/**
+ * Remembers which job each webhook delivery started, so that a delivery that
+ * GitHub sends again, with the same {@code X-GitHub-Delivery} header, is
+ * answered with the job it already started instead of building the commit
+ * again.
+ *
+ * Deliveries are kept in two generations of CI_DELIVERY_WINDOW_HOURS (default
+ * 24) each: when the current generation is that old, or holds CI_DELIVERY_MAX
+ * deliveries (default 1000000), the previous one is dropped and a new one is
+ * started. So a delivery is remembered for at least one window, or for at
+ * least CI_DELIVERY_MAX deliveries, and memory stays bounded whatever the
+ * rate.
+ *
+ * Each generation is a file, CI_DATA_DIR/deliveries/deliveries-START.log, with
+ * one line per delivery and job, and an open-addressing hash table in memory
+ * that only holds a 64-bit hash of the delivery and the offset of its line.
+ * The line is read back to confirm a match and to find the job, so a hash
+ * collision never drops a webhook. A table uses 12 bytes per slot and is at
+ * most three quarters full, so 10^6 deliveries a day take at most 2^21 slots,
+ * 24 MB, per generation, 48 MB in all, and about 70 MB of disk per generation.
+ */
+public class DeliveryIndex implements Closeable {
+    private static final int MAX_DELIVERY_LENGTH = 128;
+    private static final int MAX_LINE_LENGTH = 256;
+    private static final int INITIAL_SLOTS = 1024;
+    private static final String PREFIX = "deliveries-";
+    private static final String SUFFIX = ".log";
+
+    private static DeliveryIndex defaultIndex;
+
+    private final Path dir;
+    private final long windowMillis;
+    private final int maxPerGeneration;
+    private final LongSupplier clock;
+
+    // Guarded by this
+    private Generation previous;
+    private Generation current;
+
+    /**
+     * Opens the index, reading the deliveries of the last two generations.
+     *
+     * @param dir              The directory of the generation files
+     * @param windowMillis     The age of a generation when it is replaced
+     * @param maxPerGeneration The number of deliveries of a generation when it
+     *                         is replaced
+     * @throws IOException If the files cannot be read or written
+     */
+    public DeliveryIndex(Path dir, long windowMillis, int maxPerGeneration) throws IOException {
+        this(dir, windowMillis, maxPerGeneration, System::currentTimeMillis);
+    }
+
+    /**
+     * @param clock The current time in milliseconds
+     */
+    DeliveryIndex(Path dir, long windowMillis, int maxPerGeneration, LongSupplier clock) throws IOException {
+        this.dir = dir;
+        this.windowMillis = windowMillis;
+        this.maxPerGeneration = maxPerGeneration;
+        this.clock = clock;
+        Files.createDirectories(dir);
+
+        // Generations that ended more than a window ago are dropped
+        long now = clock.getAsLong();
+        List<Long> starts = new ArrayList<>();
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                String name = file.getFileName().toString();
+                if (name.startsWith(PREFIX) && name.endsWith(SUFFIX)) {
+                    String start = name.substring(PREFIX.length(), name.length() - SUFFIX.length());
+                    try {
+                        starts.add(Long.parseLong(start));
+                    } catch (NumberFormatException e) {
+                        // Not a generation
+                    }
+                }
+            }
+        }
+        starts.sort(null);
+        for (int i = 0; i < starts.size(); i++) {
+            boolean kept = i >= starts.size() - 2 && starts.get(i) > now - 2 * windowMillis;
+            if (!kept) {
+                Files.deleteIfExists(file(starts.get(i)));
+            } else if (current == null) {
+                current = new Generation(file(starts.get(i)), starts.get(i));
+            } else {
+                previous = current;
+                current = new Generation(file(starts.get(i)), starts.get(i));
+            }
+        }
+        if (current == null) {
+            current = new Generation(file(now), now);
+        }
+    }
+
+    /**
+     * Returns the default index, configured by the environment.
+     *
+     * @return The default index
+     * @throws IOException If the files cannot be read or written
+     */
+    public static synchronized DeliveryIndex getDefault() throws IOException {
+        if (defaultIndex == null) {
+            defaultIndex = new DeliveryIndex(Config.dataDir().resolve("deliveries"),
+                    Config.getLong("CI_DELIVERY_WINDOW_HOURS", 24) * 3600 * 1000,
+                    Config.getInt("CI_DELIVERY_MAX", 1_000_000));
+            Metrics.getDefault().gauge("ci_webhook_deliveries", "The webhook deliveries remembered",
+                    defaultIndex::size);
+        }
+        return defaultIndex;
+    }
+
+    private Path file(long start) {
+        return dir.resolve(PREFIX + start + SUFFIX);
+    }
+
+    /**
+     * Finds the job a delivery started.
+     *
+     * @param delivery The ID of the delivery
+     * @return The ID of the job, or {@code null} if the delivery is new
+     * @throws IOException If the file of the delivery cannot be read
+     */
+    public synchronized String find(String delivery) throws IOException {
+        if (!valid(delivery)) {
+            return null;
+        }
+        rotate();
+        long key = hash(delivery);
+        String job = current.find(key, delivery);
+        return job != null || previous == null ? job : previous.find(key, delivery);
+    }
+
+    /**
+     * Records the job a delivery starts, unless the delivery was already seen.
+     *
+     * @param delivery The ID of the delivery
+     * @param job      The ID of the new job
+     * @return The ID of the job the delivery already started, or {@code null}
+     *         if it was recorded with the new job
+     * @throws IOException If the delivery cannot be written
+     */
+    public synchronized String claim(String delivery, String job) throws IOException {
+        String existing = find(delivery);
+        if (existing != null || !valid(delivery)) {
+            return existing;
+        }
+        // Offsets are ints, so a generation also ends before its file is 2 GB
+        if (current.size >= maxPerGeneration || current.length > Integer.MAX_VALUE - MAX_LINE_LENGTH) {
+            replace(clock.getAsLong());
+        }
+        current.add(hash(delivery), delivery, job);
+        return null;
+    }
+
+    /**
+     * Forgets a delivery, when the job it started was not queued, so that it
+     * starts a job if it is sent again.
+     *
+     * @param delivery The ID of the delivery
+     * @throws IOException If the file cannot be written
+     */
+    public synchronized void release(String delivery) throws IOException {
+        if (!valid(delivery)) {
+            return;
+        }
+        long key = hash(delivery);
+        for (Generation generation : previous == null ? List.of(current) : List.of(current, previous)) {
+            if (generation.remove(key, delivery)) {
+                generation.append(delivery, "");
+            }
+        }
+    }
+
+    /**
+     * @return The number of deliveries remembered
+     */
+    public synchronized int size() {
+        return current.size + (previous == null ? 0 : previous.size);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        current.channel.close();
+        if (previous != null) {
+            previous.channel.close();
+        }
+    }
+
+    // A delivery ID that fits on a line; others are not deduplicated
+    private static boolean valid(String delivery) {
+        if (delivery == null || delivery.isEmpty() || delivery.length() > MAX_DELIVERY_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < delivery.length(); i++) {
+            char c = delivery.charAt(i);
+            if (c < 0x20 || c > 0x7e) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Starts a new generation if the current one is a window old
+    private void rotate() throws IOException {
+        long now = clock.getAsLong();
+        if (now - current.start >= windowMillis) {
+            replace(now);
+        }
+    }
+
+    private void replace(long now) throws IOException {
+        if (previous != null) {
+            previous.channel.close();
+            Files.deleteIfExists(previous.file);
+        }
+        // Drop both if the current one is also out of the window
+        if (now - current.start >= 2 * windowMillis) {
+            current.channel.close();
+            Files.deleteIfExists(current.file);
+            previous = null;
+        } else {
+            previous = current;
+        }
+        long start = Math.max(now, current.start + 1);
+        current = new Generation(file(start), start);
+    }
+
+    // FNV-1a, and the finalizer of MurmurHash3 to spread the bits. Zero marks
+    // an empty slot.
+    private static long hash(String delivery) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < delivery.length(); i++) {
+            hash = (hash ^ delivery.charAt(i)) * 0x100000001b3L;
+        }
+        hash = (hash ^ hash >>> 33) * 0xff51afd7ed558ccdL;
+        hash = (hash ^ hash >>> 33) * 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash == 0 ? 1 : hash;
+    }
+
+    /**
+     * The deliveries of one generation: a file of "delivery\tjob" lines, where
+     * an empty job forgets the delivery, and a linear-probing table of the
+     * hashes of the deliveries and the offsets of their lines.
+     */
+    private static final class Generation {
+        private final Path file;
+        private final long start;
+        private final FileChannel channel;
+        private long length;
+        private long[] keys = new long[INITIAL_SLOTS];
+        private int[] offsets = new int[INITIAL_SLOTS];
+        private int size;
+
+        Generation(Path file, long start) throws IOException {
+            this.file = file;
+            this.start = start;
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            load();
+            // The text after the last line break is a write that did not finish
+            channel.truncate(length);
+        }
+
+        // Replays the lines
+        private void load() throws IOException {
+            StringBuilder line = new StringBuilder();
+            long position = 0;
+            try (InputStream in = new BufferedInputStream(Files.newInputStream(file))) {
+                int b;
+                while ((b = in.read()) != -1) {
+                    position++;
+                    if (b != '\n') {
+                        line.append((char) b);
+                        continue;
+                    }
+                    int tab = line.indexOf("\t");
+                    if (tab > 0) {
+                        String delivery = line.substring(0, tab);
+                        long key = hash(delivery);
+                        remove(key, delivery);
+                        if (tab < line.length() - 1) {
+                            put(key, (int) length);
+                        }
+                    }
+                    line.setLength(0);
+                    length = position;
+                }
+            }
+        }
+
+        // The job of a delivery, or null
+        String find(long key, String delivery) throws IOException {
+            int mask = keys.length - 1;
+            for (int slot = (int) key & mask; keys[slot] != 0; slot = slot + 1 & mask) {
+                if (keys[slot] == key) {
+                    String[] line = line(offsets[slot]);
+                    if (line[0].equals(delivery)) {
+                        return line[1];
+                    }
+                }
+            }
+            return null;
+        }
+
+        void add(long key, String delivery, String job) throws IOException {
+            int offset = (int) length;
+            append(delivery, job);
+            put(key, offset);
+        }
+
+        void append(String delivery, String job) throws IOException {
+            ByteBuffer buffer = ByteBuffer.wrap((delivery + "\t" + job + "\n").getBytes(StandardCharsets.UTF_8));
+            while (buffer.hasRemaining()) {
+                length += channel.write(buffer, length);
+            }
+        }
+
+        private void put(long key, int offset) {
+            if ((size + 1) * 4L > keys.length * 3L) {
+                grow();
+            }
+            int mask = keys.length - 1;
+            int slot = (int) key & mask;
+            while (keys[slot] != 0) {
+                slot = slot + 1 & mask;
+            }
+            keys[slot] = key;
+            offsets[slot] = offset;
+            size++;
+        }
+
+        private void grow() {
+            long[] oldKeys = keys;
+            int[] oldOffsets = offsets;
+            keys = new long[oldKeys.length * 2];
+            offsets = new int[oldKeys.length * 2];
+            size = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != 0) {
+                    put(oldKeys[i], oldOffsets[i]);
+                }
+            }
+        }
+
+        // Removes a delivery, shifting back the slots after it so that no
+        // probe sequence is broken
+        boolean remove(long key, String delivery) throws IOException {
+            int mask = keys.length - 1;
+            int slot = (int) key & mask;
+            while (keys[slot] != key || !line(offsets[slot])[0].equals(delivery)) {
+                if (keys[slot] == 0) {
+                    return false;
+                }
+                slot = slot + 1 & mask;
+            }
+            int empty = slot;
+            for (int next = slot + 1 & mask; keys[next] != 0; next = next + 1 & mask) {
+                int home = (int) keys[next] & mask;
+                // Move the entry back if its home is not between the hole and it
+                if ((next - home & mask) >= (next - empty & mask)) {
+                    keys[empty] = keys[next];
+                    offsets[empty] = offsets[next];
+                    empty = next;
+                }
+            }
+            keys[empty] = 0;
+            size--;
+            return true;
+        }
+
+        // The delivery and the job of the line at an offset
+        private String[] line(int offset) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(MAX_LINE_LENGTH);
+            while (buffer.hasRemaining() && channel.read(buffer, offset + buffer.position()) > 0) {
+                // Read up to a full line
+            }
+            String text = new String(buffer.array(), 0, buffer.position(), StandardCharsets.UTF_8);
+            int end = text.indexOf('\n');
+            return (end < 0 ? text : text.substring(0, end)).split("\t", 2);
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package com.group16.app;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.util.FileUtils;
+
+/**
+ * Downloads the dependencies and plugins of a commit into the
+ * {@link ArtifactCache} while its worktree is still being checked out, so
+ * that the build does not wait for the downloads after the checkout.
+ *
+ * As soon as the commit is in the mirror, its pom.xml files are copied to a
+ * directory of their own, and Maven resolves the dependencies of every
+ * project among them (see {@link BuildExecutor#resolve}) on a pool of
+ * threads. The projects of another repository in the same reactor cannot be
+ * resolved before they are built, so a failed resolution is logged but does
+ * not fail the job. The poms of resolutions that succeeded are remembered, and
+ * the same poms are not resolved again.
+ *
+ * Configured with:
+ * CI_PRERESOLVE: resolve dependencies in parallel with the checkout (default
+ * true, never when CI_MAVEN_OFFLINE is true)
+ * CI_PRERESOLVE_KNOWN: how many sets of poms to remember (default 1024)
+ */
+public class DependencyResolver {
+    private static final ExecutorService POOL = Executors.newFixedThreadPool(BuildScheduler.defaultWorkers(),
+            runnable -> {
+                Thread thread = new Thread(runnable, "ci-resolve");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    private static DependencyResolver defaultResolver;
+
+    private final Path dir;
+    private final boolean enabled;
+    // The hashes of the poms that were resolved or are being resolved, least
+    // recently used first
+    private final Set<String> known;
+
+    /**
+     * The outcome of a resolution.
+     *
+     * @param projects The number of projects that Maven resolved, 0 if their
+     *                 poms were resolved before or there are none
+     * @param ok       Whether all projects were resolved
+     * @param millis   The time from the fetch to the end of the resolution
+     */
+    public record Resolution(int projects, boolean ok, long millis) {
+    }
+
+    /**
+     * @param dir       The directory for the copies of the poms
+     * @param enabled   Whether to resolve dependencies at all
+     * @param maxKnown  How many sets of poms to remember
+     */
+    public DependencyResolver(Path dir, boolean enabled, int maxKnown) {
+        this.dir = dir;
+        this.enabled = enabled;
+        this.known = Collections.synchronizedSet(Collections.newSetFromMap(new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                return size() > maxKnown;
+            }
+        }));
+    }
+
+    /**
+     * @return The resolver configured from .env or the environment
+     */
+    public static synchronized DependencyResolver getDefault() {
+        if (defaultResolver == null) {
+            defaultResolver = new DependencyResolver(Config.dataDir().resolve("resolve"),
+                    Config.getBoolean("CI_PRERESOLVE", true) && !Config.getBoolean("CI_MAVEN_OFFLINE", false),
+                    Config.getInt("CI_PRERESOLVE_KNOWN", 1024));
+        }
+        return defaultResolver;
+    }
+
+    /**
+     * Starts to resolve the dependencies of a fetched commit on the pool.
+     * Cancelling the returned future with interruption stops Maven.
+     *
+     * @param mirror The mirror that has the commit
+     * @param commit The commit
+     * @param output Receives the output of Maven line by line
+     * @return The resolution, or {@code null} if resolving is turned off
+     */
+    public Future<Resolution> start(Path mirror, ObjectId commit, Consumer<String> output) {
+        if (!enabled) {
+            return null;
+        }
+        long start = System.currentTimeMillis();
+        return POOL.submit(() -> resolve(mirror, commit, output, start));
+    }
+
+    // Copies the poms of the commit and resolves every project among them
+    private Resolution resolve(Path mirror, ObjectId commit, Consumer<String> output, long start)
+            throws IOException {
+        Files.createDirectories(dir);
+        Path poms = Files.createTempDirectory(dir, "poms");
+        String key = null;
+        try {
+            key = MirrorCache.copyPoms(mirror, commit, poms);
+            if (key == null || !known.add(key)) {
+                key = null;
+                return new Resolution(0, true, System.currentTimeMillis() - start);
+            }
+            List<Path> projects = BuildMatrix.projects(poms, Config.getInt("CI_MODULE_DEPTH", 2));
+            boolean ok = true;
+            for (Path project : projects) {
+                if (Thread.currentThread().isInterrupted()) {
+                    ok = false;
+                    break;
+                }
+                ok &= BuildExecutor.resolve(project, output).exitCode() == 0;
+            }
+            if (ok) {
+                key = null;
+            }
+            return new Resolution(projects.size(), ok, System.currentTimeMillis() - start);
+        } finally {
+            // Resolve the poms again next time if it did not work
+            if (key != null) {
+                known.remove(key);
+            }
+            FileUtils.delete(poms.toFile(), FileUtils.RECURSIVE | FileUtils.RETRY);
+        }
+    }
+}
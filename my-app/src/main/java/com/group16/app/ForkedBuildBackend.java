@@ -0,0 +1,63 @@
+package com.group16.app;
+
+import java.io.File;
+import java.nio.file.Path;
+
+import org.apache.maven.shared.invoker.DefaultInvoker;
+import org.apache.maven.shared.invoker.InvocationRequest;
+import org.apache.maven.shared.invoker.InvocationResult;
+import org.apache.maven.shared.invoker.Invoker;
+import org.apache.maven.shared.invoker.MavenInvocationException;
+
+/**
+ * Runs every build in a new Maven JVM through the Maven Invoker. Each build
+ * pays the JVM and Maven start-up, but nothing is shared between builds.
+ */
+public class ForkedBuildBackend implements BuildBackend {
+    private static final File MAVEN_HOME = findMavenHome();
+
+    @Override
+    public InvocationResult execute(InvocationRequest request) throws MavenInvocationException {
+        Invoker invoker = new DefaultInvoker();
+        invoker.setMavenHome(MAVEN_HOME);
+        invoker.setWorkingDirectory(request.getPomFile().getParentFile());
+        return invoker.execute(request);
+    }
+
+    @Override
+    public String getName() {
+        return "forked";
+    }
+
+    /**
+     * Finds the Maven installation, from the maven.home property that is set
+     * when the server runs under Maven, MAVEN_HOME, or the mvn on the PATH.
+     *
+     * @return The Maven installation, or {@code null} if it was not found
+     */
+    static File findMavenHome() {
+        String home = System.getProperty("maven.home", System.getenv("MAVEN_HOME"));
+        if (home != null) {
+            return new File(home);
+        }
+        Path mvn = BuildBackend.findOnPath("mvn");
+        return mvn == null ? null : mvn.getParent().getParent().toFile(); // <home>/bin/mvn
+    }
+
+    /**
+     * Reads the version of a Maven installation from the name of its
+     * maven-core jar.
+     *
+     * @param mavenHome The Maven installation, or {@code null}
+     * @return The version, e.g. 3.9.6, or {@code null} if it is unknown
+     */
+    static String mavenVersion(File mavenHome) {
+        File[] cores = mavenHome == null ? null
+                : new File(mavenHome, "lib").listFiles((dir, name) -> name.matches("maven-core-\\d.*\\.jar"));
+        if (cores == null || cores.length == 0) {
+            return null;
+        }
+        String name = cores[0].getName();
+        return name.substring("maven-core-".length(), name.length() - ".jar".length());
+    }
+}
@@ -0,0 +1,110 @@
+package com.group16.app;
+
+import java.io.IOException;
+import java.util.List;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Handler for the JSON API of the {@link BuildHistory}:
+ * GET /builds: the finished jobs, newest first, optionally filtered with
+ * {@code repo=owner/name}, {@code repo} and {@code branch}, or {@code sha},
+ * and paged with {@code page} and {@code size}
+ * GET /builds/latest?repo=owner/name&amp;branch=main: the newest job of a branch
+ * GET /builds/&lt;job id&gt;: one job
+ * Other requests are left to the next handler.
+ */
+public class HistoryHandler extends AbstractHandler {
+    private static final int MAX_PAGE_SIZE = 100;
+
+    private final BuildHistory history;
+
+    /**
+     * @param history The history to serve
+     */
+    public HistoryHandler(BuildHistory history) {
+        this.history = history;
+    }
+
+    @Override
+    public void handle(String target,
+                       Request baseRequest,
+                       HttpServletRequest request,
+                       HttpServletResponse response)
+        throws IOException, ServletException {
+        if (!(target.equals("/builds") || target.startsWith("/builds/")) || !request.getMethod().equals("GET")) {
+            return;
+        }
+        baseRequest.setHandled(true);
+        response.setContentType("application/json;charset=utf-8");
+
+        String repo = request.getParameter("repo");
+        String branch = request.getParameter("branch");
+        String ref = branch == null || branch.startsWith("refs/") ? branch : "refs/heads/" + branch;
+        int status = HttpServletResponse.SC_OK;
+        Object body;
+        try {
+            if (target.equals("/builds")) {
+                int page = parameter(request, "page", 0, Integer.MAX_VALUE, 0);
+                int size = parameter(request, "size", 1, MAX_PAGE_SIZE, 20);
+                List<BuildRecord> records;
+                if (request.getParameter("sha") != null) {
+                    records = history.forSha(request.getParameter("sha"));
+                } else if (repo != null && ref != null) {
+                    records = history.forBranch(repo, ref, page, size);
+                } else if (repo != null) {
+                    records = history.forRepo(repo, page, size);
+                } else {
+                    records = history.list(page, size);
+                }
+                JSONArray builds = new JSONArray();
+                records.forEach(record -> builds.put(record.toJson()));
+                body = new JSONObject().put("page", page).put("size", size).put("builds", builds);
+            } else if (target.equals("/builds/latest")) {
+                if (repo == null || ref == null) {
+                    throw new IllegalArgumentException("repo and branch are required");
+                }
+                body = toJson(history.latest(repo, ref));
+            } else {
+                body = toJson(history.get(target.substring("/builds/".length())));
+            }
+        } catch (IllegalArgumentException e) {
+            status = HttpServletResponse.SC_BAD_REQUEST;
+            body = new JSONObject().put("error", e.getMessage());
+        }
+        if (body == null) {
+            status = HttpServletResponse.SC_NOT_FOUND;
+            body = new JSONObject().put("error", "No such build");
+        }
+        response.setStatus(status);
+        response.getWriter().println(body);
+    }
+
+    private static JSONObject toJson(BuildRecord record) {
+        return record == null ? null : record.toJson();
+    }
+
+    // Reads an int query parameter
+    private static int parameter(HttpServletRequest request, String name, int min, int max, int defaultValue) {
+        String value = request.getParameter(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            int parsed = Integer.parseInt(value);
+            if (parsed >= min && parsed <= max) {
+                return parsed;
+            }
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        throw new IllegalArgumentException(name + " must be a number from " + min + " to " + max);
+    }
+}
@@ -0,0 +1,98 @@
+package com.group16.app;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+
+import org.json.JSONObject;
+
+/**
+ * The {@link AgentLink} of a {@link BuildAgent} on another host than the
+ * coordinator, which calls the {@link AgentHandler} of the coordinator. A
+ * heartbeat gives up after a quarter of the lease time, so that the next one,
+ * a third of the lease time later, still comes before the lease expires.
+ */
+public class HttpAgentLink implements AgentLink {
+    private static final Duration TIMEOUT = Duration.ofSeconds(30);
+
+    private final HttpClient client = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofSeconds(10))
+            .build();
+    private final String coordinatorURL;
+    private final String token;
+    // A quarter of the lease time of the coordinator, once a job was leased
+    private volatile Duration heartbeatTimeout = TIMEOUT;
+
+    /**
+     * @param coordinatorURL The URL of the coordinator, e.g. http://ci:8080
+     * @param token          The secret CI_AGENT_TOKEN of the coordinator
+     */
+    public HttpAgentLink(String coordinatorURL, String token) {
+        this.coordinatorURL = coordinatorURL.replaceAll("/+$", "");
+        this.token = token;
+    }
+
+    @Override
+    public Assignment lease(String agent, long waitMillis) throws IOException {
+        long wait = Math.min(waitMillis, AgentCoordinator.MAX_WAIT_MILLIS);
+        HttpResponse<String> response = call("lease", new JSONObject().put("agent", agent).put("wait_ms", wait),
+                TIMEOUT);
+        if (response.statusCode() == 204) {
+            return null;
+        }
+        JSONObject json = new JSONObject(response.body());
+        heartbeatTimeout = Duration.ofMillis(Math.max(1, json.getLong("lease_ms") / 4));
+        return new Assignment(json.getString("lease"), json.getLong("lease_ms"), json.getString("job"),
+                json.getString("owner"), json.getString("repo"), json.getString("branch"), json.getString("sha"),
+                json.getString("repo_url"), json.getString("server_url"), json.getBoolean("force_rebuild"),
+                json.getLong("enqueued_at"), json.getLong("started_at"));
+    }
+
+    @Override
+    public Heartbeat heartbeat(String lease, String log) throws IOException {
+        HttpResponse<String> response = call("heartbeat", new JSONObject().put("lease", lease).put("log", log),
+                heartbeatTimeout);
+        if (response.statusCode() == 410) {
+            return new Heartbeat(false, null);
+        }
+        return new Heartbeat(true, new JSONObject(response.body()).optString("superseded_by", null));
+    }
+
+    @Override
+    public boolean status(String lease, Status status, String description, String context) throws IOException {
+        return call("status", new JSONObject().put("lease", lease).put("status", status.name())
+                .put("description", description).put("context", context), TIMEOUT).statusCode() != 410;
+    }
+
+    @Override
+    public boolean finish(String lease, BuildRecord record) throws IOException {
+        return call("finish", new JSONObject().put("lease", lease).put("record", record.toLine()), TIMEOUT)
+                .statusCode() != 410;
+    }
+
+    // Posts a call to the coordinator, and returns the answer if it is a
+    // success or 410
+    private HttpResponse<String> call(String name, JSONObject body, Duration timeout) throws IOException {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(coordinatorURL + "/agents/" + name))
+                .timeout(timeout)
+                .header("Authorization", "Bearer " + token)
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(body.toString()))
+                .build();
+        HttpResponse<String> response;
+        try {
+            response = client.send(request, HttpResponse.BodyHandlers.ofString());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while calling the coordinator", e);
+        }
+        if (response.statusCode() / 100 != 2 && response.statusCode() != 410) {
+            throw new IOException("The coordinator answered " + name + " with " + response.statusCode());
+        }
+        return response;
+    }
+}
@@ -0,0 +1,164 @@
+package com.group16.app;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.concurrent.Semaphore;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+
+/**
+ * Handler that serves the logs of the CI jobs at GET /logs/&lt;job id&gt;. This
+ * is the page that the commit statuses on GitHub link to.
+ *
+ * The log of a running job is streamed with chunked transfer encoding while
+ * the job writes it, and the response ends when the job does. A finished log
+ * is sent whole, or in part with a Range header (e.g. {@code bytes=1000-}).
+ * A Range header on a running log returns the part written so far, so a
+ * client can also poll instead of keeping the connection open.
+ *
+ * Following a log holds a thread of the HTTP server until the job ends, so
+ * at most CI_LOG_FOLLOWERS (default 16) logs are followed at once, and more
+ * followers are answered with 503 and asked to poll with a Range header
+ * instead. This leaves the threads for the webhooks.
+ */
+public class LogHandler extends AbstractHandler {
+    private static final Pattern LOG_PATH = Pattern.compile("/logs/([0-9a-f-]{36})");
+    private static final Pattern RANGE = Pattern.compile("bytes=(\\d*)-(\\d*)");
+
+    private final Path root;
+    private final Semaphore followers;
+
+    /**
+     * Serves the logs in {@link BuildLog#root()}.
+     */
+    public LogHandler() {
+        this(BuildLog.root(), Config.getInt("CI_LOG_FOLLOWERS", 16));
+    }
+
+    /**
+     * @param root         The directory of the logs
+     * @param maxFollowers The maximum number of running logs followed at once
+     */
+    LogHandler(Path root, int maxFollowers) {
+        this.root = root;
+        this.followers = new Semaphore(maxFollowers);
+    }
+
+    @Override
+    public void handle(String target,
+                       Request baseRequest,
+                       HttpServletRequest request,
+                       HttpServletResponse response)
+        throws IOException, ServletException {
+        Matcher path = LOG_PATH.matcher(target);
+        if (!path.matches() || !request.getMethod().equals("GET")) {
+            return;
+        }
+        baseRequest.setHandled(true);
+        response.setContentType("text/plain;charset=utf-8");
+        response.setHeader("Accept-Ranges", "bytes");
+
+        BuildLog log = BuildLog.open(root, path.group(1));
+        if (log == null) {
+            response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+            response.getWriter().println("No log for job " + path.group(1));
+            return;
+        }
+
+        String range = request.getHeader("Range");
+        if (range != null) {
+            sendRange(log, range, response);
+        } else if (!log.isClosed()) {
+            if (!followers.tryAcquire()) {
+                response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+                response.setHeader("Retry-After", "5");
+                response.getWriter().println("Too many clients follow logs, poll with a Range header instead");
+                return;
+            }
+            try {
+                follow(log, response);
+            } finally {
+                followers.release();
+            }
+        } else {
+            response.setStatus(HttpServletResponse.SC_OK);
+            response.setContentLengthLong(log.length());
+            log.copyTo(0, log.length(), response.getOutputStream());
+        }
+    }
+
+    // Sends one range of the log, or 416 if it is not in the log
+    private static void sendRange(BuildLog log, String header, HttpServletResponse response) throws IOException {
+        long length = log.length();
+        long[] range = parseRange(header, length);
+        if (range == null) {
+            response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+            response.setHeader("Content-Range", "bytes */" + length);
+            return;
+        }
+        response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+        response.setHeader("Content-Range", "bytes " + range[0] + "-" + (range[1] - 1) + "/" + length);
+        response.setContentLengthLong(range[1] - range[0]);
+        log.copyTo(range[0], range[1], response.getOutputStream());
+    }
+
+    // Streams the log until the job closes it or the client goes away
+    private static void follow(BuildLog log, HttpServletResponse response) throws IOException {
+        response.setStatus(HttpServletResponse.SC_OK);
+        OutputStream out = response.getOutputStream();
+        long offset = 0;
+        try {
+            while (true) {
+                long length = log.length();
+                if (length > offset) {
+                    log.copyTo(offset, length, out);
+                    out.flush();
+                    offset = length;
+                } else if (log.isClosed()) {
+                    return;
+                }
+                log.awaitMore(offset, 10_000);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Parses a single range of a Range header.
+     *
+     * @param header The value of the Range header
+     * @param length The length of the log
+     * @return The first byte and the byte after the last one, or {@code null}
+     *         if the range is invalid or outside the log
+     */
+    static long[] parseRange(String header, long length) {
+        Matcher matcher = RANGE.matcher(header.trim());
+        if (!matcher.matches() || (matcher.group(1).isEmpty() && matcher.group(2).isEmpty())) {
+            return null;
+        }
+        long from;
+        long to;
+        try {
+            if (matcher.group(1).isEmpty()) {
+                // The last n bytes
+                from = Math.max(0, length - Long.parseLong(matcher.group(2)));
+                to = length;
+            } else {
+                from = Long.parseLong(matcher.group(1));
+                to = matcher.group(2).isEmpty() ? length : Math.min(length, Long.parseLong(matcher.group(2)) + 1);
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        return from < to ? new long[] { from, to } : null;
+    }
+}
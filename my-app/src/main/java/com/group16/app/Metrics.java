@@ -0,0 +1,336 @@
+package com.group16.app;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+import java.util.function.Supplier;
+
+/**
+ * The counters, histograms and gauges of the server, served in the Prometheus
+ * text format on GET /metrics by the {@link StatsHandler}.
+ *
+ * Recording is lock-free: counters are {@link LongAdder}s, and histograms
+ * count into fixed exponential buckets with an {@link AtomicLongArray}, so
+ * recording a value costs a few nanoseconds and allocates nothing. A metric
+ * is looked up by name and labels once, and then kept in a field by the code
+ * that records it.
+ *
+ * The stages of every job are timed in the histogram ci_stage_seconds, with
+ * the stage as label: webhook (reading the payload), queue (waiting for a
+ * worker), checkout, compile (Maven until the tests start) and test. Every
+ * request to GitHub for a commit status is timed in ci_notification_seconds.
+ * The JVM of the server and the Maven processes it forks are reported as
+ * gauges when the metrics are read.
+ */
+public final class Metrics {
+    /** The content type of the output of {@link #scrape()} */
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private static final Metrics DEFAULT = new Metrics();
+
+    // The upper bounds of the buckets of the histograms, in seconds, from a
+    // millisecond to about an hour
+    private static final double[] BUCKETS = {
+        0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 25, 50, 100, 250, 500, 1000, 2500
+    };
+    private static final long[] BUCKET_NANOS = new long[BUCKETS.length];
+
+    static {
+        for (int i = 0; i < BUCKETS.length; i++) {
+            BUCKET_NANOS[i] = Math.round(BUCKETS[i] * 1e9);
+        }
+    }
+
+    // The metrics by name, sorted so that the output is stable
+    private final Map<String, Family> families = new ConcurrentSkipListMap<>();
+
+    private record Family(String type, String help, Map<String, Object> metrics) {
+    }
+
+    /**
+     * A count that only goes up.
+     */
+    public static final class Counter {
+        private final LongAdder value = new LongAdder();
+
+        /**
+         * Adds one.
+         */
+        public void increment() {
+            value.increment();
+        }
+
+        /**
+         * @param amount The amount to add
+         */
+        public void add(long amount) {
+            value.add(amount);
+        }
+
+        /**
+         * @return The count
+         */
+        public long get() {
+            return value.sum();
+        }
+    }
+
+    /**
+     * The distribution of durations.
+     */
+    public static final class Histogram {
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS.length + 1);
+        private final LongAdder sumNanos = new LongAdder();
+
+        /**
+         * @param nanos A duration in nanoseconds
+         */
+        public void record(long nanos) {
+            nanos = Math.max(0, nanos);
+            int bucket = 0;
+            while (bucket < BUCKET_NANOS.length && nanos > BUCKET_NANOS[bucket]) {
+                bucket++;
+            }
+            buckets.incrementAndGet(bucket);
+            sumNanos.add(nanos);
+        }
+
+        /**
+         * @param millis A duration in milliseconds
+         */
+        public void recordMillis(long millis) {
+            record(millis * 1_000_000);
+        }
+
+        /**
+         * Starts timing something, e.g. in a try-with-resources statement.
+         *
+         * @return The timer, that records the elapsed time when it is stopped
+         */
+        public Timer time() {
+            return new Timer(this);
+        }
+
+        /**
+         * @return The number of recorded durations
+         */
+        public long count() {
+            long count = 0;
+            for (int i = 0; i < buckets.length(); i++) {
+                count += buckets.get(i);
+            }
+            return count;
+        }
+
+        /**
+         * @return The sum of the recorded durations in seconds
+         */
+        public double sumSeconds() {
+            return sumNanos.sum() / 1e9;
+        }
+    }
+
+    /**
+     * Times one span, and records it in a histogram when it is stopped.
+     */
+    public static final class Timer implements AutoCloseable {
+        private final Histogram histogram;
+        private final long start = System.nanoTime();
+        private long elapsedNanos = -1;
+
+        private Timer(Histogram histogram) {
+            this.histogram = histogram;
+        }
+
+        /**
+         * Records the elapsed time, once.
+         *
+         * @return The elapsed time in milliseconds
+         */
+        public long stop() {
+            if (elapsedNanos < 0) {
+                elapsedNanos = System.nanoTime() - start;
+                histogram.record(elapsedNanos);
+            }
+            return elapsedNanos / 1_000_000;
+        }
+
+        @Override
+        public void close() {
+            stop();
+        }
+    }
+
+    private Metrics() {
+        registerProcessGauges();
+    }
+
+    /**
+     * @return The metrics of the server
+     */
+    public static Metrics getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * @param stage The stage of a job
+     * @return The histogram of the durations of the stage
+     */
+    public static Histogram stage(String stage) {
+        return DEFAULT.histogram("ci_stage_seconds", "The time spent in each stage of a CI job", "stage", stage);
+    }
+
+    /**
+     * Finds or creates a counter.
+     *
+     * @param name   The name of the counter, ending with _total
+     * @param help   What the counter counts
+     * @param labels Pairs of label names and values
+     * @return The counter
+     */
+    public Counter counter(String name, String help, String... labels) {
+        return (Counter) metric(name, "counter", help, labels, Counter::new);
+    }
+
+    /**
+     * Finds or creates a histogram of durations in seconds.
+     *
+     * @param name   The name of the histogram, ending with _seconds
+     * @param help   What the histogram measures
+     * @param labels Pairs of label names and values
+     * @return The histogram
+     */
+    public Histogram histogram(String name, String help, String... labels) {
+        return (Histogram) metric(name, "histogram", help, labels, Histogram::new);
+    }
+
+    /**
+     * Registers a value that is read when the metrics are read, replacing an
+     * earlier gauge with the same name and labels.
+     *
+     * @param name   The name of the gauge
+     * @param help   What the gauge measures
+     * @param value  Reads the value
+     * @param labels Pairs of label names and values
+     */
+    public void gauge(String name, String help, DoubleSupplier value, String... labels) {
+        family(name, "gauge", help).metrics().put(labels(labels), value);
+    }
+
+    private Object metric(String name, String type, String help, String[] labels,
+            Supplier<Object> factory) {
+        Family family = family(name, type, help);
+        String key = labels(labels);
+        Object metric = family.metrics().get(key);
+        return metric != null ? metric : family.metrics().computeIfAbsent(key, k -> factory.get());
+    }
+
+    private Family family(String name, String type, String help) {
+        Family family = families.computeIfAbsent(name,
+                n -> new Family(type, help, new ConcurrentSkipListMap<>()));
+        if (!family.type().equals(type)) {
+            throw new IllegalArgumentException("The metric " + name + " is a " + family.type());
+        }
+        return family;
+    }
+
+    // Formats pairs of label names and values as name="value",...
+    private static String labels(String[] labels) {
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("Labels must be pairs of names and values");
+        }
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < labels.length; i += 2) {
+            if (i > 0) {
+                text.append(',');
+            }
+            text.append(labels[i]).append("=\"").append(labels[i + 1].replace("\\", "\\\\")
+                    .replace("\"", "\\\"").replace("\n", "\\n")).append('"');
+        }
+        return text.toString();
+    }
+
+    /**
+     * @return All metrics in the Prometheus text format
+     */
+    public String scrape() {
+        StringBuilder out = new StringBuilder();
+        families.forEach((name, family) -> {
+            out.append("# HELP ").append(name).append(' ').append(family.help()).append('\n');
+            out.append("# TYPE ").append(name).append(' ').append(family.type()).append('\n');
+            family.metrics().forEach((labels, metric) -> {
+                if (metric instanceof Counter counter) {
+                    sample(out, name, labels, counter.get());
+                } else if (metric instanceof DoubleSupplier gauge) {
+                    double value;
+                    try {
+                        value = gauge.getAsDouble();
+                    } catch (RuntimeException e) {
+                        value = Double.NaN;
+                    }
+                    sample(out, name, labels, value);
+                } else if (metric instanceof Histogram histogram) {
+                    String prefix = labels.isEmpty() ? "" : labels + ",";
+                    long cumulative = 0;
+                    for (int i = 0; i <= BUCKETS.length; i++) {
+                        cumulative += histogram.buckets.get(i);
+                        String le = i < BUCKETS.length ? format(BUCKETS[i]) : "+Inf";
+                        sample(out, name + "_bucket", prefix + "le=\"" + le + "\"", cumulative);
+                    }
+                    sample(out, name + "_sum", labels, histogram.sumSeconds());
+                    sample(out, name + "_count", labels, cumulative);
+                }
+            });
+        });
+        return out.toString();
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, double value) {
+        out.append(name);
+        if (!labels.isEmpty()) {
+            out.append('{').append(labels).append('}');
+        }
+        out.append(' ').append(format(value)).append('\n');
+    }
+
+    private static String format(double value) {
+        if (Double.isNaN(value)) {
+            return "NaN";
+        }
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            return Long.toString((long) value);
+        }
+        return String.format(Locale.ROOT, "%s", value);
+    }
+
+    // The JVM of the server, and the Maven processes it runs
+    private void registerProcessGauges() {
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.OperatingSystemMXBean sunOs) {
+            gauge("process_cpu_seconds_total", "The CPU time of the server", () -> sunOs.getProcessCpuTime() / 1e9);
+        }
+        gauge("process_start_time_seconds", "The time the server started",
+                () -> ManagementFactory.getRuntimeMXBean().getStartTime() / 1000.0);
+        gauge("jvm_memory_heap_used_bytes", "The used heap of the server",
+                () -> ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed());
+        gauge("jvm_memory_heap_max_bytes", "The maximum heap of the server",
+                () -> ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getMax());
+        gauge("jvm_threads_live", "The threads of the server", () -> ManagementFactory.getThreadMXBean()
+                .getThreadCount());
+        gauge("jvm_gc_collection_seconds_total", "The time the server spent in garbage collection",
+                () -> ManagementFactory.getGarbageCollectorMXBeans().stream()
+                        .mapToLong(GarbageCollectorMXBean::getCollectionTime).filter(time -> time > 0).sum() / 1000.0);
+        gauge("ci_child_processes", "The processes the server runs, such as forked Maven builds and tests",
+                () -> ProcessHandle.current().descendants().count());
+        gauge("ci_child_cpu_seconds", "The CPU time of the running child processes",
+                () -> ProcessHandle.current().descendants().mapToLong(process -> process.info().totalCpuDuration()
+                        .map(Duration::toNanos).orElse(0L)).sum() / 1e9);
+    }
+}
@@ -0,0 +1,709 @@
+package com.group16.app;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import org.eclipse.jgit.api.FetchCommand;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.ResetCommand;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.api.errors.TransportException;
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheBuilder;
+import org.eclipse.jgit.dircache.DirCacheCheckout;
+import org.eclipse.jgit.dircache.DirCacheEntry;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.StoredConfig;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.transport.FilterSpec;
+import org.eclipse.jgit.transport.RefSpec;
+import org.eclipse.jgit.transport.TagOpt;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.PathFilterGroup;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+import org.eclipse.jgit.util.FileUtils;
+
+/**
+ * A local store of bare mirror repositories, one per clone URL.
+ *
+ * Instead of cloning the whole repository for every build, a build fetches
+ * only the pushed ref into the mirror, which transfers just the new objects,
+ * and then checks out a worktree at the pushed commit. The worktree borrows the
+ * objects of the mirror through objects/info/alternates, so only the files of
+ * the commit are written to disk.
+ *
+ * Each checkout is a {@link Workspace} that belongs to one job, and must be
+ * closed when the job ends. A closed worktree is kept in a pool, and the next
+ * checkout of the same repository reuses it: a hard reset and a clean only
+ * write the files that differ and delete the build outputs, instead of
+ * writing the whole tree again. When the pool is full, the least recently
+ * used worktree is deleted. Worktrees left behind by a crash are added to the
+ * pool when the cache is created, since the reset also repairs them.
+ *
+ * A {@link CheckoutStrategy} can make the checkouts of large repositories
+ * cheaper: a shallow fetch of just the commit, a sparse worktree with only the
+ * files at the root and the directories that are built, and a filtered fetch
+ * that leaves out blobs, after which only the blobs of the sparse worktree are
+ * fetched. JGit has neither a sparse checkout nor a partial clone that fetches
+ * missing blobs on demand, so the cache does both itself.
+ *
+ * When the mirrors take more space than allowed, the least recently used
+ * mirrors that no build is using are evicted, with their pooled worktrees.
+ * Their size is checked after a checkout, at most once a minute, since it
+ * walks every file of every mirror.
+ *
+ * Settings (in .env or the environment):
+ * CI_MIRROR_MAX_MB: maximum total size of the mirrors (default 10240)
+ * CI_WORKSPACE_POOL: maximum number of pooled worktrees (default two per worker)
+ * CI_WORKSPACE_DIR: directory of the worktrees (default CI_DATA_DIR/worktrees,
+ * or /dev/shm when that tmpfs has CI_WORKSPACE_TMPFS_MIN_MB free, default 8192)
+ */
+public class MirrorCache {
+    // The most blobs asked for in one fetch after a filtered fetch
+    private static final int MAX_WANTS = 1000;
+    private static final long EVICTION_INTERVAL_MILLIS = 60 * 1000;
+
+    private static MirrorCache defaultCache;
+
+    private final Path mirrorsDir;
+    private final Path worktreesDir;
+    private final long maxBytes;
+    private final int maxIdle;
+
+    private final Map<Path, Object> locks = new ConcurrentHashMap<>();
+    private final Map<Path, AtomicInteger> users = new ConcurrentHashMap<>();
+    // Guarded by itself. The pooled worktrees and their mirrors, least
+    // recently used first.
+    private final LinkedHashMap<Path, Path> idle = new LinkedHashMap<>();
+    private final AtomicInteger reused = new AtomicInteger();
+    private final AtomicLong lastEviction = new AtomicLong();
+
+    /**
+     * The worktree of one job. Closing it gives the worktree back to the
+     * cache; closing it again does nothing.
+     */
+    public final class Workspace implements AutoCloseable {
+        private final Path dir;
+        private final Path mirror;
+        private final boolean reused;
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        private Workspace(Path dir, Path mirror, boolean reused) {
+            this.dir = dir;
+            this.mirror = mirror;
+            this.reused = reused;
+        }
+
+        /**
+         * @return The directory of the worktree
+         */
+        public Path dir() {
+            return dir;
+        }
+
+        /**
+         * @return {@code true} if the worktree was reset from an earlier job
+         */
+        public boolean reused() {
+            return reused;
+        }
+
+        @Override
+        public void close() {
+            if (closed.compareAndSet(false, true)) {
+                giveBack(this);
+            }
+        }
+    }
+
+    /**
+     * Is told by {@link #checkout} when the commit is in the mirror, before
+     * the worktree is checked out, so that work which only needs the objects
+     * of the commit can start in parallel with the checkout.
+     */
+    @FunctionalInterface
+    public interface FetchListener {
+        /**
+         * @param mirror The bare mirror, which is not evicted until the
+         *               workspace of the checkout is closed
+         * @param commit The fetched commit
+         */
+        void fetched(Path mirror, ObjectId commit);
+    }
+
+    /**
+     * Creates a cache without a pool, and deletes the worktrees left from a
+     * previous run.
+     *
+     * @param root     The directory of the cache
+     * @param maxBytes The maximum total size of the mirrors
+     * @throws IOException If the directories cannot be created
+     */
+    public MirrorCache(Path root, long maxBytes) throws IOException {
+        this(root, root.resolve("worktrees"), maxBytes, 0);
+    }
+
+    /**
+     * Creates a cache, and pools the worktrees left from a previous run.
+     *
+     * @param root         The directory of the mirrors
+     * @param worktreesDir The directory of the worktrees
+     * @param maxBytes     The maximum total size of the mirrors
+     * @param maxIdle      The maximum number of pooled worktrees
+     * @throws IOException If the directories cannot be created
+     */
+    public MirrorCache(Path root, Path worktreesDir, long maxBytes, int maxIdle) throws IOException {
+        this.mirrorsDir = Files.createDirectories(root.resolve("mirrors"));
+        this.worktreesDir = Files.createDirectories(worktreesDir);
+        this.maxBytes = maxBytes;
+        this.maxIdle = maxIdle;
+        try (Stream<Path> stale = Files.list(this.worktreesDir)) {
+            for (Path worktree : stale.toList()) {
+                Path mirror = mirrorOf(worktree);
+                if (mirror != null && idle.size() < maxIdle) {
+                    idle.put(worktree, mirror);
+                } else {
+                    delete(worktree);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return The cache under the data directory of the server
+     * @throws IOException If the cache directories cannot be created
+     */
+    public static synchronized MirrorCache getDefault() throws IOException {
+        if (defaultCache == null) {
+            defaultCache = new MirrorCache(Config.dataDir(), workspaceDir(),
+                    Config.getLong("CI_MIRROR_MAX_MB", 10240) * 1024 * 1024,
+                    Config.getInt("CI_WORKSPACE_POOL", 2 * BuildScheduler.defaultWorkers()));
+        }
+        return defaultCache;
+    }
+
+    // The configured directory of the worktrees, or a tmpfs if it has room
+    // for the checkouts and their build outputs
+    private static Path workspaceDir() {
+        String configured = Config.get("CI_WORKSPACE_DIR", null);
+        if (configured != null) {
+            return Path.of(configured);
+        }
+        Path tmpfs = Path.of("/dev/shm");
+        long minBytes = Config.getLong("CI_WORKSPACE_TMPFS_MIN_MB", 8192) * 1024 * 1024;
+        try {
+            if (minBytes > 0 && Files.isDirectory(tmpfs) && Files.getFileStore(tmpfs).getUsableSpace() >= minBytes) {
+                return tmpfs.resolve("ci-worktrees-" + hash(Config.dataDir().toAbsolutePath().toString()));
+            }
+        } catch (IOException e) {
+            System.err.println("Error checking " + tmpfs + ": " + e.getMessage());
+        }
+        return Config.dataDir().resolve("worktrees");
+    }
+
+    /**
+     * Fetches a ref into the mirror of a repository and checks out a
+     * worktree at the given commit, reusing a pooled worktree of the same
+     * repository if there is one.
+     *
+     * @param repoUrl   The clone URL of the repository
+     * @param ref       The ref to fetch, e.g. refs/heads/main or just main
+     * @param commitSha The commit to check out, or {@code null} for the tip of
+     *                  the ref
+     * @return The worktree, which must be closed
+     * @throws IOException     If the mirror or the worktree cannot be written
+     * @throws GitAPIException If the fetch or the checkout fails
+     */
+    public Workspace checkout(String repoUrl, String ref, String commitSha) throws IOException, GitAPIException {
+        return checkout(repoUrl, ref, commitSha, CheckoutStrategy.FULL);
+    }
+
+    /**
+     * Fetches a commit into the mirror of a repository and checks out a
+     * worktree at it, as the given strategy says, reusing a pooled worktree
+     * of the same repository if there is one.
+     *
+     * @param repoUrl   The clone URL of the repository
+     * @param ref       The ref to fetch, e.g. refs/heads/main or just main
+     * @param commitSha The commit to check out, or {@code null} for the tip of
+     *                  the ref
+     * @param strategy  How to fetch and check out the commit
+     * @return The worktree, which must be closed
+     * @throws IOException     If the mirror or the worktree cannot be written
+     * @throws GitAPIException If the fetch or the checkout fails
+     */
+    public Workspace checkout(String repoUrl, String ref, String commitSha, CheckoutStrategy strategy)
+            throws IOException, GitAPIException {
+        return checkout(repoUrl, ref, commitSha, strategy, null);
+    }
+
+    /**
+     * Fetches a commit into the mirror of a repository and checks out a
+     * worktree at it, as the given strategy says, and tells a listener when
+     * the fetch is done.
+     *
+     * @param repoUrl   The clone URL of the repository
+     * @param ref       The ref to fetch, e.g. refs/heads/main or just main
+     * @param commitSha The commit to check out, or {@code null} for the tip of
+     *                  the ref
+     * @param strategy  How to fetch and check out the commit
+     * @param listener  Called on the calling thread between the fetch and the
+     *                  checkout, or {@code null}
+     * @return The worktree, which must be closed
+     * @throws IOException     If the mirror or the worktree cannot be written
+     * @throws GitAPIException If the fetch or the checkout fails
+     */
+    public Workspace checkout(String repoUrl, String ref, String commitSha, CheckoutStrategy strategy,
+            FetchListener listener) throws IOException, GitAPIException {
+        String fullRef = ref.startsWith("refs/") ? ref : "refs/heads/" + ref;
+        Path mirror = mirrorsDir.resolve(hash(repoUrl) + ".git");
+
+        users.computeIfAbsent(mirror, m -> new AtomicInteger()).incrementAndGet();
+        Path worktree = null;
+        try {
+            ObjectId commit;
+            List<String> sparse = null;
+            synchronized (locks.computeIfAbsent(mirror, m -> new Object())) {
+                if (!Files.isDirectory(mirror.resolve("objects"))) {
+                    Git.init().setBare(true).setDirectory(mirror.toFile()).call().close();
+                }
+                try (Git git = Git.open(mirror.toFile())) {
+                    commit = fetch(git, repoUrl, fullRef, commitSha, strategy);
+                    if (commit != null && strategy.sparse() != null) {
+                        sparse = strategy.sparse().isEmpty() ? projects(git.getRepository(), commit,
+                                Config.getInt("CI_MODULE_DEPTH", 2)) : strategy.sparse();
+                    }
+                    // A mirror that was fetched with a filter once lacks blobs
+                    // for good, even if the strategy changed since
+                    StoredConfig config = git.getRepository().getConfig();
+                    if (strategy.filter() != null && !config.getBoolean("ci", "partial", false)) {
+                        config.setBoolean("ci", null, "partial", true);
+                        config.save();
+                    }
+                    if (commit != null && config.getBoolean("ci", "partial", false)) {
+                        fetchMissing(git, repoUrl, commit, sparse);
+                    }
+                }
+                Files.setLastModifiedTime(mirror, FileTime.fromMillis(System.currentTimeMillis()));
+            }
+            if (commit == null) {
+                throw new IOException("Commit " + commitSha + " not found in " + fullRef);
+            }
+            if (listener != null) {
+                listener.fetched(mirror, commit);
+            }
+
+            worktree = takeIdle(mirror);
+            if (worktree != null) {
+                try (Git git = Git.open(worktree.toFile())) {
+                    // Detached HEAD, index and files at the commit, and
+                    // nothing else, not even ignored files
+                    if (sparse == null) {
+                        git.reset().setMode(ResetCommand.ResetType.HARD).setRef(commit.name()).call();
+                    } else {
+                        checkoutSparse(git.getRepository(), commit, sparse);
+                    }
+                    git.clean().setCleanDirectories(true).setIgnore(false).setForce(true).call();
+                    reused.incrementAndGet();
+                    return new Workspace(worktree, mirror, true);
+                } catch (IOException | GitAPIException | RuntimeException e) {
+                    System.err.println("Error resetting worktree " + worktree + ": " + e.getMessage());
+                    delete(worktree);
+                }
+            }
+
+            worktree = Files.createTempDirectory(worktreesDir, "tempRepo");
+            Git.init().setDirectory(worktree.toFile()).call().close();
+            Files.writeString(worktree.resolve(".git/objects/info/alternates"),
+                    mirror.resolve("objects").toAbsolutePath() + "\n", StandardCharsets.UTF_8);
+            // Reopen so that the alternates are picked up
+            try (Git git = Git.open(worktree.toFile())) {
+                if (sparse == null) {
+                    git.checkout().setName(commit.name()).call();
+                } else {
+                    checkoutSparse(git.getRepository(), commit, sparse);
+                }
+            }
+            return new Workspace(worktree, mirror, false);
+        } catch (IOException | GitAPIException | RuntimeException e) {
+            if (worktree != null) {
+                delete(worktree);
+            }
+            users.get(mirror).decrementAndGet();
+            throw e;
+        } finally {
+            long last = lastEviction.get();
+            long now = System.currentTimeMillis();
+            if (now - last > EVICTION_INTERVAL_MILLIS && lastEviction.compareAndSet(last, now)) {
+                evict();
+            }
+        }
+    }
+
+    // Fetches a commit, or the tip of the ref, into a mirror, and returns it,
+    // or null if the commit is not in the ref. A shallow fetch asks for the
+    // commit itself, and only falls back to the ref if the server refuses.
+    private static ObjectId fetch(Git git, String repoUrl, String fullRef, String commitSha,
+            CheckoutStrategy strategy) throws IOException, GitAPIException {
+        Repository repository = git.getRepository();
+        if (strategy.shallow() && commitSha != null && ObjectId.isId(commitSha)) {
+            ObjectId commit = ObjectId.fromString(commitSha);
+            if (repository.getObjectDatabase().has(commit)) {
+                return commit;
+            }
+            try {
+                fetchCommand(git, repoUrl, strategy.filter()).setRefSpecs(new RefSpec(commitSha)).setDepth(1).call();
+                if (repository.getObjectDatabase().has(commit)) {
+                    return commit;
+                }
+            } catch (TransportException e) {
+                System.err.println("Error fetching commit " + commitSha + ", fetching " + fullRef + " instead: "
+                        + e.getMessage());
+            }
+        }
+        FetchCommand fetch = fetchCommand(git, repoUrl, strategy.filter())
+                .setRefSpecs(new RefSpec("+" + fullRef + ":" + fullRef));
+        if (strategy.shallow()) {
+            fetch.setDepth(1);
+        }
+        fetch.call();
+        ObjectId commit = repository.resolve(commitSha != null ? commitSha : fullRef);
+        return commit != null && repository.getObjectDatabase().has(commit) ? commit : null;
+    }
+
+    private static FetchCommand fetchCommand(Git git, String repoUrl, String filter) throws IOException {
+        FetchCommand fetch = git.fetch().setRemote(repoUrl).setTagOpt(TagOpt.NO_TAGS);
+        if (filter != null) {
+            FilterSpec spec = FilterSpec.fromFilterLine(filter);
+            fetch.setTransportConfigCallback(transport -> transport.setFilterSpec(spec));
+        }
+        return fetch;
+    }
+
+    // Fetches the blobs of a checkout that a filtered fetch left out, by ID
+    private static void fetchMissing(Git git, String repoUrl, ObjectId commit, List<String> sparse)
+            throws IOException, GitAPIException {
+        Repository repository = git.getRepository();
+        List<RefSpec> missing = new ArrayList<>();
+        try (RevWalk commits = new RevWalk(repository); TreeWalk files = new TreeWalk(repository)) {
+            files.addTree(commits.parseCommit(commit).getTree());
+            files.setRecursive(true);
+            if (sparse != null) {
+                files.setFilter(sparseFilter(sparse));
+            }
+            Set<ObjectId> seen = new HashSet<>();
+            while (files.next()) {
+                ObjectId blob = files.getObjectId(0);
+                if (files.getFileMode(0).getObjectType() == Constants.OBJ_BLOB && seen.add(blob)
+                        && !repository.getObjectDatabase().has(blob)) {
+                    missing.add(new RefSpec(blob.name()));
+                }
+            }
+        }
+        for (int i = 0; i < missing.size(); i += MAX_WANTS) {
+            fetchCommand(git, repoUrl, null).setRefSpecs(missing.subList(i, Math.min(missing.size(), i + MAX_WANTS)))
+                    .call();
+        }
+    }
+
+    /**
+     * Finds the Maven projects of a commit that are not inside another one,
+     * as {@link BuildMatrix#projects} finds them in a checkout.
+     *
+     * @param repository The repository of the commit
+     * @param commit     The commit
+     * @param depth      How deep below the root to look for projects
+     * @return The directories of the projects, or {@code null} if the root is
+     *         a project or there is none, so the whole tree is needed
+     * @throws IOException If the trees of the commit cannot be read
+     */
+    static List<String> projects(Repository repository, ObjectId commit, int depth) throws IOException {
+        List<String> dirs = new ArrayList<>();
+        try (RevWalk commits = new RevWalk(repository); TreeWalk files = new TreeWalk(repository)) {
+            files.addTree(commits.parseCommit(commit).getTree());
+            while (files.next()) {
+                String name = files.getNameString();
+                if (files.isSubtree()) {
+                    if (files.getDepth() < depth && !name.startsWith(".") && !name.equals("target")) {
+                        files.enterSubtree();
+                    }
+                } else if (name.equals("pom.xml")) {
+                    if (files.getDepth() == 0) {
+                        return null;
+                    }
+                    String path = files.getPathString();
+                    dirs.add(path.substring(0, path.lastIndexOf('/')));
+                }
+            }
+        }
+        dirs.sort(null);
+        List<String> projects = new ArrayList<>();
+        for (String dir : dirs) {
+            if (projects.stream().noneMatch(project -> dir.startsWith(project + "/"))) {
+                projects.add(dir);
+            }
+        }
+        return projects.isEmpty() ? null : projects;
+    }
+
+    /**
+     * Writes the pom.xml files of a commit into a directory, with the paths
+     * they have in the commit, so that the modules of every project are there
+     * too. Hidden and target directories are skipped, as are poms whose blobs
+     * a filtered fetch left out.
+     *
+     * @param mirror The mirror that has the commit
+     * @param commit The commit
+     * @param dir    The directory to write the poms to
+     * @return A hash of the paths and contents of the poms, or {@code null} if
+     *         the commit has none
+     * @throws IOException If the mirror cannot be read or the directory written
+     */
+    static String copyPoms(Path mirror, ObjectId commit, Path dir) throws IOException {
+        StringBuilder poms = new StringBuilder();
+        try (Git git = Git.open(mirror.toFile()); RevWalk commits = new RevWalk(git.getRepository());
+                TreeWalk files = new TreeWalk(git.getRepository())) {
+            Repository repository = git.getRepository();
+            files.addTree(commits.parseCommit(commit).getTree());
+            while (files.next()) {
+                String name = files.getNameString();
+                if (files.isSubtree()) {
+                    if (!name.startsWith(".") && !name.equals("target")) {
+                        files.enterSubtree();
+                    }
+                } else if (name.equals("pom.xml") && repository.getObjectDatabase().has(files.getObjectId(0))) {
+                    Path pom = dir.resolve(files.getPathString());
+                    Files.createDirectories(pom.getParent());
+                    Files.write(pom, repository.open(files.getObjectId(0)).getBytes());
+                    poms.append(files.getPathString()).append(' ').append(files.getObjectId(0).name()).append('\n');
+                }
+            }
+        }
+        return poms.isEmpty() ? null : hash(poms.toString());
+    }
+
+    // Includes the files at the root and everything under the given
+    // directories
+    private static TreeFilter sparseFilter(List<String> sparse) {
+        TreeFilter under = PathFilterGroup.createFromStrings(sparse);
+        return new TreeFilter() {
+            @Override
+            public boolean include(TreeWalk walker) throws IOException {
+                return walker.getDepth() == 0 && !walker.isSubtree() || under.include(walker);
+            }
+
+            @Override
+            public boolean shouldBeRecursive() {
+                return true;
+            }
+
+            @Override
+            public TreeFilter clone() {
+                return this;
+            }
+        };
+    }
+
+    // Checks out only the files at the root and under the given directories
+    // of a commit, like a hard reset to a tree with just these files, and
+    // detaches HEAD at the commit
+    private static void checkoutSparse(Repository repository, ObjectId commit, List<String> sparse)
+            throws IOException {
+        ObjectId tree;
+        try (RevWalk commits = new RevWalk(repository); TreeWalk files = new TreeWalk(repository);
+                ObjectInserter inserter = repository.newObjectInserter()) {
+            files.addTree(commits.parseCommit(commit).getTree());
+            files.setRecursive(true);
+            files.setFilter(sparseFilter(sparse));
+            DirCache index = DirCache.newInCore();
+            DirCacheBuilder builder = index.builder();
+            while (files.next()) {
+                DirCacheEntry entry = new DirCacheEntry(files.getPathString());
+                entry.setFileMode(files.getFileMode(0));
+                entry.setObjectId(files.getObjectId(0));
+                builder.add(entry);
+            }
+            builder.finish();
+            tree = index.writeTree(inserter);
+            inserter.flush();
+        }
+        DirCache index = repository.lockDirCache();
+        try {
+            DirCacheCheckout checkout = new DirCacheCheckout(repository, index, tree);
+            checkout.setFailOnConflict(false);
+            checkout.checkout();
+        } finally {
+            index.unlock();
+        }
+        RefUpdate head = repository.updateRef(Constants.HEAD, true);
+        head.setNewObjectId(commit);
+        head.forceUpdate();
+    }
+
+    // Takes a pooled worktree of a mirror, or returns null
+    private Path takeIdle(Path mirror) {
+        synchronized (idle) {
+            for (Iterator<Map.Entry<Path, Path>> entries = idle.entrySet().iterator(); entries.hasNext();) {
+                Map.Entry<Path, Path> entry = entries.next();
+                if (entry.getValue().equals(mirror)) {
+                    entries.remove();
+                    return entry.getKey();
+                }
+            }
+            return null;
+        }
+    }
+
+    // Pools the worktree of a closed workspace, making room by deleting the
+    // least recently used one
+    private void giveBack(Workspace workspace) {
+        Path deleted = workspace.dir;
+        if (maxIdle > 0 && Files.isDirectory(workspace.mirror)) {
+            synchronized (idle) {
+                if (idle.size() >= maxIdle) {
+                    Iterator<Path> eldest = idle.keySet().iterator();
+                    deleted = eldest.next();
+                    eldest.remove();
+                } else {
+                    deleted = null;
+                }
+                idle.put(workspace.dir, workspace.mirror);
+            }
+        }
+        if (deleted != null) {
+            delete(deleted);
+        }
+        users.get(workspace.mirror).decrementAndGet();
+    }
+
+    /**
+     * @return The number of pooled worktrees
+     */
+    public int idle() {
+        synchronized (idle) {
+            return idle.size();
+        }
+    }
+
+    /**
+     * @return The number of checkouts that reused a pooled worktree
+     */
+    public int reused() {
+        return reused.get();
+    }
+
+    // The mirror whose objects a worktree borrows, or null if it is gone
+    private Path mirrorOf(Path worktree) {
+        try {
+            Path objects = Path.of(Files.readString(worktree.resolve(".git/objects/info/alternates"),
+                    StandardCharsets.UTF_8).trim());
+            Path mirror = objects.getParent();
+            return mirror != null && mirror.getParent() != null
+                    && mirror.getParent().equals(mirrorsDir.toAbsolutePath()) && Files.isDirectory(objects)
+                    ? mirrorsDir.resolve(mirror.getFileName()) : null;
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static void delete(Path worktree) {
+        try {
+            FileUtils.delete(worktree.toFile(), FileUtils.RECURSIVE | FileUtils.SKIP_MISSING);
+        } catch (IOException e) {
+            System.err.println("Error deleting worktree " + worktree + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Deletes the least recently used mirrors that are not in use until the
+     * mirrors fit in the size limit.
+     */
+    public void evict() {
+        List<Path> mirrors = new ArrayList<>();
+        try (Stream<Path> list = Files.list(mirrorsDir)) {
+            list.forEach(mirrors::add);
+        } catch (IOException e) {
+            System.err.println("Error listing mirrors: " + e.getMessage());
+            return;
+        }
+        long total = 0;
+        Map<Path, Long> sizes = new HashMap<>();
+        for (Path mirror : mirrors) {
+            long size = size(mirror);
+            sizes.put(mirror, size);
+            total += size;
+        }
+        mirrors.sort(Comparator.comparingLong(MirrorCache::lastUsed));
+        for (Path mirror : mirrors) {
+            if (total <= maxBytes) {
+                break;
+            }
+            synchronized (locks.computeIfAbsent(mirror, m -> new Object())) {
+                AtomicInteger count = users.get(mirror);
+                if (count != null && count.get() > 0) {
+                    continue;
+                }
+                List<Path> pooled = new ArrayList<>();
+                synchronized (idle) {
+                    idle.entrySet().removeIf(entry -> entry.getValue().equals(mirror) && pooled.add(entry.getKey()));
+                }
+                pooled.forEach(MirrorCache::delete);
+                try {
+                    FileUtils.delete(mirror.toFile(), FileUtils.RECURSIVE | FileUtils.SKIP_MISSING);
+                    total -= sizes.get(mirror);
+                    System.out.println("Evicted mirror " + mirror.getFileName());
+                } catch (IOException e) {
+                    System.err.println("Error evicting mirror " + mirror + ": " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    // Returns the total size of the files in a directory
+    static long size(Path dir) {
+        try (Stream<Path> files = Files.walk(dir)) {
+            return files.map(Path::toFile).filter(File::isFile).mapToLong(File::length).sum();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private static long lastUsed(Path mirror) {
+        return mirror.toFile().lastModified();
+    }
+
+    // Names the mirror of a URL, so that any URL maps to a valid directory name
+    private static String hash(String repoUrl) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(repoUrl.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest, 0, 16);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -1,22 +1,60 @@
 package com.group16.app;
 
+import java.io.IOException;
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.json.JSONObject;
 
-import io.github.cdimascio.dotenv.Dotenv;
 
 /**
  * Notification class to send status notifications to GitHub for a given commit.
- * 
+ *
+ * All notifications share one HTTP/2 client, so that they reuse its
+ * connection to the GitHub API. Builds send them with
+ * {@link #sendNotificationAsync}, which writes them to the
+ * {@link StatusOutbox} in CI_DATA_DIR/outbox and queues them in a
+ * {@link StatusDelivery} with at most CI_NOTIFY_IN_FLIGHT (default 8)
+ * concurrent requests, and CI_NOTIFY_MAX_ATTEMPTS (default 6) attempts per
+ * status.
+ *
  * Note: GITHUB_PAT is a Personal Access Token (PAT) for the GitHub API, which
- * needs to be stored in a .env file.
+ * is read from the .env file or the environment, see {@link Config}. The .env
+ * file is not tracked by git. CI_GITHUB_API_URL overrides the URL of
+ * the API, e.g. for GitHub Enterprise.
  */
 public class Notification {
-    private static final String GITHUB_API_URL = "https://api.github.com";
-    private static final Dotenv dotenv = Dotenv.load();
-    private static final String GITHUB_PAT = dotenv.get("GITHUB_PAT");
+    /**
+     * The context of the commit statuses of the server. The cells of a build
+     * matrix report in sub-contexts of it.
+     */
+    public static final String CONTEXT = "continuous-integration/jetty";
+
+    private static final int MAX_DESCRIPTION_LENGTH = 140;
+
+    private static final String GITHUB_API_URL = Config.get("CI_GITHUB_API_URL", "https://api.github.com")
+            .replaceAll("/+$", "");
+    private static final String GITHUB_PAT = Config.get("GITHUB_PAT", null);
+
+    private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "github-client");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static final HttpClient CLIENT = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_2)
+            .connectTimeout(Duration.ofSeconds(10))
+            .executor(EXECUTOR)
+            .build();
+    private static final StatusDelivery DELIVERY = new StatusDelivery(CLIENT, GITHUB_API_URL, GITHUB_PAT,
+            Config.getInt("CI_NOTIFY_IN_FLIGHT", 8), 1000, Config.getInt("CI_NOTIFY_MAX_ATTEMPTS", 6));
+    private static StatusOutbox outbox;
 
     /**
      * Sends a notification to GitHub about the build/test status of a commit.
@@ -34,37 +72,37 @@ public class Notification {
      */
     public static void sendNotification(Status status, String requestURL, String owner, String repo, String commitSha)
             throws RuntimeException {
-        String body = String.format("""
-                {
-                    "state": "%s",
-                    "target_url": "%s",
-                    "description": "%s",
-                    "context": "continuous-integration/jetty"
-                }""",
-                status.toString().toLowerCase(),
-                requestURL,
-                switch (status) {
-                    case SUCCESS -> "The build/test was successful";
-                    case FAILURE -> "The build/test failed";
-                    case ERROR -> "An error occurred during the build/test";
-                    case PENDING -> "The build/test is pending";
-                });
+        sendNotification(status, requestURL, owner, repo, commitSha, null);
+    }
 
+    /**
+     * Sends a notification to GitHub about the build/test status of a commit,
+     * with a custom description instead of the default one for the status.
+     *
+     * @param status      The build/test status (SUCCESS, FAILURE, ERROR or
+     *                    PENDING) to be reported to GitHub
+     * @param requestURL  The URL for more information about the build/test
+     * @param owner       The owner (user or organization) of the GitHub repository
+     * @param repo        The name of the GitHub repository
+     * @param commitSha   The SHA hash of the commit to update the status for
+     * @param description The description shown next to the status, or
+     *                    {@code null} to use the default one
+     *
+     * @throws RuntimeException If an error occurs while sending the notification
+     */
+    public static void sendNotification(Status status, String requestURL, String owner, String repo, String commitSha,
+            String description) throws RuntimeException {
         String url = String.format("%s/repos/%s/%s/statuses/%s", GITHUB_API_URL, owner, repo, commitSha);
 
         HttpRequest request = HttpRequest.newBuilder()
                 .uri(URI.create(url))
                 .header("Authorization", "Bearer " + GITHUB_PAT)
                 .header("Content-Type", "application/json")
-                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .POST(HttpRequest.BodyPublishers.ofString(body(status, requestURL, description)))
                 .build();
 
-        HttpClient client = HttpClient.newHttpClient();
-
         try {
-            HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
-            // System.out.println(String.format("GitHub Response for %s: %d - %s",
-            //         request.method(), response.statusCode(), response.body()));
+            HttpResponse<String> response = CLIENT.send(request, HttpResponse.BodyHandlers.ofString());
 
             if (response.statusCode() != 201) { // GitHub API returns 201 for successful POST requests
                 throw new RuntimeException("Failed to send notification to GitHub. Status code: " +
@@ -77,4 +115,111 @@ public class Notification {
         }
     }
 
-}
\ No newline at end of file
+    /**
+     * Queues a notification to GitHub about the build/test status of a commit,
+     * without waiting for it to be sent. The status is written to the outbox
+     * first, so that it is sent even if the server restarts. A queued status of
+     * the same commit that was not sent yet is replaced, and failed requests are
+     * retried.
+     *
+     * @param status      The build/test status to be reported to GitHub
+     * @param requestURL  The URL for more information about the build/test
+     * @param owner       The owner (user or organization) of the GitHub repository
+     * @param repo        The name of the GitHub repository
+     * @param commitSha   The SHA hash of the commit to update the status for
+     * @param description The description shown next to the status, or
+     *                    {@code null} to use the default one
+     * @return Completes with the HTTP status code once the status was delivered,
+     *         or exceptionally if it could not be
+     */
+    public static CompletableFuture<Integer> sendNotificationAsync(Status status, String requestURL, String owner,
+            String repo, String commitSha, String description) {
+        return sendNotificationAsync(status, requestURL, owner, repo, commitSha, description, CONTEXT);
+    }
+
+    /**
+     * Queues a notification to GitHub about the status of a commit in another
+     * context than {@link #CONTEXT}, e.g. for one cell of a build matrix.
+     *
+     * @param status      The build/test status to be reported to GitHub
+     * @param requestURL  The URL for more information about the build/test
+     * @param owner       The owner (user or organization) of the GitHub repository
+     * @param repo        The name of the GitHub repository
+     * @param commitSha   The SHA hash of the commit to update the status for
+     * @param description The description shown next to the status, or
+     *                    {@code null} to use the default one
+     * @param context     The context of the status
+     * @return Completes with the HTTP status code once the status was delivered,
+     *         or exceptionally if it could not be
+     */
+    public static CompletableFuture<Integer> sendNotificationAsync(Status status, String requestURL, String owner,
+            String repo, String commitSha, String description, String context) {
+        String body = body(status, requestURL, description, context);
+        try {
+            return outbox().submit(owner, repo, commitSha, context, status.toString().toLowerCase(), body);
+        } catch (IOException e) {
+            System.err.println("Error opening the status outbox, sending without it: " + e.getMessage());
+            return DELIVERY.submit(owner, repo, commitSha, context, body);
+        }
+    }
+
+    /**
+     * Opens the outbox, which delivers the statuses that were not delivered
+     * before the server stopped.
+     *
+     * @return The outbox in CI_DATA_DIR/outbox
+     * @throws IOException If the outbox cannot be read or written
+     */
+    public static synchronized StatusOutbox outbox() throws IOException {
+        if (outbox == null) {
+            outbox = new StatusOutbox(Config.dataDir().resolve("outbox").resolve("statuses.log"), DELIVERY);
+        }
+        return outbox;
+    }
+
+    /**
+     * @return A plain text summary of the queued notifications
+     */
+    public static String stats() {
+        String stats = DELIVERY.stats();
+        synchronized (Notification.class) {
+            return outbox == null ? stats : stats + outbox.stats();
+        }
+    }
+
+    /**
+     * @param status      The build/test status
+     * @param requestURL  The URL for more information about the build/test
+     * @param description The description, or {@code null} for the default one
+     * @return The JSON body of a commit status
+     */
+    static String body(Status status, String requestURL, String description) {
+        return body(status, requestURL, description, CONTEXT);
+    }
+
+    /**
+     * @param status      The build/test status
+     * @param requestURL  The URL for more information about the build/test
+     * @param description The description, or {@code null} for the default one
+     * @param context     The context of the status
+     * @return The JSON body of a commit status
+     */
+    static String body(Status status, String requestURL, String description, String context) {
+        // GitHub rejects descriptions longer than 140 characters
+        if (description != null && description.length() > MAX_DESCRIPTION_LENGTH) {
+            description = description.substring(0, MAX_DESCRIPTION_LENGTH - 3) + "...";
+        }
+        return new JSONObject()
+                .put("state", status.toString().toLowerCase())
+                .put("target_url", requestURL)
+                .put("description", description != null ? description : switch (status) {
+                    case SUCCESS -> "The build/test was successful";
+                    case FAILURE -> "The build/test failed";
+                    case ERROR -> "An error occurred during the build/test";
+                    case PENDING -> "The build/test is pending";
+                })
+                .put("context", context)
+                .toString();
+    }
+
+}
@@ -0,0 +1,247 @@
+package com.group16.app;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.eclipse.jgit.treewalk.TreeWalk;
+
+/**
+ * Caches the results of builds by the Git tree of the Maven project, so that
+ * a push of a tree that was already built (a rebase, a revert, a merge without
+ * changes, or a change outside the project) reuses the earlier result instead
+ * of running Maven again.
+ *
+ * The key is a hash of the tree of the project directory, which includes the
+ * pom, and of the build configuration: the Maven goals and the JDK. Only
+ * results that are a verdict on the tree are cached: successes, failed tests
+ * and compilation errors, not builds that failed for another reason, such as
+ * a dependency that could not be downloaded. Entries are files in
+ * CI_DATA_DIR/results, and the least recently used ones are evicted, at most
+ * once a minute, when there are more than CI_RESULT_CACHE_ENTRIES (default
+ * 10000) or they are older than CI_RESULT_CACHE_DAYS (default 7).
+ * CI_RESULT_CACHE=false turns the cache off, and a commit message with
+ * [ci rebuild] skips it for one push.
+ */
+public class ResultCache {
+    /** The marker in a commit message that forces a new build */
+    public static final String REBUILD_MARKER = "[ci rebuild]";
+    private static final long EVICTION_INTERVAL_MILLIS = 60 * 1000;
+
+    private static ResultCache defaultCache;
+
+    private final Path dir;
+    private final boolean enabled;
+    private final int maxEntries;
+    private final long maxAgeMillis;
+    private final AtomicLong lastEviction = new AtomicLong();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder forced = new LongAdder();
+    private final LongAdder evicted = new LongAdder();
+
+    /**
+     * The result of an earlier build of the same tree.
+     *
+     * @param result The result of the build
+     * @param jobId  The ID of the job that built it
+     */
+    public record Hit(BuildResult result, String jobId) {
+    }
+
+    /**
+     * @param dir          The directory of the entries
+     * @param enabled      Whether results are looked up and stored at all
+     * @param maxEntries   The maximum number of entries
+     * @param maxAgeMillis The maximum age of an entry
+     */
+    public ResultCache(Path dir, boolean enabled, int maxEntries, long maxAgeMillis) {
+        this.dir = dir;
+        this.enabled = enabled;
+        this.maxEntries = maxEntries;
+        this.maxAgeMillis = maxAgeMillis;
+    }
+
+    /**
+     * @return The cache configured from .env or the environment
+     */
+    public static synchronized ResultCache getDefault() {
+        if (defaultCache == null) {
+            defaultCache = new ResultCache(Config.dataDir().resolve("results"),
+                    Config.getBoolean("CI_RESULT_CACHE", true),
+                    Config.getInt("CI_RESULT_CACHE_ENTRIES", 10000),
+                    TimeUnit.DAYS.toMillis(Config.getInt("CI_RESULT_CACHE_DAYS", 7)));
+        }
+        return defaultCache;
+    }
+
+    /**
+     * Computes the cache key of a project in a checkout.
+     *
+     * @param checkoutDir The checkout, a Git worktree
+     * @param projectDir  The Maven project in the checkout
+     * @param goals       The Maven goals of the build
+     * @return The key, or {@code null} if the tree cannot be read
+     */
+    public String key(Path checkoutDir, Path projectDir, List<String> goals) {
+        String project = checkoutDir.relativize(projectDir).toString().replace('\\', '/');
+        try (Repository repository = new FileRepositoryBuilder()
+                .setGitDir(checkoutDir.resolve(".git").toFile()).build()) {
+            ObjectId tree = repository.resolve("HEAD^{tree}");
+            if (tree != null && !project.isEmpty()) {
+                try (TreeWalk walk = TreeWalk.forPath(repository, project, tree)) {
+                    tree = walk == null ? null : walk.getObjectId(0);
+                }
+            }
+            if (tree == null) {
+                return null;
+            }
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            String config = String.join("\n", "tree " + tree.name(), "goals " + String.join(" ", goals),
+                    "java " + System.getProperty("java.version") + " " + System.getProperty("java.home"));
+            return HexFormat.of().formatHex(digest.digest(config.getBytes(StandardCharsets.UTF_8)));
+        } catch (IOException | NoSuchAlgorithmException e) {
+            System.err.println("Error computing the result cache key: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Looks up the result of an earlier build.
+     *
+     * @param key   The key from {@link #key(Path, Path, List)}
+     * @param force {@code true} to skip the cache and build again
+     * @return The earlier result, or {@code null} if the tree must be built
+     */
+    public Hit get(String key, boolean force) {
+        if (!enabled || key == null) {
+            return null;
+        }
+        if (force) {
+            forced.increment();
+            return null;
+        }
+        Path entry = dir.resolve(key);
+        try {
+            if (System.currentTimeMillis() - Files.getLastModifiedTime(entry).toMillis() > maxAgeMillis) {
+                misses.increment();
+                return null;
+            }
+            String[] fields = Files.readString(entry).trim().split(" ");
+            Hit hit = new Hit(new BuildResult(Integer.parseInt(fields[0]), Boolean.parseBoolean(fields[1]),
+                    Boolean.parseBoolean(fields[2]), Integer.parseInt(fields[3]), Integer.parseInt(fields[4]),
+                    Integer.parseInt(fields[5]), fields.length > 7 && Boolean.parseBoolean(fields[7])), fields[6]);
+            if (!hit.result().conclusive()) {
+                // Written before only verdicts were stored
+                misses.increment();
+                return null;
+            }
+            Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+            hits.increment();
+            return hit;
+        } catch (NoSuchFileException e) {
+            misses.increment();
+            return null;
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Error reading result cache entry " + key + ": " + e.getMessage());
+            misses.increment();
+            return null;
+        }
+    }
+
+    /**
+     * Stores the result of a build if it is a verdict on the tree, see
+     * {@link BuildResult#conclusive()}. Errors and other failures are not
+     * stored, since they do not depend on the tree.
+     *
+     * @param key    The key from {@link #key(Path, Path, List)}
+     * @param result The result of the build
+     * @param jobId  The ID of the job that built it
+     */
+    public void put(String key, BuildResult result, String jobId) {
+        if (!enabled || key == null || !result.conclusive()) {
+            return;
+        }
+        try {
+            Files.createDirectories(dir);
+            Path temp = Files.createTempFile(dir, key, ".tmp");
+            Files.writeString(temp, String.format("%d %b %b %d %d %d %s %b%n", result.exitCode(),
+                    result.compileOK(), result.testsOK(), result.testsRun(), result.testsFailed(),
+                    result.testsSkipped(), jobId, result.compileFailed()));
+            Files.move(temp, dir.resolve(key), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            System.err.println("Error writing result cache entry " + key + ": " + e.getMessage());
+        }
+        long last = lastEviction.get();
+        long now = System.currentTimeMillis();
+        if (now - last > EVICTION_INTERVAL_MILLIS && lastEviction.compareAndSet(last, now)) {
+            evict();
+        }
+    }
+
+    /**
+     * Deletes the entries that are too old, then the least recently used ones
+     * until there are at most the maximum number of entries.
+     */
+    public void evict() {
+        List<Entry> entries = new ArrayList<>();
+        try (Stream<Path> list = Files.list(dir)) {
+            for (Path file : list.filter(f -> !f.toString().endsWith(".tmp")).toList()) {
+                entries.add(new Entry(file, Files.getLastModifiedTime(file).toMillis()));
+            }
+        } catch (IOException e) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        entries.sort(Comparator.comparingLong(Entry::lastUsed));
+        for (int i = 0; i < entries.size(); i++) {
+            if (entries.size() - i > maxEntries || now - entries.get(i).lastUsed() > maxAgeMillis) {
+                try {
+                    Files.deleteIfExists(entries.get(i).file());
+                    evicted.increment();
+                } catch (IOException e) {
+                    System.err.println("Error evicting result cache entry: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private record Entry(Path file, long lastUsed) {
+    }
+
+    /**
+     * @return A plain text summary of the use of the cache
+     */
+    public String stats() {
+        long lookups = hits.sum() + misses.sum();
+        return String.format(Locale.ROOT, """
+                enabled %b
+                hits %d
+                misses %d
+                forced_rebuilds %d
+                hit_rate %.3f
+                evicted %d
+                """,
+                enabled, hits.sum(), misses.sum(), forced.sum(),
+                lookups == 0 ? 0.0 : (double) hits.sum() / lookups, evicted.sum());
+    }
+}
@@ -5,55 +5,45 @@ import java.io.FileWriter;
 import java.nio.file.Path;
 import java.io.IOException;
 import java.util.Collections;
-import io.github.cdimascio.dotenv.Dotenv;
 
 import javax.servlet.http.HttpServletResponse;
 
-import org.apache.maven.shared.invoker.DefaultInvocationRequest;
-import org.apache.maven.shared.invoker.DefaultInvoker;
-import org.apache.maven.shared.invoker.InvocationRequest;
-import org.apache.maven.shared.invoker.InvocationResult;
-import org.apache.maven.shared.invoker.Invoker;
-import org.apache.maven.shared.invoker.MavenInvocationException;
-
 /**
  * This class executes the automated tests in the cloned repository
  * using Maven.
  */
 public class RunTests {
-    private static final Dotenv dotenv = Dotenv.load();
-    private static final String GITHUB_PAT = dotenv.get("GITHUB_PAT");
+    private static final String GITHUB_PAT = Config.get("GITHUB_PAT", null);
     /**
      * Runs the test suite for the cloned repository.
      *
-     * This method identifies the correct directory for the cloned project,
-     * then executes the Maven test command. It sends an appropriate response
+     * This method finds the Maven project in the checkout, as
+     * {@link Compiler#projectDir(Path)} does, then executes the Maven test
+     * command. It sends an appropriate response
      * indicating whether the tests passed or failed.
      *
-     * @param response The {@link HttpServletResponse} object used to send results
-     *                 back to the client.
+     * @param response    The {@link HttpServletResponse} object used to send results
+     *                    back to the client.
+     * @param checkoutDir The directory of the checkout to test, see
+     *                    {@link Compiler#checkout(String, String, String)}
      * @return {@code true} if tests pass successfully, {@code false} if they fail.
      */
-    public static boolean runTests(HttpServletResponse response) {
+    public static boolean runTests(HttpServletResponse response, Path checkoutDir) {
         try {
-            Path clonedDir = Compiler.tempDir.resolve("my-app");
-
             // Check if directory is found
-            if (clonedDir == null) {
+            if (checkoutDir == null) {
                 System.out.println("Cloned directory not found.");
                 return false;
             }
+            // The same project that the Compiler built
+            Path projectDir = Compiler.projectDir(checkoutDir);
 
-            if (GITHUB_PAT != null && !GITHUB_PAT.isEmpty()) {
-                ensureEnvFileExistsAndWrite(clonedDir);
-            } else {
-                System.err.println("GITHUB_PAT environment variable is missing.");
-            }
+            prepareProject(projectDir);
 
-            System.out.println("Running tests in directory: " + clonedDir.toAbsolutePath());
+            System.out.println("Running tests in directory: " + projectDir.toAbsolutePath());
 
             // Run Maven Tests
-            int testResult = runMavenTests(clonedDir);
+            int testResult = runMavenTests(projectDir);
             
             // Report if the tests passed
             if (testResult == 0) {
@@ -69,12 +59,26 @@ public class RunTests {
         }
     }
 
+    /**
+     * Prepares a checked out project for testing by giving it the GITHUB_PAT
+     * of the server in a `.env` file, which the tests of the CI server need.
+     *
+     * @param projectDir The directory of the project.
+     */
+    public static void prepareProject(Path projectDir) {
+        if (GITHUB_PAT != null && !GITHUB_PAT.isEmpty()) {
+            ensureEnvFileExistsAndWrite(projectDir);
+        } else {
+            System.err.println("GITHUB_PAT environment variable is missing.");
+        }
+    }
+
     /**
      * Executes Maven tests in the specified project directory.
      *
-     * This method uses the Maven Shared Invoker API to run tests within the
-     * cloned repository. It sets the correct working directory and ensures Maven
-     * output is logged.
+     * This method uses the {@link BuildExecutor} to run the test goal within
+     * the cloned repository, with the tests forked on the cores granted by the
+     * {@link CoreBudget}.
      *
      * @param clonedDir The {@link Path} to the cloned repository where `pom.xml`
      *                  is located.
@@ -82,46 +86,32 @@ public class RunTests {
      *         greater than {@code 0} if tests fail, and {@code -1} in case of an error.
      */
     public static int runMavenTests(Path clonedDir) {
-        try {
-            if (clonedDir == null) {
-                System.out.println("Cloned directory not found.");
-                return -1;
-            }
-
-            Invoker invoker = new DefaultInvoker();
-            invoker.setMavenHome(null); // Set Maven installation directory
-            invoker.setWorkingDirectory(clonedDir.toFile()); // Cloned directory
-
-            InvocationRequest request = new DefaultInvocationRequest();
-
-            File pomFile = new File(clonedDir.toFile(), "pom.xml");
-
-            // Check if the pom.xml file exists before proceeding
-            if (!pomFile.exists()) {
-                System.err.println("Error: pom.xml not found in " + clonedDir.toAbsolutePath());
-                return -1; // Return a failure code
-            }
-
-            request.setPomFile(pomFile);
-            request.setGoals(Collections.singletonList("test")); // Run tests
-
-            // Capture Maven output
-            request.setOutputHandler(System.out::println);
+        if (clonedDir == null) {
+            System.out.println("Cloned directory not found.");
+            return -1;
+        }
 
-            InvocationResult result = invoker.execute(request);
+        int exitCode;
+        try (CoreBudget.Grant grant = CoreBudget.getDefault().acquire(clonedDir)) {
+            exitCode = BuildExecutor.execute(clonedDir, Collections.singletonList("test"), grant.properties(),
+                    System.out::println).exitCode();
+        }
 
-            if (result.getExitCode() == 0) {
-                System.out.println("Tests passed successfully.");
-            } else {
-                System.err.println("Tests failed with exit code: " + result.getExitCode());
+        if (exitCode == 0) {
+            System.out.println("Tests passed successfully.");
+        } else {
+            System.err.println("Tests failed with exit code: " + exitCode);
+            try {
+                SurefireReports.parse(clonedDir, test -> {
+                    if (test.failed()) {
+                        System.err.println("  " + test.shortName() + ": " + test.message());
+                    }
+                });
+            } catch (IOException e) {
+                System.err.println("Error reading the test reports: " + e.getMessage());
             }
-
-            return result.getExitCode();
-
-        } catch (MavenInvocationException e) {
-            e.printStackTrace();
-            return -1;
         }
+        return exitCode;
     }
 
     /**
@@ -0,0 +1,61 @@
+package com.group16.app;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+
+/**
+ * Handler that answers GET requests for the statistics of the server, so
+ * that the worker pool and the caches can be tuned:
+ * GET /queue: the {@link BuildScheduler}
+ * GET /cache: the {@link ArtifactCache}
+ * GET /results: the {@link ResultCache}
+ * GET /artifacts: the {@link ArtifactStore}
+ * GET /outputs: the {@link BuildOutputCache}
+ * GET /notifications: the {@link StatusDelivery} of GitHub statuses
+ * GET /cores: the {@link CoreBudget}
+ * GET /metrics: the {@link Metrics}, in the Prometheus text format
+ * Other requests are left to the next handler.
+ */
+public class StatsHandler extends AbstractHandler {
+    private final Map<String, Supplier<String>> stats;
+
+    /**
+     * @param scheduler The scheduler to report on
+     */
+    public StatsHandler(BuildScheduler scheduler) {
+        this.stats = Map.of(
+                "/queue", scheduler::stats,
+                "/cache", () -> ArtifactCache.getDefault().stats(),
+                "/results", () -> ResultCache.getDefault().stats(),
+                "/artifacts", () -> ArtifactStore.getDefault().stats(),
+                "/outputs", () -> BuildOutputCache.getDefault().stats(),
+                "/notifications", Notification::stats,
+                "/cores", () -> CoreBudget.getDefault().stats(),
+                "/metrics", () -> Metrics.getDefault().scrape());
+    }
+
+    @Override
+    public void handle(String target,
+                       Request baseRequest,
+                       HttpServletRequest request,
+                       HttpServletResponse response)
+        throws IOException, ServletException {
+        Supplier<String> supplier = stats.get(target);
+        if (supplier == null || !request.getMethod().equals("GET")) {
+            return;
+        }
+        baseRequest.setHandled(true);
+        response.setStatus(HttpServletResponse.SC_OK);
+        // The Prometheus text format announces its version
+        response.setContentType(target.equals("/metrics") ? Metrics.CONTENT_TYPE : "text/plain;charset=utf-8");
+        response.getWriter().print(supplier.get());
+    }
+}
@@ -0,0 +1,295 @@
+package com.group16.app;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Delivers commit statuses to GitHub in the background, so that build threads
+ * never wait for the GitHub API.
+ *
+ * Statuses are queued per commit and context. If a commit gets a new status
+ * in a context before the previous one was sent, for example PENDING and then
+ * SUCCESS of a short build, only the newest one is sent. Statuses of one
+ * commit and context are never sent concurrently, so they cannot arrive out
+ * of order, while other statuses share the connection of one HTTP/2 client,
+ * up to {@code maxInFlight} at a time.
+ *
+ * Failed requests (network errors and 5xx responses) are retried with
+ * exponential backoff. When GitHub says that the rate limit is used up, with
+ * Retry-After or X-RateLimit-Remaining: 0 and X-RateLimit-Reset, all
+ * deliveries pause until the limit resets.
+ */
+public class StatusDelivery {
+    private static final long MAX_BACKOFF_MILLIS = 60_000;
+
+    private final HttpClient client;
+    private final String apiUrl;
+    private final String token;
+    private final int maxInFlight;
+    private final long baseBackoffMillis;
+    private final int maxAttempts;
+
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "status-delivery");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Guarded by this. The statuses waiting to be sent, by commit, in the
+    // order the commits were first queued.
+    private final Map<String, Update> pending = new LinkedHashMap<>();
+    private final Set<String> inFlight = new HashSet<>();
+    private long pausedUntil;
+
+    private final LongAdder delivered = new LongAdder();
+    private final LongAdder collapsed = new LongAdder();
+    private final LongAdder retried = new LongAdder();
+    private final LongAdder rateLimited = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    // One status of one commit
+    private static final class Update {
+        final String key;
+        final HttpRequest request;
+        final CompletableFuture<Integer> result = new CompletableFuture<>();
+        int attempts;
+        long notBefore;
+        long sentNanos;
+
+        Update(String key, HttpRequest request) {
+            this.key = key;
+            this.request = request;
+        }
+    }
+
+    /**
+     * @param client            The HTTP client, shared by all deliveries
+     * @param apiUrl            The URL of the GitHub API
+     * @param token             The token to authenticate with
+     * @param maxInFlight       The maximum number of concurrent requests
+     * @param baseBackoffMillis The delay before the first retry, doubled for
+     *                          every following one
+     * @param maxAttempts       The number of attempts before a status is dropped
+     */
+    public StatusDelivery(HttpClient client, String apiUrl, String token, int maxInFlight, long baseBackoffMillis,
+            int maxAttempts) {
+        this.client = client;
+        this.apiUrl = apiUrl;
+        this.token = token;
+        this.maxInFlight = maxInFlight;
+        this.baseBackoffMillis = baseBackoffMillis;
+        this.maxAttempts = maxAttempts;
+    }
+
+    /**
+     * Thrown when a status could not be delivered.
+     */
+    public static class DeliveryException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        private final boolean retryable;
+
+        DeliveryException(String message, Throwable cause, boolean retryable) {
+            super(message, cause);
+            this.retryable = retryable;
+        }
+
+        /**
+         * @return {@code true} if the status may be delivered later, because
+         *         GitHub could not be reached rather than rejected it
+         */
+        public boolean isRetryable() {
+            return retryable;
+        }
+    }
+
+    /**
+     * Queues a status for a commit. A status of the same commit and context
+     * that was not sent yet is replaced.
+     *
+     * @param owner     The owner of the GitHub repository
+     * @param repo      The name of the GitHub repository
+     * @param commitSha The SHA of the commit
+     * @param context   The context of the status
+     * @param body      The JSON body of the status
+     * @return Completes with the HTTP status code once this status, or one
+     *         that replaced it, was delivered, or exceptionally with a
+     *         {@link DeliveryException} if it could not be
+     */
+    public CompletableFuture<Integer> submit(String owner, String repo, String commitSha, String context,
+            String body) {
+        String key = owner + "/" + repo + "@" + commitSha + "#" + context;
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(String.format("%s/repos/%s/%s/statuses/%s", apiUrl, owner, repo, commitSha)))
+                .header("Authorization", "Bearer " + token)
+                .header("Content-Type", "application/json")
+                .timeout(Duration.ofSeconds(30))
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .build();
+        Update update = new Update(key, request);
+        synchronized (this) {
+            Update replaced = pending.put(key, update);
+            if (replaced != null) {
+                collapsed.increment();
+                follow(replaced, update);
+            }
+        }
+        dispatch();
+        return update.result;
+    }
+
+    // Completes a replaced update when the update that replaced it completes
+    private static void follow(Update replaced, Update newer) {
+        newer.result.whenComplete((code, error) -> {
+            if (error != null) {
+                replaced.result.completeExceptionally(error);
+            } else {
+                replaced.result.complete(code);
+            }
+        });
+    }
+
+    // Sends the updates that are ready, as long as there is room in flight
+    private synchronized void dispatch() {
+        long now = System.currentTimeMillis();
+        if (now < pausedUntil) {
+            schedule(pausedUntil - now);
+            return;
+        }
+        long nextReady = Long.MAX_VALUE;
+        Iterator<Update> updates = pending.values().iterator();
+        while (updates.hasNext() && inFlight.size() < maxInFlight) {
+            Update update = updates.next();
+            if (inFlight.contains(update.key)) {
+                continue;
+            }
+            if (update.notBefore > now) {
+                nextReady = Math.min(nextReady, update.notBefore);
+                continue;
+            }
+            updates.remove();
+            inFlight.add(update.key);
+            update.attempts++;
+            update.sentNanos = System.nanoTime();
+            client.sendAsync(update.request, HttpResponse.BodyHandlers.ofString())
+                    .whenComplete((response, error) -> completed(update, response, error));
+        }
+        if (nextReady != Long.MAX_VALUE) {
+            schedule(nextReady - now);
+        }
+    }
+
+    private void schedule(long delayMillis) {
+        timer.schedule(this::dispatch, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // Handles the response to an update, or the failure to send it
+    private void completed(Update update, HttpResponse<String> response, Throwable error) {
+        Metrics.getDefault().histogram("ci_notification_seconds", "The time of each request for a commit status",
+                "result", response == null ? "error" : response.statusCode() / 100 + "xx")
+                .record(System.nanoTime() - update.sentNanos);
+        long pauseMillis = response == null ? 0 : rateLimitPause(response);
+        boolean retry;
+        if (response != null && response.statusCode() / 100 == 2) {
+            delivered.increment();
+            update.result.complete(response.statusCode());
+            retry = false;
+        } else if (pauseMillis > 0 && (response.statusCode() == 403 || response.statusCode() == 429)) {
+            rateLimited.increment();
+            retry = true;
+        } else if (error != null || response.statusCode() >= 500) {
+            retry = update.attempts < maxAttempts;
+        } else {
+            retry = false;
+        }
+
+        synchronized (this) {
+            inFlight.remove(update.key);
+            if (pauseMillis > 0) {
+                pausedUntil = Math.max(pausedUntil, System.currentTimeMillis() + pauseMillis);
+            }
+            if (retry) {
+                Update newer = pending.get(update.key);
+                if (newer != null) {
+                    // A newer status replaces the one that failed
+                    follow(update, newer);
+                } else {
+                    retried.increment();
+                    update.notBefore = System.currentTimeMillis() + backoff(update.attempts);
+                    pending.put(update.key, update);
+                }
+            } else if (!update.result.isDone()) {
+                failed.increment();
+                String reason = error != null ? error.toString()
+                        : "status code " + response.statusCode() + ", response: " + response.body();
+                System.err.println("Error sending GitHub notification for " + update.key + ": " + reason);
+                update.result.completeExceptionally(new DeliveryException("Failed to send notification to GitHub: "
+                        + reason, error, error != null || response.statusCode() >= 500));
+            }
+        }
+        dispatch();
+    }
+
+    // The exponential backoff before a retry, with jitter so that retries
+    // do not arrive together
+    private long backoff(int attempts) {
+        long backoff = Math.min(MAX_BACKOFF_MILLIS, baseBackoffMillis << Math.min(attempts - 1, 20));
+        return backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+    }
+
+    /**
+     * Reads how long GitHub wants us to wait from the rate limit headers.
+     *
+     * @param response A response of the GitHub API
+     * @return The pause in milliseconds, or 0 if there is no need to wait
+     */
+    static long rateLimitPause(HttpResponse<?> response) {
+        Optional<String> retryAfter = response.headers().firstValue("Retry-After");
+        try {
+            if (retryAfter.isPresent()) {
+                return Long.parseLong(retryAfter.get().trim()) * 1000;
+            }
+            Optional<String> remaining = response.headers().firstValue("X-RateLimit-Remaining");
+            Optional<String> reset = response.headers().firstValue("X-RateLimit-Reset");
+            if (remaining.isPresent() && reset.isPresent() && Long.parseLong(remaining.get().trim()) == 0) {
+                return Math.max(0, Long.parseLong(reset.get().trim()) * 1000 - System.currentTimeMillis());
+            }
+        } catch (NumberFormatException e) {
+            // Ignore malformed headers
+        }
+        return 0;
+    }
+
+    /**
+     * @return A plain text summary of the deliveries
+     */
+    public synchronized String stats() {
+        return String.format("""
+                pending %d
+                in_flight %d
+                delivered %d
+                collapsed %d
+                retried %d
+                rate_limited %d
+                failed %d
+                paused_ms %d
+                """,
+                pending.size(), inFlight.size(), delivered.sum(), collapsed.sum(), retried.sum(),
+                rateLimited.sum(), failed.sum(), Math.max(0, pausedUntil - System.currentTimeMillis()));
+    }
+}
@@ -0,0 +1,325 @@
+package com.group16.app;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import org.json.JSONObject;
+
+/**
+ * A write-ahead outbox for commit statuses, so that no status is lost when
+ * the server stops or GitHub cannot be reached.
+ *
+ * Every status is appended to CI_DATA_DIR/outbox/statuses.log and synced to
+ * disk before it is handed to the {@link StatusDelivery}, and a second line
+ * marks it as done once GitHub accepted or rejected it. A single writer thread
+ * writes and syncs all lines that were appended while it synced the previous
+ * ones, so that a busy server syncs many statuses at once.
+ *
+ * When the server starts, the statuses that were not done are delivered
+ * again. Commits whose last status was PENDING get an ERROR status, since the
+ * jobs that were building them are gone. A status that is the same as the
+ * last one not yet delivered for the same commit and context is not queued
+ * again.
+ */
+public class StatusOutbox implements Closeable {
+    private static final long COMPACT_BYTES = 1024 * 1024;
+
+    private final Path file;
+    private final StatusDelivery delivery;
+    private final FileChannel channel;
+    private final Thread writer;
+
+    // Guarded by this
+    private final Map<Long, Entry> undelivered = new LinkedHashMap<>();
+    private final Map<String, Latest> latest = new HashMap<>();
+    // The last status of the commits and contexts that are being built
+    private final Map<String, Entry> building = new HashMap<>();
+    private List<Line> batch = new ArrayList<>();
+    private long nextSeq;
+    private boolean closed;
+    private long appended;
+    private long syncs;
+    private long deduplicated;
+    private long replayed;
+
+    // One status in the outbox
+    private record Entry(long seq, String owner, String repo, String sha, String context, String state,
+            String body) {
+        String slot() {
+            return owner + "/" + repo + "@" + sha + "#" + context;
+        }
+
+        String toLine() {
+            return String.join("\t", "S", Long.toString(seq), owner, repo, sha, context, state, body);
+        }
+    }
+
+    // The last status queued for a commit and context, and its result
+    private record Latest(long seq, String state, CompletableFuture<Integer> result) {
+    }
+
+    // A line waiting for the writer, and the future completed once it is on disk
+    private record Line(String text, CompletableFuture<Void> durable) {
+    }
+
+    /**
+     * Opens an outbox, creating it if needed, and delivers the statuses it
+     * still holds.
+     *
+     * @param file     The outbox file
+     * @param delivery The delivery to hand the statuses to
+     * @throws IOException If the outbox cannot be read or written
+     */
+    public StatusOutbox(Path file, StatusDelivery delivery) throws IOException {
+        this.file = file;
+        this.delivery = delivery;
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        List<Entry> pending = load();
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        writer = new Thread(this::writeLoop, "status-outbox");
+        writer.setDaemon(true);
+        writer.start();
+        for (Entry entry : pending) {
+            replayed++;
+            CompletableFuture<Integer> result = new CompletableFuture<>();
+            synchronized (this) {
+                undelivered.put(entry.seq(), entry);
+                latest.put(entry.slot(), new Latest(entry.seq(), entry.state(), result));
+            }
+            deliver(entry, result);
+        }
+    }
+
+    // Reads the statuses that are not done, and rewrites the file with only
+    // those, plus an ERROR for every build that was interrupted
+    private List<Entry> load() throws IOException {
+        Map<Long, Entry> entries = new LinkedHashMap<>();
+        Map<String, Entry> last = new LinkedHashMap<>();
+        if (Files.exists(file)) {
+            String content = Files.readString(file, StandardCharsets.UTF_8);
+            // The text after the last line break is a write that did not finish
+            String[] lines = content.substring(0, content.lastIndexOf('\n') + 1).split("\n");
+            for (String line : lines) {
+                String[] fields = line.split("\t", 8);
+                try {
+                    if (fields[0].equals("S") && fields.length == 8) {
+                        Entry entry = new Entry(Long.parseLong(fields[1]), fields[2], fields[3], fields[4],
+                                fields[5], fields[6], fields[7]);
+                        entries.put(entry.seq(), entry);
+                        last.put(entry.slot(), entry);
+                        nextSeq = Math.max(nextSeq, entry.seq() + 1);
+                    } else if (fields[0].equals("D") && fields.length == 2) {
+                        entries.remove(Long.parseLong(fields[1]));
+                    }
+                } catch (NumberFormatException e) {
+                    System.err.println("Skipping corrupt line in " + file + ": " + line);
+                }
+            }
+        }
+
+        for (Entry entry : last.values()) {
+            if (entry.state().equals("pending")) {
+                String body = new JSONObject(entry.body())
+                        .put("state", "error")
+                        .put("description", "The build was interrupted by a restart of the CI server")
+                        .toString();
+                Entry error = new Entry(nextSeq++, entry.owner(), entry.repo(), entry.sha(), entry.context(),
+                        "error", body);
+                entries.put(error.seq(), error);
+            }
+        }
+
+        StringBuilder compacted = new StringBuilder();
+        for (Entry entry : entries.values()) {
+            compacted.append(entry.toLine()).append('\n');
+        }
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeFully(out, ByteBuffer.wrap(compacted.toString().getBytes(StandardCharsets.UTF_8)));
+            out.force(false);
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return new ArrayList<>(entries.values());
+    }
+
+    /**
+     * Writes a status to the outbox, then delivers it.
+     *
+     * @param owner   The owner of the GitHub repository
+     * @param repo    The name of the GitHub repository
+     * @param sha     The SHA of the commit
+     * @param context The context of the status
+     * @param state   The state of the status, as sent to GitHub
+     * @param body    The JSON body of the status
+     * @return Completes with the HTTP status code once the status was
+     *         delivered, or exceptionally if it could not be
+     */
+    public CompletableFuture<Integer> submit(String owner, String repo, String sha, String context, String state,
+            String body) {
+        Entry entry;
+        CompletableFuture<Integer> result = new CompletableFuture<>();
+        CompletableFuture<Void> durable;
+        synchronized (this) {
+            entry = new Entry(nextSeq, owner, repo, sha, context, state, body);
+            Latest previous = latest.get(entry.slot());
+            if (previous != null && previous.state().equals(state)) {
+                deduplicated++;
+                return previous.result();
+            }
+            nextSeq++;
+            undelivered.put(entry.seq(), entry);
+            latest.put(entry.slot(), new Latest(entry.seq(), state, result));
+            if (state.equals("pending")) {
+                building.put(entry.slot(), entry);
+            } else {
+                building.remove(entry.slot());
+            }
+            durable = append(entry.toLine());
+        }
+        durable.whenComplete((v, error) -> {
+            if (error != null) {
+                System.err.println("Error writing the status outbox, delivering without it: " + error.getMessage());
+            }
+            deliver(entry, result);
+        });
+        return result;
+    }
+
+    // Hands a status to the delivery, and marks it as done when GitHub
+    // accepted or rejected it. Statuses that could not be delivered stay in
+    // the outbox for the next start.
+    private void deliver(Entry entry, CompletableFuture<Integer> result) {
+        delivery.submit(entry.owner(), entry.repo(), entry.sha(), entry.context(), entry.body())
+                .whenComplete((code, error) -> {
+                    Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+                    boolean done = error == null || !(cause instanceof StatusDelivery.DeliveryException e)
+                            || !e.isRetryable();
+                    synchronized (this) {
+                        undelivered.remove(entry.seq());
+                        Latest current = latest.get(entry.slot());
+                        if (current != null && current.seq() == entry.seq()) {
+                            latest.remove(entry.slot());
+                        }
+                        if (done && !closed) {
+                            append("D\t" + entry.seq());
+                        }
+                    }
+                    if (error != null) {
+                        result.completeExceptionally(cause);
+                    } else {
+                        result.complete(code);
+                    }
+                });
+    }
+
+    // Queues a line for the writer. Must hold the lock.
+    private CompletableFuture<Void> append(String text) {
+        if (closed) {
+            return CompletableFuture.failedFuture(new IOException("The outbox is closed"));
+        }
+        CompletableFuture<Void> durable = new CompletableFuture<>();
+        batch.add(new Line(text, durable));
+        appended++;
+        notifyAll();
+        return durable;
+    }
+
+    // Writes and syncs the lines in batches, until the outbox is closed
+    private void writeLoop() {
+        while (true) {
+            List<Line> lines;
+            synchronized (this) {
+                while (batch.isEmpty() && !closed) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+                if (batch.isEmpty()) {
+                    return;
+                }
+                lines = batch;
+                batch = new ArrayList<>();
+            }
+
+            StringBuilder text = new StringBuilder();
+            for (Line line : lines) {
+                text.append(line.text()).append('\n');
+            }
+            try {
+                writeFully(channel, ByteBuffer.wrap(text.toString().getBytes(StandardCharsets.UTF_8)));
+                channel.force(false);
+                synchronized (this) {
+                    syncs++;
+                    // Nothing left to replay, so the file can start over with
+                    // the builds that are still running
+                    if (undelivered.isEmpty() && channel.size() > COMPACT_BYTES) {
+                        channel.truncate(0);
+                        StringBuilder open = new StringBuilder();
+                        building.values().forEach(entry -> open.append(entry.toLine()).append('\n'));
+                        writeFully(channel, ByteBuffer.wrap(open.toString().getBytes(StandardCharsets.UTF_8)));
+                        channel.force(false);
+                    }
+                }
+                lines.forEach(line -> line.durable().complete(null));
+            } catch (IOException e) {
+                lines.forEach(line -> line.durable().completeExceptionally(e));
+            }
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * @return A plain text summary of the outbox
+     */
+    public synchronized String stats() {
+        return String.format("""
+                outbox_undelivered %d
+                outbox_lines %d
+                outbox_syncs %d
+                outbox_deduplicated %d
+                outbox_replayed %d
+                """, undelivered.size(), appended, syncs, deduplicated, replayed);
+    }
+
+    /**
+     * Writes the lines that were appended, and closes the file. Statuses that
+     * are delivered afterwards are delivered again on the next start.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        channel.close();
+    }
+}
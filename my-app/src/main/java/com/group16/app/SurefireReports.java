@@ -0,0 +1,186 @@
+package com.group16.app;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Reads the test results that surefire writes to
+ * target/surefire-reports/TEST-*.xml.
+ *
+ * The reports are streamed with StAX, one test case at a time, so memory does
+ * not grow with the size of the reports. The output of the tests in the
+ * reports is skipped without being read into memory.
+ */
+public class SurefireReports {
+    private static final int MAX_MESSAGE_LENGTH = 200;
+    private static final XMLInputFactory FACTORY = XMLInputFactory.newFactory();
+
+    static {
+        FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    }
+
+    /**
+     * The outcome of a test case.
+     */
+    public enum Outcome {
+        PASSED, FAILED, ERROR, SKIPPED
+    }
+
+    /**
+     * The result of one test case.
+     *
+     * @param className The class of the test
+     * @param name      The name of the test method
+     * @param millis    The time the test took
+     * @param outcome   The outcome of the test
+     * @param flaky     Whether surefire reran the test after it failed, and it
+     *                  passed
+     * @param message   The first line of the failure message, or {@code null}
+     */
+    public record TestCase(String className, String name, long millis, Outcome outcome, boolean flaky,
+            String message) {
+        /**
+         * @return The ID of the test, class#method
+         */
+        public String id() {
+            return className + "#" + name;
+        }
+
+        /**
+         * @return The short name of the test, Class.method
+         */
+        public String shortName() {
+            return className.substring(className.lastIndexOf('.') + 1) + "." + name;
+        }
+
+        /**
+         * @return {@code true} if the test failed or had an error
+         */
+        public boolean failed() {
+            return outcome == Outcome.FAILED || outcome == Outcome.ERROR;
+        }
+    }
+
+    /**
+     * Reads the reports of a project, and of its modules.
+     *
+     * @param projectDir The directory of the project
+     * @param consumer   Receives the test cases
+     * @return The number of test cases
+     * @throws IOException If a report cannot be read
+     */
+    public static int parse(Path projectDir, Consumer<TestCase> consumer) throws IOException {
+        List<Path> reports;
+        try (Stream<Path> files = Files.walk(projectDir, 6)) {
+            reports = files.filter(file -> file.getParent() != null
+                    && file.getParent().getFileName().toString().equals("surefire-reports")
+                    && file.getFileName().toString().startsWith("TEST-")
+                    && file.getFileName().toString().endsWith(".xml"))
+                    .sorted()
+                    .toList();
+        }
+        int count = 0;
+        for (Path report : reports) {
+            try (InputStream in = Files.newInputStream(report)) {
+                count += parse(in, consumer);
+            } catch (XMLStreamException e) {
+                System.err.println("Error reading the test report " + report + ": " + e.getMessage());
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Reads one report.
+     *
+     * @param in       The report
+     * @param consumer Receives the test cases
+     * @return The number of test cases
+     * @throws XMLStreamException If the report is malformed
+     */
+    static int parse(InputStream in, Consumer<TestCase> consumer) throws XMLStreamException {
+        XMLStreamReader reader = FACTORY.createXMLStreamReader(in);
+        int count = 0;
+        try {
+            String className = null;
+            String name = null;
+            long millis = 0;
+            Outcome outcome = null;
+            boolean flaky = false;
+            String message = null;
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    switch (reader.getLocalName()) {
+                        case "testcase" -> {
+                            className = reader.getAttributeValue(null, "classname");
+                            name = reader.getAttributeValue(null, "name");
+                            millis = millis(reader.getAttributeValue(null, "time"));
+                            outcome = Outcome.PASSED;
+                            flaky = false;
+                            message = null;
+                        }
+                        case "failure" -> {
+                            outcome = Outcome.FAILED;
+                            message = message(reader);
+                        }
+                        case "error" -> {
+                            outcome = Outcome.ERROR;
+                            message = message(reader);
+                        }
+                        case "skipped" -> outcome = Outcome.SKIPPED;
+                        case "flakyFailure", "flakyError" -> flaky = true;
+                        default -> {
+                            // Output and properties are skipped
+                        }
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT && reader.getLocalName().equals("testcase")
+                        && outcome != null) {
+                    consumer.accept(new TestCase(className == null ? "" : className, name == null ? "" : name,
+                            millis, outcome, flaky, message));
+                    count++;
+                    outcome = null;
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return count;
+    }
+
+    // The time attribute is in seconds, with a thousands separator in some
+    // surefire versions
+    private static long millis(String time) {
+        if (time == null) {
+            return 0;
+        }
+        try {
+            return Math.round(Double.parseDouble(time.replace(",", "")) * 1000);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static String message(XMLStreamReader reader) {
+        String message = reader.getAttributeValue(null, "message");
+        if (message == null) {
+            message = reader.getAttributeValue(null, "type");
+        }
+        if (message == null) {
+            return null;
+        }
+        message = message.lines().findFirst().orElse("");
+        return message.length() > MAX_MESSAGE_LENGTH ? message.substring(0, MAX_MESSAGE_LENGTH) : message;
+    }
+}
@@ -0,0 +1,286 @@
+package com.group16.app;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.eclipse.jgit.diff.DiffEntry;
+import org.eclipse.jgit.diff.DiffFormatter;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.eclipse.jgit.util.io.DisabledOutputStream;
+
+/**
+ * Test impact analysis: selects the tests that can be affected by the changes
+ * since the last green build of the branch, so that a build only runs those.
+ *
+ * The changed Java files are found by diffing the pushed commit with the
+ * commit of the last successful build in the {@link BuildHistory}. A class
+ * depends on another if its source mentions the name of the other, which is a
+ * conservative static dependency graph that also works for classes in the same
+ * package. The selected tests are the test classes that depend on a changed
+ * class, directly or through other classes.
+ *
+ * All tests run when anything else in the project changed (the pom or
+ * resources), when there is no green build to compare with, when none of the
+ * last CI_TEST_IMPACT_FULL_EVERY (default 10) builds of the branch was a
+ * green full run, and when a rebuild is forced. The analysis is off unless
+ * CI_TEST_IMPACT=true.
+ */
+public class TestImpact {
+    private static final Pattern CLASS_NAME = Pattern.compile("\\b[A-Z][A-Za-z0-9_]*\\b");
+    private static final Pattern TEST_CLASS = Pattern.compile("Test.*|.*Tests?|.*TestCase");
+
+    private static TestImpact defaultImpact;
+
+    private final boolean enabled;
+    private final int fullEvery;
+
+    /**
+     * The tests a build should run.
+     *
+     * @param tests    The test classes to run, or {@code null} to run all
+     * @param baseSha  The commit the changes were computed from
+     * @param lastFull The last green build that ran all tests
+     * @param reason   Why these tests were selected, for the log
+     */
+    public record Selection(Set<String> tests, String baseSha, BuildRecord lastFull, String reason) {
+        /**
+         * @param reason Why all tests run, for the log
+         * @return A selection of all tests
+         */
+        public static Selection all(String reason) {
+            return new Selection(null, null, null, reason);
+        }
+
+        /**
+         * @return {@code true} if all tests run
+         */
+        public boolean all() {
+            return tests == null;
+        }
+
+        /**
+         * @return The Maven properties that make surefire run the selected tests
+         */
+        public Properties properties() {
+            Properties properties = new Properties();
+            if (tests != null && tests.isEmpty()) {
+                properties.setProperty("skipTests", "true");
+            } else if (tests != null) {
+                properties.setProperty("test", String.join(",", tests));
+                properties.setProperty("surefire.failIfNoSpecifiedTests", "false");
+            }
+            return properties;
+        }
+    }
+
+    /**
+     * @param enabled   Whether to select tests at all
+     * @param fullEvery The number of builds of a branch after which all tests
+     *                  run again
+     */
+    public TestImpact(boolean enabled, int fullEvery) {
+        this.enabled = enabled;
+        this.fullEvery = fullEvery;
+    }
+
+    /**
+     * @return The analysis configured from .env or the environment
+     */
+    public static synchronized TestImpact getDefault() {
+        if (defaultImpact == null) {
+            defaultImpact = new TestImpact(Config.getBoolean("CI_TEST_IMPACT", false),
+                    Config.getInt("CI_TEST_IMPACT_FULL_EVERY", 10));
+        }
+        return defaultImpact;
+    }
+
+    /**
+     * Selects the tests to run for a pushed commit.
+     *
+     * @param history     The build history
+     * @param checkoutDir The checkout of the commit, a Git worktree
+     * @param projectDir  The Maven project in the checkout
+     * @param repo        The repository, as owner/name
+     * @param ref         The pushed ref
+     * @param force       {@code true} if all tests must run
+     * @return The selected tests
+     */
+    public Selection select(BuildHistory history, Path checkoutDir, Path projectDir, String repo, String ref,
+            boolean force) {
+        if (!enabled) {
+            return Selection.all("impact analysis is off");
+        }
+        if (force) {
+            return Selection.all("a rebuild was requested");
+        }
+        try {
+            // The last green build, and the last green full run within the window
+            BuildRecord lastGreen = null;
+            BuildRecord lastFull = null;
+            for (BuildRecord record : history.forBranch(repo, ref, 0, fullEvery)) {
+                if (record.status() == Status.SUCCESS) {
+                    lastGreen = lastGreen == null ? record : lastGreen;
+                    if (record.allTests()) {
+                        lastFull = record;
+                        break;
+                    }
+                }
+            }
+            if (lastFull == null) {
+                return Selection.all("no green full run in the last " + fullEvery + " builds");
+            }
+
+            String project = checkoutDir.relativize(projectDir).toString().replace('\\', '/');
+            String prefix = project.isEmpty() ? "" : project + "/";
+            Set<String> changedClasses = new HashSet<>();
+            for (String path : changedFiles(checkoutDir, lastGreen.sha())) {
+                if (!path.startsWith(prefix)) {
+                    continue;
+                }
+                String file = path.substring(prefix.length());
+                if (!(file.startsWith("src/main/java/") || file.startsWith("src/test/java/"))
+                        || !file.endsWith(".java")) {
+                    return Selection.all(file + " changed");
+                }
+                changedClasses.add(className(Path.of(file)));
+            }
+
+            Set<String> tests = affectedTests(projectDir, changedClasses);
+            return new Selection(tests, lastGreen.sha(), lastFull,
+                    changedClasses.size() + " classes changed since " + lastGreen.sha());
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Error in test impact analysis: " + e.getMessage());
+            return Selection.all("the changes could not be analysed");
+        }
+    }
+
+    /**
+     * Lists the files that differ between a commit and the checked out one.
+     *
+     * @param checkoutDir The checkout, a Git worktree
+     * @param baseSha     The commit to compare with
+     * @return The paths of the changed, added and deleted files
+     * @throws IOException If the base commit is missing or cannot be read
+     */
+    static List<String> changedFiles(Path checkoutDir, String baseSha) throws IOException {
+        try (Repository repository = new FileRepositoryBuilder()
+                .setGitDir(checkoutDir.resolve(".git").toFile()).build();
+                RevWalk walk = new RevWalk(repository);
+                DiffFormatter diff = new DiffFormatter(DisabledOutputStream.INSTANCE)) {
+            ObjectId base = repository.resolve(baseSha + "^{tree}");
+            ObjectId head = repository.resolve("HEAD^{tree}");
+            if (base == null || head == null) {
+                throw new IOException("Commit " + baseSha + " is not in the mirror");
+            }
+            diff.setRepository(repository);
+            List<String> paths = new ArrayList<>();
+            for (DiffEntry entry : diff.scan(walk.parseTree(base), walk.parseTree(head))) {
+                if (entry.getChangeType() != DiffEntry.ChangeType.ADD) {
+                    paths.add(entry.getOldPath());
+                }
+                if (entry.getChangeType() != DiffEntry.ChangeType.DELETE) {
+                    paths.add(entry.getNewPath());
+                }
+            }
+            return paths;
+        }
+    }
+
+    /**
+     * Finds the test classes that depend on the changed classes, directly or
+     * through other classes of the project.
+     *
+     * @param projectDir     The Maven project
+     * @param changedClasses The simple names of the changed classes
+     * @return The simple names of the affected test classes
+     * @throws IOException If the sources cannot be read
+     */
+    static Set<String> affectedTests(Path projectDir, Set<String> changedClasses) throws IOException {
+        Set<String> testClasses = new HashSet<>();
+        Set<String> affected = affectedClasses(projectDir, changedClasses, testClasses).keySet();
+        return affected.stream().filter(testClasses::contains).collect(Collectors.toCollection(TreeSet::new));
+    }
+
+    /**
+     * Finds the classes that depend on the changed classes, directly or
+     * through other classes of the project, and the changed classes
+     * themselves.
+     *
+     * @param projectDir     The Maven project
+     * @param changedClasses The simple names of the changed classes
+     * @param testClasses    Receives the simple names of the test classes of
+     *                       the project, or {@code null}
+     * @return The sources of the affected classes by simple name, with a
+     *         {@code null} source for deleted classes
+     * @throws IOException If the sources cannot be read
+     */
+    static Map<String, Path> affectedClasses(Path projectDir, Set<String> changedClasses, Set<String> testClasses)
+            throws IOException {
+        Map<String, Path> sources = new HashMap<>();
+        for (String root : new String[] { "src/main/java", "src/test/java" }) {
+            Path dir = projectDir.resolve(root);
+            if (!Files.isDirectory(dir)) {
+                continue;
+            }
+            try (Stream<Path> files = Files.walk(dir)) {
+                for (Path file : files.filter(f -> f.toString().endsWith(".java")).toList()) {
+                    String name = className(file);
+                    sources.put(name, file);
+                    if (testClasses != null && root.equals("src/test/java")
+                            && TEST_CLASS.matcher(name).matches()) {
+                        testClasses.add(name);
+                    }
+                }
+            }
+        }
+
+        // Who mentions whom, reversed: class -> classes that depend on it
+        Map<String, Set<String>> dependents = new HashMap<>();
+        for (Map.Entry<String, Path> source : sources.entrySet()) {
+            Matcher matcher = CLASS_NAME.matcher(Files.readString(source.getValue()));
+            while (matcher.find()) {
+                String name = matcher.group();
+                // Deleted classes are only in changedClasses
+                if ((sources.containsKey(name) || changedClasses.contains(name)) && !name.equals(source.getKey())) {
+                    dependents.computeIfAbsent(name, n -> new HashSet<>()).add(source.getKey());
+                }
+            }
+        }
+
+        Set<String> affected = new HashSet<>(changedClasses);
+        Deque<String> queue = new ArrayDeque<>(changedClasses);
+        while (!queue.isEmpty()) {
+            for (String dependent : dependents.getOrDefault(queue.poll(), Set.of())) {
+                if (affected.add(dependent)) {
+                    queue.add(dependent);
+                }
+            }
+        }
+        Map<String, Path> affectedSources = new HashMap<>();
+        affected.forEach(name -> affectedSources.put(name, sources.get(name)));
+        return affectedSources;
+    }
+
+    private static String className(Path file) {
+        String name = file.getFileName().toString();
+        return name.substring(0, name.length() - ".java".length());
+    }
+}
@@ -0,0 +1,371 @@
+package com.group16.app;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import org.json.JSONObject;
+
+/**
+ * The history of every test of every repository, to find the slowest and the
+ * flaky tests.
+ *
+ * For each test only a few numbers are kept: how often it ran and failed, its
+ * total, longest and last time, and whether it passed, failed or both on the
+ * last few trees it ran on. A test that both passed and failed on the same
+ * tree, or that surefire had to rerun, is flaky.
+ *
+ * The results of every build are appended to CI_DATA_DIR/tests/tests.log, and
+ * read back when the server starts. When the file is larger than
+ * CI_TEST_STORE_MAX_MB (default 64), it is rewritten with one line per test.
+ */
+public class TestStore implements Closeable {
+    private static final int TREES_PER_TEST = 16;
+    private static final byte PASSED = 1;
+    private static final byte FAILED = 2;
+
+    private static TestStore defaultStore;
+
+    private final Path file;
+    private final Writer writer;
+
+    // Guarded by this. The tests by repository and ID.
+    private final Map<String, Map<String, Stats>> repos = new HashMap<>();
+
+    /**
+     * The history of one test.
+     */
+    public static final class Stats {
+        private final String id;
+        private int runs;
+        private int failures;
+        private long totalMillis;
+        private long maxMillis;
+        private long lastMillis;
+        private String lastFailure;
+        // PASSED, FAILED or both per tree, oldest first
+        private final LinkedHashMap<String, Byte> trees = new LinkedHashMap<>();
+
+        private Stats(String id) {
+            this.id = id;
+        }
+
+        private void add(String tree, long millis, byte outcome, String failure) {
+            runs++;
+            totalMillis += millis;
+            maxMillis = Math.max(maxMillis, millis);
+            lastMillis = millis;
+            if ((outcome & FAILED) != 0 && (outcome & PASSED) == 0) {
+                failures++;
+                lastFailure = failure;
+            }
+            Byte previous = trees.remove(tree);
+            trees.put(tree, (byte) (outcome | (previous == null ? 0 : previous)));
+            if (trees.size() > TREES_PER_TEST) {
+                Iterator<String> oldest = trees.keySet().iterator();
+                oldest.next();
+                oldest.remove();
+            }
+        }
+
+        /**
+         * @return The ID of the test, class#method
+         */
+        public String id() {
+            return id;
+        }
+
+        /**
+         * @return The average time of the test
+         */
+        public long averageMillis() {
+            return runs == 0 ? 0 : totalMillis / runs;
+        }
+
+        /**
+         * @return The number of recent trees on which the test both passed and
+         *         failed
+         */
+        public int flakyTrees() {
+            return (int) trees.values().stream().filter(mask -> mask == (PASSED | FAILED)).count();
+        }
+
+        /**
+         * @return The test as JSON, for the HTTP API
+         */
+        public JSONObject toJson() {
+            return new JSONObject()
+                    .put("test", id)
+                    .put("runs", runs)
+                    .put("failures", failures)
+                    .put("avg_ms", averageMillis())
+                    .put("max_ms", maxMillis)
+                    .put("last_ms", lastMillis)
+                    .put("flaky_trees", flakyTrees())
+                    .put("last_failure", lastFailure == null ? JSONObject.NULL : lastFailure);
+        }
+
+        // A line of the compacted file
+        private String toLine(String repo) {
+            StringBuilder masks = new StringBuilder();
+            trees.forEach((tree, mask) -> masks.append(masks.length() == 0 ? "" : ",").append(tree)
+                    .append(':').append(mask));
+            return String.join("\t", "S", repo, id, Integer.toString(runs), Integer.toString(failures),
+                    Long.toString(totalMillis), Long.toString(maxMillis), Long.toString(lastMillis),
+                    masks.toString(), clean(lastFailure));
+        }
+    }
+
+    /**
+     * Records the tests of one build, as they are read from the reports.
+     * Closing the recorder writes them to the file.
+     */
+    public final class Recorder implements Consumer<SurefireReports.TestCase>, Closeable {
+        private static final int SLOWEST = 5;
+        private static final int NAMED_FAILURES = 3;
+
+        private final String repo;
+        private final String tree;
+        private final StringBuilder lines = new StringBuilder();
+        private final PriorityQueue<SurefireReports.TestCase> slowest =
+                new PriorityQueue<>(Comparator.comparingLong(SurefireReports.TestCase::millis));
+        private final List<String> failures = new ArrayList<>();
+        private int failureCount;
+
+        private Recorder(String repo, String tree) {
+            this.repo = repo;
+            this.tree = tree;
+            lines.append("B\t").append(clean(repo)).append('\t').append(clean(tree)).append('\n');
+        }
+
+        @Override
+        public void accept(SurefireReports.TestCase test) {
+            if (test.outcome() == SurefireReports.Outcome.SKIPPED) {
+                return;
+            }
+            byte outcome = (byte) ((test.failed() ? FAILED : PASSED) | (test.flaky() ? FAILED | PASSED : 0));
+            boolean knownFlaky;
+            synchronized (TestStore.this) {
+                Stats stats = repos.computeIfAbsent(repo, r -> new HashMap<>())
+                        .computeIfAbsent(test.id(), Stats::new);
+                knownFlaky = stats.flakyTrees() > 0;
+                stats.add(tree, test.millis(), outcome, test.message());
+            }
+            lines.append("T\t").append(clean(test.id())).append('\t').append(test.millis()).append('\t')
+                    .append(outcome).append('\t').append(clean(test.message())).append('\n');
+
+            slowest.add(test);
+            if (slowest.size() > SLOWEST) {
+                slowest.poll();
+            }
+            if (test.failed()) {
+                failureCount++;
+                if (failures.size() < NAMED_FAILURES) {
+                    failures.add(test.shortName() + (knownFlaky ? " (flaky)" : ""));
+                }
+            }
+        }
+
+        /**
+         * @return The failed tests, for the description of a commit status, or
+         *         {@code null} if no test failed
+         */
+        public String failureSummary() {
+            if (failureCount == 0) {
+                return null;
+            }
+            String names = String.join(", ", failures);
+            return failureCount > failures.size() ? names + " and " + (failureCount - failures.size()) + " more"
+                    : names;
+        }
+
+        /**
+         * @return The slowest tests of the build, slowest first
+         */
+        public List<SurefireReports.TestCase> slowest() {
+            List<SurefireReports.TestCase> tests = new ArrayList<>(slowest);
+            tests.sort(Comparator.comparingLong(SurefireReports.TestCase::millis).reversed());
+            return tests;
+        }
+
+        @Override
+        public void close() throws IOException {
+            synchronized (TestStore.this) {
+                writer.write(lines.toString());
+                writer.flush();
+            }
+        }
+    }
+
+    /**
+     * Opens a store, creating it if needed.
+     *
+     * @param file     The file of the store
+     * @param maxBytes The size above which the file is compacted when opened
+     * @throws IOException If the file cannot be read or written
+     */
+    public TestStore(Path file, long maxBytes) throws IOException {
+        this.file = file;
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        if (Files.exists(file)) {
+            load();
+            if (Files.size(file) > maxBytes) {
+                compact();
+            }
+        }
+        writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+                StandardOpenOption.APPEND);
+        if (Files.size(file) > 0 && !endsWithNewline()) {
+            // Ends the incomplete line of a write that did not finish
+            writer.write('\n');
+            writer.flush();
+        }
+    }
+
+    private boolean endsWithNewline() throws IOException {
+        try (SeekableByteChannel channel = Files.newByteChannel(file)) {
+            ByteBuffer last = ByteBuffer.allocate(1);
+            channel.position(channel.size() - 1).read(last);
+            return last.get(0) == '\n';
+        }
+    }
+
+    /**
+     * @return The store in CI_DATA_DIR/tests
+     * @throws IOException If the store cannot be read
+     */
+    public static synchronized TestStore getDefault() throws IOException {
+        if (defaultStore == null) {
+            defaultStore = new TestStore(Config.dataDir().resolve("tests").resolve("tests.log"),
+                    Config.getLong("CI_TEST_STORE_MAX_MB", 64) * 1024 * 1024);
+        }
+        return defaultStore;
+    }
+
+    // Replays the file, line by line
+    private void load() throws IOException {
+        String repo = null;
+        String tree = null;
+        try (Stream<String> lines = Files.lines(file, StandardCharsets.UTF_8)) {
+            for (Iterator<String> it = lines.iterator(); it.hasNext();) {
+                String[] fields = it.next().split("\t", -1);
+                try {
+                    switch (fields[0]) {
+                        case "B" -> {
+                            repo = fields[1];
+                            tree = fields[2];
+                        }
+                        case "T" -> {
+                            if (repo != null && fields.length == 5) {
+                                repos.computeIfAbsent(repo, r -> new HashMap<>())
+                                        .computeIfAbsent(fields[1], Stats::new)
+                                        .add(tree, Long.parseLong(fields[2]), Byte.parseByte(fields[3]),
+                                                fields[4].isEmpty() ? null : fields[4]);
+                            }
+                        }
+                        case "S" -> {
+                            if (fields.length == 10) {
+                                Stats stats = new Stats(fields[2]);
+                                stats.runs = Integer.parseInt(fields[3]);
+                                stats.failures = Integer.parseInt(fields[4]);
+                                stats.totalMillis = Long.parseLong(fields[5]);
+                                stats.maxMillis = Long.parseLong(fields[6]);
+                                stats.lastMillis = Long.parseLong(fields[7]);
+                                for (String mask : fields[8].isEmpty() ? new String[0] : fields[8].split(",")) {
+                                    int colon = mask.lastIndexOf(':');
+                                    stats.trees.put(mask.substring(0, colon),
+                                            Byte.parseByte(mask.substring(colon + 1)));
+                                }
+                                stats.lastFailure = fields[9].isEmpty() ? null : fields[9];
+                                repos.computeIfAbsent(fields[1], r -> new HashMap<>()).put(stats.id, stats);
+                            }
+                        }
+                        default -> {
+                            // An incomplete line, from a write that did not finish
+                        }
+                    }
+                } catch (RuntimeException e) {
+                    System.err.println("Skipping corrupt line in " + file);
+                }
+            }
+        }
+    }
+
+    // Rewrites the file with one line per test
+    private void compact() throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (BufferedWriter out = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, Map<String, Stats>> repo : repos.entrySet()) {
+                for (Stats stats : repo.getValue().values()) {
+                    out.write(stats.toLine(repo.getKey()));
+                    out.write('\n');
+                }
+            }
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Starts recording the tests of a build.
+     *
+     * @param repo The repository, as owner/name
+     * @param tree The tree that was built, to find flaky tests
+     * @return The recorder, to be closed when all tests were recorded
+     */
+    public Recorder record(String repo, String tree) {
+        return new Recorder(repo, tree);
+    }
+
+    /**
+     * @param repo  The repository, as owner/name
+     * @param limit The maximum number of tests
+     * @return The tests with the longest average time, slowest first
+     */
+    public synchronized List<Stats> slowest(String repo, int limit) {
+        return repos.getOrDefault(repo, Map.of()).values().stream()
+                .sorted(Comparator.comparingLong(Stats::averageMillis).reversed().thenComparing(Stats::id))
+                .limit(limit)
+                .toList();
+    }
+
+    /**
+     * @param repo  The repository, as owner/name
+     * @param limit The maximum number of tests
+     * @return The flaky tests, the ones flaky on most trees first
+     */
+    public synchronized List<Stats> flaky(String repo, int limit) {
+        return repos.getOrDefault(repo, Map.of()).values().stream()
+                .filter(stats -> stats.flakyTrees() > 0)
+                .sorted(Comparator.comparingInt(Stats::flakyTrees).reversed().thenComparing(Stats::id))
+                .limit(limit)
+                .toList();
+    }
+
+    // Keeps a field on its line
+    private static String clean(String value) {
+        return value == null ? "" : value.replace('\t', ' ').replace('\n', ' ').replace('\r', ' ');
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        writer.close();
+    }
+}
@@ -0,0 +1,77 @@
+package com.group16.app;
+
+import java.io.IOException;
+import java.util.List;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Handler for the JSON API of the {@link TestStore}:
+ * GET /tests/slowest?repo=owner/name: the tests with the longest average time
+ * GET /tests/flaky?repo=owner/name: the tests that both passed and failed on
+ * the same tree
+ * Both take an optional {@code limit} (default 20). Other requests are left
+ * to the next handler.
+ */
+public class TestsHandler extends AbstractHandler {
+    private static final int MAX_LIMIT = 500;
+
+    private final TestStore store;
+
+    /**
+     * @param store The store to serve
+     */
+    public TestsHandler(TestStore store) {
+        this.store = store;
+    }
+
+    @Override
+    public void handle(String target,
+                       Request baseRequest,
+                       HttpServletRequest request,
+                       HttpServletResponse response)
+        throws IOException, ServletException {
+        if (!(target.equals("/tests/slowest") || target.equals("/tests/flaky"))
+                || !request.getMethod().equals("GET")) {
+            return;
+        }
+        baseRequest.setHandled(true);
+        response.setContentType("application/json;charset=utf-8");
+
+        String repo = request.getParameter("repo");
+        int limit = 20;
+        String error = null;
+        if (request.getParameter("limit") != null) {
+            try {
+                limit = Integer.parseInt(request.getParameter("limit"));
+            } catch (NumberFormatException e) {
+                limit = -1;
+            }
+            if (limit < 1 || limit > MAX_LIMIT) {
+                error = "limit must be a number from 1 to " + MAX_LIMIT;
+            }
+        }
+        if (repo == null) {
+            error = "repo is required";
+        }
+        if (error != null) {
+            response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            response.getWriter().println(new JSONObject().put("error", error));
+            return;
+        }
+
+        List<TestStore.Stats> tests = target.equals("/tests/slowest") ? store.slowest(repo, limit)
+                : store.flaky(repo, limit);
+        JSONArray array = new JSONArray();
+        tests.forEach(test -> array.put(test.toJson()));
+        response.setStatus(HttpServletResponse.SC_OK);
+        response.getWriter().println(new JSONObject().put("repo", repo).put("tests", array));
+    }
+}
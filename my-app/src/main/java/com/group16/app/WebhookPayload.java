@@ -0,0 +1,263 @@
+package com.group16.app;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.MalformedJsonException;
+
+/**
+ * Reads the fields the CI server needs from the payload of a GitHub push
+ * webhook.
+ *
+ * Push payloads with many commits are hundreds of kilobytes, but only a few
+ * fields are needed. The payload is streamed with the Gson {@link JsonReader}
+ * instead of being read into a string and a DOM: other values, such as the
+ * commits, are skipped without being stored. The payload is still read to
+ * its end, since GitHub sends the head commit, which has the message, last.
+ * Webhooks can send the payload as an {@code application/json} body, or as
+ * the {@code payload} field of an {@code application/x-www-form-urlencoded}
+ * body, which is decoded while it is read.
+ */
+public class WebhookPayload {
+    /**
+     * The fields of a push.
+     *
+     * @param owner             The login of the owner of the repository
+     * @param repo              The name of the repository
+     * @param after             The SHA of the pushed commit
+     * @param cloneUrl          The URL to clone the repository from
+     * @param ref               The pushed ref, e.g. refs/heads/main
+     * @param headCommitMessage The message of the pushed commit, or
+     *                          {@code null} if there is none
+     */
+    public record Push(String owner, String repo, String after, String cloneUrl, String ref,
+            String headCommitMessage) {
+    }
+
+    // The fields found so far
+    private String owner;
+    private String repo;
+    private String after;
+    private String cloneUrl;
+    private String ref;
+    private String headCommitMessage;
+
+    private WebhookPayload() {
+    }
+
+    /**
+     * Reads a push from the body of a webhook request.
+     *
+     * @param body        The body of the request
+     * @param contentType The content type of the request, or {@code null}
+     * @return The push
+     * @throws IOException              If the body cannot be read
+     * @throws IllegalArgumentException If the payload is malformed or a field
+     *                                  is missing
+     */
+    public static Push read(InputStream body, String contentType) throws IOException {
+        InputStream json = contentType != null && contentType.startsWith("application/json") ? body
+                : new FormField(body, "payload");
+        return parse(new InputStreamReader(json, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Reads a push from a JSON payload.
+     *
+     * @param json The payload
+     * @return The push
+     * @throws IOException              If the payload cannot be read
+     * @throws IllegalArgumentException If the payload is malformed or a field
+     *                                  is missing
+     */
+    public static Push parse(Reader json) throws IOException {
+        WebhookPayload payload = new WebhookPayload();
+        try (JsonReader reader = new JsonReader(json)) {
+            payload.readPush(reader);
+        } catch (IllegalStateException | MalformedJsonException | EOFException e) {
+            // Gson reports unexpected tokens with IllegalStateException
+            throw new IllegalArgumentException("Malformed payload: " + e.getMessage(), e);
+        }
+        if (payload.owner == null || payload.repo == null || payload.after == null || payload.cloneUrl == null
+                || payload.ref == null) {
+            throw new IllegalArgumentException("The payload is missing one or more required fields");
+        }
+        return new Push(payload.owner, payload.repo, payload.after, payload.cloneUrl, payload.ref,
+                payload.headCommitMessage);
+    }
+
+    private void readPush(JsonReader reader) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "ref" -> ref = string(reader);
+                case "after" -> after = string(reader);
+                case "repository" -> readRepository(reader);
+                case "head_commit" -> {
+                    if (reader.peek() == JsonToken.BEGIN_OBJECT) {
+                        reader.beginObject();
+                        while (reader.hasNext()) {
+                            if (reader.nextName().equals("message")) {
+                                headCommitMessage = string(reader);
+                            } else {
+                                reader.skipValue();
+                            }
+                        }
+                        reader.endObject();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                default -> reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    private void readRepository(JsonReader reader) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "name" -> repo = string(reader);
+                case "clone_url" -> cloneUrl = string(reader);
+                case "owner" -> {
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        if (reader.nextName().equals("login")) {
+                            owner = string(reader);
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                }
+                default -> reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    // A string value, or null for a JSON null
+    private static String string(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+        return reader.nextString();
+    }
+
+    /**
+     * The decoded value of one field of a form-encoded body, read as it is
+     * decoded. If the field is missing, the stream is empty.
+     */
+    static final class FormField extends InputStream {
+        private final InputStream in;
+        private final byte[] name;
+        private final byte[] buffer = new byte[8192];
+        private int position;
+        private int limit;
+        private boolean found;
+        private boolean ended;
+
+        /**
+         * @param in   The form-encoded body
+         * @param name The name of the field
+         */
+        FormField(InputStream in, String name) {
+            this.in = in;
+            this.name = name.getBytes(StandardCharsets.US_ASCII);
+        }
+
+        // The next byte of the body, or -1 at its end
+        private int next() throws IOException {
+            if (position == limit) {
+                limit = in.read(buffer, 0, buffer.length);
+                position = 0;
+                if (limit <= 0) {
+                    limit = 0;
+                    return -1;
+                }
+            }
+            return buffer[position++] & 0xff;
+        }
+
+        // Skips to the value of the field
+        private void find() throws IOException {
+            found = true;
+            while (true) {
+                // At the start of a field: compare its name
+                int matched = 0;
+                int b = next();
+                while (b != -1 && b != '=' && b != '&') {
+                    matched = matched >= 0 && matched < name.length && b == name[matched] ? matched + 1 : -1;
+                    b = next();
+                }
+                if (b == '=' && matched == name.length) {
+                    return;
+                }
+                while (b != -1 && b != '&') {
+                    b = next();
+                }
+                if (b == -1) {
+                    ended = true;
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!found) {
+                find();
+            }
+            if (ended) {
+                return -1;
+            }
+            int b = next();
+            switch (b) {
+                case -1, '&' -> {
+                    ended = true;
+                    return -1;
+                }
+                case '+' -> {
+                    return ' ';
+                }
+                case '%' -> {
+                    int high = Character.digit(next(), 16);
+                    int low = Character.digit(next(), 16);
+                    if (high < 0 || low < 0) {
+                        throw new IOException("Malformed percent-encoding in form field");
+                    }
+                    return high << 4 | low;
+                }
+                default -> {
+                    return b;
+                }
+            }
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            int count = 0;
+            while (count < length) {
+                int b = read();
+                if (b == -1) {
+                    break;
+                }
+                bytes[offset + count++] = (byte) b;
+            }
+            return count == 0 && length > 0 ? -1 : count;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
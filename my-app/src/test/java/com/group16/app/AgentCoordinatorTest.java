@@ -0,0 +1,205 @@
+package com.group16.app;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Unit tests for the {@link AgentCoordinator} class, calling it as an agent
+ * in the same process would.
+ */
+public class AgentCoordinatorTest {
+    private static final long LEASE_MILLIS = 200;
+
+    @TempDir
+    Path logRoot;
+
+    private BuildScheduler scheduler;
+    private AgentCoordinator coordinator;
+
+    /**
+     * A job on the coordinator, which records its statuses and its record
+     * instead of sending them to GitHub and the build history.
+     */
+    static class QueuedJob extends BuildJob {
+        final List<String> statuses = new CopyOnWriteArrayList<>();
+        final List<BuildRecord> saved = new CopyOnWriteArrayList<>();
+        final CountDownLatch finished = new CountDownLatch(1);
+
+        QueuedJob(String branch, String sha) {
+            super("owner", "repo", branch, sha, "https://github.com/owner/repo.git", "http://ci:8080/");
+        }
+
+        @Override
+        void sendStatus(Status status, String description, String context) {
+            statuses.add(status + " " + context + (description == null ? "" : " " + description));
+        }
+
+        @Override
+        void save(BuildRecord record) {
+            saved.add(record);
+            finished.countDown();
+        }
+    }
+
+    @BeforeEach
+    void setUp() {
+        scheduler = new BuildScheduler(0, 10, 10);
+        scheduler.start();
+        coordinator = new AgentCoordinator(scheduler, logRoot, 1024 * 1024, LEASE_MILLIS, 2);
+    }
+
+    @AfterEach
+    void tearDown() {
+        coordinator.close();
+        scheduler.shutdown();
+    }
+
+    // The log of a job on the coordinator
+    static String log(Path logRoot, String jobId) throws IOException {
+        BuildLog log = BuildLog.open(logRoot, jobId);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        log.copyTo(0, log.length(), out);
+        return out.toString(StandardCharsets.UTF_8);
+    }
+
+    // A record of a job as an agent would send it
+    private static BuildRecord record(AgentLink.Assignment assignment, Status status) {
+        return new BuildRecord(assignment.jobId(), assignment.owner() + "/" + assignment.repo(),
+                assignment.branch(), assignment.commitSha(), status, "Built", assignment.enqueuedAt(),
+                assignment.startedAt(), System.currentTimeMillis(), 10, 20,
+                assignment.serverURL() + "/logs/" + assignment.jobId(), 5, true, 0, 0, 1, 15);
+    }
+
+    @Test
+    void leasesJobsAndTakesBackTheirResults() throws Exception {
+        assertNull(coordinator.lease("agent-1", 10));
+
+        QueuedJob job = new QueuedJob("refs/heads/main", "a".repeat(40));
+        job.setForceRebuild(true);
+        scheduler.submit(job);
+        AgentLink.Assignment assignment = coordinator.lease("agent-1", 1000);
+        assertEquals(job.getId(), assignment.jobId());
+        assertEquals("a".repeat(40), assignment.commitSha());
+        assertEquals("http://ci:8080", assignment.serverURL());
+        assertTrue(assignment.forceRebuild());
+        assertTrue(assignment.startedAt() >= assignment.enqueuedAt());
+        assertEquals(1, scheduler.getRunning());
+        assertEquals(1, coordinator.leases());
+
+        // Heartbeats outlive the lease time and carry the log
+        for (int i = 0; i < 4; i++) {
+            Thread.sleep(LEASE_MILLIS / 2);
+            assertTrue(coordinator.heartbeat(assignment.lease(), "line " + i + "\n").held());
+        }
+        assertTrue(coordinator.status(assignment.lease(), Status.PENDING, null, Notification.CONTEXT));
+        assertTrue(coordinator.finish(assignment.lease(), record(assignment, Status.SUCCESS)));
+
+        assertEquals(List.of("PENDING " + Notification.CONTEXT), job.statuses);
+        assertEquals(Status.SUCCESS, job.saved.get(0).status());
+        assertEquals("Leased to build agent agent-1\nline 0\nline 1\nline 2\nline 3\n", log(logRoot, job.getId()));
+        assertTrue(BuildLog.open(logRoot, job.getId()).isClosed());
+        assertEquals(0, scheduler.getRunning());
+        assertEquals(0, coordinator.leases());
+
+        // The lease is over
+        assertFalse(coordinator.finish(assignment.lease(), record(assignment, Status.SUCCESS)));
+        assertFalse(coordinator.heartbeat(assignment.lease(), "").held());
+        assertEquals(1, job.saved.size());
+    }
+
+    @Test
+    void queuesJobsOfLostAgentsAgain() throws Exception {
+        QueuedJob job = new QueuedJob("refs/heads/main", "a".repeat(40));
+        QueuedJob other = new QueuedJob("refs/heads/other", "b".repeat(40));
+        scheduler.submit(job);
+        scheduler.submit(other);
+        AgentLink.Assignment first = coordinator.lease("agent-1", 1000);
+        assertEquals(job.getId(), first.jobId());
+
+        // The agent stops sending heartbeats, and the job goes ahead of the
+        // other job of the repository
+        Thread.sleep(LEASE_MILLIS * 3);
+        assertFalse(coordinator.heartbeat(first.lease(), "late\n").held());
+        assertEquals(2, scheduler.getQueueDepth());
+        AgentLink.Assignment second = coordinator.lease("agent-2", 1000);
+        assertEquals(job.getId(), second.jobId());
+
+        // After the second lost agent, the job ends
+        Thread.sleep(LEASE_MILLIS * 3);
+        assertTrue(job.finished.await(5, TimeUnit.SECONDS));
+        assertEquals(Status.ERROR, job.saved.get(0).status());
+        assertEquals("Build agents stopped responding 2 times", job.saved.get(0).description());
+        assertEquals("ERROR " + Notification.CONTEXT + " Build agents stopped responding 2 times",
+                job.statuses.get(0));
+        assertEquals("""
+                Leased to build agent agent-1
+                Build agent agent-1 stopped responding
+                Queued again
+                Leased to build agent agent-2 (attempt 2)
+                Build agent agent-2 stopped responding
+                Build agents stopped responding 2 times
+                """, log(logRoot, job.getId()));
+        assertFalse(coordinator.finish(second.lease(), record(second, Status.SUCCESS)));
+        assertEquals(1, job.saved.size());
+        assertEquals(0, scheduler.getRunning());
+        assertEquals(other.getId(), coordinator.lease("agent-3", 1000).jobId());
+    }
+
+    @Test
+    void tellsAgentsAboutNewerCommits() throws Exception {
+        QueuedJob job = new QueuedJob("refs/heads/main", "a".repeat(40));
+        scheduler.submit(job);
+        AgentLink.Assignment assignment = coordinator.lease("agent-1", 1000);
+        assertNull(coordinator.heartbeat(assignment.lease(), "").supersededBy());
+
+        QueuedJob newer = new QueuedJob("refs/heads/main", "b".repeat(40));
+        scheduler.submit(newer);
+        assertEquals("b".repeat(40), coordinator.heartbeat(assignment.lease(), "").supersededBy());
+
+        // A superseded job of a lost agent is not built again
+        Thread.sleep(LEASE_MILLIS * 3);
+        assertTrue(job.finished.await(5, TimeUnit.SECONDS));
+        assertEquals("Build skipped, superseded by " + "b".repeat(40), job.saved.get(0).description());
+        assertEquals(newer.getId(), coordinator.lease("agent-1", 1000).jobId());
+    }
+
+    @Test
+    void closesTheLogsOfJobsDroppedAfterTheirAgentWasLost() throws Exception {
+        QueuedJob job = new QueuedJob("refs/heads/main", "a".repeat(40));
+        scheduler.submit(job);
+        AgentLink.Assignment assignment = coordinator.lease("agent-1", 1000);
+
+        // The job is queued again, then dropped for a newer commit
+        Thread.sleep(LEASE_MILLIS * 3);
+        assertFalse(coordinator.heartbeat(assignment.lease(), "").held());
+        assertEquals(1, scheduler.getQueueDepth());
+        QueuedJob newer = new QueuedJob("refs/heads/main", "b".repeat(40));
+        scheduler.submit(newer);
+        assertTrue(job.finished.await(5, TimeUnit.SECONDS));
+        assertEquals("Build skipped, superseded by " + "b".repeat(40), job.saved.get(0).description());
+
+        Thread.sleep(LEASE_MILLIS);
+        assertTrue(BuildLog.open(logRoot, job.getId()).isClosed());
+        assertEquals("""
+                Leased to build agent agent-1
+                Build agent agent-1 stopped responding
+                Queued again
+                Build skipped, superseded by %s
+                """.formatted("b".repeat(40)), log(logRoot, job.getId()));
+        assertEquals(newer.getId(), coordinator.lease("agent-2", 1000).jobId());
+        assertEquals(1, job.saved.size());
+    }
+}
@@ -0,0 +1,123 @@
+package com.group16.app;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.Properties;
+
+import org.apache.maven.shared.invoker.DefaultInvocationRequest;
+import org.apache.maven.shared.invoker.InvocationRequest;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Unit tests for the {@link ArtifactCache} class.
+ */
+public class ArtifactCacheTest {
+
+    @TempDir
+    Path tempDir;
+
+    // Creates an artifact version of the given size, last used at the given time
+    private Path artifact(String version, int bytes, long lastUsed) throws IOException {
+        Path dir = Files.createDirectories(tempDir.resolve("repo/org/example/lib/" + version));
+        Path pom = dir.resolve("lib-" + version + ".pom");
+        Path jar = dir.resolve("lib-" + version + ".jar");
+        Files.writeString(pom, "<project/>");
+        Files.write(jar, new byte[bytes]);
+        for (Path file : new Path[] { pom, jar }) {
+            Files.setAttribute(file, "lastAccessTime", FileTime.fromMillis(lastUsed));
+            Files.setLastModifiedTime(file, FileTime.fromMillis(lastUsed));
+        }
+        return dir;
+    }
+
+    @Test
+    void configuresTheInvocation() {
+        ArtifactCache cache = new ArtifactCache(tempDir.resolve("repo"), Long.MAX_VALUE, true);
+        InvocationRequest request = new DefaultInvocationRequest();
+
+        try (ArtifactCache.Usage usage = cache.use(request)) {
+            assertEquals(tempDir.resolve("repo").toFile(), request.getLocalRepositoryDirectory(null));
+            assertTrue(request.isOffline());
+            assertEquals(InvocationRequest.CheckSumPolicy.Fail, request.getGlobalChecksumPolicy());
+            assertEquals("file-lock", request.getProperties().getProperty("aether.syncContext.named.factory"));
+        }
+
+        // The properties of the caller are left alone
+        Properties properties = new Properties();
+        properties.setProperty("forkCount", "2");
+        request.setProperties(properties);
+        try (ArtifactCache.Usage usage = cache.use(request)) {
+            assertEquals("2", request.getProperties().getProperty("forkCount"));
+            assertEquals(List.of("forkCount"), List.copyOf(properties.stringPropertyNames()));
+        }
+    }
+
+    @Test
+    void needsMaven39ToLockArtifacts() throws IOException {
+        assertTrue(ArtifactCache.locksArtifacts("3.9.6"));
+        assertTrue(ArtifactCache.locksArtifacts("4.0.0-rc-2"));
+        assertFalse(ArtifactCache.locksArtifacts("3.6.3"));
+        assertFalse(ArtifactCache.locksArtifacts("3.8.8"));
+
+        Files.createDirectories(tempDir.resolve("maven/lib"));
+        Files.writeString(tempDir.resolve("maven/lib/maven-core-3.6.3.jar"), "");
+        Files.writeString(tempDir.resolve("maven/lib/maven-core-api.jar"), "");
+        assertEquals("3.6.3", ForkedBuildBackend.mavenVersion(tempDir.resolve("maven").toFile()));
+        assertNull(ForkedBuildBackend.mavenVersion(tempDir.toFile()));
+    }
+
+    @Test
+    void countsDownloads() {
+        ArtifactCache cache = new ArtifactCache(tempDir.resolve("repo"), Long.MAX_VALUE, false);
+
+        try (ArtifactCache.Usage usage = cache.use(new DefaultInvocationRequest())) {
+            usage.accept("[INFO] Downloading from central: https://repo.maven.apache.org/maven2/a.pom");
+            usage.accept("[INFO] Downloaded from central: https://repo.maven.apache.org/maven2/a.pom (2 kB)");
+            usage.accept("[INFO] Downloaded from central: https://repo.maven.apache.org/maven2/a.jar (9 kB)");
+        }
+        try (ArtifactCache.Usage usage = cache.use(new DefaultInvocationRequest())) {
+            usage.accept("[INFO] BUILD SUCCESS");
+        }
+
+        assertTrue(cache.stats().contains("builds 2\n"));
+        assertTrue(cache.stats().contains("builds_without_downloads 1\n"));
+        assertTrue(cache.stats().contains("downloads 2\n"));
+    }
+
+    @Test
+    void evictsLeastRecentlyUsedVersions() throws IOException {
+        Path oldest = artifact("1.0", 1000, 1_000_000);
+        Path old = artifact("2.0", 1000, 2_000_000);
+        Path recent = artifact("3.0", 1000, 3_000_000);
+        ArtifactCache cache = new ArtifactCache(tempDir.resolve("repo"), 1500, false);
+
+        cache.evict();
+
+        assertFalse(Files.exists(oldest));
+        assertFalse(Files.exists(old));
+        assertTrue(Files.exists(recent));
+    }
+
+    @Test
+    void doesNotEvictWhileABuildRuns() throws IOException {
+        Path version = artifact("1.0", 1000, 1_000_000);
+        ArtifactCache cache = new ArtifactCache(tempDir.resolve("repo"), 0, false);
+
+        try (ArtifactCache.Usage usage = cache.use(new DefaultInvocationRequest())) {
+            Thread evictor = new Thread(cache::evict);
+            evictor.start();
+            evictor.join();
+            assertTrue(Files.exists(version));
+        } catch (InterruptedException e) {
+            fail(e);
+        }
+        cache.evict();
+        assertFalse(Files.exists(version));
+    }
+}
@@ -0,0 +1,210 @@
+package com.group16.app;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Unit tests for the {@link ArtifactStore} class and the
+ * {@link ArtifactHandler} that serves it.
+ */
+public class ArtifactStoreTest {
+    private static final List<String> GLOBS = List.of("target/*.jar", "target/surefire-reports/*.xml");
+
+    @TempDir
+    Path tempDir;
+
+    // Writes a file of random bytes into a project
+    private byte[] write(Path project, String file, int size, long seed) throws IOException {
+        byte[] content = new byte[size];
+        new Random(seed).nextBytes(content);
+        Files.createDirectories(project.resolve(file).getParent());
+        Files.write(project.resolve(file), content);
+        return content;
+    }
+
+    @Test
+    void storesIdenticalChunksOnce() throws IOException {
+        ArtifactStore store = new ArtifactStore(tempDir.resolve("store"), GLOBS, Long.MAX_VALUE, Long.MAX_VALUE);
+        Path project = tempDir.resolve("project");
+        byte[] jar = write(project, "target/app.jar", 3 * ArtifactStore.CHUNK_SIZE + 10, 1);
+        write(project, "target/surefire-reports/TEST-AppTest.xml", 100, 2);
+        write(project, "target/classes/App.class", 100, 3);
+
+        String first = UUID.randomUUID().toString();
+        ArtifactStore.Stored stored = store.collect(first, project, "");
+        assertEquals(2, stored.files());
+        assertEquals(jar.length + 100, stored.bytes());
+        assertEquals(stored.bytes(), stored.newBytes());
+        assertEquals(List.of("target/app.jar", "target/surefire-reports/TEST-AppTest.xml"),
+                store.list(first).stream().map(ArtifactStore.Artifact::path).toList());
+        assertEquals(4, store.find(first, "target/app.jar").chunks().size());
+
+        // The same jar with another report, in two cells of a matrix: only
+        // the new report takes space
+        write(project, "target/surefire-reports/TEST-AppTest.xml", 100, 4);
+        String second = UUID.randomUUID().toString();
+        assertEquals(100, store.collect(second, project, "jdk17/").newBytes());
+        assertEquals(0, store.collect(second, project, "jdk21/").newBytes());
+        assertEquals(4, store.list(second).size());
+        assertEquals(store.find(first, "target/app.jar").sha256(),
+                store.find(second, "jdk21/target/app.jar").sha256());
+        assertEquals(jar.length + 200, store.chunkBytes());
+        assertTrue(store.list(UUID.randomUUID().toString()).isEmpty());
+    }
+
+    @Test
+    void evictsOldJobsAndUnlistedChunks() throws IOException {
+        Path dir = tempDir.resolve("store");
+        ArtifactStore store = new ArtifactStore(dir, GLOBS, 2 * ArtifactStore.CHUNK_SIZE, 60_000);
+        Path project = tempDir.resolve("project");
+        write(project, "target/app.jar", ArtifactStore.CHUNK_SIZE, 1);
+        String old = UUID.randomUUID().toString();
+        store.collect(old, project, "");
+        Files.setLastModifiedTime(dir.resolve("manifests").resolve(old),
+                FileTime.fromMillis(System.currentTimeMillis() - 120_000));
+
+        // Too old, but its chunk is still listed by a newer job
+        String shared = UUID.randomUUID().toString();
+        store.collect(shared, project, "");
+        store.evict();
+        assertTrue(store.list(old).isEmpty());
+        assertEquals(1, store.list(shared).size());
+        assertEquals(ArtifactStore.CHUNK_SIZE, store.chunkBytes());
+
+        // Over the size limit, the oldest jobs go first
+        List<String> jobs = new ArrayList<>();
+        for (int i = 2; i < 5; i++) {
+            write(project, "target/app.jar", ArtifactStore.CHUNK_SIZE, i);
+            String job = UUID.randomUUID().toString();
+            store.collect(job, project, "");
+            Files.setLastModifiedTime(dir.resolve("manifests").resolve(job),
+                    FileTime.fromMillis(System.currentTimeMillis() - 10_000 + i));
+            jobs.add(job);
+        }
+        Files.setLastModifiedTime(dir.resolve("manifests").resolve(shared),
+                FileTime.fromMillis(System.currentTimeMillis() - 20_000));
+        store.evict();
+        assertTrue(store.list(shared).isEmpty());
+        assertTrue(store.list(jobs.get(0)).isEmpty());
+        assertEquals(1, store.list(jobs.get(1)).size());
+        assertEquals(1, store.list(jobs.get(2)).size());
+        assertEquals(2L * ArtifactStore.CHUNK_SIZE, store.chunkBytes());
+    }
+
+    @Test
+    void servesArtifactsWithRanges() throws Exception {
+        ArtifactStore store = new ArtifactStore(tempDir.resolve("store"), GLOBS, Long.MAX_VALUE, Long.MAX_VALUE);
+        Path project = tempDir.resolve("project");
+        byte[] jar = write(project, "target/app.jar", 2 * ArtifactStore.CHUNK_SIZE + 10, 1);
+        String job = UUID.randomUUID().toString();
+        store.collect(job, project, "");
+
+        Server server = new Server(0);
+        server.setHandler(new ArtifactHandler(store));
+        server.start();
+        try {
+            String base = "http://localhost:" + ((ServerConnector) server.getConnectors()[0]).getLocalPort()
+                    + "/artifacts/" + job;
+            HttpClient client = HttpClient.newHttpClient();
+
+            HttpResponse<String> list = client.send(HttpRequest.newBuilder(URI.create(base)).build(),
+                    HttpResponse.BodyHandlers.ofString());
+            JSONObject artifact = new JSONObject(list.body()).getJSONArray("artifacts").getJSONObject(0);
+            assertEquals("target/app.jar", artifact.getString("path"));
+            assertEquals(jar.length, artifact.getLong("size"));
+
+            HttpResponse<byte[]> whole = client.send(HttpRequest.newBuilder(URI.create(base + "/target/app.jar"))
+                    .build(), HttpResponse.BodyHandlers.ofByteArray());
+            assertEquals(200, whole.statusCode());
+            assertArrayEquals(jar, whole.body());
+            String etag = whole.headers().firstValue("ETag").orElseThrow();
+
+            // A range across the boundary of two chunks
+            int from = ArtifactStore.CHUNK_SIZE - 5;
+            HttpResponse<byte[]> part = client.send(HttpRequest.newBuilder(URI.create(base + "/target/app.jar"))
+                    .header("Range", "bytes=" + from + "-" + (from + 9)).build(),
+                    HttpResponse.BodyHandlers.ofByteArray());
+            assertEquals(206, part.statusCode());
+            assertArrayEquals(Arrays.copyOfRange(jar, from, from + 10), part.body());
+
+            assertEquals(304, client.send(HttpRequest.newBuilder(URI.create(base + "/target/app.jar"))
+                    .header("If-None-Match", etag).build(), HttpResponse.BodyHandlers.discarding()).statusCode());
+            assertEquals(404, client.send(HttpRequest.newBuilder(URI.create(base + "/target/other.jar")).build(),
+                    HttpResponse.BodyHandlers.discarding()).statusCode());
+        } finally {
+            server.stop();
+        }
+    }
+
+    /**
+     * Downloads a 64 MB artifact with 1 to 32 concurrent clients and prints
+     * the total throughput. Only runs with {@code mvn test -Dbenchmark=true}.
+     */
+    @Test
+    @EnabledIfSystemProperty(named = "benchmark", matches = "true")
+    void benchmarkConcurrentDownloads() throws Exception {
+        ArtifactStore store = new ArtifactStore(tempDir.resolve("store"), GLOBS, Long.MAX_VALUE, Long.MAX_VALUE);
+        Path project = tempDir.resolve("project");
+        int size = 64 * ArtifactStore.CHUNK_SIZE;
+        write(project, "target/app.jar", size, 1);
+        String job = UUID.randomUUID().toString();
+        store.collect(job, project, "");
+
+        Server server = ContinuousIntegrationServer.createServer(0);
+        server.setHandler(new ArtifactHandler(store));
+        server.start();
+        try {
+            URI uri = URI.create("http://localhost:" + ((ServerConnector) server.getConnectors()[0]).getLocalPort()
+                    + "/artifacts/" + job + "/target/app.jar");
+            HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+            for (int clients : new int[] { 1, 4, 16, 32 }) {
+                ExecutorService pool = Executors.newFixedThreadPool(clients);
+                int downloads = 2 * clients;
+                long start = System.nanoTime();
+                List<Future<Long>> futures = new ArrayList<>();
+                for (int i = 0; i < downloads; i++) {
+                    futures.add(pool.submit(() -> {
+                        try (InputStream in = client.send(HttpRequest.newBuilder(uri).build(),
+                                HttpResponse.BodyHandlers.ofInputStream()).body()) {
+                            return in.transferTo(OutputStream.nullOutputStream());
+                        }
+                    }));
+                }
+                for (Future<Long> future : futures) {
+                    assertEquals(size, future.get());
+                }
+                double seconds = (System.nanoTime() - start) / 1e9;
+                pool.shutdown();
+                System.out.printf("%2d clients: %,.0f MB/s%n", clients,
+                        (double) downloads * size / (1024 * 1024) / seconds);
+            }
+        } finally {
+            server.stop();
+        }
+    }
+}
@@ -0,0 +1,294 @@
+package com.group16.app;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests of {@link BuildAgent}s that build the jobs of a coordinator over
+ * HTTP, in the same process, with a pipeline that only writes to the log and
+ * waits. The throughput benchmark only runs with
+ * {@code mvn test -Dbenchmark=true}.
+ */
+public class BuildAgentTest {
+    private static final String TOKEN = "secret";
+
+    @TempDir
+    Path dir;
+
+    private BuildScheduler scheduler;
+    private AgentCoordinator coordinator;
+    private Server server;
+    private String url;
+    private final List<BuildAgent> agents = new ArrayList<>();
+    // Holds the jobs of a lost agent
+    private final CountDownLatch hold = new CountDownLatch(1);
+
+    @BeforeEach
+    void setUp() throws Exception {
+        scheduler = new BuildScheduler(0, 1000, 1000);
+        scheduler.start();
+        coordinator = new AgentCoordinator(scheduler, dir.resolve("logs"), 1024 * 1024, 300, 3);
+        server = ContinuousIntegrationServer.createServer(0);
+        server.setHandler(new AgentHandler(coordinator, TOKEN));
+        server.start();
+        url = "http://localhost:" + ((ServerConnector) server.getConnectors()[0]).getLocalPort();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        hold.countDown();
+        for (BuildAgent agent : agents) {
+            agent.stop();
+        }
+        scheduler.shutdown();
+        server.stop();
+        coordinator.close();
+    }
+
+    /**
+     * Starts an agent whose jobs write a line, wait for the given time, and
+     * succeed.
+     *
+     * @param name       The name of the agent
+     * @param link       The link to the coordinator
+     * @param slots      The number of jobs the agent runs at the same time
+     * @param buildMillis The time each job takes
+     * @param hold       Released when the jobs may end, or {@code null}
+     */
+    private BuildAgent startAgent(String name, AgentLink link, int slots, long buildMillis, CountDownLatch hold) {
+        BuildAgent agent = new BuildAgent(link, name, slots, dir.resolve(name), 1024 * 1024, null) {
+            @Override
+            RemoteJob newJob(AgentLink.Assignment assignment) {
+                return new RemoteJob(assignment) {
+                    @Override
+                    void runPipeline() {
+                        sendStatus(Status.PENDING, null, Notification.CONTEXT);
+                        log.println("Built by " + name);
+                        try {
+                            Thread.sleep(buildMillis);
+                            if (hold != null) {
+                                hold.await();
+                            }
+                            report(Status.SUCCESS, "Built");
+                        } catch (InterruptedException e) {
+                            report(Status.ERROR, "Interrupted");
+                        }
+                    }
+                };
+            }
+        };
+        agents.add(agent);
+        agent.start();
+        return agent;
+    }
+
+    private List<AgentCoordinatorTest.QueuedJob> submit(int count) {
+        List<AgentCoordinatorTest.QueuedJob> jobs = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            AgentCoordinatorTest.QueuedJob job = new AgentCoordinatorTest.QueuedJob("refs/heads/b" + i,
+                    String.format("%040d", i));
+            jobs.add(job);
+            assertEquals(BuildScheduler.Admission.ACCEPTED, scheduler.submit(job));
+        }
+        return jobs;
+    }
+
+    @Test
+    void buildsJobsOnAgents() throws Exception {
+        startAgent("agent-1", new HttpAgentLink(url, TOKEN), 1, 50, null);
+        startAgent("agent-2", new HttpAgentLink(url, TOKEN), 1, 50, null);
+        List<AgentCoordinatorTest.QueuedJob> jobs = submit(6);
+
+        for (AgentCoordinatorTest.QueuedJob job : jobs) {
+            assertTrue(job.finished.await(10, TimeUnit.SECONDS));
+            BuildRecord record = job.saved.get(0);
+            assertEquals(Status.SUCCESS, record.status());
+            assertEquals(job.getLogURL(), record.log());
+            assertEquals(List.of("PENDING " + Notification.CONTEXT, "SUCCESS " + Notification.CONTEXT + " Built"),
+                    job.statuses);
+            assertTrue(AgentCoordinatorTest.log(dir.resolve("logs"), job.getId())
+                    .matches("Leased to build agent (agent-\\d)\nBuilt by \\1\n"));
+        }
+        assertEquals(0, scheduler.getRunning());
+        for (BuildAgent agent : agents) {
+            agent.stop();
+        }
+        assertEquals(6, agents.get(0).built() + agents.get(1).built());
+    }
+
+    @Test
+    void refusesCallsWithoutTheToken() throws Exception {
+        HttpClient client = HttpClient.newHttpClient();
+        assertEquals(401, client.send(HttpRequest.newBuilder(URI.create(url + "/agents")).build(),
+                HttpResponse.BodyHandlers.ofString()).statusCode());
+        assertThrows(IOException.class, () -> new HttpAgentLink(url, "wrong").lease("agent-1", 10));
+    }
+
+    @Test
+    void rebuildsJobsOfAgentsThatStopResponding() throws Exception {
+        // The first agent loses its connection after it leased a job
+        CountDownLatch leased = new CountDownLatch(1);
+        HttpAgentLink http = new HttpAgentLink(url, TOKEN);
+        AgentLink partitioned = new AgentLink() {
+            @Override
+            public Assignment lease(String agent, long waitMillis) throws IOException {
+                if (leased.getCount() == 0) {
+                    throw new IOException("Unreachable");
+                }
+                Assignment assignment = http.lease(agent, waitMillis);
+                if (assignment != null) {
+                    leased.countDown();
+                }
+                return assignment;
+            }
+
+            @Override
+            public Heartbeat heartbeat(String lease, String log) throws IOException {
+                if (hold.getCount() > 0) {
+                    throw new IOException("Unreachable");
+                }
+                return http.heartbeat(lease, log);
+            }
+
+            @Override
+            public boolean status(String lease, Status status, String description, String context)
+                    throws IOException {
+                return http.status(lease, status, description, context);
+            }
+
+            @Override
+            public boolean finish(String lease, BuildRecord record) throws IOException {
+                return http.finish(lease, record);
+            }
+        };
+        startAgent("agent-1", partitioned, 1, 0, hold);
+        AgentCoordinatorTest.QueuedJob job = submit(1).get(0);
+        assertTrue(leased.await(10, TimeUnit.SECONDS));
+
+        startAgent("agent-2", http, 1, 0, null);
+        assertTrue(job.finished.await(10, TimeUnit.SECONDS));
+        assertEquals(Status.SUCCESS, job.saved.get(0).status());
+        assertEquals("""
+                Leased to build agent agent-1
+                Build agent agent-1 stopped responding
+                Queued again
+                Leased to build agent agent-2 (attempt 2)
+                Built by agent-2
+                """, AgentCoordinatorTest.log(dir.resolve("logs"), job.getId()));
+
+        // When the first agent is back, its job is stopped and dropped
+        hold.countDown();
+        agents.remove(0).stop();
+        assertEquals(1, job.saved.size());
+        assertEquals(0, scheduler.getRunning());
+    }
+
+    @Test
+    void keepsTheLeasesOfOtherSlotsDuringASlowHeartbeat() throws Exception {
+        // The heartbeats of the first leased job hang
+        CountDownLatch stuck = new CountDownLatch(1);
+        AtomicReference<AgentLink.Assignment> slow = new AtomicReference<>();
+        CountDownLatch leased = new CountDownLatch(2);
+        HttpAgentLink http = new HttpAgentLink(url, TOKEN);
+        AgentLink link = new AgentLink() {
+            @Override
+            public Assignment lease(String agent, long waitMillis) throws IOException {
+                Assignment assignment = http.lease(agent, waitMillis);
+                if (assignment != null) {
+                    slow.compareAndSet(null, assignment);
+                    leased.countDown();
+                }
+                return assignment;
+            }
+
+            @Override
+            public Heartbeat heartbeat(String lease, String log) throws IOException {
+                if (lease.equals(slow.get().lease())) {
+                    try {
+                        stuck.await();
+                    } catch (InterruptedException e) {
+                        throw new IOException("Interrupted", e);
+                    }
+                }
+                return http.heartbeat(lease, log);
+            }
+
+            @Override
+            public boolean status(String lease, Status status, String description, String context)
+                    throws IOException {
+                return http.status(lease, status, description, context);
+            }
+
+            @Override
+            public boolean finish(String lease, BuildRecord record) throws IOException {
+                return http.finish(lease, record);
+            }
+        };
+        startAgent("agent-1", link, 2, 1000, null);
+        List<AgentCoordinatorTest.QueuedJob> jobs = submit(2);
+
+        try {
+            assertTrue(leased.await(10, TimeUnit.SECONDS));
+            // The other job keeps its lease for the three lease times it runs
+            AgentCoordinatorTest.QueuedJob other = jobs.get(0).getId().equals(slow.get().jobId())
+                    ? jobs.get(1) : jobs.get(0);
+            assertTrue(other.finished.await(10, TimeUnit.SECONDS));
+            assertEquals(Status.SUCCESS, other.saved.get(0).status());
+            assertEquals("Leased to build agent agent-1\nBuilt by agent-1\n",
+                    AgentCoordinatorTest.log(dir.resolve("logs"), other.getId()));
+        } finally {
+            stuck.countDown();
+        }
+    }
+
+    /**
+     * Builds 200 jobs of 100 ms each on 1, 2, 4 and 8 agents over HTTP, and
+     * reports the throughput. The jobs wait rather than compute, so the
+     * benchmark measures the overhead of the coordinator, not the cores of
+     * this host.
+     */
+    @Test
+    @EnabledIfSystemProperty(named = "benchmark", matches = "true")
+    void benchmarkThroughputByAgents() throws Exception {
+        int jobs = 200;
+        long buildMillis = 100;
+        double single = 0;
+        for (int count = 1; count <= 8; count *= 2) {
+            for (int i = 0; i < count; i++) {
+                startAgent("agent-" + count + "-" + i, new HttpAgentLink(url, TOKEN), 1, buildMillis, null);
+            }
+            long start = System.nanoTime();
+            for (AgentCoordinatorTest.QueuedJob job : submit(jobs)) {
+                assertTrue(job.finished.await(5, TimeUnit.MINUTES));
+            }
+            double perSecond = jobs / ((System.nanoTime() - start) / 1e9);
+            single = count == 1 ? perSecond : single;
+            System.out.println(String.format(Locale.ROOT, "%d agents: %.1f jobs/s, %.2fx of one agent "
+                    + "(ideal %.1f jobs/s)", count, perSecond, perSecond / single, count * 1000.0 / buildMillis));
+            for (BuildAgent agent : agents) {
+                agent.stop();
+            }
+            agents.clear();
+        }
+    }
+}
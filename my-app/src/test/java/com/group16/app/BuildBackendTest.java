@@ -0,0 +1,129 @@
+package com.group16.app;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.apache.maven.shared.invoker.DefaultInvocationRequest;
+import org.apache.maven.shared.invoker.InvocationRequest;
+import org.apache.maven.shared.invoker.InvocationResult;
+import org.apache.maven.shared.invoker.MavenInvocationException;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Unit tests for the {@link BuildBackend} implementations, and a benchmark
+ * that compares them on a sample project. The benchmark runs real Maven builds
+ * and only runs with {@code mvn test -Dbenchmark=true}.
+ */
+public class BuildBackendTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void daemonFallsBackWhenMvndCannotStart() throws MavenInvocationException, IOException {
+        BuildBackend fallback = mock(BuildBackend.class);
+        InvocationResult expected = mock(InvocationResult.class);
+        when(fallback.execute(any())).thenReturn(expected);
+        when(fallback.getName()).thenReturn("mock");
+
+        Files.writeString(tempDir.resolve("pom.xml"), "<project/>");
+        InvocationRequest request = new DefaultInvocationRequest();
+        request.setPomFile(tempDir.resolve("pom.xml").toFile());
+
+        BuildBackend daemon = new DaemonBuildBackend(tempDir.resolve("missing-mvnd"), fallback);
+        assertSame(expected, daemon.execute(request));
+        verify(fallback).execute(request);
+    }
+
+    @Test
+    void forkedBackendFindsMaven() {
+        assertNotNull(ForkedBuildBackend.findMavenHome());
+    }
+
+    // Writes a small project with a few classes and tests
+    private Path sampleProject() throws IOException {
+        Path project = tempDir.resolve("sample");
+        Files.createDirectories(project.resolve("src/main/java/sample"));
+        Files.createDirectories(project.resolve("src/test/java/sample"));
+        Files.writeString(project.resolve("pom.xml"), """
+                <project xmlns="http://maven.apache.org/POM/4.0.0">
+                    <modelVersion>4.0.0</modelVersion>
+                    <groupId>sample</groupId>
+                    <artifactId>sample</artifactId>
+                    <version>1.0</version>
+                    <properties>
+                        <maven.compiler.release>17</maven.compiler.release>
+                        <project.build.sourceEncoding>UTF-8</project.build.sourceEncoding>
+                    </properties>
+                    <dependencies>
+                        <dependency>
+                            <groupId>org.junit.jupiter</groupId>
+                            <artifactId>junit-jupiter-engine</artifactId>
+                            <version>5.11.4</version>
+                            <scope>test</scope>
+                        </dependency>
+                    </dependencies>
+                    <build>
+                        <plugins>
+                            <plugin>
+                                <artifactId>maven-compiler-plugin</artifactId>
+                                <version>3.13.0</version>
+                            </plugin>
+                            <plugin>
+                                <artifactId>maven-surefire-plugin</artifactId>
+                                <version>3.3.0</version>
+                            </plugin>
+                        </plugins>
+                    </build>
+                </project>
+                """);
+        for (int i = 0; i < 20; i++) {
+            Files.writeString(project.resolve("src/main/java/sample/Class" + i + ".java"),
+                    "package sample; public class Class" + i + " { public int value() { return " + i + "; } }");
+            Files.writeString(project.resolve("src/test/java/sample/Class" + i + "Test.java"),
+                    "package sample; import org.junit.jupiter.api.Test;"
+                            + " import static org.junit.jupiter.api.Assertions.assertEquals;"
+                            + " public class Class" + i + "Test { @Test void value() {"
+                            + " assertEquals(" + i + ", new Class" + i + "().value()); } }");
+        }
+        return project;
+    }
+
+    // Returns the mean build time in milliseconds, after one warm-up build
+    private static long meanBuildMillis(BuildBackend backend, Path project, int builds) {
+        BuildExecutor.setBackend(backend);
+        assertEquals(Status.SUCCESS, BuildExecutor.build(project).status());
+        long start = System.nanoTime();
+        for (int i = 0; i < builds; i++) {
+            assertEquals(Status.SUCCESS, BuildExecutor.build(project).status());
+        }
+        return (System.nanoTime() - start) / 1_000_000 / builds;
+    }
+
+    /**
+     * Compares the per-job latency of forked Maven builds with builds on warm
+     * Maven daemons.
+     */
+    @Test
+    @EnabledIfSystemProperty(named = "benchmark", matches = "true")
+    void benchmarkBackends() throws IOException {
+        Path mvnd = DaemonBuildBackend.findMvnd();
+        Assumptions.assumeTrue(mvnd != null, "mvnd is not installed");
+        Path project = sampleProject();
+        BuildBackend forked = new ForkedBuildBackend();
+        try {
+            long forkedMillis = meanBuildMillis(forked, project, 5);
+            long daemonMillis = meanBuildMillis(new DaemonBuildBackend(mvnd, forked), project, 5);
+            System.out.println("Mean build time, forked: " + forkedMillis + " ms, daemon: " + daemonMillis + " ms");
+        } finally {
+            BuildExecutor.setBackend(BuildBackend.configured());
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.group16.app;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Unit tests for the {@link BuildExecutor} class.
+ */
+public class BuildExecutorTest {
+
+    @TempDir
+    Path tempDir;
+
+    // Feeds Maven output to a parser and returns the result
+    private static BuildResult parse(int exitCode, String... lines) {
+        BuildExecutor.OutputParser parser = new BuildExecutor.OutputParser();
+        for (String line : lines) {
+            parser.accept(line);
+        }
+        return parser.result(exitCode);
+    }
+
+    @Test
+    void successfulBuild() {
+        BuildResult result = parse(0,
+                "[INFO] Tests run: 4, Failures: 0, Errors: 0, Skipped: 0, Time elapsed: 0.478 s -- in com.example.ATest",
+                "[INFO] Tests run: 3, Failures: 0, Errors: 0, Skipped: 1, Time elapsed: 0.1 s -- in com.example.BTest",
+                "[INFO] Results:",
+                "[INFO] Tests run: 7, Failures: 0, Errors: 0, Skipped: 1",
+                "[INFO] BUILD SUCCESS");
+
+        assertTrue(result.compileOK());
+        assertTrue(result.testsOK());
+        assertEquals(7, result.testsRun());
+        assertEquals(1, result.testsSkipped());
+        assertEquals(Status.SUCCESS, result.status());
+    }
+
+    @Test
+    void compilationFailure() {
+        BuildResult result = parse(1,
+                "[ERROR] COMPILATION ERROR : ",
+                "[ERROR] /src/main/java/App.java:[3,1] class, interface, enum, or record expected",
+                "[INFO] BUILD FAILURE",
+                "[ERROR] Failed to execute goal org.apache.maven.plugins:maven-compiler-plugin:3.13.0:compile "
+                        + "(default-compile) on project my-app: Compilation failure");
+
+        assertFalse(result.compileOK());
+        assertFalse(result.testsOK());
+        assertTrue(result.compileFailed());
+        assertTrue(result.conclusive());
+        assertEquals(Status.FAILURE, result.status());
+        assertEquals("The build failed", result.description());
+    }
+
+    @Test
+    void resolutionFailureIsNoVerdict() {
+        BuildResult result = parse(1,
+                "[INFO] BUILD FAILURE",
+                "[ERROR] Failed to execute goal on project my-app: Could not resolve dependencies for project "
+                        + "com.group16:my-app:jar:1.0");
+
+        assertFalse(result.compileOK());
+        assertFalse(result.compileFailed());
+        assertFalse(result.conclusive());
+        assertEquals(Status.FAILURE, result.status());
+    }
+
+    @Test
+    void testFailure() {
+        BuildResult result = parse(1,
+                "[ERROR] Tests run: 2, Failures: 1, Errors: 0, Skipped: 0, Time elapsed: 4.2 s <<< FAILURE! -- in ATest",
+                "[ERROR] Tests run: 12, Failures: 1, Errors: 6, Skipped: 0",
+                "[INFO] BUILD FAILURE",
+                "[ERROR] Failed to execute goal org.apache.maven.plugins:maven-surefire-plugin:3.3.0:test "
+                        + "(default-test) on project my-app: There are test failures.");
+
+        assertTrue(result.compileOK());
+        assertFalse(result.testsOK());
+        assertEquals(7, result.testsFailed());
+        assertEquals("The tests failed (7 of 12)", result.description());
+    }
+
+    @Test
+    void testsThatPassedWhenRerun() {
+        BuildResult result = parse(0,
+                "[WARNING] Tests run: 3, Failures: 0, Errors: 0, Skipped: 0, Flakes: 1, Time elapsed: 0.2 s -- in ATest",
+                "[INFO] Results:",
+                "[WARNING] Flakes: ",
+                "[WARNING] Tests run: 9, Failures: 0, Errors: 0, Skipped: 1, Flakes: 1",
+                "[INFO] BUILD SUCCESS");
+
+        assertTrue(result.testsOK());
+        assertEquals(9, result.testsRun());
+        assertEquals(1, result.testsSkipped());
+    }
+
+    @Test
+    void missingPomIsAnError() {
+        BuildResult result = BuildExecutor.execute(tempDir, List.of("test"));
+
+        assertEquals(-1, result.exitCode());
+        assertEquals(Status.ERROR, result.status());
+    }
+}
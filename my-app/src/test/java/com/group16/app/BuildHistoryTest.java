@@ -0,0 +1,172 @@
+package com.group16.app;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Unit tests for the {@link BuildHistory} class, and a benchmark of writes and
+ * queries with a million records that only runs with
+ * {@code mvn test -Dbenchmark=true}.
+ */
+public class BuildHistoryTest {
+
+    @TempDir
+    Path tempDir;
+
+    private static BuildRecord record(int n, String repo, String branch, String sha) {
+        return new BuildRecord("job-" + n, repo, "refs/heads/" + branch, sha, Status.SUCCESS,
+                "The build/test was successful (" + n + " tests)", 1000L * n, 1000L * n + 10,
+                1000L * n + 500, 100, 300, "http://localhost:8080/logs/job-" + n, 12, true, 0, 0, 2, 450);
+    }
+
+    @Test
+    void findsRecordsByIdShaRepoAndBranch() throws IOException {
+        try (BuildHistory history = new BuildHistory(tempDir.resolve("builds.tsv"))) {
+            history.append(record(1, "a/x", "main", "sha1"));
+            history.append(record(2, "a/x", "feature", "sha2"));
+            history.append(record(3, "b/y", "main", "sha3"));
+            history.append(record(4, "a/x", "main", "sha4"));
+            history.append(record(5, "a/x", "main", "sha4"));
+
+            assertEquals(record(3, "b/y", "main", "sha3"), history.get("job-3"));
+            assertNull(history.get("job-6"));
+            assertEquals("job-5", history.latest("a/x", "refs/heads/main").id());
+            assertEquals("job-2", history.latest("a/x", "refs/heads/feature").id());
+            assertNull(history.latest("b/y", "refs/heads/feature"));
+            assertEquals(List.of("job-5", "job-4"), ids(history.forSha("sha4")));
+            assertEquals(List.of("job-5", "job-4", "job-2", "job-1"), ids(history.forRepo("a/x", 0, 10)));
+            assertEquals(List.of("job-4"), ids(history.forBranch("a/x", "refs/heads/main", 1, 1)));
+        }
+    }
+
+    @Test
+    void listsPagesNewestFirst() throws IOException {
+        try (BuildHistory history = new BuildHistory(tempDir.resolve("builds.tsv"))) {
+            for (int i = 1; i <= 5; i++) {
+                history.append(record(i, "a/x", "main", "sha" + i));
+            }
+            assertEquals(List.of("job-5", "job-4"), ids(history.list(0, 2)));
+            assertEquals(List.of("job-3", "job-2"), ids(history.list(1, 2)));
+            assertEquals(List.of("job-1"), ids(history.list(2, 2)));
+            assertEquals(List.of(), ids(history.list(3, 2)));
+        }
+    }
+
+    @Test
+    void survivesRestartAndCutsOffIncompleteRecord() throws IOException {
+        Path file = tempDir.resolve("builds.tsv");
+        BuildRecord withTabs = new BuildRecord("job-1", "a/x", "refs/heads/main", "sha1", Status.FAILURE,
+                "line\tone\nline \\two", 1, 2, 3, 4, 5, null, -1, true, 0, 0, 0, -1);
+        try (BuildHistory history = new BuildHistory(file)) {
+            history.append(withTabs);
+            history.append(record(2, "a/x", "main", "sha2"));
+        }
+        // The server stopped while writing a record
+        Files.writeString(file, "job-3\ta/x\trefs/heads/main", StandardOpenOption.APPEND);
+
+        try (BuildHistory history = new BuildHistory(file)) {
+            assertEquals(2, history.size());
+            assertEquals(withTabs, history.get("job-1"));
+            history.append(record(4, "a/x", "main", "sha4"));
+        }
+        try (BuildHistory history = new BuildHistory(file)) {
+            assertEquals(List.of("job-4", "job-2", "job-1"), ids(history.list(0, 10)));
+        }
+    }
+
+    @Test
+    void readsRecordsWrittenBeforeImpactAnalysis() throws IOException {
+        Path file = tempDir.resolve("builds.tsv");
+        Files.writeString(file, "job-1\ta/x\trefs/heads/main\tsha1\tSUCCESS\tok\t1\t2\t3\t4\t5\t\\0\n");
+        try (BuildHistory history = new BuildHistory(file)) {
+            BuildRecord record = history.get("job-1");
+            assertEquals(-1, record.testsRun());
+            assertTrue(record.allTests());
+        }
+    }
+
+    @Test
+    void readsRecordsWrittenBeforeCoreBudgets() throws IOException {
+        Path file = tempDir.resolve("builds.tsv");
+        Files.writeString(file,
+                "job-1\ta/x\trefs/heads/main\tsha1\tSUCCESS\tok\t1\t2\t3\t4\t5\t\\0\t7\tfalse\t3\t10\n");
+        try (BuildHistory history = new BuildHistory(file)) {
+            BuildRecord record = history.get("job-1");
+            assertEquals(7, record.testsRun());
+            assertEquals(0, record.cores());
+            assertEquals(-1, record.cpuMillis());
+            assertEquals(-1, record.utilization());
+        }
+    }
+
+    private static List<String> ids(List<BuildRecord> records) {
+        return records.stream().map(BuildRecord::id).toList();
+    }
+
+    /**
+     * Measures appends, queries and the restart with a million records in 100
+     * repositories with 10 branches each.
+     */
+    @Test
+    @EnabledIfSystemProperty(named = "benchmark", matches = "true")
+    void benchmarkMillionRecords() throws IOException {
+        int records = 1_000_000;
+        Path file = tempDir.resolve("builds.tsv");
+        Random random = new Random(42);
+        try (BuildHistory history = new BuildHistory(file)) {
+            long start = System.nanoTime();
+            for (int i = 0; i < records; i++) {
+                history.append(record(i, "owner/repo" + random.nextInt(100), "branch" + random.nextInt(10),
+                        String.format("%040x", i)));
+            }
+            System.out.println("Append: " + (System.nanoTime() - start) / records + " ns per record");
+        }
+
+        time("Restart", () -> new BuildHistory(file).close());
+        try (BuildHistory history = new BuildHistory(file)) {
+            assertEquals(records, history.size());
+            int queries = 10_000;
+            long start = System.nanoTime();
+            for (int i = 0; i < queries; i++) {
+                assertNotNull(history.get("job-" + random.nextInt(records)));
+            }
+            System.out.println("Get by ID: " + (System.nanoTime() - start) / queries + " ns");
+            start = System.nanoTime();
+            for (int i = 0; i < queries; i++) {
+                assertEquals(1, history.forSha(String.format("%040x", random.nextInt(records))).size());
+            }
+            System.out.println("Builds for SHA: " + (System.nanoTime() - start) / queries + " ns");
+            start = System.nanoTime();
+            for (int i = 0; i < queries; i++) {
+                assertNotNull(history.latest("owner/repo" + random.nextInt(100),
+                        "refs/heads/branch" + random.nextInt(10)));
+            }
+            System.out.println("Latest for branch: " + (System.nanoTime() - start) / queries + " ns");
+            start = System.nanoTime();
+            for (int i = 0; i < queries; i++) {
+                assertEquals(20, history.forRepo("owner/repo" + random.nextInt(100), 10, 20).size());
+            }
+            System.out.println("Page 10 of repo: " + (System.nanoTime() - start) / queries + " ns");
+        }
+    }
+
+    private interface Action {
+        void run() throws IOException;
+    }
+
+    private static void time(String name, Action action) throws IOException {
+        long start = System.nanoTime();
+        action.run();
+        System.out.println(name + ": " + (System.nanoTime() - start) / 1_000_000 + " ms");
+    }
+}
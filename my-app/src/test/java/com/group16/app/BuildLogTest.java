@@ -0,0 +1,134 @@
+package com.group16.app;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Unit tests for the {@link BuildLog} class and the {@link LogHandler} that
+ * serves the logs.
+ */
+public class BuildLogTest {
+
+    @TempDir
+    Path tempDir;
+
+    private static String read(BuildLog log, long from, long to) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        log.copyTo(from, to, out);
+        return out.toString(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void compressesFullChunksAndReadsAnyRange() throws IOException {
+        String id = UUID.randomUUID().toString();
+        StringBuilder expected = new StringBuilder();
+        try (BuildLog log = BuildLog.create(tempDir, id, Long.MAX_VALUE)) {
+            // About 2.5 chunks, with lines that cross the chunk boundaries
+            for (int i = 0; expected.length() < BuildLog.CHUNK_BYTES * 5 / 2; i++) {
+                String line = "[INFO] line " + i + " of the build";
+                log.println(line);
+                expected.append(line).append('\n');
+            }
+            // The last chunk can be read before it is compressed
+            assertTrue(Files.exists(tempDir.resolve(id).resolve("chunk-00002.log")));
+            assertEquals(expected.substring(BuildLog.CHUNK_BYTES - 10, BuildLog.CHUNK_BYTES * 2 + 10),
+                    read(log, BuildLog.CHUNK_BYTES - 10, BuildLog.CHUNK_BYTES * 2 + 10));
+        }
+
+        BuildLog finished = BuildLog.open(tempDir, id);
+        assertTrue(finished.isClosed());
+        assertEquals(expected.length(), finished.length());
+        assertEquals(expected.toString(), read(finished, 0, finished.length()));
+        assertEquals(expected.substring(BuildLog.CHUNK_BYTES * 2 + 5),
+                read(finished, BuildLog.CHUNK_BYTES * 2 + 5, finished.length()));
+        assertTrue(Files.exists(tempDir.resolve(id).resolve("chunk-00002.log.gz")));
+        assertFalse(Files.exists(tempDir.resolve(id).resolve("chunk-00002.log")));
+        assertTrue(Files.size(tempDir.resolve(id).resolve("chunk-00000.log.gz")) < BuildLog.CHUNK_BYTES / 4);
+    }
+
+    @Test
+    void stopsGrowingAtTheLimit() throws IOException {
+        String id = UUID.randomUUID().toString();
+        try (BuildLog log = BuildLog.create(tempDir, id, 100)) {
+            for (int i = 0; i < 100; i++) {
+                log.println("line " + i);
+            }
+        }
+        String text = read(BuildLog.open(tempDir, id), 0, BuildLog.open(tempDir, id).length());
+        assertTrue(text.startsWith("line 0\n"));
+        assertTrue(text.endsWith("[log truncated at 0 MB]\n"));
+        assertTrue(text.length() < 130);
+    }
+
+    @Test
+    void parsesRanges() {
+        assertArrayEquals(new long[] { 0, 100 }, LogHandler.parseRange("bytes=0-99", 1000));
+        assertArrayEquals(new long[] { 500, 1000 }, LogHandler.parseRange("bytes=500-", 1000));
+        assertArrayEquals(new long[] { 900, 1000 }, LogHandler.parseRange("bytes=-100", 1000));
+        assertArrayEquals(new long[] { 990, 1000 }, LogHandler.parseRange("bytes=990-2000", 1000));
+        assertNull(LogHandler.parseRange("bytes=1000-", 1000));
+        assertNull(LogHandler.parseRange("bytes=-", 1000));
+        assertNull(LogHandler.parseRange("bytes=0-1,5-6", 1000));
+        assertNull(LogHandler.parseRange("lines=0-1", 1000));
+    }
+
+    @Test
+    void streamsRunningLogAndServesRanges() throws Exception {
+        String id = UUID.randomUUID().toString();
+        Server server = new Server(0);
+        server.setHandler(new LogHandler(tempDir, 1));
+        server.start();
+        try (BuildLog log = BuildLog.create(tempDir, id, Long.MAX_VALUE)) {
+            String base = "http://localhost:" + ((ServerConnector) server.getConnectors()[0]).getLocalPort();
+            // HTTP/1.1, so the second request does not wait for the h2c upgrade of the first
+            HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+            log.println("first");
+
+            // The live tail ends when the job closes the log
+            CompletableFuture<HttpResponse<String>> tail = client.sendAsync(
+                    HttpRequest.newBuilder(URI.create(base + "/logs/" + id)).build(),
+                    HttpResponse.BodyHandlers.ofString());
+            Thread.sleep(200);
+            assertFalse(tail.isDone());
+
+            // Only one follower at a time, the others poll
+            HttpResponse<String> busy = client.send(HttpRequest.newBuilder(URI.create(base + "/logs/" + id)).build(),
+                    HttpResponse.BodyHandlers.ofString());
+            assertEquals(503, busy.statusCode());
+            assertTrue(busy.headers().firstValue("Retry-After").isPresent());
+            log.println("second");
+            log.close();
+            assertEquals("first\nsecond\n", tail.get().body());
+
+            HttpResponse<String> range = client.send(
+                    HttpRequest.newBuilder(URI.create(base + "/logs/" + id)).header("Range", "bytes=6-").build(),
+                    HttpResponse.BodyHandlers.ofString());
+            assertEquals(206, range.statusCode());
+            assertEquals("bytes 6-12/13", range.headers().firstValue("Content-Range").orElse(""));
+            assertEquals("second\n", range.body());
+
+            HttpResponse<String> missing = client.send(
+                    HttpRequest.newBuilder(URI.create(base + "/logs/" + UUID.randomUUID())).build(),
+                    HttpResponse.BodyHandlers.ofString());
+            assertEquals(404, missing.statusCode());
+        } finally {
+            server.stop();
+        }
+    }
+}
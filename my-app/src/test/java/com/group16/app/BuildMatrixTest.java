@@ -0,0 +1,97 @@
+package com.group16.app;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Unit tests for the {@link BuildMatrix} class.
+ */
+public class BuildMatrixTest {
+    private static final List<String> GOALS = List.of("clean", "test");
+
+    @TempDir
+    Path tempDir;
+
+    private void pom(String dir) throws Exception {
+        Path path = tempDir.resolve(dir).resolve("pom.xml");
+        Files.createDirectories(path.getParent());
+        Files.writeString(path, "<project/>");
+    }
+
+    @Test
+    void parsesMatrixEntries() {
+        List<BuildMatrix.Entry> entries = BuildMatrix.parse("jdk17:jdk=/jvm/17; jdk21:jdk=/jvm/21,profiles=a+b,x=1");
+        assertEquals(2, entries.size());
+        assertEquals("jdk17", entries.get(0).name());
+        assertEquals(new File("/jvm/17"), entries.get(0).javaHome());
+        assertEquals(List.of("a", "b"), entries.get(1).profiles());
+        assertEquals("1", entries.get(1).properties().getProperty("x"));
+
+        List<BuildMatrix.Entry> defaults = BuildMatrix.parse("");
+        assertEquals(1, defaults.size());
+        assertNull(defaults.get(0).javaHome());
+        assertThrows(IllegalArgumentException.class, () -> BuildMatrix.parse("jdk17:jdk"));
+        assertThrows(IllegalArgumentException.class, () -> BuildMatrix.parse("a b:jdk=/jvm"));
+    }
+
+    @Test
+    void findsProjectsThatAreNotModulesOfOthers() throws Exception {
+        pom("my-app");
+        pom("tools/cli");
+        pom("tools/cli/core");
+        pom("other/target/generated");
+        pom(".hidden/app");
+        assertEquals(List.of(tempDir.resolve("my-app"), tempDir.resolve("tools/cli")),
+                BuildMatrix.projects(tempDir, 2));
+        assertEquals(tempDir.resolve("my-app"), Compiler.projectDir(tempDir));
+    }
+
+    @Test
+    void buildsEveryProjectWithEveryEntry() throws Exception {
+        pom("my-app");
+        BuildMatrix single = new BuildMatrix(BuildMatrix.parse(""), 2);
+        List<BuildMatrix.Cell> cells = single.cells(tempDir);
+        assertEquals(1, cells.size());
+        assertEquals("my-app", cells.get(0).name());
+        // The default cell is cached as before
+        assertEquals(GOALS, cells.get(0).cacheGoals(GOALS));
+
+        BuildMatrix jdks = new BuildMatrix(BuildMatrix.parse("jdk17:jdk=/jvm/17;jdk21:jdk=/jvm/21"), 2);
+        cells = jdks.cells(tempDir);
+        assertEquals(List.of("jdk17", "jdk21"), cells.stream().map(BuildMatrix.Cell::name).toList());
+        assertEquals(Notification.CONTEXT + "/jdk21", cells.get(1).context());
+        assertNotEquals(cells.get(0).cacheGoals(GOALS), cells.get(1).cacheGoals(GOALS));
+
+        pom("lib");
+        assertEquals(List.of("lib/jdk17", "lib/jdk21", "my-app/jdk17", "my-app/jdk21"),
+                jdks.cells(tempDir).stream().map(BuildMatrix.Cell::name).toList());
+    }
+
+    @Test
+    void keepsTheEntriesOfOneProjectTogether() throws Exception {
+        pom("my-app");
+        BuildMatrix jdks = new BuildMatrix(BuildMatrix.parse("jdk17:jdk=/jvm/17;jdk21:jdk=/jvm/21"), 2);
+        List<List<BuildMatrix.Cell>> projects = BuildMatrix.byProject(jdks.cells(tempDir));
+        assertEquals(1, projects.size());
+        assertEquals(List.of("jdk17", "jdk21"), projects.get(0).stream().map(BuildMatrix.Cell::name).toList());
+
+        pom("lib");
+        projects = BuildMatrix.byProject(jdks.cells(tempDir));
+        assertEquals(List.of(List.of("lib/jdk17", "lib/jdk21"), List.of("my-app/jdk17", "my-app/jdk21")),
+                projects.stream().map(cells -> cells.stream().map(BuildMatrix.Cell::name).toList()).toList());
+    }
+
+    @Test
+    void buildsTheRootWhenThereIsNoProject() {
+        List<BuildMatrix.Cell> cells = new BuildMatrix(BuildMatrix.parse(""), 2).cells(tempDir);
+        assertEquals(List.of("root"), cells.stream().map(BuildMatrix.Cell::name).toList());
+        assertEquals(tempDir, cells.get(0).projectDir());
+    }
+}
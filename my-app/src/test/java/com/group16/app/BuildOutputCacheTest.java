@@ -0,0 +1,233 @@
+package com.group16.app;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Properties;
+import java.util.stream.Stream;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.util.FileUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Unit tests for the {@link BuildOutputCache} class, on a small project where
+ * {@code B} uses {@code A}, with class files written by hand.
+ */
+public class BuildOutputCacheTest {
+    private static final String MAIN = "refs/heads/main";
+
+    @TempDir
+    Path tempDir;
+
+    private Path checkout;
+    private Path project;
+    private Git git;
+    private BuildMatrix.Cell cell;
+    private BuildOutputCache cache;
+
+    private void write(String file, String content) throws Exception {
+        Path path = project.resolve(file);
+        Files.createDirectories(path.getParent());
+        Files.writeString(path, content);
+    }
+
+    private RevCommit commit() throws Exception {
+        git.add().addFilepattern(".").setUpdate(false).call();
+        git.add().addFilepattern(".").setUpdate(true).call();
+        return git.commit().setMessage("Change").setSign(false).call();
+    }
+
+    // Saves the outputs of a pretend build of the checked out commit
+    private void build(String ref) throws Exception {
+        for (String file : List.of("classes/app/A.class", "classes/app/A$Inner.class", "classes/app/B.class",
+                "classes/app/C.class", "classes/app/app.properties", "test-classes/app/ATest.class",
+                "surefire-reports/TEST-app.ATest.xml")) {
+            write("target/" + file, "compiled");
+        }
+        cache.save("a/x", ref, cell, checkout, cache.fingerprint(checkout, cell));
+        FileUtils.delete(project.resolve("target").toFile(), FileUtils.RECURSIVE);
+    }
+
+    private BuildOutputCache.Restored restore(String ref) {
+        return cache.restore("a/x", ref, cell, checkout, cache.fingerprint(checkout, cell));
+    }
+
+    private boolean exists(String file) {
+        return Files.exists(project.resolve("target").resolve(file));
+    }
+
+    @BeforeEach
+    void createProject() throws Exception {
+        checkout = tempDir.resolve("checkout");
+        project = checkout.resolve("my-app");
+        git = Git.init().setDirectory(checkout.toFile()).setInitialBranch("main").call();
+        cell = new BuildMatrix.Cell("default", project,
+                new BuildMatrix.Entry("default", null, List.of(), new Properties()));
+        cache = new BuildOutputCache(tempDir.resolve("outputs"), true, 10, Long.MAX_VALUE);
+        write("pom.xml", "<project/>");
+        write("src/main/java/app/A.java", "package app; public class A { class Inner { } }");
+        write("src/main/java/app/B.java", "package app; public class B { A a = new A(); }");
+        write("src/main/java/app/C.java", "package app; public class C { }");
+        write("src/main/resources/app/app.properties", "name=app");
+        write("src/test/java/app/ATest.java", "package app; class ATest { A a; }");
+        commit();
+    }
+
+    @AfterEach
+    void close() {
+        git.close();
+    }
+
+    @Test
+    void restoresTheOutputsOfTheBranchWithoutStaleClasses() throws Exception {
+        build(MAIN);
+        String base = git.getRepository().resolve("HEAD").name();
+        write("src/main/java/app/A.java", "package app; public class A { int x; }");
+        commit();
+        BuildOutputCache.Restored restored = restore(MAIN);
+
+        assertEquals(new BuildOutputCache.Restored(base, MAIN, 1, 3), restored);
+        assertFalse(exists("classes/app/A.class"));
+        assertFalse(exists("classes/app/A$Inner.class"));
+        assertFalse(exists("classes/app/B.class"));
+        assertFalse(exists("test-classes/app/ATest.class"));
+        assertTrue(exists("classes/app/C.class"));
+        assertTrue(exists("classes/app/app.properties"));
+        assertFalse(exists("surefire-reports"));
+        assertTrue(cache.stats().contains("restored 1\n"));
+    }
+
+    @Test
+    void removesTheOutputsOfDeletedFiles() throws Exception {
+        build(MAIN);
+        Files.delete(project.resolve("src/main/java/app/C.java"));
+        Files.delete(project.resolve("src/main/resources/app/app.properties"));
+        commit();
+
+        assertEquals(1, restore(MAIN).changedSources());
+        assertFalse(exists("classes/app/C.class"));
+        assertFalse(exists("classes/app/app.properties"));
+        assertTrue(exists("classes/app/A.class"));
+    }
+
+    @Test
+    void aChangedPomBuildsFromClean() throws Exception {
+        build(MAIN);
+        write("pom.xml", "<project><version>2</version></project>");
+        commit();
+
+        assertNull(restore(MAIN));
+        assertFalse(exists("classes"));
+        assertTrue(cache.stats().contains("unusable 1\n"));
+
+        BuildMatrix.Cell jdk = new BuildMatrix.Cell("default", project,
+                new BuildMatrix.Entry("jdk", tempDir.toFile(), List.of(), new Properties()));
+        assertNotEquals(cache.fingerprint(checkout, cell), cache.fingerprint(checkout, jdk));
+    }
+
+    @Test
+    void startsANewBranchFromTheOutputsOfAnAncestor() throws Exception {
+        build(MAIN);
+        String base = git.getRepository().resolve("HEAD").name();
+
+        // A newer build of a branch that is not an ancestor of the new one
+        git.checkout().setCreateBranch(true).setName("other").call();
+        write("src/main/java/app/C.java", "package app; public class C { int y; }");
+        commit();
+        build("refs/heads/other");
+
+        git.checkout().setName("main").call();
+        git.checkout().setCreateBranch(true).setName("feature").call();
+        write("src/main/java/app/B.java", "package app; public class B { }");
+        commit();
+
+        BuildOutputCache.Restored restored = restore("refs/heads/feature");
+        assertEquals(base, restored.sha());
+        assertEquals(MAIN, restored.ref());
+        assertFalse(exists("classes/app/B.class"));
+        assertTrue(exists("classes/app/A.class"));
+        assertTrue(cache.stats().contains("restored_from_ancestor 1\n"));
+    }
+
+    @Test
+    void evictsTheLeastRecentlyUsedBranches() throws Exception {
+        cache = new BuildOutputCache(tempDir.resolve("outputs"), true, 2, Long.MAX_VALUE);
+        build("refs/heads/one");
+        Thread.sleep(20);
+        build("refs/heads/two");
+        Thread.sleep(20);
+        build("refs/heads/three");
+
+        try (Stream<Path> entries = Files.list(tempDir.resolve("outputs"))) {
+            assertEquals(2, entries.count());
+        }
+        assertTrue(cache.stats().contains("evicted 1\n"));
+        assertEquals("refs/heads/three", restore("refs/heads/three").ref());
+    }
+
+    /**
+     * Compiles a project of 400 classes from clean, changes one class, and
+     * compares a clean compile with one that starts from the restored
+     * outputs. Only runs with {@code mvn test -Dbenchmark=true}.
+     */
+    @Test
+    @EnabledIfSystemProperty(named = "benchmark", matches = "true")
+    void benchmarkIncrementalCompile() throws Exception {
+        write("pom.xml", """
+                <project xmlns="http://maven.apache.org/POM/4.0.0">
+                  <modelVersion>4.0.0</modelVersion>
+                  <groupId>bench</groupId>
+                  <artifactId>bench</artifactId>
+                  <version>1</version>
+                  <properties>
+                    <maven.compiler.release>17</maven.compiler.release>
+                    <project.build.sourceEncoding>UTF-8</project.build.sourceEncoding>
+                  </properties>
+                </project>
+                """);
+        // Every class uses the one at half its index, a tree of dependencies
+        int classes = 400;
+        for (int i = 0; i < classes; i++) {
+            StringBuilder body = new StringBuilder();
+            for (int m = 0; m < 20; m++) {
+                body.append("    public int m").append(m).append("(int x) { return x * ").append(m + i)
+                        .append(i == 0 ? "" : " + new Bench" + (i / 2) + "().m" + m + "(x - 1)").append("; }\n");
+            }
+            write("src/main/java/bench/Bench" + i + ".java",
+                    "package bench;\npublic class Bench" + i + " {\n" + body + "}\n");
+        }
+        commit();
+        List<String> clean = List.of("clean", "compile");
+        List<String> incremental = List.of("compile");
+        Properties properties = new Properties();
+        assertTrue(BuildExecutor.build(cell, clean, properties, line -> { }).compileOK());
+        cache.save("a/x", MAIN, cell, checkout, cache.fingerprint(checkout, cell));
+
+        // A change to a leaf class, used by no other
+        write("src/main/java/bench/Bench" + (classes - 1) + ".java",
+                "package bench;\npublic class Bench" + (classes - 1) + " { public int changed() { return 1; } }\n");
+        commit();
+
+        long start = System.nanoTime();
+        assertTrue(BuildExecutor.build(cell, clean, properties, line -> { }).compileOK());
+        long cleanMillis = (System.nanoTime() - start) / 1_000_000;
+
+        start = System.nanoTime();
+        BuildOutputCache.Restored restored = restore(MAIN);
+        Properties stale = new Properties();
+        stale.setProperty("maven.compiler.useIncrementalCompilation", "false");
+        assertTrue(BuildExecutor.build(cell, incremental, stale, line -> { }).compileOK());
+        long incrementalMillis = (System.nanoTime() - start) / 1_000_000;
+
+        System.out.printf("%d classes, %d recompiled: clean compile %d ms, restored and incremental %d ms%n",
+                classes, restored.staleClasses(), cleanMillis, incrementalMillis);
+    }
+}
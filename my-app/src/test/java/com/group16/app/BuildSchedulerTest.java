@@ -0,0 +1,268 @@
+package com.group16.app;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Unit tests for the {@link BuildScheduler} class.
+ */
+public class BuildSchedulerTest {
+    private BuildScheduler scheduler;
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final List<String> order = new CopyOnWriteArrayList<>();
+
+    /**
+     * A job that records its name and waits until the test releases it.
+     */
+    private class RecordingJob extends BuildJob {
+        private final String name;
+        private final CountDownLatch started = new CountDownLatch(1);
+        private final CountDownLatch finished = new CountDownLatch(1);
+        private final CountDownLatch reported = new CountDownLatch(1);
+        private volatile BuildScheduler.Admission rejection;
+
+        // Each job gets its own branch unless the test says otherwise
+        RecordingJob(String repo, String name) {
+            this(repo, "refs/heads/" + name, name);
+        }
+
+        RecordingJob(String repo, String branch, String name) {
+            super("owner", repo, branch, name, "", "");
+            this.name = name;
+        }
+
+        @Override
+        public void run() {
+            order.add(name);
+            started.countDown();
+            try {
+                release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                order.add(name + " interrupted");
+            } finally {
+                finished.countDown();
+            }
+        }
+
+        @Override
+        void reportSuperseded() {
+            reported.countDown();
+        }
+
+        @Override
+        void reportRejected(BuildScheduler.Admission admission) {
+            rejection = admission;
+            reported.countDown();
+        }
+    }
+
+    @AfterEach
+    void tearDown() {
+        release.countDown();
+        if (scheduler != null) {
+            scheduler.shutdown();
+        }
+    }
+
+    @Test
+    void rejectsJobsWhenQueueIsFull() throws InterruptedException {
+        scheduler = new BuildScheduler(1, 2, 2);
+        scheduler.start();
+
+        RecordingJob first = new RecordingJob("a", "a1");
+        assertEquals(BuildScheduler.Admission.ACCEPTED, scheduler.submit(first));
+        assertTrue(first.started.await(5, TimeUnit.SECONDS));
+
+        assertEquals(BuildScheduler.Admission.ACCEPTED, scheduler.submit(new RecordingJob("a", "a2")));
+        assertEquals(BuildScheduler.Admission.ACCEPTED, scheduler.submit(new RecordingJob("b", "b1")));
+        assertEquals(BuildScheduler.Admission.QUEUE_FULL, scheduler.submit(new RecordingJob("c", "c1")));
+        assertEquals(2, scheduler.getQueueDepth());
+        assertEquals(1, scheduler.getRunning());
+    }
+
+    @Test
+    void rejectsJobsWhenRepoQueueIsFull() throws InterruptedException {
+        scheduler = new BuildScheduler(1, 10, 1);
+        scheduler.start();
+
+        RecordingJob first = new RecordingJob("a", "a1");
+        scheduler.submit(first);
+        assertTrue(first.started.await(5, TimeUnit.SECONDS));
+
+        assertEquals(BuildScheduler.Admission.ACCEPTED, scheduler.submit(new RecordingJob("a", "a2")));
+        assertEquals(BuildScheduler.Admission.REPO_QUEUE_FULL, scheduler.submit(new RecordingJob("a", "a3")));
+        assertEquals(BuildScheduler.Admission.ACCEPTED, scheduler.submit(new RecordingJob("b", "b1")));
+    }
+
+    @Test
+    void rejectedPushesLeaveTheirBranchAlone() throws InterruptedException {
+        scheduler = new BuildScheduler(1, 10, 1);
+        scheduler.start();
+
+        RecordingJob running = new RecordingJob("a", "refs/heads/main", "a1");
+        scheduler.submit(running);
+        assertTrue(running.started.await(5, TimeUnit.SECONDS));
+        RecordingJob queued = new RecordingJob("a", "refs/heads/dev", "a2");
+        assertEquals(BuildScheduler.Admission.ACCEPTED, scheduler.submit(queued));
+
+        // Rejected: the running job and the queued one keep going
+        assertEquals(BuildScheduler.Admission.REPO_QUEUE_FULL,
+                scheduler.submit(new RecordingJob("a", "refs/heads/main", "a3")));
+        assertFalse(running.isSuperseded());
+        assertFalse(queued.isSuperseded());
+        assertEquals(1, scheduler.getQueueDepth());
+
+        // The queued job of the same branch makes room for the newer commit
+        RecordingJob newer = new RecordingJob("a", "refs/heads/dev", "a4");
+        assertEquals(BuildScheduler.Admission.ACCEPTED, scheduler.submit(newer));
+        assertTrue(queued.reported.await(5, TimeUnit.SECONDS));
+        assertTrue(queued.isSuperseded());
+        assertEquals(1, scheduler.getQueueDepth());
+    }
+
+    @Test
+    void sharesWorkersFairlyBetweenRepositories() throws InterruptedException {
+        scheduler = new BuildScheduler(1, 10, 10);
+        scheduler.start();
+
+        RecordingJob first = new RecordingJob("a", "a1");
+        scheduler.submit(first);
+        assertTrue(first.started.await(5, TimeUnit.SECONDS));
+
+        scheduler.submit(new RecordingJob("a", "a2"));
+        scheduler.submit(new RecordingJob("a", "a3"));
+        RecordingJob last = new RecordingJob("b", "b1");
+        scheduler.submit(last);
+
+        release.countDown();
+        scheduler.shutdown();
+
+        // b1 was queued after a3 but runs before it
+        assertEquals(List.of("a1", "a2", "b1", "a3"), order);
+        assertTrue(scheduler.stats().contains("completed 4"));
+    }
+
+    @Test
+    void dropsQueuedJobsOfSupersededCommits() throws InterruptedException {
+        scheduler = new BuildScheduler(1, 10, 10);
+        scheduler.start();
+
+        RecordingJob first = new RecordingJob("x", "x1");
+        scheduler.submit(first);
+        assertTrue(first.started.await(5, TimeUnit.SECONDS));
+
+        RecordingJob stale = new RecordingJob("a", "refs/heads/main", "a1");
+        scheduler.submit(stale);
+        scheduler.submit(new RecordingJob("a", "refs/heads/main", "a2"));
+        scheduler.submit(new RecordingJob("a", "refs/heads/dev", "a3"));
+        assertEquals(2, scheduler.getQueueDepth());
+        assertTrue(stale.reported.await(5, TimeUnit.SECONDS));
+
+        release.countDown();
+        scheduler.shutdown();
+
+        assertEquals(List.of("x1", "a2", "a3"), order);
+        assertTrue(stale.isSuperseded());
+    }
+
+    @Test
+    void cancelsRunningJobOfSupersededCommit() throws InterruptedException {
+        scheduler = new BuildScheduler(2, 10, 10);
+        scheduler.start();
+
+        RecordingJob stale = new RecordingJob("a", "refs/heads/main", "a1");
+        scheduler.submit(stale);
+        assertTrue(stale.started.await(5, TimeUnit.SECONDS));
+
+        RecordingJob newer = new RecordingJob("a", "refs/heads/main", "a2");
+        scheduler.submit(newer);
+        assertTrue(newer.started.await(5, TimeUnit.SECONDS));
+        assertTrue(stale.finished.await(5, TimeUnit.SECONDS));
+
+        assertTrue(stale.isSuperseded());
+        assertFalse(newer.isSuperseded());
+        assertTrue(order.contains("a1 interrupted"));
+    }
+
+    @Test
+    void admitsOfferedJobsInOrder() throws InterruptedException {
+        scheduler = new BuildScheduler(1, 10, 2, 100);
+        scheduler.start();
+
+        RecordingJob first = new RecordingJob("a", "a1");
+        assertEquals(BuildScheduler.Admission.ACCEPTED, scheduler.offer(first));
+        assertTrue(first.started.await(5, TimeUnit.SECONDS));
+        RecordingJob second = new RecordingJob("a", "a2");
+        RecordingJob third = new RecordingJob("a", "a3");
+        RecordingJob fourth = new RecordingJob("a", "a4");
+        assertEquals(BuildScheduler.Admission.ACCEPTED, scheduler.offer(second));
+        assertEquals(BuildScheduler.Admission.ACCEPTED, scheduler.offer(third));
+        // The queue of the repository is full when the intake admits it
+        CountDownLatch released = new CountDownLatch(1);
+        assertEquals(BuildScheduler.Admission.ACCEPTED, scheduler.offer(fourth, released::countDown));
+        assertTrue(fourth.reported.await(5, TimeUnit.SECONDS));
+        assertEquals(BuildScheduler.Admission.REPO_QUEUE_FULL, fourth.rejection);
+        assertEquals(0, released.getCount());
+        assertEquals(2, scheduler.getQueueDepth());
+
+        release.countDown();
+        assertTrue(third.finished.await(5, TimeUnit.SECONDS));
+        assertEquals(List.of("a1", "a2", "a3"), order);
+        assertNull(second.rejection);
+    }
+
+    @Test
+    void refusesOffersWhenTheInboxIsFull() throws InterruptedException {
+        scheduler = new BuildScheduler(1, 10, 10, 2);
+        // Before the start there is no intake, and offers are submitted
+        RecordingJob first = new RecordingJob("a", "a1");
+        assertEquals(BuildScheduler.Admission.ACCEPTED, scheduler.offer(first));
+        assertEquals(1, scheduler.getQueueDepth());
+
+        scheduler.start();
+        assertTrue(first.started.await(5, TimeUnit.SECONDS));
+        // Hold the intake thread in the lock of the scheduler
+        CountDownLatch locked = new CountDownLatch(1);
+        CountDownLatch unlock = new CountDownLatch(1);
+        Thread holder = new Thread(() -> {
+            synchronized (scheduler) {
+                locked.countDown();
+                try {
+                    unlock.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        holder.start();
+        assertTrue(locked.await(5, TimeUnit.SECONDS));
+
+        List<RecordingJob> jobs = new ArrayList<>();
+        int accepted = 0;
+        for (int i = 0; i < 4; i++) {
+            RecordingJob job = new RecordingJob("b", "b" + i);
+            jobs.add(job);
+            if (scheduler.offer(job) == BuildScheduler.Admission.ACCEPTED) {
+                accepted++;
+            }
+        }
+        // One job may be held by the intake thread, the inbox holds two
+        assertTrue(accepted == 2 || accepted == 3, "accepted " + accepted);
+        assertEquals(BuildScheduler.Admission.QUEUE_FULL, scheduler.offer(new RecordingJob("c", "c1")));
+        unlock.countDown();
+        holder.join();
+
+        release.countDown();
+        for (RecordingJob job : jobs.subList(0, accepted)) {
+            assertTrue(job.finished.await(5, TimeUnit.SECONDS));
+        }
+    }
+}
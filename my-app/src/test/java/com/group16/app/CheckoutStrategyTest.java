@@ -0,0 +1,53 @@
+package com.group16.app;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Unit tests for the {@link CheckoutStrategy} class.
+ */
+public class CheckoutStrategyTest {
+
+    @Test
+    void parsesStrategiesByRepository() {
+        Map<String, CheckoutStrategy> strategies = CheckoutStrategy
+                .parse("Group16/Monorepo:shallow,sparse=my-app+/lib/core/,filter=blob:none; *:shallow");
+        assertEquals(new CheckoutStrategy(true, List.of("my-app", "lib/core"), "blob:none"),
+                strategies.get("group16/monorepo"));
+        assertEquals(new CheckoutStrategy(true, null, null), strategies.get("*"));
+
+        assertEquals(new CheckoutStrategy(false, List.of(), null), CheckoutStrategy.parse("a/b:sparse").get("a/b"));
+        assertEquals(CheckoutStrategy.FULL, CheckoutStrategy.parse("a/b").get("a/b"));
+        assertTrue(CheckoutStrategy.parse("").isEmpty());
+    }
+
+    @Test
+    void rejectsMalformedStrategies() {
+        assertThrows(IllegalArgumentException.class, () -> CheckoutStrategy.parse("monorepo:shallow"));
+        assertThrows(IllegalArgumentException.class, () -> CheckoutStrategy.parse("a/b:deep"));
+        assertThrows(IllegalArgumentException.class, () -> CheckoutStrategy.parse("a/b:sparse=../etc"));
+        assertThrows(IllegalArgumentException.class, () -> CheckoutStrategy.parse("a/b:filter=blob:most"));
+        assertThrows(IllegalArgumentException.class, () -> CheckoutStrategy.parse("a/b:filter"));
+    }
+
+    @Test
+    void looksUpTheRepositoryOfACloneUrl() {
+        Map<String, CheckoutStrategy> strategies = CheckoutStrategy.parse("group16/monorepo:shallow;*:sparse");
+        assertTrue(CheckoutStrategy.lookup(strategies, "https://github.com/Group16/monorepo.git").shallow());
+        assertTrue(CheckoutStrategy.lookup(strategies, "git@github.com:group16/monorepo.git").shallow());
+        assertEquals(List.of(), CheckoutStrategy.lookup(strategies, "https://github.com/group16/other").sparse());
+        assertEquals(CheckoutStrategy.FULL,
+                CheckoutStrategy.lookup(Map.of(), "https://github.com/group16/monorepo.git"));
+    }
+
+    @Test
+    void describesItsOptions() {
+        assertEquals("full", CheckoutStrategy.FULL.toString());
+        assertEquals("shallow, sparse (my-app), blob:none",
+                new CheckoutStrategy(true, List.of("my-app"), "blob:none").toString());
+    }
+}
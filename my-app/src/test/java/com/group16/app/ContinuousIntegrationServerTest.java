@@ -0,0 +1,289 @@
+package com.group16.app;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.Socket;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+
+/**
+ * Unit tests for the webhook handler of {@link ContinuousIntegrationServer},
+ * and a load test of the acknowledgement latency, which only runs with
+ * {@code mvn test -Dbenchmark=true}.
+ */
+public class ContinuousIntegrationServerTest {
+    private final BuildScheduler scheduler = mock(BuildScheduler.class);
+    private final HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+    private Server server;
+    private URI uri;
+    private DeliveryIndex deliveries;
+
+    @BeforeEach
+    void setUp(@TempDir Path dir) throws Exception {
+        when(scheduler.offer(any(), any())).thenReturn(BuildScheduler.Admission.ACCEPTED);
+        deliveries = new DeliveryIndex(dir, 3600_000, 1000);
+        server = ContinuousIntegrationServer.createServer(0);
+        server.setHandler(new ContinuousIntegrationServer(scheduler, deliveries, 64 * 1024, 1024 * 1024));
+        server.start();
+        uri = URI.create("http://localhost:" + ((ServerConnector) server.getConnectors()[0]).getLocalPort() + "/");
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        server.stop();
+        deliveries.close();
+    }
+
+    private HttpResponse<String> post(String contentType, String body) throws Exception {
+        return client.send(HttpRequest.newBuilder(uri).header("Content-Type", contentType)
+                .header("X-GitHub-Event", "push").POST(HttpRequest.BodyPublishers.ofString(body)).build(),
+                HttpResponse.BodyHandlers.ofString());
+    }
+
+    private HttpResponse<String> deliver(String delivery) throws Exception {
+        return client.send(HttpRequest.newBuilder(uri).header("Content-Type", "application/json")
+                .header("X-GitHub-Event", "push").header("X-GitHub-Delivery", delivery)
+                .POST(HttpRequest.BodyPublishers.ofString(WebhookPayloadTest.payload(1, "m"))).build(),
+                HttpResponse.BodyHandlers.ofString());
+    }
+
+    @Test
+    void queuesJobsFromJsonAndFormBodies() throws Exception {
+        String payload = WebhookPayloadTest.payload(3, "Retry [ci rebuild]");
+        HttpResponse<String> response = post("application/json", payload);
+        assertEquals(202, response.statusCode());
+        assertTrue(response.body().startsWith("CI job queued: "));
+        assertEquals(202, post("application/x-www-form-urlencoded",
+                "payload=" + URLEncoder.encode(payload, StandardCharsets.UTF_8)).statusCode());
+
+        ArgumentCaptor<BuildJob> jobs = ArgumentCaptor.forClass(BuildJob.class);
+        verify(scheduler, times(2)).offer(jobs.capture(), any());
+        BuildJob job = jobs.getValue();
+        assertEquals("group16/continuous-integration", job.getRepoKey());
+        assertEquals("a".repeat(40), job.getCommitSha());
+        assertTrue(job.getLogURL().startsWith("http://localhost:"));
+    }
+
+    @Test
+    void answersOtherRequestsWithoutQueueing() throws Exception {
+        assertEquals(400, post("application/json", "{\"ref\":\"refs/heads/main\"}").statusCode());
+        assertEquals(405, client.send(HttpRequest.newBuilder(uri).GET().build(),
+                HttpResponse.BodyHandlers.ofString()).statusCode());
+        assertEquals(200, client.send(HttpRequest.newBuilder(uri).header("X-GitHub-Event", "ping")
+                .POST(HttpRequest.BodyPublishers.ofString("{}")).build(),
+                HttpResponse.BodyHandlers.ofString()).statusCode());
+
+        // Too large, by its length or by what is sent without a length
+        String large = "x".repeat(65 * 1024);
+        assertEquals(413, post("application/json", large).statusCode());
+        assertEquals(413, client.send(HttpRequest.newBuilder(uri).header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofInputStream(
+                        () -> new ByteArrayInputStream(large.getBytes(StandardCharsets.UTF_8))))
+                .build(), HttpResponse.BodyHandlers.ofString()).statusCode());
+        verify(scheduler, never()).offer(any(), any());
+    }
+
+    @Test
+    void tellsGitHubToBackOffWhenTheQueueIsFull() throws Exception {
+        when(scheduler.offer(any(), any())).thenReturn(BuildScheduler.Admission.QUEUE_FULL);
+        HttpResponse<String> response = post("application/json", WebhookPayloadTest.payload(1, "m"));
+        assertEquals(503, response.statusCode());
+        assertEquals("60", response.headers().firstValue("Retry-After").orElse(null));
+    }
+
+    @Test
+    void boundsTheMemoryOfTheBodiesBeingRead() throws Exception {
+        Server small = ContinuousIntegrationServer.createServer(0);
+        small.setHandler(new ContinuousIntegrationServer(scheduler, deliveries, 64 * 1024, 16 * 1024));
+        small.start();
+        try {
+            URI smallUri = URI.create("http://localhost:"
+                    + ((ServerConnector) small.getConnectors()[0]).getLocalPort() + "/");
+            HttpResponse<String> response = client.send(HttpRequest.newBuilder(smallUri)
+                    .header("Content-Type", "application/json").header("X-GitHub-Event", "push")
+                    .POST(HttpRequest.BodyPublishers.ofString(WebhookPayloadTest.payload(40, "m"))).build(),
+                    HttpResponse.BodyHandlers.ofString());
+            assertEquals(503, response.statusCode());
+            assertTrue(response.headers().firstValue("Retry-After").isPresent());
+
+            // The budget was given back
+            assertEquals(202, client.send(HttpRequest.newBuilder(smallUri)
+                    .header("Content-Type", "application/json").header("X-GitHub-Event", "push")
+                    .POST(HttpRequest.BodyPublishers.ofString(WebhookPayloadTest.payload(1, "m"))).build(),
+                    HttpResponse.BodyHandlers.ofString()).statusCode());
+        } finally {
+            small.stop();
+        }
+    }
+
+    @Test
+    void answersRedeliveriesWithTheFirstJob() throws Exception {
+        HttpResponse<String> first = deliver("72d3162e-cc78-11e3-81ab-4c9367dc0958");
+        assertEquals(202, first.statusCode());
+        String jobId = first.body().substring("CI job queued: ".length(), first.body().indexOf(','));
+
+        HttpResponse<String> again = deliver("72d3162e-cc78-11e3-81ab-4c9367dc0958");
+        assertEquals(200, again.statusCode());
+        assertTrue(again.body().startsWith("CI job already queued: " + jobId + ", log: http://localhost:"));
+        assertEquals(202, deliver("72d3162e-cc78-11e3-81ab-4c9367dc0959").statusCode());
+        verify(scheduler, times(2)).offer(any(), any());
+    }
+
+    @Test
+    void forgetsDeliveriesThatWereNotQueued() throws Exception {
+        when(scheduler.offer(any(), any())).thenReturn(BuildScheduler.Admission.QUEUE_FULL);
+        assertEquals(503, deliver("d1").statusCode());
+        when(scheduler.offer(any(), any())).thenReturn(BuildScheduler.Admission.ACCEPTED);
+        assertEquals(202, deliver("d1").statusCode());
+    }
+
+    @Test
+    void forgetsDeliveriesThatTheIntakeRejected() throws Exception {
+        assertEquals(202, deliver("d2").statusCode());
+        ArgumentCaptor<Runnable> onRejected = ArgumentCaptor.forClass(Runnable.class);
+        verify(scheduler).offer(any(), onRejected.capture());
+        assertEquals(200, deliver("d2").statusCode());
+
+        // The queue turned out to be full after the webhook was answered
+        onRejected.getValue().run();
+        assertEquals(202, deliver("d2").statusCode());
+    }
+
+    /**
+     * Sends 1000 webhooks per second for 10 seconds over 16 keep-alive
+     * connections, on a schedule that does not wait for the answers, and
+     * reports the latency of the answers from the time each webhook was due.
+     * The client writes raw HTTP/1.1 so that it takes little of the CPU it
+     * shares with the server.
+     */
+    @Test
+    @EnabledIfSystemProperty(named = "benchmark", matches = "true")
+    void loadTestAcknowledgement() throws Exception {
+        int rate = Integer.getInteger("webhook.rate", 1000);
+        int seconds = 10;
+        int connections = 16;
+        byte[] body = WebhookPayloadTest.payload(20, "Load test").getBytes(StandardCharsets.UTF_8);
+        byte[] head = ("POST / HTTP/1.1\r\nHost: localhost\r\nContent-Type: application/json\r\n"
+                + "X-GitHub-Event: push\r\nContent-Length: " + body.length + "\r\n\r\n")
+                .getBytes(StandardCharsets.US_ASCII);
+
+        // Warm up the JIT, and measure the throughput with one webhook in
+        // flight on each connection
+        long start = System.nanoTime();
+        long[] warmup = send(connections, 10_000 / connections, 0, head, body);
+        System.out.println(String.format(Locale.ROOT, "Throughput: %.0f webhooks/s",
+                warmup.length / ((System.nanoTime() - start) / 1e9)));
+
+        long[] latencies = send(connections, rate * seconds / connections, rate, head, body);
+        Arrays.sort(latencies);
+        System.out.println(String.format(Locale.ROOT,
+                "%d webhooks of %d KB at %d/s: p50 %.1f ms, p99 %.1f ms, p99.9 %.1f ms, max %.1f ms",
+                latencies.length, body.length / 1024, rate, latencies[latencies.length / 2] / 1e6,
+                latencies[latencies.length * 99 / 100] / 1e6, latencies[latencies.length * 999 / 1000] / 1e6,
+                latencies[latencies.length - 1] / 1e6));
+        Metrics.Histogram handler = Metrics.stage("webhook");
+        System.out.println(String.format(Locale.ROOT, "In the handler: %.2f ms on average",
+                handler.sumSeconds() * 1000 / handler.count()));
+    }
+
+    /**
+     * Sends webhooks over keep-alive connections, each on its own thread.
+     *
+     * @param connections The number of connections
+     * @param each        The number of webhooks sent on each connection
+     * @param rate        The webhooks per second over all connections, or 0
+     *                    to send each webhook as soon as the previous is
+     *                    answered
+     * @return The latency of each answer, from the time it was due
+     */
+    private long[] send(int connections, int each, int rate, byte[] head, byte[] body) throws Exception {
+        long[] latencies = new long[connections * each];
+        List<CompletableFuture<Void>> senders = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int c = 0; c < connections; c++) {
+            int connection = c;
+            senders.add(CompletableFuture.runAsync(() -> {
+                try (Socket socket = new Socket(uri.getHost(), uri.getPort())) {
+                    socket.setTcpNoDelay(true);
+                    OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+                    InputStream in = new BufferedInputStream(socket.getInputStream());
+                    for (int i = 0; i < each; i++) {
+                        // The connections take turns, so the webhooks are
+                        // spread evenly over time
+                        long due = rate == 0 ? System.nanoTime()
+                                : start + (i * connections + connection) * 1_000_000_000L / rate;
+                        LockSupport.parkNanos(due - System.nanoTime());
+                        out.write(head);
+                        out.write(body);
+                        out.flush();
+                        assertEquals(202, readResponse(in));
+                        latencies[connection * each + i] = System.nanoTime() - due;
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, Executors.newSingleThreadExecutor()));
+        }
+        CompletableFuture.allOf(senders.toArray(new CompletableFuture[0])).get(10, TimeUnit.MINUTES);
+        return latencies;
+    }
+
+    // Reads one HTTP/1.1 response with a Content-Length, and returns its status
+    private static int readResponse(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int status = -1;
+        int length = 0;
+        while (true) {
+            int b = in.read();
+            if (b == -1) {
+                throw new EOFException("The connection was closed");
+            } else if (b != '\n') {
+                line.append((char) b);
+                continue;
+            }
+            String header = line.toString().trim();
+            line.setLength(0);
+            if (header.isEmpty()) {
+                break;
+            } else if (status < 0) {
+                status = Integer.parseInt(header.split(" ")[1]);
+            } else if (header.regionMatches(true, 0, "Content-Length:", 0, 15)) {
+                length = Integer.parseInt(header.substring(15).trim());
+            }
+        }
+        in.readNBytes(length);
+        return status;
+    }
+}
@@ -0,0 +1,67 @@
+package com.group16.app;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.file.Path;
+import java.util.Properties;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Unit tests for the {@link CoreBudget} class.
+ */
+public class CoreBudgetTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void sharesCoresBetweenConcurrentBuilds() {
+        CoreBudget budget = new CoreBudget(8, 2, true, null, 100);
+        CoreBudget.Grant first = budget.acquire(tempDir.resolve("a"));
+        CoreBudget.Grant second = budget.acquire(tempDir.resolve("b"));
+        assertEquals(4, first.cores());
+        assertEquals(4, second.cores());
+
+        // More builds than workers, e.g. cells of a matrix, get a single core
+        CoreBudget.Grant third = budget.acquire(tempDir.resolve("c"));
+        assertEquals(1, third.cores());
+        assertTrue(budget.stats().contains("reserved 9\n"));
+
+        first.close();
+        third.close();
+        assertEquals(4, budget.acquire(tempDir.resolve("d")).cores());
+        second.close();
+        assertTrue(budget.stats().contains("grants 4\n"));
+    }
+
+    @Test
+    void passesTheGrantToSurefire() {
+        Properties forked = new CoreBudget(4, 1, true, null, 100).acquire(tempDir).properties();
+        assertEquals("4", forked.getProperty("forkCount"));
+        assertEquals("true", forked.getProperty("reuseForks"));
+        assertNull(forked.getProperty("parallel"));
+
+        Properties threads = new CoreBudget(4, 2, false, "classes", 100).acquire(tempDir).properties();
+        assertNull(threads.getProperty("forkCount"));
+        assertEquals("classes", threads.getProperty("parallel"));
+        assertEquals("2", threads.getProperty("threadCount"));
+    }
+
+    @Test
+    void measuresTheCpuTimeOfTheBuild() throws Exception {
+        CoreBudget budget = new CoreBudget(1, 1, true, null, 50);
+        CoreBudget.Grant grant = budget.acquire(tempDir);
+        // A process started like the Maven Invoker starts Maven
+        Process process = new ProcessBuilder("sh", "-c", "cd '" + tempDir.toAbsolutePath()
+                + "' && i=0; while [ $i -lt 300000 ]; do i=$((i+1)); done").start();
+        process.waitFor();
+        grant.close();
+
+        assertTrue(grant.cpuMillis() > 0, "CPU time " + grant.cpuMillis());
+        assertTrue(grant.utilization() > 0);
+        assertTrue(budget.stats().contains("reserved 0\n"));
+        assertEquals(-1, new CoreBudget(1, 1, true, null, 50).acquire(tempDir.resolve("idle")).cpuMillis());
+    }
+}
@@ -0,0 +1,173 @@
+package com.group16.app;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Unit tests for the {@link DeliveryIndex} class, and a benchmark of a day of
+ * deliveries, which only runs with {@code mvn test -Dbenchmark=true}.
+ */
+public class DeliveryIndexTest {
+    private static final long HOUR = 3600_000;
+
+    @TempDir
+    Path dir;
+
+    private long now = 1_000_000_000_000L;
+
+    private DeliveryIndex open(int maxPerGeneration) throws IOException {
+        return new DeliveryIndex(dir, 24 * HOUR, maxPerGeneration, () -> now);
+    }
+
+    private long files() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.count();
+        }
+    }
+
+    @Test
+    void claimsEachDeliveryOnce() throws IOException {
+        try (DeliveryIndex index = open(1000)) {
+            assertNull(index.find("d1"));
+            assertNull(index.claim("d1", "job1"));
+            assertEquals("job1", index.claim("d1", "job2"));
+            assertEquals("job1", index.find("d1"));
+            assertNull(index.claim("d2", "job2"));
+            assertEquals(2, index.size());
+
+            // Without a usable ID nothing is deduplicated
+            assertNull(index.claim("", "job3"));
+            assertNull(index.claim("a\tb", "job3"));
+            assertNull(index.claim("a\tb", "job4"));
+            assertEquals(2, index.size());
+        }
+    }
+
+    @Test
+    void removesReleasedDeliveriesWithoutLosingOthers() throws IOException {
+        try (DeliveryIndex index = open(100_000)) {
+            for (int i = 0; i < 5000; i++) {
+                assertNull(index.claim("d" + i, "job" + i));
+            }
+            for (int i = 0; i < 5000; i += 2) {
+                index.release("d" + i);
+            }
+            assertEquals(2500, index.size());
+            for (int i = 0; i < 5000; i++) {
+                assertEquals(i % 2 == 0 ? null : "job" + i, index.find("d" + i));
+            }
+        }
+    }
+
+    @Test
+    void keepsDeliveriesAcrossRestarts() throws IOException {
+        try (DeliveryIndex index = open(1000)) {
+            index.claim("d1", "job1");
+            index.claim("d2", "job2");
+            index.release("d2");
+            index.claim("d3", "job3");
+        }
+        // A line that was cut off when the server stopped
+        try (Stream<Path> files = Files.list(dir)) {
+            Files.writeString(files.findFirst().orElseThrow(), "d4\tjo", StandardCharsets.UTF_8,
+                    StandardOpenOption.APPEND);
+        }
+        try (DeliveryIndex index = open(1000)) {
+            assertEquals("job1", index.find("d1"));
+            assertNull(index.find("d2"));
+            assertEquals("job3", index.find("d3"));
+            assertNull(index.find("d4"));
+            assertNull(index.claim("d5", "job5"));
+        }
+        try (DeliveryIndex index = open(1000)) {
+            assertEquals("job5", index.find("d5"));
+            assertEquals(3, index.size());
+        }
+    }
+
+    @Test
+    void forgetsDeliveriesAfterTwoWindows() throws IOException {
+        try (DeliveryIndex index = open(1000)) {
+            index.claim("old", "job1");
+            now += 25 * HOUR;
+            index.claim("new", "job2");
+            assertEquals("job1", index.find("old"));
+            assertEquals(2, files());
+
+            now += 24 * HOUR;
+            assertNull(index.find("old"));
+            assertEquals("job2", index.find("new"));
+            assertEquals(2, files());
+        }
+        // Files out of the window are deleted when the index is opened
+        now += 49 * HOUR;
+        try (DeliveryIndex index = open(1000)) {
+            assertNull(index.find("new"));
+            assertEquals(1, files());
+        }
+    }
+
+    @Test
+    void boundsTheDeliveriesOfAGeneration() throws IOException {
+        try (DeliveryIndex index = open(10)) {
+            for (int i = 0; i < 25; i++) {
+                index.claim("d" + i, "job" + i);
+            }
+            assertEquals(15, index.size());
+            assertNull(index.find("d9"));
+            assertEquals("job10", index.find("d10"));
+            assertEquals(2, files());
+        }
+    }
+
+    /**
+     * Claims a day of 10^6 deliveries, and reports the time per delivery,
+     * the memory of the tables and the size of the file.
+     */
+    @Test
+    @EnabledIfSystemProperty(named = "benchmark", matches = "true")
+    void benchmarkADayOfDeliveries() throws IOException {
+        int deliveries = 1_000_000;
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        long heap = runtime.totalMemory() - runtime.freeMemory();
+        try (DeliveryIndex index = open(deliveries)) {
+            String[] ids = new String[deliveries];
+            for (int i = 0; i < deliveries; i++) {
+                ids[i] = UUID.randomUUID().toString();
+            }
+            String job = UUID.randomUUID().toString();
+            long start = System.nanoTime();
+            for (String id : ids) {
+                assertNull(index.claim(id, job));
+            }
+            long claim = (System.nanoTime() - start) / deliveries;
+            start = System.nanoTime();
+            for (String id : ids) {
+                assertEquals(job, index.find(id));
+            }
+            long find = (System.nanoTime() - start) / deliveries;
+            ids = null;
+            System.gc();
+            long used = runtime.totalMemory() - runtime.freeMemory() - heap;
+            long disk;
+            try (Stream<Path> files = Files.list(dir)) {
+                disk = files.mapToLong(file -> file.toFile().length()).sum();
+            }
+            System.out.println("Claim: " + claim + " ns, redelivery: " + find + " ns per delivery");
+            System.out.println(deliveries + " deliveries: " + used / (1024 * 1024) + " MB of heap, "
+                    + disk / (1024 * 1024) + " MB of disk");
+        }
+    }
+}
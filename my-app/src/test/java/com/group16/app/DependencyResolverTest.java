@@ -0,0 +1,76 @@
+package com.group16.app;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.Future;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Unit tests for the {@link DependencyResolver} class, resolving commits of a
+ * local repository.
+ */
+public class DependencyResolverTest {
+
+    @TempDir
+    Path tempDir;
+
+    private Path repoDir;
+    private Git repo;
+
+    @BeforeEach
+    void setUp() throws GitAPIException {
+        repoDir = tempDir.resolve("repo");
+        repo = Git.init().setDirectory(repoDir.toFile()).setInitialBranch("main").call();
+    }
+
+    // Writes a file in the repository and commits it
+    private RevCommit commit(String file, String content) throws IOException, GitAPIException {
+        Files.createDirectories(repoDir.resolve(file).getParent());
+        Files.writeString(repoDir.resolve(file), content);
+        repo.add().addFilepattern(file).call();
+        return repo.commit().setMessage("Update " + file).setSign(false).call();
+    }
+
+    @Test
+    void doesNothingWhenDisabled() throws IOException, GitAPIException {
+        RevCommit commit = commit("pom.xml", "<project/>");
+        DependencyResolver resolver = new DependencyResolver(tempDir.resolve("resolve"), false, 10);
+        assertNull(resolver.start(repoDir.resolve(".git"), commit, line -> { }));
+    }
+
+    @Test
+    void skipsCommitsWithoutPoms() throws Exception {
+        RevCommit commit = commit("README.md", "no project");
+        DependencyResolver resolver = new DependencyResolver(tempDir.resolve("resolve"), true, 10);
+        DependencyResolver.Resolution resolution = resolver.start(repoDir.resolve(".git"), commit, line -> { })
+                .get();
+        assertEquals(0, resolution.projects());
+        assertTrue(resolution.ok());
+        try (var copies = Files.list(tempDir.resolve("resolve"))) {
+            assertEquals(0, copies.count(), "The copy of the poms was left behind");
+        }
+    }
+
+    @Test
+    void resolvesPomsThatFailedAgain() throws Exception {
+        // Not a valid pom, so Maven fails without downloading anything
+        RevCommit commit = commit("app/pom.xml", "<project>");
+        commit("app/src/App.java", "class App {}");
+        DependencyResolver resolver = new DependencyResolver(tempDir.resolve("resolve"), true, 10);
+
+        Future<DependencyResolver.Resolution> first = resolver.start(repoDir.resolve(".git"), commit, line -> { });
+        assertEquals(1, first.get().projects());
+        assertFalse(first.get().ok());
+        Future<DependencyResolver.Resolution> second = resolver.start(repoDir.resolve(".git"), commit, line -> { });
+        assertEquals(1, second.get().projects(), "Failed poms must not be remembered");
+    }
+}
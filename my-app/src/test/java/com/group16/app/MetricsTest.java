@@ -0,0 +1,150 @@
+package com.group16.app;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+/**
+ * Unit tests for the {@link Metrics} class, and a benchmark of the overhead
+ * of recording, which only runs with {@code mvn test -Dbenchmark=true}.
+ */
+public class MetricsTest {
+    private final Metrics metrics = Metrics.getDefault();
+
+    @Test
+    void countsIntoCumulativeBuckets() {
+        Metrics.Histogram histogram = metrics.histogram("test_buckets_seconds", "A test", "stage", "a\"b");
+        histogram.record(500_000); // 0.5 ms
+        histogram.record(1_000_000); // 1 ms, the upper bound is inclusive
+        histogram.recordMillis(3);
+        histogram.recordMillis(10_000_000);
+        assertEquals(4, histogram.count());
+
+        String text = metrics.scrape();
+        assertTrue(text.contains("# TYPE test_buckets_seconds histogram\n"));
+        assertTrue(text.contains("test_buckets_seconds_bucket{stage=\"a\\\"b\",le=\"0.001\"} 2\n"));
+        assertTrue(text.contains("test_buckets_seconds_bucket{stage=\"a\\\"b\",le=\"0.0025\"} 2\n"));
+        assertTrue(text.contains("test_buckets_seconds_bucket{stage=\"a\\\"b\",le=\"0.005\"} 3\n"));
+        assertTrue(text.contains("test_buckets_seconds_bucket{stage=\"a\\\"b\",le=\"2500\"} 3\n"));
+        assertTrue(text.contains("test_buckets_seconds_bucket{stage=\"a\\\"b\",le=\"+Inf\"} 4\n"));
+        assertTrue(text.contains("test_buckets_seconds_sum{stage=\"a\\\"b\"} 10000.0045\n"));
+        assertTrue(text.contains("test_buckets_seconds_count{stage=\"a\\\"b\"} 4\n"));
+    }
+
+    @Test
+    void returnsTheSameMetricForTheSameLabels() {
+        Metrics.Counter counter = metrics.counter("test_events_total", "A test", "result", "ok");
+        counter.increment();
+        metrics.counter("test_events_total", "A test", "result", "ok").add(2);
+        metrics.counter("test_events_total", "A test", "result", "failed").increment();
+        assertEquals(3, counter.get());
+
+        String text = metrics.scrape();
+        assertTrue(text.contains("test_events_total{result=\"ok\"} 3\n"));
+        assertTrue(text.contains("test_events_total{result=\"failed\"} 1\n"));
+        assertThrows(IllegalArgumentException.class, () -> metrics.histogram("test_events_total", "A test"));
+        assertThrows(IllegalArgumentException.class, () -> metrics.counter("test_events_total", "A test", "odd"));
+    }
+
+    @Test
+    void readsGaugesWhenScraped() {
+        int[] value = {1};
+        metrics.gauge("test_value", "A test", () -> value[0]);
+        value[0] = 42;
+        String text = metrics.scrape();
+        assertTrue(text.contains("test_value 42\n"));
+        assertTrue(text.contains("# TYPE jvm_threads_live gauge\n"));
+        assertTrue(text.contains("ci_child_processes "));
+    }
+
+    @Test
+    void timesSpansOnce() throws Exception {
+        Metrics.Histogram histogram = metrics.histogram("test_span_seconds", "A test");
+        Metrics.Timer timer = histogram.time();
+        Thread.sleep(5);
+        long millis = timer.stop();
+        timer.close();
+        assertTrue(millis >= 5);
+        assertEquals(1, histogram.count());
+        assertTrue(histogram.sumSeconds() >= 0.005);
+    }
+
+    @Test
+    void servesTheMetricsWithThePrometheusContentType() throws Exception {
+        Server server = new Server(0);
+        server.setHandler(new StatsHandler(new BuildScheduler(1, 1, 1)));
+        server.start();
+        try {
+            String base = "http://localhost:" + ((ServerConnector) server.getConnectors()[0]).getLocalPort();
+            HttpClient client = HttpClient.newHttpClient();
+            HttpResponse<String> scrape = client.send(HttpRequest.newBuilder(URI.create(base + "/metrics")).build(),
+                    HttpResponse.BodyHandlers.ofString());
+            assertEquals("text/plain;version=0.0.4;charset=utf-8",
+                    scrape.headers().firstValue("Content-Type").orElse("").replace(" ", ""));
+            HttpResponse<String> queue = client.send(HttpRequest.newBuilder(URI.create(base + "/queue")).build(),
+                    HttpResponse.BodyHandlers.ofString());
+            assertEquals("text/plain;charset=utf-8",
+                    queue.headers().firstValue("Content-Type").orElse("").replace(" ", ""));
+        } finally {
+            server.stop();
+        }
+    }
+
+    /**
+     * Measures the cost of timing spans from several threads at once, and the
+     * cost of the spans and counters of one job.
+     */
+    @Test
+    @EnabledIfSystemProperty(named = "benchmark", matches = "true")
+    void benchmarkRecording() throws Exception {
+        Metrics.Histogram histogram = Metrics.stage("benchmark");
+        Metrics.Counter counter = metrics.counter("benchmark_total", "A benchmark");
+        int threads = 4;
+        int spans = 2_000_000;
+        List<Thread> workers = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < spans; i++) {
+                    try (Metrics.Timer timer = histogram.time()) {
+                        counter.increment();
+                    }
+                }
+            });
+            workers.add(thread);
+            thread.start();
+        }
+        for (Thread thread : workers) {
+            thread.join();
+        }
+        long nanos = System.nanoTime() - start;
+        assertEquals((long) threads * spans, histogram.count());
+        System.out.println("Timed span and counter: " + nanos * threads / ((long) threads * spans)
+                + " ns per span per thread, with " + threads + " threads");
+
+        // A job has about ten spans and counters, and a scrape reads them all
+        start = System.nanoTime();
+        for (int i = 0; i < 100_000; i++) {
+            for (String stage : List.of("webhook", "queue", "checkout", "compile", "test")) {
+                Metrics.stage(stage).record(i);
+            }
+            metrics.counter("ci_jobs_total", "The finished CI jobs", "status", "success").increment();
+        }
+        System.out.println("Metrics of one job, with lookups: " + (System.nanoTime() - start) / 100_000 + " ns");
+        start = System.nanoTime();
+        for (int i = 0; i < 100; i++) {
+            metrics.scrape();
+        }
+        System.out.println("Scrape: " + (System.nanoTime() - start) / 100 / 1000 + " us");
+    }
+}
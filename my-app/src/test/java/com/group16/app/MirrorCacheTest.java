@@ -0,0 +1,437 @@
+package com.group16.app;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.StoredConfig;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.util.FileUtils;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Unit tests for the {@link MirrorCache} class, using a local repository as
+ * the remote.
+ */
+public class MirrorCacheTest {
+
+    @TempDir
+    Path tempDir;
+
+    private Path remoteDir;
+    private String remoteUrl;
+    private Git remote;
+
+    @BeforeEach
+    void setUp() throws GitAPIException, IOException {
+        remoteDir = tempDir.resolve("remote");
+        remote = Git.init().setDirectory(remoteDir.toFile()).setInitialBranch("main").call();
+        remoteUrl = remoteDir.toUri().toString();
+    }
+
+    // Writes a file in the remote repository and commits it
+    private RevCommit commit(String file, String content) throws IOException, GitAPIException {
+        Files.createDirectories(remoteDir.resolve(file).getParent());
+        Files.writeString(remoteDir.resolve(file), content);
+        remote.add().addFilepattern(file).call();
+        return remote.commit().setMessage("Update " + file).setSign(false).call();
+    }
+
+    @Test
+    void checksOutTheRequestedCommit() throws IOException, GitAPIException {
+        MirrorCache cache = new MirrorCache(tempDir.resolve("cache"), Long.MAX_VALUE);
+        RevCommit first = commit("a.txt", "first");
+        commit("a.txt", "second");
+
+        MirrorCache.Workspace worktree = cache.checkout(remoteUrl, "refs/heads/main", first.name());
+        assertEquals("first", Files.readString(worktree.dir().resolve("a.txt")));
+
+        MirrorCache.Workspace tip = cache.checkout(remoteUrl, "main", null);
+        assertEquals("second", Files.readString(tip.dir().resolve("a.txt")));
+
+        worktree.close();
+        tip.close();
+        assertFalse(Files.exists(worktree.dir()));
+        assertFalse(Files.exists(tip.dir()));
+    }
+
+    // Lets the remote serve shallow, filtered and by-ID fetches as GitHub does
+    private void allowPartialFetches() throws IOException {
+        StoredConfig config = remote.getRepository().getConfig();
+        config.setBoolean("uploadpack", null, "allowFilter", true);
+        config.setBoolean("uploadpack", null, "allowAnySHA1InWant", true);
+        config.save();
+    }
+
+    @Test
+    void fetchesOnlyThePushedCommitWhenShallow() throws IOException, GitAPIException {
+        allowPartialFetches();
+        MirrorCache cache = new MirrorCache(tempDir.resolve("cache"), Long.MAX_VALUE);
+        RevCommit first = commit("a.txt", "first");
+        RevCommit second = commit("a.txt", "second");
+        commit("a.txt", "third");
+
+        CheckoutStrategy shallow = new CheckoutStrategy(true, null, null);
+        try (MirrorCache.Workspace workspace = cache.checkout(remoteUrl, "main", second.name(), shallow)) {
+            assertEquals("second", Files.readString(workspace.dir().resolve("a.txt")));
+        }
+        try (Git mirror = Git.open(onlyMirror().toFile())) {
+            assertTrue(mirror.getRepository().getObjectDatabase().has(second));
+            assertFalse(mirror.getRepository().getObjectDatabase().has(first), "History was fetched");
+        }
+    }
+
+    @Test
+    void checksOutOnlyTheProjectsWhenSparse() throws IOException, GitAPIException {
+        commit("README.md", "readme");
+        commit("app/pom.xml", "<project/>");
+        commit("app/src/App.java", "class App {}");
+        commit("lib/core/pom.xml", "<project/>");
+        RevCommit head = commit("docs/manual.txt", "manual");
+        Path cacheDir = tempDir.resolve("cache");
+        MirrorCache cache = new MirrorCache(cacheDir, cacheDir.resolve("worktrees"), Long.MAX_VALUE, 1);
+
+        // The projects of the commit, found as the build matrix finds them
+        MirrorCache.Workspace workspace = cache.checkout(remoteUrl, "main", head.name(),
+                new CheckoutStrategy(false, List.of(), null));
+        assertTrue(Files.exists(workspace.dir().resolve("README.md")));
+        assertEquals("class App {}", Files.readString(workspace.dir().resolve("app/src/App.java")));
+        assertTrue(Files.exists(workspace.dir().resolve("lib/core/pom.xml")));
+        assertFalse(Files.exists(workspace.dir().resolve("docs")));
+        workspace.close();
+
+        // A pooled worktree loses the directories that are not asked for
+        try (MirrorCache.Workspace reused = cache.checkout(remoteUrl, "main", head.name(),
+                new CheckoutStrategy(false, List.of("app"), null))) {
+            assertTrue(reused.reused());
+            assertTrue(Files.exists(reused.dir().resolve("app/pom.xml")));
+            assertFalse(Files.exists(reused.dir().resolve("lib")));
+            try (Git git = Git.open(reused.dir().toFile())) {
+                assertEquals(head, git.getRepository().resolve("HEAD"));
+            }
+        }
+    }
+
+    @Test
+    void fetchesOnlyTheBlobsOfTheCheckoutWhenFiltered() throws IOException, GitAPIException {
+        allowPartialFetches();
+        commit("app/pom.xml", "<project/>");
+        RevCommit head = commit("docs/manual.txt", "manual");
+        ObjectId manual;
+        try (TreeWalk walk = TreeWalk.forPath(remote.getRepository(), "docs/manual.txt", head.getTree())) {
+            manual = walk.getObjectId(0);
+        }
+        MirrorCache cache = new MirrorCache(tempDir.resolve("cache"), Long.MAX_VALUE);
+
+        CheckoutStrategy partial = new CheckoutStrategy(true, List.of(), "blob:none");
+        try (MirrorCache.Workspace workspace = cache.checkout(remoteUrl, "main", head.name(), partial)) {
+            assertEquals("<project/>", Files.readString(workspace.dir().resolve("app/pom.xml")));
+            assertFalse(Files.exists(workspace.dir().resolve("docs")));
+        }
+        try (Git mirror = Git.open(onlyMirror().toFile())) {
+            assertFalse(mirror.getRepository().getObjectDatabase().has(manual), "A filtered blob was fetched");
+        }
+
+        // A full checkout of the same mirror fetches the blobs it lacks
+        try (MirrorCache.Workspace workspace = cache.checkout(remoteUrl, "main", head.name())) {
+            assertEquals("manual", Files.readString(workspace.dir().resolve("docs/manual.txt")));
+        }
+    }
+
+    @Test
+    void tellsTheListenerAboutTheFetchBeforeTheCheckout() throws IOException, GitAPIException {
+        commit("pom.xml", "<project>root</project>");
+        commit("lib/pom.xml", "<project>lib</project>");
+        commit("lib/core/pom.xml", "<project>core</project>");
+        commit("lib/target/pom.xml", "<project>output</project>");
+        RevCommit head = commit("lib/core/Core.java", "class Core {}");
+        Path cacheDir = tempDir.resolve("cache");
+        MirrorCache cache = new MirrorCache(cacheDir, cacheDir.resolve("worktrees"), Long.MAX_VALUE, 0);
+
+        Path poms = tempDir.resolve("poms");
+        List<String> hashes = new ArrayList<>();
+        try (MirrorCache.Workspace workspace = cache.checkout(remoteUrl, "main", null, CheckoutStrategy.FULL,
+                (mirror, commit) -> {
+                    assertEquals(head, commit);
+                    try (Stream<Path> worktrees = Files.list(cacheDir.resolve("worktrees"))) {
+                        assertEquals(0, worktrees.count(), "The worktree was checked out before the listener");
+                        hashes.add(MirrorCache.copyPoms(mirror, commit, poms));
+                    } catch (IOException e) {
+                        throw new AssertionError(e);
+                    }
+                })) {
+            assertTrue(Files.exists(workspace.dir().resolve("lib/core/Core.java")));
+        }
+        assertEquals("<project>core</project>", Files.readString(poms.resolve("lib/core/pom.xml")));
+        assertTrue(Files.exists(poms.resolve("pom.xml")));
+        assertFalse(Files.exists(poms.resolve("lib/target")));
+        assertFalse(Files.exists(poms.resolve("lib/core/Core.java")));
+
+        // The same poms have the same hash, whatever else changed
+        RevCommit other = commit("lib/core/Core.java", "class Core { int changed; }");
+        Path mirror = onlyMirror();
+        cache.checkout(remoteUrl, "main", null).close();
+        assertEquals(hashes.get(0), MirrorCache.copyPoms(mirror, other, tempDir.resolve("other")));
+        RevCommit changed = commit("lib/pom.xml", "<project>lib 2</project>");
+        cache.checkout(remoteUrl, "main", null).close();
+        assertNotEquals(hashes.get(0), MirrorCache.copyPoms(mirror, changed, tempDir.resolve("changed")));
+    }
+
+    private Path onlyMirror() throws IOException {
+        try (Stream<Path> mirrors = Files.list(tempDir.resolve("cache").resolve("mirrors"))) {
+            return mirrors.findFirst().orElseThrow();
+        }
+    }
+
+    @Test
+    void failsForUnknownCommit() throws IOException, GitAPIException {
+        MirrorCache cache = new MirrorCache(tempDir.resolve("cache"), Long.MAX_VALUE);
+        commit("a.txt", "first");
+
+        assertThrows(IOException.class,
+                () -> cache.checkout(remoteUrl, "main", "0123456789012345678901234567890123456789"));
+    }
+
+    @Test
+    void deletesStaleWorktreesOnStartup() throws IOException, GitAPIException {
+        commit("a.txt", "first");
+        Path worktree = new MirrorCache(tempDir.resolve("cache"), Long.MAX_VALUE).checkout(remoteUrl, "main", null)
+                .dir();
+
+        new MirrorCache(tempDir.resolve("cache"), Long.MAX_VALUE);
+        assertFalse(Files.exists(worktree));
+    }
+
+    @Test
+    void reusesPooledWorktreesOfTheSameRepository() throws IOException, GitAPIException {
+        Path cacheDir = tempDir.resolve("cache");
+        MirrorCache cache = new MirrorCache(cacheDir, cacheDir.resolve("worktrees"), Long.MAX_VALUE, 1);
+        RevCommit first = commit("a.txt", "first");
+        commit("b.txt", "only in the second");
+
+        MirrorCache.Workspace workspace = cache.checkout(remoteUrl, "main", null);
+        assertFalse(workspace.reused());
+        Files.createDirectories(workspace.dir().resolve("target"));
+        Files.writeString(workspace.dir().resolve("target/output.txt"), "build output");
+        Files.writeString(workspace.dir().resolve("a.txt"), "changed by the build");
+        workspace.close();
+        workspace.close();
+        assertEquals(1, cache.idle());
+
+        // Reset to the commit, without the files of the previous build
+        MirrorCache.Workspace reused = cache.checkout(remoteUrl, "main", first.name());
+        assertTrue(reused.reused());
+        assertEquals(workspace.dir(), reused.dir());
+        assertEquals("first", Files.readString(reused.dir().resolve("a.txt")));
+        assertFalse(Files.exists(reused.dir().resolve("b.txt")));
+        assertFalse(Files.exists(reused.dir().resolve("target")));
+        assertEquals(0, cache.idle());
+
+        // A second workspace in use at the same time is a new worktree, and
+        // only one of them fits in the pool
+        MirrorCache.Workspace other = cache.checkout(remoteUrl, "main", null);
+        assertNotEquals(reused.dir(), other.dir());
+        reused.close();
+        other.close();
+        assertEquals(1, cache.idle());
+        assertFalse(Files.exists(reused.dir()));
+
+        // The pool survives a restart
+        MirrorCache restarted = new MirrorCache(cacheDir, cacheDir.resolve("worktrees"), Long.MAX_VALUE, 1);
+        assertEquals(1, restarted.idle());
+        try (MirrorCache.Workspace again = restarted.checkout(remoteUrl, "main", null)) {
+            assertEquals(other.dir(), again.dir());
+            assertEquals("only in the second", Files.readString(again.dir().resolve("b.txt")));
+        }
+    }
+
+    /**
+     * Runs 100 jobs at once against one repository, twice, each checking out
+     * its own commit and writing build outputs, and checks that no job sees
+     * the files of another and that every worktree is pooled or deleted.
+     */
+    @Test
+    void isolatesConcurrentJobs() throws Exception {
+        Path cacheDir = tempDir.resolve("cache");
+        MirrorCache cache = new MirrorCache(cacheDir, cacheDir.resolve("worktrees"), Long.MAX_VALUE, 8);
+        int jobs = 100;
+        List<RevCommit> commits = new ArrayList<>();
+        for (int i = 0; i < jobs; i++) {
+            commits.add(commit("job.txt", "job " + i));
+        }
+
+        for (int round = 0; round < 2; round++) {
+            ExecutorService pool = Executors.newFixedThreadPool(jobs);
+            CountDownLatch start = new CountDownLatch(1);
+            CountDownLatch checkedOut = new CountDownLatch(jobs);
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < jobs; i++) {
+                int job = i;
+                futures.add(pool.submit(() -> {
+                    start.await();
+                    try (MirrorCache.Workspace workspace = cache.checkout(remoteUrl, "main",
+                            commits.get(job).name())) {
+                        Path output = workspace.dir().resolve("target/output.txt");
+                        assertFalse(Files.exists(output), "Output of another job in job " + job);
+                        Files.createDirectories(output.getParent());
+                        Files.writeString(output, "job " + job);
+                        // All jobs hold their workspace at the same time
+                        checkedOut.countDown();
+                        assertTrue(checkedOut.await(5, TimeUnit.MINUTES));
+                        assertEquals("job " + job, Files.readString(workspace.dir().resolve("job.txt")));
+                        assertEquals("job " + job, Files.readString(output));
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get(5, TimeUnit.MINUTES);
+            }
+            pool.shutdown();
+        }
+        assertEquals(8, cache.reused());
+        assertEquals(8, cache.idle());
+        try (Stream<Path> worktrees = Files.list(cacheDir.resolve("worktrees"))) {
+            assertEquals(8, worktrees.count(), "Worktrees were left behind");
+        }
+    }
+
+    @Test
+    void evictsMirrorsThatAreNotInUse() throws IOException, GitAPIException {
+        MirrorCache cache = new MirrorCache(tempDir.resolve("cache"), 0);
+        commit("a.txt", "first");
+
+        MirrorCache.Workspace worktree = cache.checkout(remoteUrl, "main", null);
+        Path mirrors = tempDir.resolve("cache").resolve("mirrors");
+        assertEquals(1, Files.list(mirrors).count(), "A mirror in use must not be evicted");
+
+        worktree.close();
+        cache.evict();
+        assertEquals(0, Files.list(mirrors).count());
+    }
+
+    /**
+     * Compares a cold checkout, which fetches the whole history, with a warm
+     * checkout, which only fetches the new commit, into a pooled worktree and
+     * into a new one.
+     */
+    @Test
+    void comparesColdAndWarmCheckoutLatency() throws IOException, GitAPIException {
+        for (int i = 0; i < 200; i++) {
+            commit("file" + (i % 20) + ".txt", "content " + i + "\n".repeat(i));
+        }
+        Path cacheDir = tempDir.resolve("cache");
+        MirrorCache cache = new MirrorCache(cacheDir, cacheDir.resolve("worktrees"), Long.MAX_VALUE, 1);
+
+        long start = System.nanoTime();
+        cache.checkout(remoteUrl, "main", null).close();
+        long coldMillis = (System.nanoTime() - start) / 1_000_000;
+
+        RevCommit head = commit("new.txt", "new");
+        start = System.nanoTime();
+        cache.checkout(remoteUrl, "main", head.name()).close();
+        long warmMillis = (System.nanoTime() - start) / 1_000_000;
+
+        // Without anything to fetch
+        start = System.nanoTime();
+        MirrorCache.Workspace worktree = cache.checkout(remoteUrl, "main", head.name());
+        long pooledMillis = (System.nanoTime() - start) / 1_000_000;
+        start = System.nanoTime();
+        MirrorCache.Workspace fresh = cache.checkout(remoteUrl, "main", head.name());
+        long freshMillis = (System.nanoTime() - start) / 1_000_000;
+
+        System.out.println("Cold checkout: " + coldMillis + " ms, warm checkout: " + warmMillis
+                + " ms, into a pooled worktree: " + pooledMillis + " ms, into a new one: " + freshMillis + " ms");
+        assertTrue(worktree.reused());
+        assertTrue(Files.exists(worktree.dir().resolve("new.txt")));
+        assertTrue(Files.exists(fresh.dir().resolve("new.txt")));
+        worktree.close();
+        fresh.close();
+    }
+
+    /**
+     * Checks out the newest commit of a large repository, with 300 commits of
+     * binary assets next to a small Maven project, with each strategy into an
+     * empty cache, and compiles the project. Prints the bytes that the mirror
+     * received and the time from the start of the checkout until the project
+     * is compiled. Only runs with {@code mvn test -Dbenchmark=true}.
+     */
+    @Test
+    @EnabledIfSystemProperty(named = "benchmark", matches = "true")
+    void benchmarkCheckoutStrategies() throws IOException, GitAPIException {
+        allowPartialFetches();
+        JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+        Assumptions.assumeTrue(javac != null, "No system Java compiler");
+        Random random = new Random(16);
+        byte[] asset = new byte[256 * 1024];
+        for (int i = 0; i < 100; i++) {
+            commit("app/src/App" + i + ".java", "class App" + i + " { int value = " + i + "; }");
+        }
+        commit("app/pom.xml", "<project/>");
+        RevCommit head = null;
+        for (int i = 0; i < 300; i++) {
+            random.nextBytes(asset);
+            Path file = remoteDir.resolve("assets/dir" + (i % 30) + "/asset" + (i % 60) + ".bin");
+            Files.createDirectories(file.getParent());
+            Files.write(file, asset);
+            remote.add().addFilepattern("assets").call();
+            head = remote.commit().setMessage("Update assets " + i).setSign(false).call();
+        }
+
+        Map<String, CheckoutStrategy> strategies = new LinkedHashMap<>();
+        strategies.put("full", CheckoutStrategy.FULL);
+        strategies.put("shallow", new CheckoutStrategy(true, null, null));
+        strategies.put("shallow, sparse", new CheckoutStrategy(true, List.of(), null));
+        strategies.put("shallow, sparse, blob:none", new CheckoutStrategy(true, List.of(), "blob:none"));
+        for (Map.Entry<String, CheckoutStrategy> strategy : strategies.entrySet()) {
+            Path cacheDir = tempDir.resolve("cache-" + strategy.getKey().replaceAll("\\W+", "-"));
+            MirrorCache cache = new MirrorCache(cacheDir, Long.MAX_VALUE);
+            long start = System.nanoTime();
+            try (MirrorCache.Workspace workspace = cache.checkout(remoteUrl, "main", head.name(),
+                    strategy.getValue())) {
+                long checkoutMillis = (System.nanoTime() - start) / 1_000_000;
+                List<String> args = new ArrayList<>(List.of("-d", workspace.dir().resolve("app/target").toString()));
+                try (Stream<Path> sources = Files.list(workspace.dir().resolve("app/src"))) {
+                    sources.forEach(source -> args.add(source.toString()));
+                }
+                assertEquals(0, javac.run(null, null, null, args.toArray(String[]::new)));
+                long compiledMillis = (System.nanoTime() - start) / 1_000_000;
+                System.out.printf("%-28s received %,12d bytes, checkout %,6d ms, first compile after %,6d ms%n",
+                        strategy.getKey() + ":", size(cacheDir.resolve("mirrors")), checkoutMillis, compiledMillis);
+            }
+            FileUtils.delete(cacheDir.toFile(), FileUtils.RECURSIVE);
+        }
+    }
+
+    // The total size of the files in a directory
+    private static long size(Path dir) throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            return files.filter(Files::isRegularFile).mapToLong(file -> file.toFile().length()).sum();
+        }
+    }
+}
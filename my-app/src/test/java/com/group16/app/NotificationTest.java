@@ -12,7 +12,6 @@ import org.json.JSONObject;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
-import io.github.cdimascio.dotenv.Dotenv;
 
 /**
  * Unit test for the Notification class.
@@ -26,8 +25,7 @@ public class NotificationTest {
     private static final String repo = "continuous-integration";
     private static final String owner = "DD2480-group16-VT25";
     private static final String requestURL = "https://api.github.com/repos/DD2480-group16-VT25/continuous-integration/statuses/6a665d3a0189fa86980d2512b718f7b63fa6b3b0";
-    private static final Dotenv dotenv = Dotenv.load();
-    private static final String GITHUB_PAT = dotenv.get("GITHUB_PAT");
+    private static final String GITHUB_PAT = Config.get("GITHUB_PAT", null);
     private static final String url = String.format("https://api.github.com/repos/%s/%s/statuses/%s", owner, repo,
             commitSha);
 
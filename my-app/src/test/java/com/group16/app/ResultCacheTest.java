@@ -0,0 +1,117 @@
+package com.group16.app;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+
+import org.eclipse.jgit.api.Git;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Unit tests for the {@link ResultCache} class.
+ */
+public class ResultCacheTest {
+    private static final List<String> GOALS = List.of("clean", "test");
+    private static final BuildResult PASSED = new BuildResult(0, true, true, 12, 0, 1, false);
+
+    @TempDir
+    Path tempDir;
+
+    // Commits a file and returns the cache key of the my-app project
+    private String commit(Git git, ResultCache cache, String file, String content) throws Exception {
+        Path path = tempDir.resolve("checkout").resolve(file);
+        Files.createDirectories(path.getParent());
+        Files.writeString(path, content);
+        git.add().addFilepattern(".").call();
+        git.commit().setMessage("Change " + file).setSign(false).call();
+        return cache.key(tempDir.resolve("checkout"), tempDir.resolve("checkout/my-app"), GOALS);
+    }
+
+    @Test
+    void keyDependsOnProjectTreeAndGoals() throws Exception {
+        ResultCache cache = new ResultCache(tempDir.resolve("results"), true, 100, Long.MAX_VALUE);
+        try (Git git = Git.init().setDirectory(tempDir.resolve("checkout").toFile()).call()) {
+            String first = commit(git, cache, "my-app/pom.xml", "<project/>");
+            assertNotNull(first);
+
+            // Changes outside the project do not change the key
+            assertEquals(first, commit(git, cache, "README.md", "readme"));
+            // Neither does a new commit of the same tree, e.g. after a revert
+            String changed = commit(git, cache, "my-app/pom.xml", "<project></project>");
+            assertNotEquals(first, changed);
+            assertEquals(first, commit(git, cache, "my-app/pom.xml", "<project/>"));
+
+            assertNotEquals(first, cache.key(tempDir.resolve("checkout"), tempDir.resolve("checkout/my-app"),
+                    List.of("clean", "verify")));
+        }
+    }
+
+    @Test
+    void reusesStoredResults() {
+        ResultCache cache = new ResultCache(tempDir.resolve("results"), true, 100, Long.MAX_VALUE);
+        assertNull(cache.get("key", false));
+
+        cache.put("key", PASSED, "job-1");
+        ResultCache.Hit hit = cache.get("key", false);
+        assertEquals(PASSED, hit.result());
+        assertEquals("job-1", hit.jobId());
+
+        // A forced rebuild skips the cache
+        assertNull(cache.get("key", true));
+        assertTrue(cache.stats().contains("hits 1\n"));
+        assertTrue(cache.stats().contains("misses 1\n"));
+        assertTrue(cache.stats().contains("forced_rebuilds 1\n"));
+        assertTrue(cache.stats().contains("hit_rate 0.500\n"));
+    }
+
+    @Test
+    void onlyStoresVerdictsOnTheTree() {
+        ResultCache cache = new ResultCache(tempDir.resolve("results"), true, 100, Long.MAX_VALUE);
+        cache.put("error", BuildResult.error(), "job-1");
+        assertNull(cache.get("error", false));
+        // Maven failed before the compiler, e.g. on a download
+        cache.put("resolution", new BuildResult(1, false, false, 0, 0, 0, false), "job-2");
+        assertNull(cache.get("resolution", false));
+
+        BuildResult compileErrors = new BuildResult(1, false, false, 0, 0, 0, true);
+        cache.put("compile", compileErrors, "job-3");
+        assertEquals(compileErrors, cache.get("compile", false).result());
+        BuildResult testFailures = new BuildResult(1, true, false, 12, 2, 0, false);
+        cache.put("tests", testFailures, "job-4");
+        assertEquals(testFailures, cache.get("tests", false).result());
+    }
+
+    @Test
+    void doesNothingWhenDisabled() {
+        ResultCache cache = new ResultCache(tempDir.resolve("results"), false, 100, Long.MAX_VALUE);
+        cache.put("key", PASSED, "job-1");
+        assertNull(cache.get("key", false));
+    }
+
+    @Test
+    void evictsLeastRecentlyUsedAndExpiredEntries() throws Exception {
+        ResultCache cache = new ResultCache(tempDir.resolve("results"), true, 2, 60_000);
+        cache.put("old", PASSED, "job-1");
+        Files.setLastModifiedTime(tempDir.resolve("results/old"),
+                FileTime.fromMillis(System.currentTimeMillis() - 120_000));
+        assertNull(cache.get("old", false));
+
+        // The first put listed the cache, the next ones wait a minute
+        cache.put("a", PASSED, "job-2");
+        assertTrue(Files.exists(tempDir.resolve("results/old")));
+        Files.setLastModifiedTime(tempDir.resolve("results/a"),
+                FileTime.fromMillis(System.currentTimeMillis() - 1000));
+        cache.put("b", PASSED, "job-3");
+        cache.put("c", PASSED, "job-4");
+        cache.evict();
+
+        assertFalse(Files.exists(tempDir.resolve("results/old")));
+        assertNull(cache.get("a", false));
+        assertNotNull(cache.get("b", false));
+        assertNotNull(cache.get("c", false));
+    }
+}
@@ -50,9 +50,6 @@ public class RunTestsTest {
         response = mock(HttpServletResponse.class);
         responseWriter = new StringWriter();
         when(response.getWriter()).thenReturn(new PrintWriter(responseWriter));
-
-        // Set the Compiler temp directory to this test tempDir
-        Compiler.tempDir = tempDir;
     }
 
     /**
@@ -79,7 +76,7 @@ public class RunTestsTest {
     void testRunTests_Failure() {
         RunTests runTests = new RunTests();
 
-        boolean result = runTests.runTests(response);
+        boolean result = runTests.runTests(response, tempDir);
 
         assertFalse(result, "Tests should fail if Maven test execution fails");
     }
@@ -94,7 +91,7 @@ public class RunTestsTest {
 
         RunTests runTests = spy(new RunTests());
 
-        boolean result = runTests.runTests(response);
+        boolean result = runTests.runTests(response, tempDir);
 
         assertFalse(result, "Tests should fail if cloned directory is missing");
     }
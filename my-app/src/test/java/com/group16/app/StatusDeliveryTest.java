@@ -0,0 +1,164 @@
+package com.group16.app;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.net.http.HttpClient;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.json.JSONObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Unit tests for the {@link StatusDelivery} class, against a local stub of the
+ * GitHub statuses API.
+ */
+public class StatusDeliveryTest {
+    private Server server;
+    private String apiUrl;
+    private final HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_2).build();
+
+    // The statuses the stub received, as sha:state
+    private final List<String> received = Collections.synchronizedList(new ArrayList<>());
+    // Answers a request with a status code, given the number of the request
+    private volatile Responder responder = (n, response) -> 201;
+
+    private interface Responder {
+        int respond(int n, HttpServletResponse response) throws Exception;
+    }
+
+    @BeforeEach
+    void startStub() throws Exception {
+        AtomicInteger requests = new AtomicInteger();
+        server = new Server(0);
+        server.setHandler(new AbstractHandler() {
+            @Override
+            public void handle(String target, Request baseRequest, HttpServletRequest request,
+                    HttpServletResponse response) throws IOException {
+                baseRequest.setHandled(true);
+                String sha = target.substring(target.lastIndexOf('/') + 1);
+                JSONObject body = new JSONObject(new String(request.getInputStream().readAllBytes()));
+                received.add(sha + ":" + body.getString("state"));
+                try {
+                    response.setStatus(responder.respond(requests.getAndIncrement(), response));
+                } catch (Exception e) {
+                    response.setStatus(500);
+                }
+            }
+        });
+        server.start();
+        apiUrl = "http://localhost:" + ((ServerConnector) server.getConnectors()[0]).getLocalPort();
+    }
+
+    @AfterEach
+    void stopStub() throws Exception {
+        server.stop();
+    }
+
+    private static String body(Status status) {
+        return Notification.body(status, "http://ci/logs/1", null);
+    }
+
+    @Test
+    void deliversStatusesConcurrently() throws Exception {
+        responder = (n, response) -> {
+            Thread.sleep(5);
+            return 201;
+        };
+        StatusDelivery delivery = new StatusDelivery(client, apiUrl, "token", 8, 10, 3);
+        int count = 200;
+        long start = System.nanoTime();
+        List<CompletableFuture<Integer>> results = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            results.add(delivery.submit("owner", "repo", "sha" + i, "ci", body(Status.SUCCESS)));
+        }
+        CompletableFuture.allOf(results.toArray(CompletableFuture[]::new)).get(30, TimeUnit.SECONDS);
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        assertEquals(count, received.size());
+        assertTrue(delivery.stats().contains("delivered " + count + "\n"));
+        // Sequentially, 200 requests of 5 ms take at least a second
+        System.out.printf("Delivered %d statuses in %.3f s, %.0f per second%n", count, seconds, count / seconds);
+    }
+
+    @Test
+    void replacesStatusesThatWereNotSent() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        responder = (n, response) -> {
+            if (n == 0) {
+                release.await();
+            }
+            return 201;
+        };
+        StatusDelivery delivery = new StatusDelivery(client, apiUrl, "token", 1, 10, 3);
+        CompletableFuture<Integer> first = delivery.submit("owner", "repo", "a", "ci", body(Status.PENDING));
+        while (received.isEmpty()) {
+            Thread.sleep(1);
+        }
+        // While a:pending is in flight, the statuses of b collapse, and
+        // a:success waits for a:pending
+        CompletableFuture<Integer> pending = delivery.submit("owner", "repo", "b", "ci", body(Status.PENDING));
+        CompletableFuture<Integer> success = delivery.submit("owner", "repo", "b", "ci", body(Status.SUCCESS));
+        CompletableFuture<Integer> last = delivery.submit("owner", "repo", "a", "ci", body(Status.SUCCESS));
+        release.countDown();
+
+        CompletableFuture.allOf(first, pending, success, last).get(10, TimeUnit.SECONDS);
+        assertEquals(List.of("a:pending", "b:success", "a:success"), received);
+        assertEquals(201, pending.get());
+        assertTrue(delivery.stats().contains("collapsed 1\n"));
+    }
+
+    @Test
+    void retriesServerErrors() throws Exception {
+        responder = (n, response) -> n < 2 ? 502 : 201;
+        StatusDelivery delivery = new StatusDelivery(client, apiUrl, "token", 8, 10, 3);
+        CompletableFuture<Integer> result = delivery.submit("owner", "repo", "a", "ci", body(Status.SUCCESS));
+        assertEquals(201, result.get(10, TimeUnit.SECONDS));
+        assertEquals(3, received.size());
+        assertTrue(delivery.stats().contains("retried 2\n"));
+    }
+
+    @Test
+    void pausesWhenRateLimited() throws Exception {
+        responder = (n, response) -> {
+            if (n == 0) {
+                response.setHeader("X-RateLimit-Remaining", "0");
+                response.setHeader("Retry-After", "1");
+                return 403;
+            }
+            return 201;
+        };
+        StatusDelivery delivery = new StatusDelivery(client, apiUrl, "token", 8, 10, 3);
+        long start = System.currentTimeMillis();
+        CompletableFuture<Integer> result = delivery.submit("owner", "repo", "a", "ci", body(Status.SUCCESS));
+        assertEquals(201, result.get(10, TimeUnit.SECONDS));
+        assertTrue(System.currentTimeMillis() - start >= 1000);
+        assertTrue(delivery.stats().contains("rate_limited 1\n"));
+    }
+
+    @Test
+    void givesUpOnClientErrors() throws Exception {
+        responder = (n, response) -> 422;
+        StatusDelivery delivery = new StatusDelivery(client, apiUrl, "token", 8, 10, 3);
+        CompletableFuture<Integer> result = delivery.submit("owner", "repo", "a", "ci", body(Status.SUCCESS));
+        assertThrows(ExecutionException.class, () -> result.get(10, TimeUnit.SECONDS));
+        assertEquals(1, received.size());
+        assertTrue(delivery.stats().contains("failed 1\n"));
+    }
+}
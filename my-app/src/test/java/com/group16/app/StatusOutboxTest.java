@@ -0,0 +1,131 @@
+package com.group16.app;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+
+/**
+ * Unit tests for the {@link StatusOutbox} class, with a mocked
+ * {@link StatusDelivery}.
+ */
+public class StatusOutboxTest {
+
+    @TempDir
+    Path tempDir;
+
+    private Path file() {
+        return tempDir.resolve("outbox/statuses.log");
+    }
+
+    // A delivery that never completes, as if GitHub could not be reached
+    private static StatusDelivery stuckDelivery() {
+        StatusDelivery delivery = mock(StatusDelivery.class);
+        when(delivery.submit(any(), any(), any(), any(), any())).thenReturn(new CompletableFuture<>());
+        return delivery;
+    }
+
+    private static StatusDelivery workingDelivery() {
+        StatusDelivery delivery = mock(StatusDelivery.class);
+        when(delivery.submit(any(), any(), any(), any(), any())).thenReturn(CompletableFuture.completedFuture(201));
+        return delivery;
+    }
+
+    private static String body(Status status) {
+        return Notification.body(status, "http://ci/logs/1", null);
+    }
+
+    @Test
+    void deliversUndeliveredStatusesAfterRestart() throws Exception {
+        StatusDelivery first = stuckDelivery();
+        try (StatusOutbox outbox = new StatusOutbox(file(), first)) {
+            outbox.submit("owner", "repo", "a", "ci", "success", body(Status.SUCCESS));
+            outbox.submit("owner", "repo", "b", "ci", "failure", body(Status.FAILURE));
+            // Statuses are handed to the delivery once they are on disk
+            verify(first, timeout(5000).times(2)).submit(any(), any(), any(), any(), any());
+        }
+
+        StatusDelivery second = workingDelivery();
+        try (StatusOutbox outbox = new StatusOutbox(file(), second)) {
+            verify(second).submit("owner", "repo", "a", "ci", body(Status.SUCCESS));
+            verify(second).submit("owner", "repo", "b", "ci", body(Status.FAILURE));
+            assertTrue(outbox.stats().contains("outbox_replayed 2\n"));
+        }
+
+        // Both were delivered, so a third start has nothing to do
+        StatusDelivery third = workingDelivery();
+        try (StatusOutbox outbox = new StatusOutbox(file(), third)) {
+            verifyNoInteractions(third);
+        }
+    }
+
+    @Test
+    void reportsBuildsInterruptedByRestart() throws Exception {
+        try (StatusOutbox outbox = new StatusOutbox(file(), workingDelivery())) {
+            assertEquals(201, outbox.submit("owner", "repo", "a", "ci", "pending", body(Status.PENDING))
+                    .get(5, TimeUnit.SECONDS));
+            outbox.submit("owner", "repo", "b", "ci", "pending", body(Status.PENDING)).get(5, TimeUnit.SECONDS);
+            outbox.submit("owner", "repo", "b", "ci", "success", body(Status.SUCCESS)).get(5, TimeUnit.SECONDS);
+        }
+
+        StatusDelivery delivery = workingDelivery();
+        try (StatusOutbox outbox = new StatusOutbox(file(), delivery)) {
+            ArgumentCaptor<String> body = ArgumentCaptor.forClass(String.class);
+            verify(delivery).submit(eq("owner"), eq("repo"), eq("a"), eq("ci"), body.capture());
+            assertTrue(body.getValue().contains("\"state\":\"error\""));
+            assertTrue(body.getValue().contains("interrupted"));
+            verifyNoMoreInteractions(delivery);
+        }
+    }
+
+    @Test
+    void deduplicatesRepeatedStatuses() throws Exception {
+        StatusDelivery delivery = stuckDelivery();
+        try (StatusOutbox outbox = new StatusOutbox(file(), delivery)) {
+            CompletableFuture<Integer> first = outbox.submit("owner", "repo", "a", "ci", "error", body(Status.ERROR));
+            assertSame(first, outbox.submit("owner", "repo", "a", "ci", "error", body(Status.ERROR)));
+            assertNotSame(first, outbox.submit("owner", "repo", "a", "other", "error", body(Status.ERROR)));
+            verify(delivery, timeout(5000).times(2)).submit(any(), any(), any(), any(), any());
+            assertTrue(outbox.stats().contains("outbox_deduplicated 1\n"));
+        }
+    }
+
+    @Test
+    void syncsStatusesInGroups() throws Exception {
+        StatusDelivery delivery = stuckDelivery();
+        try (StatusOutbox outbox = new StatusOutbox(file(), delivery)) {
+            // The writer cannot take the lines while the outbox is locked, so
+            // they are all written in one batch
+            synchronized (outbox) {
+                for (int i = 0; i < 100; i++) {
+                    outbox.submit("owner", "repo", "sha" + i, "ci", "success", body(Status.SUCCESS));
+                }
+            }
+            verify(delivery, timeout(5000).times(100)).submit(any(), any(), any(), any(), any());
+            assertTrue(outbox.stats().contains("outbox_syncs 1\n"));
+        }
+        assertEquals(100, Files.readAllLines(file()).size());
+    }
+
+    @Test
+    void ignoresIncompleteLastLine() throws Exception {
+        try (StatusOutbox outbox = new StatusOutbox(file(), stuckDelivery())) {
+            outbox.submit("owner", "repo", "a", "ci", "success", body(Status.SUCCESS));
+        }
+        Files.writeString(file(), Files.readString(file()) + "S\t7\towner\trepo\tb\tci\tsucc");
+
+        StatusDelivery delivery = workingDelivery();
+        try (StatusOutbox outbox = new StatusOutbox(file(), delivery)) {
+            verify(delivery).submit(eq("owner"), eq("repo"), eq("a"), eq("ci"), any());
+            verifyNoMoreInteractions(delivery);
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.group16.app;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Unit tests for the {@link SurefireReports} class.
+ */
+public class SurefireReportsTest {
+    static final String REPORT = """
+            <?xml version="1.0" encoding="UTF-8"?>
+            <testsuite name="x.ATest" time="1.5" tests="4" errors="1" skipped="1" failures="1">
+              <properties><property name="java.version" value="17"/></properties>
+              <testcase name="passes" classname="x.ATest" time="1,250.5">
+                <system-out><![CDATA[lots of output]]></system-out>
+              </testcase>
+              <testcase name="fails" classname="x.ATest" time="0.02">
+                <failure message="expected: &lt;1&gt; but was: &lt;2&gt;&#10;second line" type="AssertionError">
+                  stack trace
+                </failure>
+              </testcase>
+              <testcase name="throws" classname="x.ATest" time="0.001">
+                <error type="java.lang.IllegalStateException"/>
+              </testcase>
+              <testcase name="skipped" classname="x.ATest" time="0">
+                <skipped message="disabled"/>
+              </testcase>
+              <testcase name="retried" classname="x.ATest" time="0.3">
+                <flakyFailure message="timeout" type="AssertionError"/>
+              </testcase>
+            </testsuite>
+            """;
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void readsEveryTestCase() throws Exception {
+        List<SurefireReports.TestCase> tests = new ArrayList<>();
+        int count = SurefireReports.parse(new ByteArrayInputStream(REPORT.getBytes(StandardCharsets.UTF_8)),
+                tests::add);
+        assertEquals(5, count);
+
+        SurefireReports.TestCase passes = tests.get(0);
+        assertEquals("x.ATest#passes", passes.id());
+        assertEquals("ATest.passes", passes.shortName());
+        assertEquals(1_250_500, passes.millis());
+        assertEquals(SurefireReports.Outcome.PASSED, passes.outcome());
+
+        assertEquals(SurefireReports.Outcome.FAILED, tests.get(1).outcome());
+        assertEquals("expected: <1> but was: <2>", tests.get(1).message());
+        assertEquals(SurefireReports.Outcome.ERROR, tests.get(2).outcome());
+        assertEquals("java.lang.IllegalStateException", tests.get(2).message());
+        assertEquals(SurefireReports.Outcome.SKIPPED, tests.get(3).outcome());
+
+        SurefireReports.TestCase retried = tests.get(4);
+        assertTrue(retried.flaky());
+        assertFalse(retried.failed());
+    }
+
+    @Test
+    void findsTheReportsOfEveryModule() throws Exception {
+        for (String module : List.of("a", "b")) {
+            Path reports = Files.createDirectories(tempDir.resolve(module).resolve("target/surefire-reports"));
+            Files.writeString(reports.resolve("TEST-x.ATest.xml"), REPORT);
+            Files.writeString(reports.resolve("x.ATest.txt"), "not a report");
+        }
+        Files.writeString(tempDir.resolve("b/target/surefire-reports/TEST-broken.xml"), "<testsuite><testcase");
+        assertEquals(10, SurefireReports.parse(tempDir, test -> { }));
+    }
+}
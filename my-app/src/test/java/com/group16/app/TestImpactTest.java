@@ -0,0 +1,127 @@
+package com.group16.app;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Unit tests for the {@link TestImpact} class, on a small project where
+ * {@code B} uses {@code A}, and each class has a test.
+ */
+public class TestImpactTest {
+
+    @TempDir
+    Path tempDir;
+
+    private Path checkout;
+    private Path project;
+    private Git git;
+    private BuildHistory history;
+
+    private void write(String file, String content) throws Exception {
+        Path path = project.resolve(file);
+        Files.createDirectories(path.getParent());
+        Files.writeString(path, content);
+    }
+
+    private RevCommit commit() throws Exception {
+        git.add().addFilepattern(".").setUpdate(false).call();
+        git.add().addFilepattern(".").setUpdate(true).call();
+        return git.commit().setMessage("Change").setSign(false).call();
+    }
+
+    private void recordBuild(String sha, Status status, boolean allTests) throws Exception {
+        int n = history.size();
+        history.append(new BuildRecord("job-" + n, "a/x", "refs/heads/main", sha, status, null, 0, 1, 2, 0,
+                60_000, null, 30, allTests, 0, 0, 1, -1));
+    }
+
+    private TestImpact.Selection select() {
+        return new TestImpact(true, 3).select(history, checkout, project, "a/x", "refs/heads/main", false);
+    }
+
+    @BeforeEach
+    void createProject() throws Exception {
+        checkout = tempDir.resolve("checkout");
+        project = checkout.resolve("my-app");
+        git = Git.init().setDirectory(checkout.toFile()).call();
+        history = new BuildHistory(tempDir.resolve("builds.tsv"));
+        write("pom.xml", "<project/>");
+        write("src/main/java/app/A.java", "package app; public class A { }");
+        write("src/main/java/app/B.java", "package app; public class B { A a = new A(); }");
+        write("src/main/java/app/C.java", "package app; public class C { }");
+        write("src/test/java/app/ATest.java", "package app; class ATest { A a; }");
+        write("src/test/java/app/BTest.java", "package app; class BTest { B b; }");
+        write("src/test/java/app/CTest.java", "package app; class CTest { Fixture f; }");
+        write("src/test/java/app/Fixture.java", "package app; class Fixture { C c; }");
+        recordBuild(commit().name(), Status.SUCCESS, true);
+    }
+
+    @AfterEach
+    void close() throws Exception {
+        git.close();
+        history.close();
+    }
+
+    @Test
+    void selectsTestsThatDependOnChangedClasses() throws Exception {
+        write("src/main/java/app/A.java", "package app; public class A { int x; }");
+        commit();
+
+        TestImpact.Selection selection = select();
+        assertEquals(Set.of("ATest", "BTest"), selection.tests());
+        assertEquals("ATest,BTest", selection.properties().getProperty("test"));
+        assertEquals(30, selection.lastFull().testsRun());
+    }
+
+    @Test
+    void followsTestHelpersAndDeletedClasses() throws Exception {
+        Files.delete(project.resolve("src/main/java/app/C.java"));
+        commit();
+        assertEquals(Set.of("CTest"), select().tests());
+    }
+
+    @Test
+    void skipsTestsWhenNothingInTheProjectChanged() throws Exception {
+        Files.writeString(checkout.resolve("README.md"), "readme");
+        commit();
+
+        TestImpact.Selection selection = select();
+        assertEquals(Set.of(), selection.tests());
+        assertEquals("true", selection.properties().getProperty("skipTests"));
+    }
+
+    @Test
+    void runsAllTestsWhenOtherProjectFilesChanged() throws Exception {
+        write("pom.xml", "<project></project>");
+        commit();
+        assertTrue(select().all());
+        assertTrue(select().properties().isEmpty());
+    }
+
+    @Test
+    void runsAllTestsPeriodicallyAndOnDemand() throws Exception {
+        write("src/main/java/app/C.java", "package app; public class C { int x; }");
+        String sha = commit().name();
+        assertFalse(select().all());
+        assertTrue(new TestImpact(true, 3).select(history, checkout, project, "a/x", "refs/heads/main", true).all());
+        assertTrue(new TestImpact(false, 3).select(history, checkout, project, "a/x", "refs/heads/main", false)
+                .all());
+
+        // The full run falls out of the window of the last 3 builds
+        recordBuild(sha, Status.SUCCESS, false);
+        recordBuild(sha, Status.FAILURE, false);
+        assertFalse(select().all());
+        recordBuild(sha, Status.SUCCESS, false);
+        assertTrue(select().all());
+    }
+}
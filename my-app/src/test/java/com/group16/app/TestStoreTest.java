@@ -0,0 +1,126 @@
+package com.group16.app;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Unit tests for the {@link TestStore} class.
+ */
+public class TestStoreTest {
+    private static final String REPO = "owner/repo";
+
+    @TempDir
+    Path tempDir;
+
+    private static SurefireReports.TestCase test(String name, long millis, SurefireReports.Outcome outcome) {
+        return new SurefireReports.TestCase("x.ATest", name, millis, outcome, false,
+                outcome == SurefireReports.Outcome.PASSED ? null : "boom");
+    }
+
+    private static void build(TestStore store, String tree, SurefireReports.TestCase... tests) throws Exception {
+        try (TestStore.Recorder recorder = store.record(REPO, tree)) {
+            for (SurefireReports.TestCase test : tests) {
+                recorder.accept(test);
+            }
+        }
+    }
+
+    @Test
+    void findsTheSlowestTests() throws Exception {
+        try (TestStore store = new TestStore(tempDir.resolve("tests.log"), 1024 * 1024)) {
+            build(store, "t1", test("fast", 10, SurefireReports.Outcome.PASSED),
+                    test("slow", 900, SurefireReports.Outcome.PASSED),
+                    test("medium", 100, SurefireReports.Outcome.PASSED));
+            build(store, "t2", test("slow", 100, SurefireReports.Outcome.PASSED));
+            List<TestStore.Stats> slowest = store.slowest(REPO, 2);
+            assertEquals(List.of("x.ATest#slow", "x.ATest#medium"), slowest.stream().map(TestStore.Stats::id).toList());
+            assertEquals(500, slowest.get(0).averageMillis());
+            assertTrue(store.slowest("other/repo", 10).isEmpty());
+        }
+    }
+
+    @Test
+    void findsTestsThatPassAndFailOnTheSameTree() throws Exception {
+        try (TestStore store = new TestStore(tempDir.resolve("tests.log"), 1024 * 1024)) {
+            build(store, "t1", test("flaky", 1, SurefireReports.Outcome.PASSED),
+                    test("broken", 1, SurefireReports.Outcome.FAILED));
+            build(store, "t2", test("flaky", 1, SurefireReports.Outcome.PASSED),
+                    test("broken", 1, SurefireReports.Outcome.PASSED));
+            assertTrue(store.flaky(REPO, 10).isEmpty());
+
+            try (TestStore.Recorder recorder = store.record(REPO, "t1")) {
+                recorder.accept(test("flaky", 1, SurefireReports.Outcome.FAILED));
+                recorder.accept(test("broken", 1, SurefireReports.Outcome.FAILED));
+                for (int i = 0; i < 3; i++) {
+                    recorder.accept(test("other" + i, 1, SurefireReports.Outcome.ERROR));
+                }
+                assertEquals("ATest.flaky, ATest.broken, ATest.other0 and 2 more", recorder.failureSummary());
+            }
+            assertEquals(List.of("x.ATest#flaky"), store.flaky(REPO, 10).stream().map(TestStore.Stats::id).toList());
+
+            // A test that surefire reran is flaky at once
+            build(store, "t3", new SurefireReports.TestCase("x.ATest", "retried", 1, SurefireReports.Outcome.PASSED,
+                    true, null));
+            assertEquals(2, store.flaky(REPO, 10).size());
+        }
+    }
+
+    @Test
+    void namesKnownFlakyTestsInTheSummary() throws Exception {
+        try (TestStore store = new TestStore(tempDir.resolve("tests.log"), 1024 * 1024)) {
+            build(store, "t1", test("flaky", 1, SurefireReports.Outcome.PASSED));
+            build(store, "t1", test("flaky", 1, SurefireReports.Outcome.FAILED));
+            try (TestStore.Recorder recorder = store.record(REPO, "t2")) {
+                recorder.accept(test("flaky", 1, SurefireReports.Outcome.FAILED));
+                assertEquals("ATest.flaky (flaky)", recorder.failureSummary());
+            }
+        }
+    }
+
+    @Test
+    void readsTheHistoryBackAndCompactsIt() throws Exception {
+        Path file = tempDir.resolve("tests.log");
+        try (TestStore store = new TestStore(file, 1024 * 1024)) {
+            for (int i = 0; i < 20; i++) {
+                build(store, "t" + (i % 3), test("flaky", 100 + i, i % 2 == 0 ? SurefireReports.Outcome.PASSED
+                        : SurefireReports.Outcome.FAILED), test("fast", 1, SurefireReports.Outcome.PASSED));
+            }
+        }
+        // A write that did not finish
+        Files.writeString(file, "T\tx.ATest#fa", StandardOpenOption.APPEND);
+        long size = Files.size(file);
+
+        String before;
+        try (TestStore store = new TestStore(file, 1024 * 1024)) {
+            assertEquals(List.of("x.ATest#flaky"), store.flaky(REPO, 10).stream().map(TestStore.Stats::id).toList());
+            before = store.slowest(REPO, 10).get(0).toJson().toString();
+        }
+        try (TestStore store = new TestStore(file, 0)) {
+            assertEquals(before, store.slowest(REPO, 10).get(0).toJson().toString());
+            assertEquals(2, store.slowest(REPO, 10).size());
+        }
+        assertTrue(Files.size(file) < size);
+        try (TestStore store = new TestStore(file, 1024 * 1024)) {
+            assertEquals(before, store.slowest(REPO, 10).get(0).toJson().toString());
+        }
+    }
+
+    @Test
+    void appendsAfterAnIncompleteLine() throws Exception {
+        Path file = tempDir.resolve("tests.log");
+        Files.writeString(file, "B\towner/repo\tt1\nT\tx.ATest#fa");
+        try (TestStore store = new TestStore(file, 1024 * 1024)) {
+            build(store, "t2", test("fast", 1, SurefireReports.Outcome.PASSED));
+        }
+        try (TestStore store = new TestStore(file, 1024 * 1024)) {
+            assertEquals(List.of("x.ATest#fast"), store.slowest(REPO, 10).stream().map(TestStore.Stats::id).toList());
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.group16.app;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+/**
+ * Unit tests for the {@link WebhookPayload} class, and a benchmark against
+ * org.json on a large push, which only runs with
+ * {@code mvn test -Dbenchmark=true}.
+ */
+public class WebhookPayloadTest {
+    /**
+     * A push payload in the order GitHub sends it, with the given number of
+     * commits.
+     */
+    static String payload(int commits, String message) {
+        StringBuilder json = new StringBuilder();
+        json.append("{\"ref\":\"refs/heads/main\",\"before\":\"").append("0".repeat(40))
+                .append("\",\"after\":\"").append("a".repeat(40)).append("\",\"repository\":{\"id\":1,")
+                .append("\"name\":\"continuous-integration\",\"full_name\":\"group16/continuous-integration\",")
+                .append("\"private\":false,\"owner\":{\"name\":\"group16\",\"email\":null,\"login\":\"group16\",")
+                .append("\"id\":2,\"site_admin\":false},\"description\":\"A \\\"CI\\\" server\",\"fork\":false,")
+                .append("\"clone_url\":\"https://github.com/group16/continuous-integration.git\",")
+                .append("\"topics\":[\"ci\",\"java\"],\"size\":1234,\"stargazers_count\":3},")
+                .append("\"pusher\":{\"name\":\"dev\",\"email\":\"dev@example.com\"},\"sender\":{\"login\":\"dev\"},")
+                .append("\"created\":false,\"deleted\":false,\"forced\":false,\"base_ref\":null,\"commits\":[");
+        String commit = "{\"id\":\"" + "b".repeat(40) + "\",\"tree_id\":\"" + "c".repeat(40) + "\",\"distinct\":true,"
+                + "\"message\":\"Fix the thing\\n\\nA longer explanation of the change that spans \\u00e5 line\","
+                + "\"timestamp\":\"2025-02-10T12:00:00+01:00\",\"url\":\"https://github.com/group16/x/commit/b\","
+                + "\"author\":{\"name\":\"Dev\",\"email\":\"dev@example.com\",\"username\":\"dev\"},"
+                + "\"added\":[\"src/main/java/A.java\"],\"removed\":[],"
+                + "\"modified\":[\"README.md\",\"src/main/java/B.java\",\"src/test/java/BTest.java\"]}";
+        for (int i = 0; i < commits; i++) {
+            json.append(i == 0 ? "" : ",").append(commit);
+        }
+        json.append("],\"head_commit\":{\"id\":\"").append("a".repeat(40)).append("\",\"message\":")
+                .append(JSONObject.quote(message)).append(",\"added\":[]}}");
+        return json.toString();
+    }
+
+    private static InputStream stream(String body) {
+        return new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void assertPush(WebhookPayload.Push push, String message) {
+        assertEquals("group16", push.owner());
+        assertEquals("continuous-integration", push.repo());
+        assertEquals("a".repeat(40), push.after());
+        assertEquals("https://github.com/group16/continuous-integration.git", push.cloneUrl());
+        assertEquals("refs/heads/main", push.ref());
+        assertEquals(message, push.headCommitMessage());
+    }
+
+    @Test
+    void readsJsonBodies() throws IOException {
+        String message = "Retry [ci rebuild] & more: 100% å";
+        assertPush(WebhookPayload.read(stream(payload(3, message)), "application/json; charset=utf-8"), message);
+    }
+
+    @Test
+    void readsFormEncodedBodies() throws IOException {
+        String message = "Retry [ci rebuild] & more: 100% å+";
+        String body = "other=x%26y&payloadx=1&flag&payload="
+                + URLEncoder.encode(payload(3, message), StandardCharsets.UTF_8) + "&after=1";
+        assertPush(WebhookPayload.read(stream(body), "application/x-www-form-urlencoded"), message);
+    }
+
+    @Test
+    void readsPushesWithoutAHeadCommit() throws IOException {
+        // A deleted branch has no head commit, and GitHub sends it last
+        String json = "{\"ref\":\"refs/heads/b\",\"after\":\"s\",\"repository\":{\"name\":\"r\","
+                + "\"owner\":{\"login\":\"o\"},\"clone_url\":\"u\"},\"commits\":[],\"head_commit\":null}";
+        WebhookPayload.Push push = WebhookPayload.parse(new StringReader(json));
+        assertEquals(new WebhookPayload.Push("o", "r", "s", "u", "refs/heads/b", null), push);
+        assertThrows(IllegalArgumentException.class,
+                () -> WebhookPayload.parse(new StringReader(json.substring(0, json.length() - 1))));
+    }
+
+    @Test
+    void rejectsIncompletePayloads() {
+        assertThrows(IllegalArgumentException.class,
+                () -> WebhookPayload.parse(new StringReader("{\"ref\":\"refs/heads/main\",\"after\":\"a\"}")));
+        assertThrows(IllegalArgumentException.class,
+                () -> WebhookPayload.parse(new StringReader("{\"ref\":\"refs/heads/main\",")));
+        assertThrows(IllegalArgumentException.class,
+                () -> WebhookPayload.parse(new StringReader("{\"repository\":[]}")));
+        assertThrows(IllegalArgumentException.class,
+                () -> WebhookPayload.read(stream("other=1"), "application/x-www-form-urlencoded"));
+        assertThrows(IllegalArgumentException.class, () -> WebhookPayload.read(stream(""), null));
+    }
+
+    /**
+     * Compares the streaming reader with the org.json DOM on a push of 500
+     * commits, about 240 KB.
+     */
+    @Test
+    @EnabledIfSystemProperty(named = "benchmark", matches = "true")
+    void benchmarkLargePush() throws IOException {
+        String json = payload(500, "Large push");
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        String form = "payload=" + URLEncoder.encode(json, StandardCharsets.UTF_8);
+        System.out.println("Payload: " + bytes.length / 1024 + " KB");
+        int iterations = 200;
+        for (int round = 0; round < 2; round++) {
+            // The first round warms up the JIT
+            long start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                JSONObject dom = new JSONObject(new String(bytes, StandardCharsets.UTF_8));
+                assertEquals("group16", dom.getJSONObject("repository").getJSONObject("owner").getString("login"));
+            }
+            long dom = (System.nanoTime() - start) / iterations;
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                assertEquals("group16", WebhookPayload.read(new ByteArrayInputStream(bytes), "application/json")
+                        .owner());
+            }
+            long streaming = (System.nanoTime() - start) / iterations;
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                assertEquals("group16", WebhookPayload.read(stream(form), "application/x-www-form-urlencoded")
+                        .owner());
+            }
+            long streamingForm = (System.nanoTime() - start) / iterations;
+            if (round == 1) {
+                System.out.println("org.json DOM: " + dom / 1000 + " us per payload");
+                System.out.println("Streaming JSON: " + streaming / 1000 + " us per payload");
+                System.out.println("Streaming form: " + streamingForm / 1000 + " us per payload");
+            }
+        }
+    }
+}